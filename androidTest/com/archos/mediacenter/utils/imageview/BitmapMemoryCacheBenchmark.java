@@ -0,0 +1,129 @@
+// Copyright 2017 Archos SA
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.archos.mediacenter.utils.imageview;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Microbenchmark of {@link BitmapMemoryCache} under the access pattern of a scrolling
+ * grid: several threads doing mostly hits with some puts. Results go to logcat
+ * (tag BitmapMemoryCacheBenchmark), compare them against the previous build on the same device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BitmapMemoryCacheBenchmark {
+    private static final String TAG = "BitmapMemoryCacheBenchmark";
+
+    private static final int CACHE_BYTES = 16 * BitmapLruCache.MEGABYTE;
+    private static final int KEYS = 256;
+    private static final int OPS_PER_THREAD = 200000;
+    /** one put every PUT_EVERY operations, the others are gets */
+    private static final int PUT_EVERY = 10;
+
+    @Test
+    public void concurrentGetPut() throws InterruptedException {
+        final BitmapMemoryCache cache = new BitmapMemoryCache(CACHE_BYTES);
+        // 64 KB each, 256 of them are the same as the cache size so the hit ratio stays realistic
+        final Bitmap[] bitmaps = new Bitmap[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            bitmaps[i] = Bitmap.createBitmap(128, 128, Bitmap.Config.ARGB_8888);
+            cache.put(key(i), bitmaps[i]);
+        }
+        for (int threads = 1; threads <= 8; threads *= 2) {
+            long nanos = run(cache, bitmaps, threads);
+            long ops = (long) threads * OPS_PER_THREAD;
+            Log.i(TAG, threads + " threads: " + (nanos / ops) + " ns/op, "
+                    + (ops * 1000000000L / nanos) + " ops/s");
+        }
+        assertTrue(cache.size() <= CACHE_BYTES);
+    }
+
+    @Test
+    public void bitmapLargerThanAStripeIsKept() {
+        BitmapMemoryCache cache = new BitmapMemoryCache(CACHE_BYTES);
+        for (int i = 0; i < KEYS; i++) {
+            cache.put(key(i), Bitmap.createBitmap(128, 128, Bitmap.Config.ARGB_8888));
+        }
+        // 12 MB, bigger than the 2 MB share of a stripe but within the budget
+        Bitmap large = Bitmap.createBitmap(1536, 2048, Bitmap.Config.ARGB_8888);
+        cache.put("large", large);
+        assertSame(large, cache.get("large"));
+        assertTrue(cache.size() <= CACHE_BYTES);
+    }
+
+    @Test
+    public void recycledBitmapKeepsItsSize() {
+        BitmapMemoryCache cache = new BitmapMemoryCache(CACHE_BYTES);
+        Bitmap bitmap = Bitmap.createBitmap(128, 128, Bitmap.Config.ARGB_8888);
+        cache.put("a", bitmap);
+        bitmap.recycle();
+        // the recycled Bitmap is dropped on access and its bytes are given back
+        cache.get("a");
+        assertEquals(0, cache.size());
+    }
+
+    private static long run(final BitmapMemoryCache cache, final Bitmap[] bitmaps, int threads)
+            throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicLong sink = new AtomicLong();
+        for (int t = 0; t < threads; t++) {
+            final int seed = t * 7919;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long found = 0;
+                    for (int i = 0; i < OPS_PER_THREAD; i++) {
+                        int k = (seed + i * 31) % KEYS;
+                        if (i % PUT_EVERY == 0) {
+                            cache.put(key(k), bitmaps[k]);
+                        } else if (cache.get(key(k)) != null) {
+                            found++;
+                        }
+                    }
+                    sink.addAndGet(found);
+                    done.countDown();
+                }
+            }).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long nanos = System.nanoTime() - begin;
+        Log.d(TAG, "hits " + sink.get());
+        return nanos;
+    }
+
+    private static String key(int i) {
+        return "content://media/external/video/media/" + i;
+    }
+}
@@ -0,0 +1,238 @@
+// Copyright 2017 Archos SA
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.archos.mediaprovider;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.provider.BaseColumns;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.archos.mediaprovider.video.VideoOpenHelper;
+import com.archos.mediaprovider.video.VideoProvider;
+import com.archos.mediaprovider.video.VideoStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * UI query latency while a MediaStore import of {@link #FILES} files runs through
+ * {@link VideoProvider}: the import sends {@link UpsertBatch}es of {@link #IMPORT_BATCH} rows
+ * into files_import like VideoStoreImportImpl does, the UI side lists the video view with
+ * {@link VideoProvider#query}, i.e. on {@link DbHolder#getReadable()}. The same import is run
+ * a second time with the list queries on the writable database for comparison. Results go to
+ * logcat (tag DbHolderBenchmark) as p50 / p99 / max per mode.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DbHolderBenchmark {
+    private static final String TAG = "DbHolderBenchmark";
+
+    private static final int FILES = 10000;
+    // what VideoStoreImportImpl.copyData uses
+    private static final int IMPORT_BATCH = 2000;
+    private static final int BUCKETS = 50;
+    // first rows of a list as the UI loads them
+    private static final String LIST_LIMIT = "100";
+    // far above the ids of MediaStore
+    private static final long FIRST_ID = 2000000000L;
+    private static final String ROOT = "/storage/emulated/0/DbHolderBenchmark/";
+
+    private static final Uri FILES_IMPORT = Uri.parse("content://" + VideoStore.AUTHORITY
+            + "/raw/" + VideoOpenHelper.FILES_IMPORT_TABLE_NAME);
+    private static final Uri VIDEO_LIST = VideoStore.Video.Media.EXTERNAL_CONTENT_URI.buildUpon()
+            .appendQueryParameter("limit", LIST_LIMIT).build();
+    private static final String[] PROJECTION = {
+            BaseColumns._ID, VideoStore.MediaColumns.DATA, VideoStore.MediaColumns.TITLE
+    };
+    private static final String SORT = VideoStore.MediaColumns.TITLE;
+
+    private Context mContext;
+    private VideoProvider mProvider;
+    private DbHolder mDbHolder;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mProvider = new VideoProvider();
+        ProviderInfo info = new ProviderInfo();
+        info.authority = VideoStore.AUTHORITY;
+        mProvider.attachInfo(mContext, info);
+        mDbHolder = VideoDb.getHolder(mContext);
+        deleteImported();
+    }
+
+    @After
+    public void tearDown() {
+        deleteImported();
+    }
+
+    @Test
+    public void listLatencyDuringImport() throws InterruptedException {
+        long[] idle = listWhile(null, true);
+        long[] readable = listWhile(0, true);
+        deleteImported();
+        long[] writable = listWhile(FILES, false);
+        Log.i(TAG, "idle, read-only db: " + summary(idle));
+        Log.i(TAG, "import of " + FILES + " files, read-only db: " + summary(readable));
+        Log.i(TAG, "import of " + FILES + " files, writable db: " + summary(writable));
+        Bundle stats = mProvider.call(VideoStore.METHOD_DB_STATS, null, null);
+        Log.i(TAG, "wal " + stats.getLong(VideoStore.DB_STATS_WAL_SIZE) / 1024 + "kB, peak reads "
+                + stats.getInt(VideoStore.DB_STATS_PEAK_READS) + ", checkpoints "
+                + stats.getLong(VideoStore.DB_STATS_CHECKPOINTS));
+        assertEquals(0, mDbHolder.getActiveReads());
+    }
+
+    @Test
+    public void readEndsWhenCursorIsClosed() {
+        mDbHolder.onReadStarted();
+        Cursor c = mDbHolder.trackRead(mDbHolder.getReadable().rawQuery("SELECT _id FROM files", null));
+        assertEquals(1, mDbHolder.getActiveReads());
+        c.close();
+        c.close();
+        assertEquals(0, mDbHolder.getActiveReads());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void heavyWriteInsideTransactionIsRejected() {
+        SQLiteDatabase db = mDbHolder.get();
+        db.beginTransaction();
+        try {
+            mDbHolder.beginHeavyWrite();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Lists the videos over and over until the import is done, or a fixed number of times
+     * without import.
+     * @param firstFile index of the first imported file, null for no import
+     * @param useProvider list through the provider, else directly on the writable database
+     * @return list latencies in nanoseconds, sorted
+     */
+    private long[] listWhile(final Integer firstFile, boolean useProvider) throws InterruptedException {
+        final AtomicBoolean importing = new AtomicBoolean(firstFile != null);
+        final AtomicInteger imported = new AtomicInteger();
+        Thread importer = null;
+        if (firstFile != null) {
+            importer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        imported.set(importFiles(firstFile.intValue()));
+                    } finally {
+                        importing.set(false);
+                    }
+                }
+            }, "import");
+            importer.start();
+        }
+        long[] latencies = new long[1024];
+        int count = 0;
+        while (importing.get() || (firstFile == null && count < 300)) {
+            long start = System.nanoTime();
+            Cursor c;
+            if (useProvider) {
+                c = mProvider.query(VIDEO_LIST, PROJECTION, null, null, SORT);
+            } else {
+                c = mDbHolder.get().query(VideoOpenHelper.VIDEO_VIEW_NAME, PROJECTION, null, null,
+                        null, null, SORT, LIST_LIMIT);
+            }
+            while (c.moveToNext()) {
+                c.getString(1);
+            }
+            c.close();
+            if (count == latencies.length)
+                latencies = Arrays.copyOf(latencies, count * 2);
+            latencies[count++] = System.nanoTime() - start;
+        }
+        if (importer != null) {
+            importer.join();
+            assertEquals(FILES, imported.get());
+        }
+        latencies = Arrays.copyOf(latencies, count);
+        Arrays.sort(latencies);
+        assertTrue(count > 0);
+        return latencies;
+    }
+
+    /** @return number of rows the provider inserted */
+    private int importFiles(int firstFile) {
+        int inserted = 0;
+        UpsertBatch batch = new UpsertBatch(VideoOpenHelper.FILES_IMPORT_TABLE_NAME, BaseColumns._ID, false);
+        ContentValues cv = new ContentValues();
+        long now = System.currentTimeMillis() / 1000;
+        for (int i = firstFile; i < firstFile + FILES; i++) {
+            int bucket = i % BUCKETS;
+            cv.put(BaseColumns._ID, Long.valueOf(FIRST_ID + i));
+            cv.put("_data", ROOT + bucket + "/file" + i + ".mkv");
+            cv.put("_display_name", "file" + i + ".mkv");
+            cv.put("_size", Long.valueOf(700L * 1024 * 1024 + i));
+            cv.put("date_added", Long.valueOf(now));
+            cv.put("date_modified", Long.valueOf(now));
+            cv.put("bucket_id", String.valueOf((ROOT + bucket).hashCode()));
+            cv.put("bucket_display_name", String.valueOf(bucket));
+            cv.put("format", Integer.valueOf(0x3000));
+            cv.put("parent", Integer.valueOf(0));
+            cv.put("storage_id", Integer.valueOf(1));
+            batch.newRow(null).putAll(cv);
+            if (batch.size() >= IMPORT_BATCH) {
+                inserted += upsert(batch);
+                batch.clear();
+            }
+        }
+        if (batch.size() > 0)
+            inserted += upsert(batch);
+        return inserted;
+    }
+
+    private int upsert(UpsertBatch batch) {
+        Bundle extras = new Bundle();
+        extras.putParcelable(UpsertBatch.EXTRA_BATCH, batch);
+        Bundle result = mProvider.call(UpsertBatch.METHOD_UPSERT, null, extras);
+        return result.getInt(UpsertBatch.RESULT_INSERTED);
+    }
+
+    private void deleteImported() {
+        // the files_import trigger deletes the files rows as well
+        mProvider.delete(FILES_IMPORT, "_data LIKE ?", new String[] { ROOT + "%" });
+    }
+
+    private static String summary(long[] sorted) {
+        return sorted.length + " lists, p50 " + micros(sorted[sorted.length / 2])
+                + " p99 " + micros(sorted[sorted.length * 99 / 100])
+                + " max " + micros(sorted[sorted.length - 1]);
+    }
+
+    private static String micros(long nanos) {
+        return (nanos / 1000) + "us";
+    }
+}
@@ -0,0 +1,378 @@
+// Copyright 2017 Archos SA
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.archos.mediaprovider.video;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
+
+import com.archos.mediaprovider.video.VideoStore.MediaColumns;
+import com.archos.mediaprovider.video.VideoStore.Video.VideoColumns;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Runs the query shapes VideoProvider and ScraperProvider rely on through
+ * EXPLAIN QUERY PLAN and reports full table and index scans, timings and the index
+ * that would avoid them.
+ * <p>
+ * Instrumentation only, see QueryPlanAdvisorTest: {@link #runSynthetic(Context, int)}
+ * seeds a throwaway database with the current schema so a view rewrite or a new
+ * selection that stops using an index shows up before it ships.
+ * <pre>
+ * QueryPlanAdvisor.runSynthetic(context, 100000).assertNoFullScans();
+ * </pre>
+ */
+public final class QueryPlanAdvisor {
+    private static final Logger log = LoggerFactory.getLogger(QueryPlanAdvisor.class);
+
+    private static final String SYNTHETIC_DATABASE_NAME = "media_queryplan.db";
+    private static final int EPISODES_PER_SEASON = 10;
+    private static final int SEASONS_PER_SHOW = 5;
+
+    /** One query the providers issue, with the tables it may legitimately scan. */
+    public static final class Shape {
+        public final String name;
+        public final String sql;
+        public final String[] args;
+        /** tables a full scan is expected on, e.g. list queries without selection */
+        public final Set<String> allowedScans;
+        /** index that serves this shape, proposed when it scans anyway */
+        public final String suggestedIndex;
+
+        public Shape(String name, String sql, String[] args, String suggestedIndex, String... allowedScans) {
+            this.name = name;
+            this.sql = sql;
+            this.args = args;
+            this.suggestedIndex = suggestedIndex;
+            Set<String> allowed = new LinkedHashSet<String>();
+            for (String table : allowedScans) {
+                allowed.add(table.toLowerCase(Locale.ROOT));
+            }
+            this.allowedScans = Collections.unmodifiableSet(allowed);
+        }
+    }
+
+    /** EXPLAIN QUERY PLAN result of one {@link Shape}. */
+    public static final class Result {
+        public final Shape shape;
+        public final List<String> plan = new ArrayList<String>();
+        /**
+         * tables not in {@link Shape#allowedScans} that are read entirely, either row by row
+         * ("SCAN t") or through all entries of an index ("SCAN t USING [COVERING] INDEX i")
+         */
+        public final List<String> fullScans = new ArrayList<String>();
+        /** automatic indexes and temp b-trees, not failures but worth a look */
+        public final List<String> warnings = new ArrayList<String>();
+        public long durationMs = -1;
+        public int rows = -1;
+
+        Result(Shape shape) {
+            this.shape = shape;
+        }
+
+        public boolean hasFullScans() {
+            return !fullScans.isEmpty();
+        }
+    }
+
+    /** All {@link Result}s of a run. */
+    public static final class Report {
+        public final List<Result> results = new ArrayList<Result>();
+
+        public int getFullScanCount() {
+            int count = 0;
+            for (Result result : results) {
+                count += result.fullScans.size();
+            }
+            return count;
+        }
+
+        /** CREATE INDEX statements for every shape that scans */
+        public List<String> getSuggestedIndexes() {
+            Set<String> indexes = new LinkedHashSet<String>();
+            for (Result result : results) {
+                if (result.hasFullScans() && result.shape.suggestedIndex != null) {
+                    indexes.add(result.shape.suggestedIndex);
+                }
+            }
+            return new ArrayList<String>(indexes);
+        }
+
+        /** @throws IllegalStateException listing the offending shapes if there is any new full scan */
+        public void assertNoFullScans() {
+            if (getFullScanCount() > 0) {
+                throw new IllegalStateException("new full table scans:\n" + this);
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Result result : results) {
+                sb.append(result.hasFullScans() ? "SCAN " : "ok   ")
+                        .append(result.shape.name)
+                        .append(" (").append(result.durationMs).append("ms, ")
+                        .append(result.rows).append(" rows)\n");
+                for (String line : result.plan) {
+                    sb.append("       ").append(line).append('\n');
+                }
+                for (String table : result.fullScans) {
+                    sb.append("   !   full scan of ").append(table).append('\n');
+                }
+                for (String warning : result.warnings) {
+                    sb.append("   ?   ").append(warning).append('\n');
+                }
+            }
+            List<String> indexes = getSuggestedIndexes();
+            if (!indexes.isEmpty()) {
+                sb.append("suggested indexes:\n");
+                for (String index : indexes) {
+                    sb.append("   ").append(index).append(";\n");
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    private static final String[] ONE = { "1" };
+    private static final String[] TWO = { "1", "1" };
+    private static final String[] PATH = { "/storage/emulated/0/Movies/movie 1.mkv" };
+
+    /** the selections VideoProvider / ScraperProvider and their callers use the most */
+    public static final List<Shape> STANDARD_SHAPES = Collections.unmodifiableList(Arrays.asList(
+            new Shape("video by id",
+                    "SELECT * FROM " + VideoOpenHelper.VIDEO_VIEW_NAME + " WHERE " + BaseColumns._ID + "=?",
+                    ONE, null),
+            new Shape("video by path",
+                    "SELECT * FROM " + VideoOpenHelper.VIDEO_VIEW_NAME + " WHERE " + MediaColumns.DATA + "=?",
+                    PATH, null),
+            new Shape("video by scraper id",
+                    "SELECT * FROM " + VideoOpenHelper.VIDEO_VIEW_NAME + " WHERE " +
+                            VideoColumns.ARCHOS_MEDIA_SCRAPER_ID + "=? AND " +
+                            VideoColumns.ARCHOS_MEDIA_SCRAPER_TYPE + "=?",
+                    TWO, "CREATE INDEX files_scraper_idx ON files(ArchosMediaScraper_id, ArchosMediaScraper_type)"),
+            new Shape("video by folder",
+                    "SELECT * FROM " + VideoOpenHelper.VIDEO_VIEW_NAME + " WHERE " +
+                            VideoColumns.BUCKET_ID + "=? AND " + LoaderUtils.HIDE_USER_HIDDEN_FILTER,
+                    ONE, "CREATE INDEX bucket_index ON files(bucket_id, media_type, _id)"),
+            new Shape("video list",
+                    "SELECT * FROM " + VideoOpenHelper.VIDEO_VIEW_NAME + " WHERE " +
+                            LoaderUtils.HIDE_USER_HIDDEN_FILTER + " ORDER BY " + MediaColumns.TITLE,
+                    null, null, VideoOpenHelper.FILES_TABLE_NAME),
+            new Shape("files by remote id",
+                    "SELECT * FROM " + VideoOpenHelper.FILES_TABLE_NAME + " WHERE remote_id=?",
+                    ONE, "CREATE UNIQUE INDEX files_remote_id_idx ON files(remote_id)"),
+            new Shape("movie by video id",
+                    "SELECT * FROM " + ScraperTables.MOVIE_TABLE_NAME + " WHERE " + ScraperStore.Movie.VIDEO_ID + "=?",
+                    ONE, "CREATE INDEX MOVIE_idx ON MOVIE(video_id)"),
+            new Shape("movie by online id",
+                    "SELECT * FROM " + ScraperTables.MOVIE_TABLE_NAME + " WHERE " + ScraperStore.Movie.ONLINE_ID + "=?",
+                    ONE, ScraperTables.MOVIE_ONLINE_ID_IDX_CREATE),
+            new Shape("show by online id",
+                    "SELECT * FROM " + ScraperTables.SHOW_TABLE_NAME + " WHERE " + ScraperStore.Show.ONLINE_ID + "=?",
+                    ONE, ScraperTables.SHOW_ONLINE_ID_IDX_CREATE),
+            new Shape("show by name",
+                    "SELECT * FROM " + ScraperTables.SHOW_TABLE_NAME + " WHERE " + ScraperStore.Show.NAME + "=?",
+                    ONE, null),
+            new Shape("episode by online id",
+                    "SELECT * FROM " + ScraperTables.EPISODE_TABLE_NAME + " WHERE " + ScraperStore.Episode.ONLINE_ID + "=?",
+                    ONE, ScraperTables.EPISODE_ONLINE_ID_IDX_CREATE),
+            new Shape("episodes of season",
+                    "SELECT * FROM " + ScraperTables.EPISODE_TABLE_NAME + " WHERE " +
+                            ScraperStore.Episode.SHOW + "=? AND " + ScraperStore.Episode.SEASON + "=? ORDER BY " +
+                            ScraperStore.Episode.NUMBER,
+                    TWO, ScraperTables.EPISODE_SEASON_IDX_CREATE),
+            new Shape("seasons of show",
+                    "SELECT * FROM " + ScraperTables.SEASONS_VIEW_NAME + " WHERE show_id=?",
+                    ONE, ScraperTables.EPISODE_SEASON_IDX_CREATE),
+            new Shape("subtitles of file",
+                    "SELECT * FROM " + VideoOpenHelper.SUBTITLES_TABLE_NAME + " WHERE file_id=?",
+                    ONE, "CREATE INDEX subtitles_idx ON subtitles(file_id)")
+    ));
+
+    private QueryPlanAdvisor() {
+        // static utility
+    }
+
+    /** runs {@link #STANDARD_SHAPES} against db */
+    public static Report run(SQLiteDatabase db) {
+        return run(db, STANDARD_SHAPES);
+    }
+
+    public static Report run(SQLiteDatabase db, List<Shape> shapes) {
+        Report report = new Report();
+        for (Shape shape : shapes) {
+            report.results.add(explain(db, shape));
+        }
+        log.debug("run: " + report.getFullScanCount() + " full scans in " + shapes.size() + " shapes");
+        return report;
+    }
+
+    /**
+     * Creates a scratch database with the current schema, fills it with
+     * videoCount synthetic videos, runs {@link #STANDARD_SHAPES} and deletes it again.
+     */
+    public static Report runSynthetic(Context context, int videoCount) {
+        File path = context.getDatabasePath(SYNTHETIC_DATABASE_NAME);
+        SQLiteDatabase.deleteDatabase(path);
+        VideoOpenHelper helper = new VideoOpenHelper(context, SYNTHETIC_DATABASE_NAME);
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            long start = System.nanoTime();
+            seed(db, videoCount);
+            db.execSQL("ANALYZE");
+            log.debug("runSynthetic: seeded " + videoCount + " videos in " + (System.nanoTime() - start) / 1000000 + "ms");
+            return run(db);
+        } finally {
+            helper.close();
+            SQLiteDatabase.deleteDatabase(path);
+        }
+    }
+
+    /**
+     * Inserts videoCount scanned files, half of them scraped as movies and the
+     * other half as episodes of EPISODES_PER_SEASON x SEASONS_PER_SHOW shows.
+     */
+    public static void seed(SQLiteDatabase db, int videoCount) {
+        SQLiteStatement file = db.compileStatement("INSERT INTO " + VideoOpenHelper.FILES_SCANNED_TABLE_NAME +
+                "(_data, _display_name, title, media_type, bucket_id, bucket_display_name, parent, storage_id)" +
+                " VALUES (?, ?, ?, 3, ?, ?, -1, 0)");
+        SQLiteStatement movie = db.compileStatement("INSERT INTO " + ScraperTables.MOVIE_TABLE_NAME + "(" +
+                ScraperStore.Movie.VIDEO_ID + ", " + ScraperStore.Movie.NAME + ", " + ScraperStore.Movie.ONLINE_ID +
+                ") VALUES (?, ?, ?)");
+        SQLiteStatement show = db.compileStatement("INSERT INTO " + ScraperTables.SHOW_TABLE_NAME + "(" +
+                ScraperStore.Show.NAME + ", " + ScraperStore.Show.ONLINE_ID + ") VALUES (?, ?)");
+        SQLiteStatement episode = db.compileStatement("INSERT INTO " + ScraperTables.EPISODE_TABLE_NAME + "(" +
+                ScraperStore.Episode.VIDEO_ID + ", " + ScraperStore.Episode.SHOW + ", " +
+                ScraperStore.Episode.SEASON + ", " + ScraperStore.Episode.NUMBER + ", " +
+                ScraperStore.Episode.ONLINE_ID + ") VALUES (?, ?, ?, ?, ?)");
+        int episodesPerShow = EPISODES_PER_SEASON * SEASONS_PER_SHOW;
+        long showId = -1;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < videoCount; i++) {
+                String folder = "/storage/emulated/0/Movies/" + (i / 100);
+                String name = "movie " + i;
+                file.bindString(1, folder + "/" + name + ".mkv");
+                file.bindString(2, name + ".mkv");
+                file.bindString(3, name);
+                file.bindString(4, String.valueOf(folder.hashCode()));
+                file.bindString(5, String.valueOf(i / 100));
+                long remoteId = file.executeInsert() + VideoOpenHelper.SCANNED_ID_OFFSET;
+                if (i % 2 == 0) {
+                    movie.bindLong(1, remoteId);
+                    movie.bindString(2, name);
+                    movie.bindLong(3, i);
+                    movie.executeInsert();
+                } else {
+                    int index = i / 2;
+                    if (index % episodesPerShow == 0) {
+                        show.bindString(1, "show " + index / episodesPerShow);
+                        show.bindLong(2, index / episodesPerShow);
+                        showId = show.executeInsert();
+                    }
+                    int inShow = index % episodesPerShow;
+                    episode.bindLong(1, remoteId);
+                    episode.bindLong(2, showId);
+                    episode.bindLong(3, inShow / EPISODES_PER_SEASON + 1);
+                    episode.bindLong(4, inShow % EPISODES_PER_SEASON + 1);
+                    episode.bindLong(5, i);
+                    episode.executeInsert();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            file.close();
+            movie.close();
+            show.close();
+            episode.close();
+        }
+    }
+
+    private static Result explain(SQLiteDatabase db, Shape shape) {
+        Result result = new Result(shape);
+        Cursor c = db.rawQuery("EXPLAIN QUERY PLAN " + shape.sql, shape.args);
+        try {
+            // columns are selectid|order|from|detail before sqlite 3.24, id|parent|notused|detail after
+            int detailColumn = c.getColumnIndex("detail");
+            while (c.moveToNext()) {
+                String detail = c.getString(detailColumn);
+                result.plan.add(detail);
+                classify(detail, result);
+            }
+        } finally {
+            c.close();
+        }
+        long start = System.nanoTime();
+        c = db.rawQuery(shape.sql, shape.args);
+        try {
+            int rows = 0;
+            while (c.moveToNext()) {
+                rows++;
+            }
+            result.rows = rows;
+        } finally {
+            c.close();
+        }
+        result.durationMs = (System.nanoTime() - start) / 1000000;
+        return result;
+    }
+
+    /* package */ static void classify(String detail, Result result) {
+        if (detail.contains("AUTOMATIC")) {
+            result.warnings.add(detail);
+            return;
+        }
+        if (detail.startsWith("USE TEMP B-TREE")) {
+            result.warnings.add(detail);
+            return;
+        }
+        // "SEARCH [TABLE] t USING ..." only visits the matching range of an index: fine.
+        // "SCAN [TABLE] t" reads every row, "SCAN [TABLE] t USING [COVERING] INDEX i" every entry
+        // of the index, typically to avoid a sort. Both are full scans for a selection.
+        // "TABLE" is gone since sqlite 3.36, "SCAN SUBQUERY 1" / "SCAN CONSTANT ROW" are not tables.
+        if (!detail.startsWith("SCAN ") || detail.startsWith("SCAN SUBQUERY")
+                || detail.startsWith("SCAN CONSTANT ROW")) {
+            return;
+        }
+        String rest = detail.startsWith("SCAN TABLE ") ? detail.substring(11) : detail.substring(5);
+        int end = rest.indexOf(' ');
+        String table = (end < 0 ? rest : rest.substring(0, end)).toLowerCase(Locale.ROOT);
+        if (result.shape.allowedScans.contains(table)) {
+            return;
+        }
+        int using = rest.indexOf(" USING ");
+        if (using < 0) {
+            result.fullScans.add(table);
+        } else {
+            // e.g. "USING COVERING INDEX files_scraper_idx"
+            result.fullScans.add(table + " (" + rest.substring(using + 1) + ")");
+        }
+    }
+}
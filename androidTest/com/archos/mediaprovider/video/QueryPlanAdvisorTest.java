@@ -0,0 +1,68 @@
+// Copyright 2017 Archos SA
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.archos.mediaprovider.video;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Fails when a provider query shape starts scanning a table, see {@link QueryPlanAdvisor}. */
+@RunWith(AndroidJUnit4.class)
+public class QueryPlanAdvisorTest {
+    private static final String TAG = "QueryPlanAdvisorTest";
+    // plans only change with table statistics at library sizes, not on a handful of rows
+    private static final int VIDEOS = 100000;
+
+    @Test
+    public void standardShapesUseIndexes() {
+        QueryPlanAdvisor.Report report = QueryPlanAdvisor.runSynthetic(
+                InstrumentationRegistry.getInstrumentation().getTargetContext(), VIDEOS);
+        Log.i(TAG, report.toString());
+        report.assertNoFullScans();
+    }
+
+    @Test
+    public void classifiesPlanDetails() {
+        QueryPlanAdvisor.Shape shape = new QueryPlanAdvisor.Shape("test", "SELECT 1", null, null, "allowed");
+        QueryPlanAdvisor.Result result = new QueryPlanAdvisor.Result(shape);
+        QueryPlanAdvisor.classify("SEARCH files USING INDEX files_scraper_idx (ArchosMediaScraper_id=?)", result);
+        QueryPlanAdvisor.classify("SEARCH TABLE MOVIE USING INTEGER PRIMARY KEY (rowid=?)", result);
+        QueryPlanAdvisor.classify("SCAN SUBQUERY 1", result);
+        QueryPlanAdvisor.classify("SCAN CONSTANT ROW", result);
+        QueryPlanAdvisor.classify("SCAN allowed", result);
+        assertTrue(result.fullScans.isEmpty());
+
+        QueryPlanAdvisor.classify("SCAN TABLE files", result);
+        QueryPlanAdvisor.classify("SCAN episode", result);
+        QueryPlanAdvisor.classify("SCAN files USING INDEX bucket_index", result);
+        QueryPlanAdvisor.classify("SCAN TABLE show USING COVERING INDEX show_name_idx", result);
+        assertEquals(4, result.fullScans.size());
+        assertEquals("files", result.fullScans.get(0));
+        assertEquals("episode", result.fullScans.get(1));
+        assertEquals("files (USING INDEX bucket_index)", result.fullScans.get(2));
+        assertEquals("show (USING COVERING INDEX show_name_idx)", result.fullScans.get(3));
+
+        QueryPlanAdvisor.classify("USE TEMP B-TREE FOR ORDER BY", result);
+        QueryPlanAdvisor.classify("AUTOMATIC COVERING INDEX ON files(bucket_id)", result);
+        assertEquals(2, result.warnings.size());
+    }
+}
@@ -0,0 +1,225 @@
+// Copyright 2017 Archos SA
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.archos.mediaprovider.video;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.archos.filecorelibrary.MetaFile2;
+import com.archos.mediacenter.filecoreextension.upnp2.UpnpFile2;
+import com.archos.mediaprovider.video.NetworkScannerServiceVideo.BulkOperationHandler;
+import com.archos.mediaprovider.video.NetworkScannerServiceVideo.FileScanInfo;
+import com.archos.mediaprovider.video.NetworkScannerServiceVideo.FileVisitListener;
+import com.archos.mediaprovider.video.NetworkScannerServiceVideo.PrescanItem;
+
+import org.fourthline.cling.support.contentdirectory.DIDLParser;
+import org.fourthline.cling.support.model.item.Item;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Scans a synthetic UPnP server through {@link FileVisitListener}: 50k movies served as
+ * DIDL-Lite pages, each exposed in several virtual containers the way Plex or Serviio do
+ * (all, by genre, by year...). Results go to logcat (tag UpnpScanBenchmark).
+ */
+@RunWith(AndroidJUnit4.class)
+public class UpnpScanBenchmark {
+    private static final String TAG = "UpnpScanBenchmark";
+
+    private static final int ITEMS = 50000;
+    private static final int PAGE_SIZE = 1000;
+    private static final String[] CONTAINERS = { "all", "genre", "year", "recent" };
+    private static final Uri SERVER = Uri.parse("upnp://1234/0");
+    // the list based tracking this replaced is quadratic, only time it on a part of the items
+    private static final int PREVIOUS_TRACKING_ITEMS = 10000;
+
+    private static List<List<Item>> sPages;
+
+    private Context mContext;
+
+    private static class CountingBulkHandler extends BulkOperationHandler {
+        int inserts;
+        int updates;
+
+        CountingBulkHandler(Context context) {
+            super(false, context);
+        }
+
+        @Override
+        public void addInsert(FileScanInfo insert, long serverId) {
+            inserts++;
+        }
+
+        @Override
+        public void addUpdate(FileScanInfo update, long fileId) {
+            updates++;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        if (sPages != null)
+            return;
+        // every container serves the same items, parse them once
+        long start = System.nanoTime();
+        DIDLParser parser = new DIDLParser();
+        sPages = new ArrayList<>();
+        for (int first = 0; first < ITEMS; first += PAGE_SIZE)
+            sPages.add(parser.parse(didlPage(first, Math.min(ITEMS, first + PAGE_SIZE))).getItems());
+        Log.i(TAG, "parsed " + ITEMS + " items in " + (System.nanoTime() - start) / 1000000 + "ms");
+    }
+
+    @Test
+    public void newServer() {
+        CountingBulkHandler bulkHandler = new CountingBulkHandler(mContext);
+        HashMap<String, PrescanItem> prescanItems = new HashMap<>();
+        long elapsed = scan(prescanItems, bulkHandler);
+        Log.i(TAG, "new server: " + ITEMS + " items in " + CONTAINERS.length + " containers, "
+                + elapsed / 1000000 + "ms, " + bulkHandler.inserts + " inserts");
+        assertEquals(ITEMS, bulkHandler.inserts);
+        assertEquals(0, bulkHandler.updates);
+        assertEquals(ITEMS, prescanItems.size());
+    }
+
+    @Test
+    public void knownServer() {
+        // known items were stored with their uri in the first container
+        HashMap<String, PrescanItem> prescanItems = new HashMap<>();
+        for (List<Item> page : sPages) {
+            for (UpnpFile2 file : files(page, CONTAINERS[0])) {
+                PrescanItem item = new PrescanItem(file.getUniqueHash(), file.getUri().toString());
+                item.needsDelete = true;
+                item.scanned = false;
+                prescanItems.put(item.unique_id, item);
+            }
+        }
+        CountingBulkHandler bulkHandler = new CountingBulkHandler(mContext);
+        long elapsed = scan(prescanItems, bulkHandler);
+        Log.i(TAG, "known server: " + ITEMS + " items in " + CONTAINERS.length + " containers, "
+                + elapsed / 1000000 + "ms, " + bulkHandler.updates + " updates");
+        // finding an item in another container neither inserts nor moves it
+        assertEquals(0, bulkHandler.inserts);
+        assertEquals(0, bulkHandler.updates);
+        for (PrescanItem item : prescanItems.values())
+            assertFalse(item.needsDelete);
+    }
+
+    @Test
+    public void containerIsListedOnce() {
+        FileVisitListener listener = new FileVisitListener(Blacklist.getInstance(mContext),
+                new HashMap<String, PrescanItem>(), false, new CountingBulkHandler(mContext), 1);
+        assertTrue(listener.onDirectory(new UpnpFile2("Movies", "42", SERVER)));
+        // the same container reached through another path
+        assertFalse(listener.onDirectory(new UpnpFile2("Movies", "42", Uri.withAppendedPath(SERVER, "7"))));
+        assertTrue(listener.onDirectory(new UpnpFile2("Movies", "43", SERVER)));
+    }
+
+    @Test
+    public void previousTracking() {
+        List<String> keys = new ArrayList<>();
+        for (List<Item> page : sPages) {
+            for (UpnpFile2 file : files(page, CONTAINERS[0])) {
+                keys.add(file.getUniqueHash());
+                if (keys.size() == PREVIOUS_TRACKING_ITEMS)
+                    break;
+            }
+            if (keys.size() == PREVIOUS_TRACKING_ITEMS)
+                break;
+        }
+        long start = System.nanoTime();
+        ArrayList<String> added = new ArrayList<>();
+        for (String container : CONTAINERS) {
+            for (String key : keys) {
+                if (!added.contains(key))
+                    added.add(key);
+            }
+        }
+        long list = System.nanoTime() - start;
+        start = System.nanoTime();
+        HashMap<String, PrescanItem> map = new HashMap<>();
+        for (String container : CONTAINERS) {
+            for (String key : keys) {
+                if (!map.containsKey(key))
+                    map.put(key, new PrescanItem(key, key));
+            }
+        }
+        long hashed = System.nanoTime() - start;
+        Log.i(TAG, "tracking " + keys.size() + " items in " + CONTAINERS.length + " containers: list "
+                + list / 1000000 + "ms, map " + hashed / 1000000 + "ms");
+        assertEquals(added.size(), map.size());
+    }
+
+    // lists every container the way FileVisitor does, returns the time spent in the listener
+    private long scan(HashMap<String, PrescanItem> prescanItems, BulkOperationHandler bulkHandler) {
+        FileVisitListener listener = new FileVisitListener(Blacklist.getInstance(mContext),
+                prescanItems, false, bulkHandler, 1);
+        long elapsed = 0;
+        for (String container : CONTAINERS) {
+            List<List<UpnpFile2>> listings = new ArrayList<>();
+            for (List<Item> page : sPages)
+                listings.add(files(page, container));
+            long start = System.nanoTime();
+            assertTrue(listener.onDirectory(new UpnpFile2(container, container, SERVER)));
+            for (List<UpnpFile2> listing : listings) {
+                listener.onFilesList(new ArrayList<MetaFile2>(listing));
+                for (UpnpFile2 file : listing)
+                    listener.onFile(file);
+            }
+            elapsed += System.nanoTime() - start;
+        }
+        return elapsed;
+    }
+
+    private static List<UpnpFile2> files(List<Item> page, String container) {
+        Uri parent = Uri.withAppendedPath(SERVER, container);
+        List<UpnpFile2> files = new ArrayList<>(page.size());
+        for (Item item : page) {
+            String path = item.getFirstResource().getValue();
+            files.add(new UpnpFile2(item, "video/x-matroska", parent, path, null));
+        }
+        return files;
+    }
+
+    private static String didlPage(int first, int end) {
+        StringBuilder sb = new StringBuilder((end - first) * 400);
+        sb.append("<DIDL-Lite xmlns=\"urn:schemas-upnp-org:metadata-1-0/DIDL-Lite/\"")
+                .append(" xmlns:dc=\"http://purl.org/dc/elements/1.1/\"")
+                .append(" xmlns:upnp=\"urn:schemas-upnp-org:metadata-1-0/upnp/\">");
+        for (int i = first; i < end; i++) {
+            String title = String.format("Movie %05d", i);
+            sb.append("<item id=\"").append(i).append("\" parentID=\"all\" restricted=\"1\">")
+                    .append("<dc:title>").append(title).append("</dc:title>")
+                    .append("<upnp:class>object.item.videoItem.movie</upnp:class>")
+                    .append("<res protocolInfo=\"http-get:*:video/x-matroska:*\" size=\"1073741824\">")
+                    .append("http://192.168.1.2:32469/object/").append(i).append("/file.mkv")
+                    .append("</res></item>");
+        }
+        return sb.append("</DIDL-Lite>").toString();
+    }
+}
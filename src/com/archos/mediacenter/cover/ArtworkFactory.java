@@ -41,6 +41,7 @@ import android.widget.TextView;
 
 import java.io.InputStream;
 import java.io.IOException;
+import java.util.ArrayDeque;
 
 public class ArtworkFactory {
 
@@ -59,6 +60,10 @@ public class ArtworkFactory {
 	static final int OVERLAY_DESCRIPTION_MAX_HEIGHT = 300;
 	private static final int NO_SIZE_LIMIT = 1024;
 
+	// Number of cover sized bitmaps kept for reuse once their texture has been uploaded
+	// (one per building thread plus the ones waiting for the GL thread)
+	private static final int MAX_POOLED_BITMAPS = 6;
+
 	static final int ALIGN_CENTER = 0;
 	static final int ALIGN_TOP = 1;
 	static final int ALIGN_BOTTOM = 2;
@@ -80,6 +85,9 @@ public class ArtworkFactory {
     TextView mLabelView = null;
     private float mContentLabelFontsize;
 
+	// Cover sized ARGB bitmaps ready to be reused by addShadow()
+	private final ArrayDeque<Bitmap> mBitmapPool = new ArrayDeque<Bitmap>(MAX_POOLED_BITMAPS);
+
 
 	public ArtworkFactory( Context context, int width, int height) {
 
@@ -171,11 +179,15 @@ public class ArtworkFactory {
 	public Bitmap addShadowAndDescription( Bitmap artwork, View descriptionView, Rect srcCrop, float shrinkFactor, Rect shadowPaddingRect) {
 
 		Rect spr = new Rect(0,0,0,0);
-		Bitmap destBitmap = addShadow(artwork, srcCrop, shrinkFactor, spr);
+		Bitmap destBitmap;
+		// addDescription() draws in the canvas left by addShadow(): keep it for us while building in parallel
+		synchronized (mCanvas) {
+			destBitmap = addShadow(artwork, srcCrop, shrinkFactor, spr);
 
-		// Draw the description over the cover
-		if (descriptionView!=null) {
-			addDescription(destBitmap, descriptionView, spr);
+			// Draw the description over the cover
+			if (descriptionView!=null) {
+				addDescription(destBitmap, descriptionView, spr);
+			}
 		}
 
 		if (shadowPaddingRect!=null) {
@@ -206,7 +218,7 @@ public class ArtworkFactory {
      * @param srcCrop   Use this region of the artwork shadow. Use the whole artwork if null.
      * @param shrinkFactor	set <1f To have a smaller artwork area (shadow is not shrinked)
      * @param shadowPaddingRect	out: returns the area inside the shadow (i.e. the area of the artwork in the middle of the shadow). Can be null.
-     * @return     The shadowed bitmap, in a newly allocated bitmap
+     * @return     The shadowed bitmap, in a pooled or newly allocated bitmap
      */
 	public Bitmap addShadow( Bitmap artwork, Rect srcCrop, float shrinkFactor, Rect shadowPaddingRect) {
 
@@ -230,9 +242,8 @@ public class ArtworkFactory {
 			resizeFactor =  available_width / (float)srcCrop.width();
 		}
 
-		// Allocate the result bitmap
-		Bitmap destBitmap = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888 );
-		destBitmap.eraseColor(Color.TRANSPARENT);
+		// Get the result bitmap
+		Bitmap destBitmap = obtainBitmap();
 
 		synchronized (mCanvas) {
 			mCanvas.setBitmap(destBitmap);
@@ -271,6 +282,53 @@ public class ArtworkFactory {
 		return destBitmap;
 	}
 
+	/**
+	 * Get a cleared cover sized ARGB bitmap, reusing one released by releaseBitmap() if possible
+	 */
+	private Bitmap obtainBitmap() {
+		Bitmap bitmap;
+		synchronized (mBitmapPool) {
+			bitmap = mBitmapPool.poll();
+		}
+		if (bitmap == null) {
+			bitmap = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888 );
+		}
+		bitmap.eraseColor(Color.TRANSPARENT);
+		return bitmap;
+	}
+
+	/**
+	 * Give back a bitmap that is not used anymore (i.e. uploaded to GL).
+	 * Cover sized ARGB bitmaps are kept for reuse, the others are recycled.
+	 */
+	public void releaseBitmap(Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled()) {
+			return;
+		}
+		if (bitmap.isMutable() && bitmap.getWidth() == mWidth && bitmap.getHeight() == mHeight
+				&& bitmap.getConfig() == Bitmap.Config.ARGB_8888) {
+			synchronized (mBitmapPool) {
+				if (mBitmapPool.size() < MAX_POOLED_BITMAPS) {
+					mBitmapPool.push(bitmap);
+					return;
+				}
+			}
+		}
+		bitmap.recycle();
+	}
+
+	/**
+	 * Recycle the pooled bitmaps, to be called when the factory is not used anymore
+	 */
+	public void clearBitmapPool() {
+		synchronized (mBitmapPool) {
+			for (Bitmap bitmap : mBitmapPool) {
+				bitmap.recycle();
+			}
+			mBitmapPool.clear();
+		}
+	}
+
 	/**
 	 * Caution, this method is very limited in the sense that it requires that the right bitmap is used in the canvas already
 	 */
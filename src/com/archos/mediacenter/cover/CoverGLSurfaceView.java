@@ -46,6 +46,7 @@ import com.archos.medialib.R;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 
 
@@ -93,7 +94,8 @@ SensorEventListener, OnTouchModeChangeListener, OnFocusChangeListener {
 
 	// Pools of GL texture IDs
 	private int mAvailableTextures = MAX_ALLOCATED_GL_TEXTURE;
-	private boolean mTextureRequestInProgress = false;
+	// Requests being built by the texture provider, by requesting cover (at most one per cover)
+	private final HashMap<TextureRequester, TextureRequest> mTextureRequestsInProgress = new HashMap<TextureRequester, TextureRequest>();
 
 	private final GestureDetector mGestureDetector;
 	protected boolean mGestureDetectorScrolling = false; // true when scrolling is ongoing (not to be confused with Flinging!)
@@ -244,7 +246,7 @@ SensorEventListener, OnTouchModeChangeListener, OnFocusChangeListener {
 			// Empty the previous texture pipe
 			mTextureProvider.stop(false); //non-blocking
 			mTextureProviderHandler.removeAllPendingMessages(); // (important, this is to avoid new texture requests to be sent after the pause)
-			mTextureRequestInProgress = false;
+			cancelTextureRequests();
 			prepareUpdatingContentAnimation(); // must be called before the actual update of the content
 			// Change covers
 			mCovers = provider.getCovers();
@@ -317,7 +319,7 @@ SensorEventListener, OnTouchModeChangeListener, OnFocusChangeListener {
 			// Empty the previous texture pipe
 			mTextureProvider.stop(false); //nonblocking
 			mTextureProviderHandler.removeAllPendingMessages(); // (important, this is to avoid new texture requests to be sent after the pause)
-			mTextureRequestInProgress = false;
+			cancelTextureRequests();
 			// Free the previous cover textures in GL
 			if (!mCovers.isEmpty()) {
 				freeCoverTextures(mCovers);
@@ -454,7 +456,7 @@ SensorEventListener, OnTouchModeChangeListener, OnFocusChangeListener {
 		if (mTextureProviderHandler != null) {
 			mTextureProviderHandler.removeAllPendingMessages(); // (important, this is to avoid new texture requests to be sent after the pause)
 		}
-		mTextureRequestInProgress = false;
+		cancelTextureRequests();
 
 		if (mActivity!=null) {
 			mActivity.unregisterForContextMenu(this);
@@ -552,11 +554,13 @@ SensorEventListener, OnTouchModeChangeListener, OnFocusChangeListener {
 		if (mTextureProviderHandler != null) {
 			mTextureProviderHandler.removeAllPendingMessages(); // (important, this is to avoid new texture requests to be sent after the pause)
 		}
-		mTextureRequestInProgress = false;
+		cancelTextureRequests();
 
 
 		// We loose all our cover textures...
 		freeCoverTextures(mCovers);
+		// ...and do not need the bitmaps kept to build them anymore
+		mArtworkFactory.clearBitmapPool();
 
 		// Tell the layout it has lost its label and message texture
 		if (mLayout!=null) {
@@ -722,19 +726,38 @@ SensorEventListener, OnTouchModeChangeListener, OnFocusChangeListener {
 	// ------------- Texture Management ---------------------
 
 	private void checkAndAskForCoverNeedingTexture() {
-		if (!mTextureRequestInProgress) {
+		// Keep all the building threads busy, but no more: the next covers in need may change while scrolling
+		while (mTextureRequestsInProgress.size() < mTextureProvider.getParallelism()) {
 			if (DBG2) Log.d(TAG,"checkAndAskForCoverNeedingTexture");
-			Cover coverInNeed = mLayout.getCoverInNeedForItsTexture( MAX_ALLOCATED_GL_TEXTURE );
-			if (coverInNeed != null) {
-				// Launch the texture request
-				TextureRequest tr = coverInNeed.getTextureRequest();
-				mTextureProvider.requestTexture(tr);
-				mTextureRequestInProgress = true;
-				if (DBG2) Log.d(TAG, "checkAndAskForCoverNeedingTexture: mTextureRequestInProgress = true");
+			Cover coverInNeed = mLayout.getCoverInNeedForItsTexture( MAX_ALLOCATED_GL_TEXTURE, mTextureRequestsInProgress.keySet() );
+			if (coverInNeed == null) {
+				return;
 			}
+			// Launch the texture request
+			TextureRequest tr = coverInNeed.getTextureRequest();
+			mTextureRequestsInProgress.put(coverInNeed, tr);
+			mTextureProvider.requestTexture(tr);
+			if (DBG2) Log.d(TAG, "checkAndAskForCoverNeedingTexture: " + mTextureRequestsInProgress.size() + " requests in progress");
 		}
 	}
 
+	// Forget all the requests in progress, their results will be dropped
+	private void cancelTextureRequests() {
+		for (TextureRequest tr : mTextureRequestsInProgress.values()) {
+			tr.cancel();
+		}
+		mTextureRequestsInProgress.clear();
+	}
+
+	// Remove a finished request from the requests in progress.
+	// Returns false if it has been cancelled meanwhile.
+	private boolean endTextureRequest(TextureRequest tr) {
+		if (mTextureRequestsInProgress.get(tr.mRequester) == tr) {
+			mTextureRequestsInProgress.remove(tr.mRequester);
+		}
+		return !tr.isCancelled();
+	}
+
 	private void freeCoverTextures(Collection<Cover> coversToRecycle) {
 		Iterator<Cover> it = coversToRecycle.iterator();
 		int numberOfTextures = 0;
@@ -746,6 +769,12 @@ SensorEventListener, OnTouchModeChangeListener, OnFocusChangeListener {
 		it = coversToRecycle.iterator(); // only way to go back to beginning of collection?
 		while (it.hasNext()) {
 			Cover c = it.next();
+			// The cover won't need the texture being built for it anymore
+			TextureRequest pending = mTextureRequestsInProgress.remove(c);
+			if (pending != null) {
+				pending.cancel();
+				mTextureProvider.cancelRequests(c);
+			}
 			int coverTextureNb = 0;
 			Integer coverId = c.getArtTextureIdObject();
 			if (coverId!=null) {
@@ -763,11 +792,10 @@ SensorEventListener, OnTouchModeChangeListener, OnFocusChangeListener {
 			mAvailableTextures+=coverTextureNb;
 		}
 		final int _n = n;
-		// Sent order to GL stack
+		// Sent order to GL stack (mAvailableTextures has already been updated above, the IDs are reused by the renderer)
 		queueEvent(new Runnable(){
 			public void run() {
 				mRenderer.freeGlTextures(textureIDs,_n);
-				mAvailableTextures+=_n;
 			}});
 	}
 
@@ -909,6 +937,11 @@ SensorEventListener, OnTouchModeChangeListener, OnFocusChangeListener {
 				// TextureProvider tells us a bitmap is ready
 				if(DBG) Log.d(TAG, "MSG_TEXTURE_BITMAP_READY");
 				final TextureRequest tr = (TextureRequest)msg.obj;
+				if (tr.isCancelled()) {
+					// Cover recycled or pipe reset while building, nobody wants this texture anymore
+					tr.recycleBitmaps(mArtworkFactory);
+					return;
+				}
 				Integer textureIdToRecycle = null;
 				// Check if there is a texture available
 				if (mAvailableTextures < 1) {
@@ -919,6 +952,9 @@ SensorEventListener, OnTouchModeChangeListener, OnFocusChangeListener {
 						throw new IllegalArgumentException("handleMessage: Found no texture to recycle!");
 					}
 					textureIdToRecycle = c.getTextureIdToRecycle();
+				} else {
+					// Book it now, other bitmaps may be ready before this one reaches the GL stack
+					mAvailableTextures-=1;
 				}
 				final Integer f_idToRecycle = textureIdToRecycle; // null if it's not recycling an existing texture
 				// Send request to GL thread
@@ -933,6 +969,11 @@ SensorEventListener, OnTouchModeChangeListener, OnFocusChangeListener {
 							ack.arg1 = newCoverId;
 							ack.arg2 = (f_idToRecycle!=null)?1:0;
 							h.sendMessage(ack);
+						} else {
+							Message ack = h.obtainMessage();
+							ack.what = MSG_GL_TEXTURE_FAILED;
+							ack.obj = (Object)tr;
+							h.sendMessage(ack);
 						}
 					}});
 			}
@@ -941,9 +982,10 @@ SensorEventListener, OnTouchModeChangeListener, OnFocusChangeListener {
 				if(DBG) Log.d(TAG, "MSG_TEXTURE_BITMAP_ERROR");
 				// We must remember in the cover that there is no texture to compute for this item
 				TextureRequest tr = (TextureRequest)msg.obj;
-				tr.glTextureIsReady(TextureRequest.TEXTURE_NOT_AVAILABLE);
 				// This is the end of this texture request
-				mTextureRequestInProgress = false;
+				if (endTextureRequest(tr)) {
+					tr.glTextureIsReady(TextureRequest.TEXTURE_NOT_AVAILABLE);
+				}
 				// Check the next texture to compute
 				checkAndAskForCoverNeedingTexture();
 			}
@@ -953,31 +995,39 @@ SensorEventListener, OnTouchModeChangeListener, OnFocusChangeListener {
 				if(DBG) Log.d(TAG, "MSG_GL_TEXTURE_AVAILABLE");
 				TextureRequest tr = (TextureRequest)msg.obj;
 				final int newCoverId = msg.arg1;
-				// Set the new ID in the matching cover
-				tr.glTextureIsReady(newCoverId);
-				final boolean coverRecycled = (msg.arg2!=0);
-				// One less texture to use (only if not recycled. If recycled, the texture count is the same)
-				if (!coverRecycled) {
-					mAvailableTextures-=1;
+				// This is the end of this texture request
+				if (endTextureRequest(tr)) {
+					// Set the new ID in the matching cover
+					tr.glTextureIsReady(newCoverId);
+				} else {
+					// The cover has been recycled meanwhile, give the texture back
+					final int[] textureIDs = new int[] { newCoverId };
+					queueEvent(new Runnable(){
+						public void run() {
+							mRenderer.freeGlTextures(textureIDs, 1);
+						}});
+					mAvailableTextures+=1;
 				}
-				// Bitmap can be freed now
-				tr.recycleBitmaps();
+				// (the texture count has been updated when sending the bitmap to the GL thread)
+				// Bitmap can be reused now
+				tr.recycleBitmaps(mArtworkFactory);
 				// Refresh the scene
 				requestRender();
-				// This is the end of this texture request
-				mTextureRequestInProgress = false;
 				// Check the next texture to compute
 				checkAndAskForCoverNeedingTexture();
 			}
 			// The message below is sent from the GL thread, but by the code some lines above
 			else if (msg.what == MSG_GL_TEXTURE_FAILED) {
 				// NOTE: Here I am executed by the UI thread.
-				//TODO: What do we do in that case? What do we have to clean?
-				Log.e(TAG, "MSG_GL_TEXTURE_FAILED glError " + msg.arg1);
+				Log.e(TAG, "MSG_GL_TEXTURE_FAILED for " + ((TextureRequest)msg.obj).getDebugName());
+				TextureRequest tr = (TextureRequest)msg.obj;
 				// This is the end of this texture request
-				mTextureRequestInProgress = false;
-				// Check the next texture to compute
-				checkAndAskForCoverNeedingTexture();
+				endTextureRequest(tr);
+				// The texture ID booked (or recycled) for it went back to the renderer free list
+				mAvailableTextures+=1;
+				tr.recycleBitmaps(mArtworkFactory);
+				// Do not ask for the next texture right now: GL is likely paused, it would fail again.
+				// Next scroll or animation step will do it.
 			}
 			// Another message sent by the GL thread:
 			else if (msg.what == MSG_GL_DEFAULT_TEXTURE_AVAILABLE) {
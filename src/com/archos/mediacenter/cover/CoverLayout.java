@@ -17,6 +17,8 @@ package com.archos.mediacenter.cover;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 
 import javax.microedition.khronos.opengles.GL10;
 
@@ -246,6 +248,11 @@ public abstract class CoverLayout {
 
 	// Return a cover that need its texture to be computed, knowing that we have a limited number of textures available anyway
 	public Cover getCoverInNeedForItsTexture(int maxNumberOfTexture) {
+		return getCoverInNeedForItsTexture(maxNumberOfTexture, Collections.<TextureRequester>emptySet());
+	}
+
+	// Same, skipping the covers which texture is already being computed
+	public Cover getCoverInNeedForItsTexture(int maxNumberOfTexture, Collection<? extends TextureRequester> pendingCovers) {
 
 		synchronized (mCoversLock) {
 			// Empty cover array case
@@ -260,7 +267,7 @@ public abstract class CoverLayout {
 			Cover c = mCovers.get(centerIndex);
 			//Log.d(TAG,"CENTER = " + c.mAlbumName);
 			// If this cover need a texture, returns it
-			if (c.needTexture(mDisplayFloatingNames)) {
+			if (c.needTexture(mDisplayFloatingNames) && !pendingCovers.contains(c)) {
 				return c;
 			}
 
@@ -275,7 +282,7 @@ public abstract class CoverLayout {
 				if (isInRange(left)) {
 					c = mCovers.get(left);
 					// If this cover need a texture, returns it
-					if (c.needTexture(mDisplayFloatingNames)) {
+					if (c.needTexture(mDisplayFloatingNames) && !pendingCovers.contains(c)) {
 						return c;
 					}
 					nbTextureFound += c.getNumberOfTextureIds();
@@ -285,7 +292,7 @@ public abstract class CoverLayout {
 				if (isInRange(right)) {
 					c = mCovers.get(right);
 					// If this cover need a texture, returns it
-					if (c.needTexture(mDisplayFloatingNames)) {
+					if (c.needTexture(mDisplayFloatingNames) && !pendingCovers.contains(c)) {
 						return c;
 					}
 					nbTextureFound += c.getNumberOfTextureIds();
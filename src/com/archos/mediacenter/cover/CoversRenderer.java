@@ -25,6 +25,7 @@ import android.opengl.GLSurfaceView;
 import android.opengl.GLU;
 import android.opengl.GLUtils;
 import android.util.Log;
+import android.util.SparseIntArray;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -79,6 +80,14 @@ public class CoversRenderer implements GLSurfaceView.Renderer{
 
     static final int MSG_GL_READY = 421;
 
+    // Texture IDs given back by the covers, kept allocated to be reused for the next covers.
+    // Their storage is kept too: a bitmap of the same size and config is uploaded with texSubImage2D.
+    // GL thread only.
+    private int[] mFreeTextureIds = new int[16];
+    private int mFreeTextureCount = 0;
+    // Texture ID -> size and config of the storage allocated for it
+    private final SparseIntArray mTextureFormats = new SparseIntArray();
+
     public CoversRenderer(CoverGLSurfaceView parentView, RendererListener listener) {
         //mParentView = parentView;
         mListener = listener;
@@ -88,6 +97,10 @@ public class CoversRenderer implements GLSurfaceView.Renderer{
     	if(DBG) Log.d(TAG, "onSurfaceCreated");
     	// mGL = gl;
 
+    	// A new context: the textures of the previous one do not exist anymore
+    	mFreeTextureCount = 0;
+    	mTextureFormats.clear();
+
     	// Tell the listener as soon as GL stack is ready
     	if(DBG) Log.d(TAG,"GL_READY");
         mListener.sendEmptyMessage(RendererListener.MSG_GL_READY);
@@ -131,40 +144,74 @@ public class CoversRenderer implements GLSurfaceView.Renderer{
     public int addTextureToGL( Bitmap bitmap, Integer idOfTextureToFree) {
 
 		if(DBG) Log.d(TAG, "addTextureToGL: " + idOfTextureToFree);
-		int[] textureIdArray = new int[1];
 
-		// Free a texture first, if asked
+		// Reuse the texture to free if any, else a free one, else a new one
+		final int textureId;
 		if (idOfTextureToFree != null) {
-			textureIdArray[0] = idOfTextureToFree.intValue();
-			glDeleteTextures(1, textureIdArray, 0);
+			textureId = idOfTextureToFree.intValue();
+		} else if (mFreeTextureCount > 0) {
+			textureId = mFreeTextureIds[--mFreeTextureCount];
+		} else {
+			int[] textureIdArray = new int[1];
+			glGenTextures( 1, textureIdArray, 0);
+			textureId = textureIdArray[0];
 		}
 
-		// Get a new texture id
-		glGenTextures( 1, textureIdArray, 0);
 		// Push the texture
-		glBindTexture(GL_TEXTURE_2D, textureIdArray[0]);
-		glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
-		glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
-		glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
-		glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+		glBindTexture(GL_TEXTURE_2D, textureId);
+		final int format = getTextureFormat(bitmap);
+		if (format != 0 && mTextureFormats.get(textureId) == format) {
+			// Same storage: only replace the pixels, no reallocation in the driver
+			GLUtils.texSubImage2D(GL_TEXTURE_2D, 0, 0, 0, bitmap);
+		} else {
+			glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+			glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+			glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+			glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+			GLUtils.texImage2D(GL_TEXTURE_2D, 0, bitmap, 0);
+		}
 		glTexEnvf(GL_TEXTURE_ENV, GL_TEXTURE_ENV_MODE, GL_REPLACE);
-	    GLUtils.texImage2D(GL_TEXTURE_2D, 0, bitmap, 0);
 
 	    // Doesn't return an error in case of memory limitation
 	    // But does return an error in case the GL stack is paused
 	    int glError = glGetError();
 	    if (glError != GL_NO_ERROR) {
 	    	Log.e(TAG,"GL ERROR! " + Integer.toHexString(glError));
+	    	// Storage of the texture is unknown now, do not reuse it
+	    	mTextureFormats.delete(textureId);
+	    	releaseTextureId(textureId);
 	    	// Is '0' never used as a valid texture ID? It seems not, but I have to admit i am not sure...
 	    	return FAILED_TO_ADD_TEXTURE_ERROR;
 	    }
-    	return textureIdArray[0];
+	    mTextureFormats.put(textureId, format);
+    	return textureId;
 	}
 
 	// MUST BE CALLED FROM GL THREAD ONLY
-	// Free a set of textures from GL stack
+	// Give back a set of textures, they are kept in the GL stack to be reused by addTextureToGL
     public void freeGlTextures( int[] IDs, int nb) {
-    	glDeleteTextures(nb, IDs, 0);
+    	for (int i = 0; i < nb; i++) {
+    		releaseTextureId(IDs[i]);
+    	}
+    }
+
+    private void releaseTextureId(int textureId) {
+    	if (mFreeTextureCount == mFreeTextureIds.length) {
+    		int[] ids = new int[mFreeTextureIds.length * 2];
+    		System.arraycopy(mFreeTextureIds, 0, ids, 0, mFreeTextureCount);
+    		mFreeTextureIds = ids;
+    	}
+    	mFreeTextureIds[mFreeTextureCount++] = textureId;
+    }
+
+    // Size and config packed in an int, 0 if it can't be known
+    private static int getTextureFormat(Bitmap bitmap) {
+    	final Bitmap.Config config = bitmap.getConfig();
+    	if (config == null) {
+    		return 0;
+    	}
+    	// textures are at most 1024x1024 (see ArtworkFactory.getPowerOfTwo)
+    	return (bitmap.getWidth() << 20) | (bitmap.getHeight() << 8) | (config.ordinal() + 1);
     }
 
     public float getTilt() {
@@ -20,6 +20,7 @@ import android.os.Message;
 import android.util.Log;
 
 import java.util.concurrent.Semaphore;
+import java.util.Iterator;
 import java.util.LinkedList;
 
 public class TextureProvider {
@@ -45,6 +46,10 @@ public class TextureProvider {
 	// - With Thread.NORM_PRIORITY, the rendering is very jerky, and the texture loading doesn't seem much faster
 	private final static int THREAD_PRIORITY = Thread.MIN_PRIORITY;
 
+	// Number of threads building textures in parallel: leave one core for the UI and GL threads,
+	// more than 3 does not help since they all end up drawing in the single ArtworkFactory canvas
+	private final static int MAX_BUILD_THREADS = 3;
+
 	private final Context mContext;
 	private Handler mListener;
 	private ArtworkFactory mArtworkFactory;
@@ -54,7 +59,8 @@ public class TextureProvider {
 
 	private Semaphore mBuildSema = null;
 
-	private BuildTextureThread mBuildThread = null;
+	private final int mThreadCount;
+	private BuildTextureThread[] mBuildThreads = null;
 
 	// Nested class for Thread in charge of building the textures
 	private class BuildTextureThread extends Thread {
@@ -81,12 +87,18 @@ public class TextureProvider {
 						tr = mRequestList.poll();
 					}
 				}
-				if (tr != null) { // should not have to test that, but sometimes I get semaphore even if the pending list is empty...
+				// cancelled requests (cover gone off-screen) are dropped silently, the requester already forgot them
+				if (tr != null && !tr.isCancelled()) { // should not have to test that, but sometimes I get semaphore even if the pending list is empty...
 
 					boolean ret;
 					// Build the texture, synchronous call
 					ret = tr.makeBitmap(mContext, mArtworkFactory);
 
+					if (tr.isCancelled()) {
+						if (ret) tr.recycleBitmaps(mArtworkFactory);
+						continue;
+					}
+
 					// Send OK or KO message to listener (if we are not aborting)
 					if ((mListener!=null) && !mAbort) {
 						if (ret) {
@@ -110,6 +122,12 @@ public class TextureProvider {
 	public TextureProvider(Context context) {
 		mContext = context;
 		mRequestList = new LinkedList<TextureRequest>();
+		mThreadCount = Math.max(1, Math.min(MAX_BUILD_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+	}
+
+	// Number of textures that can be built at the same time, more requests than that only wait in the list
+	public int getParallelism() {
+		return mThreadCount;
 	}
 
 	// Start/Resume the texture building thread
@@ -133,16 +151,20 @@ public class TextureProvider {
 			synchronized (mRequestList) {
 				mRequestList.clear();
 			}
-			// Stop the thread
-			mBuildThread.abort();
-			mBuildSema.release(); // Be sure to release the thread in case it is waiting for the semaphore
+			// Stop the threads
+			for (BuildTextureThread thread : mBuildThreads) {
+				thread.abort();
+			}
+			mBuildSema.release(mBuildThreads.length); // Be sure to release the threads in case they are waiting for the semaphore
 			if (blocking) {
-				try {
-					mBuildThread.join();
-					if(DBG) Log.d(TAG, "stop_blocking: texture thread stopped");
-				} catch (InterruptedException e) {
-					Log.e(TAG, "stop_blocking: error joining the texture thread", e);
-					e.printStackTrace();
+				for (BuildTextureThread thread : mBuildThreads) {
+					try {
+						thread.join();
+						if(DBG) Log.d(TAG, "stop_blocking: texture thread stopped");
+					} catch (InterruptedException e) {
+						Log.e(TAG, "stop_blocking: error joining the texture thread", e);
+						e.printStackTrace();
+					}
 				}
 			}
 			mState = STATE_STOPPED;
@@ -154,8 +176,10 @@ public class TextureProvider {
 
 	public void setListener(Handler listener) {
 		mListener = listener;
-		if (mBuildThread != null) {
-			mBuildThread.setListener(mListener);
+		if (mBuildThreads != null) {
+			for (BuildTextureThread thread : mBuildThreads) {
+				thread.setListener(mListener);
+			}
 		}
 	}
 	public void setArtworkFactory(ArtworkFactory factory) {
@@ -172,17 +196,38 @@ public class TextureProvider {
 		mBuildSema.release();
 	}
 
+	// Cancel the requests of a requester that does not need its textures anymore (i.e. cover recycled).
+	// Pending requests are removed, the ones being built are dropped once built.
+	public void cancelRequests(TextureRequester requester) {
+		synchronized (mRequestList) {
+			Iterator<TextureRequest> it = mRequestList.iterator();
+			while (it.hasNext()) {
+				TextureRequest tr = it.next();
+				if (tr.mRequester == requester) {
+					tr.cancel();
+					it.remove();
+				}
+			}
+		}
+	}
+
 	// PRIVATE PRIVATE PRIVATE PRIVATE PRIVATE PRIVATE PRIVATE PRIVATE
 
 	private void createAndStartThread() {
-		mBuildThread = new BuildTextureThread();
-		mBuildThread.setListener(mListener);
-		mBuildThread.setPriority(THREAD_PRIORITY);
-
-		// Semaphore intended to ping the building thread when a new texture is asked
+		// Semaphore intended to ping the building threads when a new texture is asked
 		mBuildSema = new Semaphore(0);
 
+		mBuildThreads = new BuildTextureThread[mThreadCount];
+		for (int i = 0; i < mThreadCount; i++) {
+			BuildTextureThread thread = new BuildTextureThread();
+			thread.setListener(mListener);
+			thread.setPriority(THREAD_PRIORITY);
+			mBuildThreads[i] = thread;
+		}
+
 		// Go, fight!
-		mBuildThread.start();
+		for (BuildTextureThread thread : mBuildThreads) {
+			thread.start();
+		}
 	}
 }
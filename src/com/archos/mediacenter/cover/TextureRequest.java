@@ -27,6 +27,9 @@ abstract public class TextureRequest {
 	public TextureRequester mRequester;	// object asking the texture
 	public Bitmap mBitmap; 				// bitmap computed (it's the result of the request)
 
+	// set from the UI thread when the texture is not wanted anymore, checked by the building threads
+	private volatile boolean mCancelled;
+
 	public TextureRequest( TextureRequester requester ) {
 		mRequester = requester;
 		mBitmap = null;
@@ -38,6 +41,22 @@ abstract public class TextureRequest {
 		}
 	}
 
+	// Give the bitmap back to the factory so that it can be reused for the next texture
+	public void recycleBitmaps(ArtworkFactory factory) {
+		if (mBitmap!=null) {
+			factory.releaseBitmap(mBitmap);
+			mBitmap = null;
+		}
+	}
+
+	public void cancel() {
+		mCancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return mCancelled;
+	}
+
 	// Compute the texture, to be implemented by each child of TextureRequest
 	abstract public boolean makeBitmap(Context context, ArtworkFactory factory);
 
@@ -23,10 +23,10 @@ import android.os.Handler;
 import android.util.Log;
 
 import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.HashMap;
+import java.util.TreeSet;
 
 
 public abstract class ThumbnailEngine {
@@ -85,9 +85,50 @@ public abstract class ThumbnailEngine {
 	protected int mThumbnailHeight;
 
 	/**
-	 * The thumbnail building thread
+	 * Priority of requests for items on screen
 	 */
-	private final ThumbnailThread mThumbnailThread;
+	public final static int PRIORITY_VISIBLE = 0;
+	/**
+	 * Priority of requests for items around the screen (prefetch)
+	 */
+	public final static int PRIORITY_PREFETCH = 1;
+
+	/**
+	 * Max number of worker threads, computeThumbnail is mostly db queries and decodes
+	 */
+	private final static int MAX_WORKERS = 3;
+	/**
+	 * Max number of pending requests. Beyond that the lowest priority/oldest ones are dropped
+	 * (they are far off screen by then) instead of blocking the UI thread or failing.
+	 */
+	private final static int MAX_PENDING = 256;
+
+	/**
+	 * The thumbnail building threads
+	 */
+	private final ThumbnailThread[] mThumbnailThreads;
+
+	/**
+	 * Lock guarding the scheduling state below
+	 */
+	private final Object mQueueLock = new Object();
+	/**
+	 * Pending tasks, by priority then arrival order
+	 */
+	private final TreeSet<Task> mPending = new TreeSet<Task>();
+	/**
+	 * Pending tasks by request key, a key is queued at most once
+	 */
+	private final HashMap<Object, Task> mPendingByKey = new HashMap<Object, Task>();
+	/**
+	 * Tasks being computed by key: the same key is never computed twice at once
+	 */
+	private final HashMap<Object, Task> mRunning = new HashMap<Object, Task>();
+	/**
+	 * Bumped by newRequestsCancellingOlderOnes, results of older tasks are pooled but not notified
+	 */
+	private int mGeneration;
+	private long mSequence;
 
 	/**
 	 * The already computed results. The key is the MediaDB ID
@@ -141,8 +182,12 @@ public abstract class ThumbnailEngine {
 	protected ThumbnailEngine(Context context) {
 		mContext = context;
 		mContentResolver = context.getContentResolver();
-		mThumbnailThread = new ThumbnailThread();
-		mThumbnailThread.start();
+		int workers = Math.max(1, Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors() - 1));
+		mThumbnailThreads = new ThumbnailThread[workers];
+		for (int i = 0; i < workers; i++) {
+			mThumbnailThreads[i] = new ThumbnailThread(i);
+			mThumbnailThreads[i].start();
+		}
 	}
 
 	/**
@@ -268,76 +313,138 @@ public abstract class ThumbnailEngine {
 	 */
 	private void cancelPendingRequests() {
 		if(DBG) Log.d(TAG, "cancelPendingRequests");
-		mThumbnailThread.cancelTasks();
+		synchronized (mQueueLock) {
+			mGeneration++;
+			mPending.clear();
+			mPendingByKey.clear();
+		}
 	}
-	
+
 	/**
 	 * Set a new request. Cancel all the previous ones.
 	 * @param request
 	 */
 	public void newRequestsCancellingOlderOnes(AbstractList<ThumbnailRequest> requests) {
-		if(DBG) Log.d(TAG, "newRequestsCancellingOlderOnes ("+requests.size()+" items)");
-		mThumbnailThread.cancelTasks();
-		mThumbnailThread.addTasks(requests);
+		newRequestsCancellingOlderOnes(requests, PRIORITY_VISIBLE);
+	}
+
+	/**
+	 * Set a new request. Cancel all the previous ones.
+	 * @param requests in the order they should be computed
+	 * @param priority PRIORITY_VISIBLE or PRIORITY_PREFETCH
+	 */
+	public void newRequestsCancellingOlderOnes(AbstractList<ThumbnailRequest> requests, int priority) {
+		if(DBG) Log.d(TAG, "newRequestsCancellingOlderOnes ("+requests.size()+" items, priority "+priority+")");
+		synchronized (mQueueLock) {
+			mGeneration++;
+			mPending.clear();
+			mPendingByKey.clear();
+			addRequestsLocked(requests, priority);
+		}
+	}
+
+	/**
+	 * Add requests without cancelling the pending ones.
+	 * A request whose key is already pending replaces it (and keeps the best priority).
+	 */
+	public void addRequests(Collection<? extends ThumbnailRequest> requests, int priority) {
+		if(DBG) Log.d(TAG, "addRequests ("+requests.size()+" items, priority "+priority+")");
+		synchronized (mQueueLock) {
+			addRequestsLocked(requests, priority);
+		}
 	}
 
 	/**
-	 * The actual processing of the thumbnail
+	 * Cancel a single request: dropped if pending, not notified if being computed
+	 */
+	public void cancelRequest(ThumbnailRequest request) {
+		if(DBG) Log.d(TAG, "cancelRequest "+request);
+		final Object key = request.getKey();
+		synchronized (mQueueLock) {
+			Task pending = mPendingByKey.remove(key);
+			if (pending != null) {
+				mPending.remove(pending);
+			}
+			Task running = mRunning.get(key);
+			if (running != null) {
+				running.mCancelled = true;
+				running.mFollowers = null;
+			}
+		}
+	}
+
+	private void addRequestsLocked(Collection<? extends ThumbnailRequest> requests, int priority) {
+		for (ThumbnailRequest request : requests) {
+			final Object key = request.getKey();
+			Task old = mPendingByKey.remove(key);
+			int taskPriority = priority;
+			if (old != null) {
+				mPending.remove(old);
+				taskPriority = Math.min(priority, old.mPriority);
+			}
+			Task task = new Task(request, key, taskPriority, mSequence++, mGeneration);
+			mPending.add(task);
+			mPendingByKey.put(key, task);
+		}
+		// back-pressure: shed what is the least likely to be on screen when its turn comes
+		while (mPending.size() > MAX_PENDING) {
+			Task dropped = mPending.pollLast();
+			mPendingByKey.remove(dropped.mKey);
+			if (DBG2) Log.d(TAG, "dropping " + dropped.mRequest);
+		}
+		mQueueLock.notifyAll();
+	}
+
+	/**
+	 * The actual processing of the thumbnail.
+	 * Called concurrently from several threads, never twice at once for the same request key.
 	 */
 	protected abstract Result computeThumbnail(ThumbnailRequest request);
 
+	/**
+	 * A request scheduled in the engine
+	 */
+	private static final class Task implements Comparable<Task> {
+		final ThumbnailRequest mRequest;
+		final Object mKey;
+		final int mPriority;
+		final long mSequence;
+		final int mGeneration;
+		boolean mCancelled;
+		/**
+		 * Requests for the same key that came in while this one was computed
+		 */
+		ArrayList<Task> mFollowers;
+
+		Task(ThumbnailRequest request, Object key, int priority, long sequence, int generation) {
+			mRequest = request;
+			mKey = key;
+			mPriority = priority;
+			mSequence = sequence;
+			mGeneration = generation;
+		}
+
+		@Override
+		public int compareTo(Task other) {
+			if (mPriority != other.mPriority)
+				return mPriority < other.mPriority ? -1 : 1;
+			return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+		}
+	}
+
     /**
-     * The thread computing the thumbnails.
+     * A thread computing the thumbnails.
      */
     private class ThumbnailThread extends Thread {
         private static final String TAG = ThumbnailEngine.TAG + "TThread";
         private static final boolean DBG = false;
 
-        /**
-         * The request queue this thread is consuming
-         */
-        private final BlockingQueue<ThumbnailRequest> mQueue = new ArrayBlockingQueue<ThumbnailRequest>(1024);
-
-        private static final int STATE_NO_TASK = 0;
-        private static final int STATE_WORKING = 1;
-        private static final int STATE_INCOMING_CLEAR = 2;
-        /**
-         * Used to invalidate running tasks.
-         * Regular flow is STATE_NO_TASK -> STATE_WORKING -> STATE_NO_TASK
-         */
-        private final AtomicInteger mTaskState = new AtomicInteger(STATE_NO_TASK);
-
-        public ThumbnailThread() {
-            super("ThumbnailThread");
+        public ThumbnailThread(int index) {
+            super("ThumbnailThread-" + index);
             if (DBG) Log.d(TAG, "CTOR");
             setPriority(Thread.MIN_PRIORITY);
         }
 
-        public void addTasks(Collection<? extends ThumbnailRequest> requests) {
-            if (DBG) Log.d(TAG, "addTasks(n=" + requests.size() + ")");
-            for (ThumbnailRequest thumbnailRequest : requests) {
-                if (!mQueue.offer(thumbnailRequest)) {
-                    Log.e(TAG, "Queue full, can't handle more requests");
-                }
-            }
-        }
-
-        /** cancels all requests */
-        public void cancelTasks() {
-            if (DBG) Log.d(TAG, "cancelTasks");
-
-            // 3 step procedure guarantees clearing and invalidating the queue
-            // since we can't do that atomically
-
-            // 1. start out by invalidating the queue, thread will not process
-            // tasks after this point.
-            mTaskState.set(STATE_INCOMING_CLEAR);
-            // 2. now clear the queue
-            mQueue.clear();
-            // 3. invalidated running tasks by setting them back to 0
-            mTaskState.set(STATE_NO_TASK);
-        }
-
         /** stops this thread */
         public void stopThread() {
             if (DBG) Log.d(TAG, "stopThread");
@@ -408,44 +515,95 @@ public abstract class ThumbnailEngine {
 
         private void handleResult(ThumbnailRequest request, Result result) {
             if (DBG) Log.d(TAG, "handleResult");
-            if ( result.isValid() &&                    // ...if the thumbnail is valid
-                (!result.hasListenerBeenNotified()))    // ...if the listener has not been notified already about this result
-                {
-                    result.listenerHasBeenNotified();
-                    notifyResult(request, result);
+            synchronized (result) {
+                if (!result.isValid() ||                // ...if the thumbnail is not valid
+                    result.hasListenerBeenNotified())   // ...if the listener has been notified already about this result
+                    return;
+                result.listenerHasBeenNotified();
+            }
+            notifyResult(request, result);
+        }
+
+        /** blocks until a task can be computed, joins tasks whose key is already being computed */
+        private Task takeTask() throws InterruptedException {
+            synchronized (mQueueLock) {
+                while (true) {
+                    Task task = mPending.pollFirst();
+                    if (task == null) {
+                        mQueueLock.wait();
+                        continue;
+                    }
+                    mPendingByKey.remove(task.mKey);
+                    Task running = mRunning.get(task.mKey);
+                    if (running == null) {
+                        mRunning.put(task.mKey, task);
+                        return task;
+                    }
+                    // single-flight: the running computation will serve this request too
+                    if (running.mFollowers == null)
+                        running.mFollowers = new ArrayList<Task>(1);
+                    running.mFollowers.add(task);
                 }
+            }
         }
 
         @Override
         public void run() {
             try {
                 while (!Thread.interrupted()) {
-                    ThumbnailRequest request;
                     if (DBG) Log.d(TAG, "run: waiting for task");
-                    // blocking in next call until the queue has an element
-                    request = mQueue.take();
-
-                    // don't process task if incoming clear
-                    if (mTaskState.compareAndSet(STATE_NO_TASK, STATE_WORKING)) {
-                        // if queue was valid process task
-                        Result result = process(request);
-
-                        // unless task was set back to STATE_NO_TASK publish the result
-                        if (mTaskState.compareAndSet(STATE_WORKING, STATE_NO_TASK)) {
-                            if (result != null)
-                                handleResult(request, result);
-
-                            // when queue is empty notify about that.
-                            if (mQueue.peek() == null)
-                                notifyAllDone();
-                        } else if (DBG) Log.d(TAG, "run: task aborted");
-                    } else if (DBG) Log.d(TAG, "run: queue invalid");
+                    // blocking in next call until a task is available
+                    Task task = takeTask();
+                    Result result = process(task.mRequest);
+
+                    // publish to the first requester still interested: cancelled and older
+                    // generation tasks only feed the pool
+                    ThumbnailRequest notified = null;
+                    boolean current = false;
+                    boolean allDone;
+                    synchronized (mQueueLock) {
+                        mRunning.remove(task.mKey);
+                        if (task.mGeneration == mGeneration) {
+                            current = true;
+                            if (!task.mCancelled)
+                                notified = task.mRequest;
+                        }
+                        if (task.mFollowers != null) {
+                            for (Task follower : task.mFollowers) {
+                                if (follower.mGeneration != mGeneration)
+                                    continue;
+                                current = true;
+                                if (notified == null && !follower.mCancelled)
+                                    notified = follower.mRequest;
+                            }
+                        }
+                        allDone = current && mPending.isEmpty() && !isGenerationRunning(mGeneration);
+                    }
+                    if (notified != null && result != null)
+                        handleResult(notified, result);
+                    else if (DBG && notified == null) Log.d(TAG, "run: task aborted");
+                    // when all requests of the current batch are done notify about that.
+                    if (allDone)
+                        notifyAllDone();
                 }
             } catch (InterruptedException e) {
                 // interrupted while doing things, just end.
             }
         }
 
+        private boolean isGenerationRunning(int generation) {
+            for (Task running : mRunning.values()) {
+                if (running.mGeneration == generation)
+                    return true;
+                if (running.mFollowers != null) {
+                    for (Task follower : running.mFollowers) {
+                        if (follower.mGeneration == generation)
+                            return true;
+                    }
+                }
+            }
+            return false;
+        }
     }
 
 }
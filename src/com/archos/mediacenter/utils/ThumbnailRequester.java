@@ -21,6 +21,7 @@ import android.util.Log;
 import android.widget.AbsListView;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * As it is now it should be called ThumbnailRequesterVideo...
@@ -44,6 +45,11 @@ public abstract class ThumbnailRequester extends DataSetObserver  implements Abs
 	
 	private int mCurrentListItemsToCompute;
 
+	/**
+	 * Requests sent to the engine since the last scroll (visible and prefetch), by key
+	 */
+	private final HashMap<Object, ThumbnailRequest> mRequested = new HashMap<Object, ThumbnailRequest>();
+
 	/**
 	 * Create a ThumbnailRequester associated with a ThumbnailEngine
 	 * @param engine: the one and only ThumbnailEngine to which this requester is attached to
@@ -135,6 +141,7 @@ public abstract class ThumbnailRequester extends DataSetObserver  implements Abs
 
 		// Build the request list
 		ArrayList<ThumbnailRequest> requests = new ArrayList<ThumbnailRequest>(visibleItemCount);
+		HashMap<Object, ThumbnailRequest> visible = new HashMap<Object, ThumbnailRequest>(visibleItemCount * 2);
 		String dbgString = "";
 
 		for (int i=0; i<visibleItemCount; i++) {
@@ -143,12 +150,27 @@ public abstract class ThumbnailRequester extends DataSetObserver  implements Abs
 			    final ThumbnailRequest tr = getThumbnailRequest(n, dbgString);
 			    if (tr!=null) {
 			        requests.add(tr);
+			        visible.put(tr.getKey(), tr);
 			    }
 			}
 		}
+
+		// Only what left the screen is cancelled: a prefetched item now visible keeps its
+		// place in the queue (or its running computation) and just gets the visible priority
+		for (ThumbnailRequest old : mRequested.values()) {
+			if (!visible.containsKey(old.getKey())) {
+				mEngine.cancelRequest(old);
+			}
+		}
+		mRequested.clear();
+		mRequested.putAll(visible);
+
 		if (requests.size()>0) {
 		    if(DBG) Log.d(TAG, "onScroll: Requesting "+dbgString);
-		    mEngine.newRequestsCancellingOlderOnes(requests);
+		    mEngine.addRequests(requests, ThumbnailEngine.PRIORITY_VISIBLE);
+		} else {
+			// nothing to compute on screen, go on with the items around it
+			onAllRequestsDone();
 		}
 	}
 	
@@ -212,7 +234,14 @@ public abstract class ThumbnailRequester extends DataSetObserver  implements Abs
 		// Send the request
 		if ((requests!=null) && (requests.size() > 0)) {
 			if(DBG) Log.d(TAG, "onAllRequestsDone: Requesting "+dbgString);
-			mEngine.newRequestsCancellingOlderOnes(requests);
+			for (ThumbnailRequest tr : requests) {
+				mRequested.put(tr.getKey(), tr);
+			}
+			// queued behind the visible ones, which keep being served first
+			mEngine.addRequests(requests, ThumbnailEngine.PRIORITY_PREFETCH);
+		} else if (mCurrentListItemsToCompute != BEFORE) {
+			// nothing needed below, the engine won't call back: go on with above
+			onAllRequestsDone();
 		}
 	}
 
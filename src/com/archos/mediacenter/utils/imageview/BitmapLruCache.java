@@ -17,22 +17,38 @@ package com.archos.mediacenter.utils.imageview;
 import android.graphics.Bitmap;
 import android.util.LruCache;
 
-/** {@link LruCache} implementation for {@link Bitmap} limited by byte size */
+import java.util.WeakHashMap;
+
+/**
+ * {@link LruCache} implementation for {@link Bitmap} limited by byte size.
+ * <p>
+ * The byte size of a Bitmap is measured once when it enters the cache and remembered,
+ * so a Bitmap that is recycled while cached is still accounted for the bytes it was
+ * added with. Measuring it again would make {@link #size()} drift.
+ */
 public class BitmapLruCache extends LruCache<String, Bitmap> {
     public static final int KILOBYTE = 1024;
     public static final int MEGABYTE = KILOBYTE * 1024;
 
+    /**
+     * bytes of each Bitmap when it was first measured, only accessed from sizeOf which
+     * LruCache calls with its lock held. Bitmap does not override equals / hashCode so
+     * this is by identity, and entries go away with the Bitmap.
+     */
+    private final WeakHashMap<Bitmap, Integer> mBytes = new WeakHashMap<Bitmap, Integer>();
+
     public BitmapLruCache(int maxSize) {
         super(maxSize);
     }
 
     @Override
     protected int sizeOf(String key, Bitmap value) {
-        // assume size of recycled images = 1
-        int result = 1;
-        if (!value.isRecycled()) {
-            result = value.getByteCount();
+        Integer bytes = mBytes.get(value);
+        if (bytes == null) {
+            // assume size of recycled images = 1
+            bytes = Integer.valueOf(value.isRecycled() ? 1 : value.getAllocationByteCount());
+            mBytes.put(value, bytes);
         }
-        return result;
+        return bytes.intValue();
     }
 }
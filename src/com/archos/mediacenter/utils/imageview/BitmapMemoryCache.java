@@ -16,23 +16,71 @@ package com.archos.mediacenter.utils.imageview;
 
 import android.graphics.Bitmap;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * cache of Bitmaps that keeps a (byte size) limited amount of keeps strong references
  * plus weak references in case the GC did not pick up the image but it was removed from
  * the strong referenced cache
+ * <p>
+ * Safe for concurrent use without a global lock: the strong references are split
+ * into independently locked {@link BitmapLruCache} stripes selected by key hash and
+ * the weak references live in a {@link ConcurrentHashMap} that is purged through a
+ * {@link ReferenceQueue} once the GC has cleared a Bitmap.
+ * <p>
+ * The byte limit applies to all stripes together, a single stripe may hold up to the
+ * whole budget so that a Bitmap bigger than a stripe's share is not dropped right away.
  */
 public class BitmapMemoryCache {
 
-    private final BitmapLruCache mHardCache;
-    private final HashMap<String, WeakReference<Bitmap>> mWeakCache;
+    /** upper bound for the number of stripes, must be a power of two */
+    private static final int MAX_STRIPES = 8;
+    /** don't split the budget into shares smaller than that */
+    private static final int MIN_STRIPE_BYTES = 2 * BitmapLruCache.MEGABYTE;
+
+    private final BitmapLruCache[] mHardCaches;
+    private final int mStripeMask;
+    private final int mMaxBytes;
+    /** what a stripe may keep before it has to give back memory to the others */
+    private final int mStripeBytes;
+    private final ConcurrentHashMap<String, KeyedWeakReference> mWeakCache;
+    private final ReferenceQueue<Bitmap> mWeakQueue;
+
+    /** WeakReference that remembers its key so it can be removed once cleared */
+    private static final class KeyedWeakReference extends WeakReference<Bitmap> {
+        final String key;
+
+        KeyedWeakReference(String key, Bitmap referent, ReferenceQueue<Bitmap> queue) {
+            super(referent, queue);
+            this.key = key;
+        }
+    }
 
     /** constructs a cache limiting strong references to bytes */
     public BitmapMemoryCache(int bytes) {
-        mHardCache = new BitmapLruCache(bytes);
-        mWeakCache = new HashMap<String, WeakReference<Bitmap>>();
+        int stripes = 1;
+        while (stripes < MAX_STRIPES && bytes / (stripes * 2) >= MIN_STRIPE_BYTES) {
+            stripes *= 2;
+        }
+        mHardCaches = new BitmapLruCache[stripes];
+        for (int i = 0; i < stripes; i++) {
+            mHardCaches[i] = new BitmapLruCache(bytes);
+        }
+        mStripeMask = stripes - 1;
+        mMaxBytes = bytes;
+        mStripeBytes = bytes / stripes;
+        mWeakCache = new ConcurrentHashMap<String, KeyedWeakReference>();
+        mWeakQueue = new ReferenceQueue<Bitmap>();
+    }
+
+    private BitmapLruCache stripeFor(String key) {
+        int h = key.hashCode();
+        // spread higher bits down, keys often share their prefix
+        h ^= (h >>> 16);
+        return mHardCaches[h & mStripeMask];
     }
 
     /**
@@ -40,28 +88,33 @@ public class BitmapMemoryCache {
      * @return the bitmap if it was found in the cache
      * @see android.util.LruCache#get(java.lang.Object)
      */
-    public final synchronized Bitmap get(String key) {
+    public final Bitmap get(String key) {
         // check hard cache
-        Bitmap result = mHardCache.get(key);
-        if (result != null && !result.isRecycled())
-            return result;
-        // remove if is recycled
-        mHardCache.remove(key);
+        BitmapLruCache hardCache = stripeFor(key);
+        Bitmap result = hardCache.get(key);
+        if (result != null) {
+            if (!result.isRecycled())
+                return result;
+            // remove if is recycled
+            hardCache.remove(key);
+        }
 
         // fallback to weak cache
-        WeakReference<Bitmap> weakBitmap = mWeakCache.get(key);
+        KeyedWeakReference weakBitmap = mWeakCache.get(key);
         if (weakBitmap != null) {
             result = weakBitmap.get();
             if (result != null && !result.isRecycled()) {
                 // put the reference back into hard cache
-                mHardCache.put(key, result);
+                hardCache.put(key, result);
+                trimToBudget(hardCache);
                 return result;
             }
-            // remove if it is gone / recycled
-            mWeakCache.remove(key);
+            // remove if it is gone / recycled, unless someone put a new one meanwhile
+            mWeakCache.remove(key, weakBitmap);
         }
 
         // nothing found
+        expungeStaleEntries();
         return null;
     }
 
@@ -71,9 +124,48 @@ public class BitmapMemoryCache {
      * @param value the Bitmap to cache
      * @see android.util.LruCache#put(java.lang.Object, java.lang.Object)
      */
-    public final synchronized void put(String key, Bitmap value) {
-        mHardCache.put(key, value);
-        mWeakCache.put(key, new WeakReference<Bitmap>(value));
+    public final void put(String key, Bitmap value) {
+        expungeStaleEntries();
+        BitmapLruCache hardCache = stripeFor(key);
+        hardCache.put(key, value);
+        trimToBudget(hardCache);
+        mWeakCache.put(key, new KeyedWeakReference(key, value, mWeakQueue));
+    }
+
+    /**
+     * Evicts until all stripes together fit the byte limit again. Memory is taken back from
+     * stripes above their share first, then from the other stripes and from current (the
+     * one just written to) last, so a Bitmap up to the whole budget can stay.
+     */
+    private void trimToBudget(BitmapLruCache current) {
+        int excess = size() - mMaxBytes;
+        for (int pass = 0; pass < 2 && excess > 0; pass++) {
+            for (BitmapLruCache hardCache : mHardCaches) {
+                if (hardCache == current)
+                    continue;
+                int before = hardCache.size();
+                int floor = pass == 0 ? mStripeBytes : 0;
+                int target = Math.max(floor, before - excess);
+                if (target < before) {
+                    hardCache.trimToSize(target);
+                    excess -= before - hardCache.size();
+                    if (excess <= 0)
+                        return;
+                }
+            }
+        }
+        if (excess > 0) {
+            current.trimToSize(Math.max(0, current.size() - excess));
+        }
+    }
+
+    /** removes weak cache entries whose Bitmap has been garbage collected */
+    private void expungeStaleEntries() {
+        Reference<? extends Bitmap> ref;
+        while ((ref = mWeakQueue.poll()) != null) {
+            KeyedWeakReference keyed = (KeyedWeakReference) ref;
+            mWeakCache.remove(keyed.key, keyed);
+        }
     }
 
     /**
@@ -81,13 +173,20 @@ public class BitmapMemoryCache {
      * @see android.util.LruCache#size()
      */
     public final int size() {
-        return mHardCache.size();
+        int size = 0;
+        for (BitmapLruCache hardCache : mHardCaches) {
+            size += hardCache.size();
+        }
+        return size;
     }
 
     /** stop using the memories */
-    public final synchronized void clear() {
-        mHardCache.evictAll();
+    public final void clear() {
+        for (BitmapLruCache hardCache : mHardCaches) {
+            hardCache.evictAll();
+        }
         mWeakCache.clear();
+        expungeStaleEntries();
     }
 
 }
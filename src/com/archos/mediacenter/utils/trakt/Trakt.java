@@ -29,12 +29,14 @@ import com.archos.mediacenter.utils.trakt.TraktAPI.MovieWatchingParam;
 import com.archos.mediacenter.utils.trakt.TraktAPI.ShowWatchingParam;
 import com.archos.mediacenter.utils.videodb.VideoDbInfo;
 import com.archos.medialib.R;
+import com.archos.mediaprovider.video.VideoOpenHelper;
 import com.archos.mediaprovider.video.VideoStore;
 import com.uwetrottmann.trakt5.TraktV2;
 import com.uwetrottmann.trakt5.entities.AccessToken;
 import com.uwetrottmann.trakt5.entities.BaseMovie;
 import com.uwetrottmann.trakt5.entities.BaseShow;
 import com.uwetrottmann.trakt5.entities.EpisodeIds;
+import com.uwetrottmann.trakt5.entities.HistoryEntry;
 import com.uwetrottmann.trakt5.entities.LastActivities;
 import com.uwetrottmann.trakt5.entities.ListEntry;
 import com.uwetrottmann.trakt5.entities.MovieIds;
@@ -47,16 +49,20 @@ import com.uwetrottmann.trakt5.entities.SyncResponse;
 import com.uwetrottmann.trakt5.entities.TraktList;
 import com.uwetrottmann.trakt5.entities.UserSlug;
 import com.uwetrottmann.trakt5.enums.Extended;
+import com.uwetrottmann.trakt5.enums.HistoryType;
 import com.uwetrottmann.trakt5.enums.ListPrivacy;
 
 import org.apache.oltu.oauth2.client.request.OAuthClientRequest;
 import org.apache.oltu.oauth2.common.exception.OAuthSystemException;
+import org.threeten.bp.Instant;
 import org.threeten.bp.OffsetDateTime;
+import org.threeten.bp.ZoneOffset;
 
 import java.io.IOException;
 import java.math.BigInteger;
 import java.security.SecureRandom;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
@@ -80,6 +86,7 @@ public class Trakt {
     public static final int SCROBBLE_THRESHOLD = 85;
     // TODO: question do we want more?
     public static final int LIMIT_RESPONSES = 10000;
+    private static final int HISTORY_PAGE_SIZE = 1000;
 
     private static final String XML_PREFIX = ".trakt_";
     private static final String XML_SUFFIX = "_db.xml";
@@ -90,8 +97,8 @@ public class Trakt {
     public static final String ACTION_UNSEEN = "unseen";
     public static final String ACTIONS[] = new String[]{ACTION_LIBRARY, ACTION_UNLIBRARY, ACTION_SEEN, ACTION_UNSEEN};
 
-    public static final String LIBRARY_COLLECTION = "collection";
-    public static final String LIBRARY_WATCHED = "watched";
+    public static final String LIBRARY_COLLECTION = VideoOpenHelper.TRAKT_OUTBOX_COLLECTION;
+    public static final String LIBRARY_WATCHED = VideoOpenHelper.TRAKT_OUTBOX_WATCHED;
     public static final String LIBRARIES[] = new String[]{LIBRARY_COLLECTION, LIBRARY_WATCHED};
     private static final String KEY_TRAKT_REFRESH_TOKEN = "trakt_refresh_token";
     public static final String KEY_TRAKT_USER = "trakt_user";
@@ -103,9 +110,11 @@ public class Trakt {
     private static final String KEY_TRAKT_LAST_TIME_SHOW_WATCHED = "trakt_last_time_show_watched";
     private static final String KEY_TRAKT_LAST_TIME_MOVIE_WATCHED = "trakt_last_time_movie_watched";
     private static final String KEY_TRAKT_SYNC_COLLECTION = "trakt_sync_collection";
+    private static final String KEY_TRAKT_HISTORY_MOVIES = "trakt_history_movies";
+    private static final String KEY_TRAKT_HISTORY_EPISODES = "trakt_history_episodes";
 
     public static final int TRAKT_DB_MARKED = 1;
-    public static final int TRAKT_DB_UNMARK = 2;
+    public static final int TRAKT_DB_UNMARK = VideoOpenHelper.TRAKT_UNMARK;
 
     public static final int WATCHING_DELAY_MS = 600000; // 10 min
     private static final long WAIT_BEFORE_NEXT_TRIAL = 2000;
@@ -201,7 +210,8 @@ public class Trakt {
             LIST,
             SYNC_RESPONSE,
             RETOFIT_RESPONSE,
-            PLAYBACK_RESPONSE
+            PLAYBACK_RESPONSE,
+            HISTORY
         }
         public Result(Status status, Object obj, ObjectType objType) {
             this.status = status;
@@ -620,6 +630,24 @@ public class Trakt {
         return handleRet(null, null, arg0, ObjectType.MOVIES);
     }
 
+    /**
+     * Watched history entries of type (movies or episodes) watched at or after sinceSecond, all pages.
+     */
+    public Result getHistory(HistoryType type, long sinceSecond) {
+        if (DBG) Log.d(TAG, "getHistory " + type + " since " + sinceSecond);
+        OffsetDateTime startAt = OffsetDateTime.ofInstant(Instant.ofEpochSecond(sinceSecond), ZoneOffset.UTC);
+        List<HistoryEntry> entries = new ArrayList<HistoryEntry>();
+        for (int page = 1; ; page++) {
+            List<HistoryEntry> ret = exec(mTraktV2.users().history(UserSlug.ME, type, page, HISTORY_PAGE_SIZE, null, startAt, null));
+            if (ret == null)
+                return handleRet(null, new Exception(), null, ObjectType.NULL);
+            entries.addAll(ret);
+            if (ret.size() < HISTORY_PAGE_SIZE)
+                break;
+        }
+        return handleRet(null, null, entries, ObjectType.HISTORY);
+    }
+
     public Result getLastActivity(int trial) {
         if (DBG) Log.d(TAG, "getLastActivity");
         LastActivities ret = exec(mTraktV2.sync().lastActivities());
@@ -811,6 +839,17 @@ public class Trakt {
         editor.commit();
     }
 
+    /** watched_at (epoch second) of the newest history entry already applied to the db, 0 if none */
+    public static long getHistoryHighWaterMark(SharedPreferences preferences, HistoryType type) {
+        return preferences.getLong(type == HistoryType.MOVIES ? KEY_TRAKT_HISTORY_MOVIES : KEY_TRAKT_HISTORY_EPISODES, 0);
+    }
+
+    public static void setHistoryHighWaterMark(SharedPreferences preferences, HistoryType type, long time) {
+        Editor editor = preferences.edit();
+        editor.putLong(type == HistoryType.MOVIES ? KEY_TRAKT_HISTORY_MOVIES : KEY_TRAKT_HISTORY_EPISODES, time);
+        editor.commit();
+    }
+
     public static boolean getSyncCollection(SharedPreferences preferences) {
         return preferences.getBoolean(KEY_TRAKT_SYNC_COLLECTION, false);
     }
@@ -826,6 +865,8 @@ public class Trakt {
         editor.remove(Trakt.KEY_TRAKT_SYNC_FLAG);
         editor.remove(Trakt.KEY_TRAKT_LAST_TIME_MOVIE_WATCHED);
         editor.remove(Trakt.KEY_TRAKT_LAST_TIME_SHOW_WATCHED);
+        editor.remove(Trakt.KEY_TRAKT_HISTORY_MOVIES);
+        editor.remove(Trakt.KEY_TRAKT_HISTORY_EPISODES);
         editor.commit();
     }
 
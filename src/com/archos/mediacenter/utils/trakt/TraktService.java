@@ -16,10 +16,12 @@ package com.archos.mediacenter.utils.trakt;
 
 
 import android.app.Service;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.Uri;
@@ -43,6 +45,7 @@ import com.archos.mediacenter.utils.videodb.IndexHelper;
 import com.archos.mediacenter.utils.videodb.VideoDbInfo;
 import com.archos.medialib.R;
 import com.archos.environment.NetworkState;
+import com.archos.mediaprovider.video.VideoOpenHelper;
 import com.archos.mediaprovider.video.VideoStore;
 import com.archos.mediascraper.ScrapeStatus;
 import com.uwetrottmann.trakt5.entities.BaseEpisode;
@@ -51,6 +54,7 @@ import com.uwetrottmann.trakt5.entities.BaseSeason;
 import com.uwetrottmann.trakt5.entities.BaseShow;
 import com.uwetrottmann.trakt5.entities.EpisodeIds;
 import com.uwetrottmann.trakt5.entities.GenericProgress;
+import com.uwetrottmann.trakt5.entities.HistoryEntry;
 import com.uwetrottmann.trakt5.entities.LastActivities;
 import com.uwetrottmann.trakt5.entities.ListEntry;
 import com.uwetrottmann.trakt5.entities.MovieIds;
@@ -58,12 +62,15 @@ import com.uwetrottmann.trakt5.entities.SyncEpisode;
 import com.uwetrottmann.trakt5.entities.SyncItems;
 import com.uwetrottmann.trakt5.entities.SyncMovie;
 import com.uwetrottmann.trakt5.entities.TraktList;
+import com.uwetrottmann.trakt5.enums.HistoryType;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 // TODO MARC if the nohandler is not there because shut down!!!!
 
@@ -396,7 +403,18 @@ public class TraktService extends Service {
     private static final String SYNC_PROGRESS_PROJECTION[] = new String[] {
         BaseColumns._ID,
        };
+    // rows whose trakt state changed since the last push, maintained by db triggers
+    private static String getOutboxSelection(String library) {
+        return BaseColumns._ID + " IN (SELECT " + VideoOpenHelper.TRAKT_OUTBOX_VIDEO_ID +
+                " FROM " + VideoOpenHelper.TRAKT_OUTBOX_TABLE_NAME +
+                " WHERE " + VideoOpenHelper.TRAKT_OUTBOX_LIBRARY + " = '" + library + "')";
+    }
+
     private static final String getVideoToMarkSelection(String library, int scraperType, boolean toMark) {
+        return getVideoToMarkStateSelection(library, scraperType, toMark) + " AND " + getOutboxSelection(library);
+    }
+
+    private static final String getVideoToMarkStateSelection(String library, int scraperType, boolean toMark) {
         if (library.equals(Trakt.LIBRARY_WATCHED)) {
             if (toMark)
                 return "(" + VideoStore.Video.VideoColumns.BOOKMARK + " = -2 AND " +
@@ -629,64 +647,223 @@ public class TraktService extends Service {
     	
     }
 
-    private Trakt.Status syncMoviesToDb(String library) {
-        final ContentResolver cr = getContentResolver();
+    // local state of every scraped movie / episode, used to diff against what trakt reports
+    private static final String RECONCILE_MOVIE_PROJECTION[] = new String[] {
+            BaseColumns._ID,
+            VideoStore.Video.VideoColumns.SCRAPER_M_ONLINE_ID,
+            VideoStore.Video.VideoColumns.ARCHOS_TRAKT_SEEN,
+            VideoStore.Video.VideoColumns.ARCHOS_TRAKT_LIBRARY,
+            VideoStore.Video.VideoColumns.BOOKMARK };
+    private static final String RECONCILE_SHOW_PROJECTION[] = new String[] {
+            BaseColumns._ID,
+            VideoStore.Video.VideoColumns.SCRAPER_S_ONLINE_ID,
+            VideoStore.Video.VideoColumns.SCRAPER_E_SEASON,
+            VideoStore.Video.VideoColumns.SCRAPER_E_EPISODE,
+            VideoStore.Video.VideoColumns.ARCHOS_TRAKT_SEEN,
+            VideoStore.Video.VideoColumns.ARCHOS_TRAKT_LIBRARY,
+            VideoStore.Video.VideoColumns.BOOKMARK };
+    private static final String RECONCILE_MOVIE_SELECTION =
+            VideoStore.Video.VideoColumns.ARCHOS_MEDIA_SCRAPER_TYPE + " = " + com.archos.mediascraper.BaseTags.MOVIE +
+            " AND " + VideoStore.Video.VideoColumns.SCRAPER_M_ONLINE_ID + " > 0";
+    private static final String RECONCILE_SHOW_SELECTION =
+            VideoStore.Video.VideoColumns.ARCHOS_MEDIA_SCRAPER_TYPE + " = " + com.archos.mediascraper.BaseTags.TV_SHOW +
+            " AND " + VideoStore.Video.VideoColumns.SCRAPER_S_ONLINE_ID + " > 0";
+    // stays well below SQLITE_MAX_VARIABLE_NUMBER (999)
+    private static final int RECONCILE_IDS_PER_UPDATE = 500;
+
+    // movies are keyed by their tmdb id, episodes by show tmdb id, season and episode
+    private static String getShowKey(long showOnlineId, int season, int episode) {
+        return showOnlineId + "|" + season + "|" + episode;
+    }
 
-        Trakt.Result result = mTrakt.getAllMovies(library, true);
-        if (result.status == Trakt.Status.ERROR_NETWORK)
-            return Trakt.Status.ERROR_NETWORK;
-        if (result.status == Trakt.Status.SUCCESS &&
-                result.objType == Trakt.Result.ObjectType.MOVIES) {
-            java.util.List<BaseMovie> movies = (java.util.List<BaseMovie>) result.obj;
-
-            if (movies.size() > 0) {
-                InBuilder inBuilder = new InBuilder(VideoStore.Video.VideoColumns.SCRAPER_M_ONLINE_ID);
-                for (BaseMovie movie : movies){
-                    inBuilder.addParam(movie.movie.ids.tmdb);
-                    if (DBG) Log.d(TAG, "syncMoviesToDb: marking " + movie.movie.title);
-                }
-                final String inSelection = inBuilder.get();
-                if (inSelection != null) {
-                    final String selection = "_id IN ("+ 
-                            "SELECT video_id FROM movie WHERE " + inSelection + ")";
-                    cr.update(VideoStore.Video.Media.EXTERNAL_CONTENT_URI,
-                            getValuesMarkAs(library, true), selection, null);
-                }
+    /** true if the current row already has the trakt mark of library */
+    private static boolean isMarked(Cursor c, String library, int seenColumn, int libraryColumn, int bookmarkColumn) {
+        if (library.equals(Trakt.LIBRARY_WATCHED))
+            return c.getInt(seenColumn) == 1 && c.getInt(bookmarkColumn) == -2;
+        else
+            return c.getInt(libraryColumn) == 1;
+    }
+
+    /**
+     * Marks all ids in a single provider transaction: ids are bound in chunks of
+     * RECONCILE_IDS_PER_UPDATE and applyBatch notifies observers once.
+     */
+    private Trakt.Status markIds(ContentResolver cr, String library, List<Long> ids) {
+        if (ids.isEmpty())
+            return Trakt.Status.SUCCESS;
+        final ContentValues values = getValuesMarkAs(library, true);
+        ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+        for (int start = 0; start < ids.size(); start += RECONCILE_IDS_PER_UPDATE) {
+            int end = Math.min(start + RECONCILE_IDS_PER_UPDATE, ids.size());
+            StringBuilder selection = new StringBuilder(BaseColumns._ID).append(" IN (");
+            String[] selectionArgs = new String[end - start];
+            for (int i = start; i < end; i++) {
+                selection.append(i == start ? "?" : ",?");
+                selectionArgs[i - start] = String.valueOf(ids.get(i));
             }
+            selection.append(')');
+            ops.add(ContentProviderOperation.newUpdate(VideoStore.Video.Media.EXTERNAL_CONTENT_URI)
+                    .withValues(values)
+                    .withSelection(selection.toString(), selectionArgs)
+                    .build());
+        }
+        try {
+            cr.applyBatch(VideoStore.AUTHORITY, ops);
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(TAG, "markIds: failed to mark " + ids.size() + " videos", e);
+            return Trakt.Status.ERROR;
         }
+        if (DBG) Log.d(TAG, "markIds: marked " + ids.size() + " videos in " + ops.size() + " updates");
         return Trakt.Status.SUCCESS;
     }
 
-    private Trakt.Status syncShowsToDb(String library) {
+    /**
+     * Ids of local rows matching traktKeys that are not marked yet for library.
+     * When keyArgs is not null only rows with keyColumn in keyArgs are read, bound in chunks.
+     */
+    private List<Long> getIdsToMark(ContentResolver cr, String library, boolean isShow, Set<String> traktKeys,
+            String keyColumn, List<String> keyArgs) {
+        List<Long> toMark = new ArrayList<Long>();
+        final String[] projection = isShow ? RECONCILE_SHOW_PROJECTION : RECONCILE_MOVIE_PROJECTION;
+        final String baseSelection = isShow ? RECONCILE_SHOW_SELECTION : RECONCILE_MOVIE_SELECTION;
+        int start = 0;
+        do {
+            String selection = baseSelection;
+            String[] selectionArgs = null;
+            if (keyArgs != null) {
+                int end = Math.min(start + RECONCILE_IDS_PER_UPDATE, keyArgs.size());
+                StringBuilder in = new StringBuilder(selection).append(" AND ").append(keyColumn).append(" IN (");
+                for (int i = start; i < end; i++)
+                    in.append(i == start ? "?" : ",?");
+                selection = in.append(')').toString();
+                selectionArgs = keyArgs.subList(start, end).toArray(new String[end - start]);
+                start = end;
+            }
+            Cursor c = cr.query(VideoStore.Video.Media.EXTERNAL_CONTENT_URI, projection, selection, selectionArgs, null);
+            if (c != null) {
+                int idColumn = c.getColumnIndexOrThrow(BaseColumns._ID);
+                int onlineIdColumn = c.getColumnIndexOrThrow(isShow ?
+                        VideoStore.Video.VideoColumns.SCRAPER_S_ONLINE_ID : VideoStore.Video.VideoColumns.SCRAPER_M_ONLINE_ID);
+                int seasonColumn = isShow ? c.getColumnIndexOrThrow(VideoStore.Video.VideoColumns.SCRAPER_E_SEASON) : -1;
+                int episodeColumn = isShow ? c.getColumnIndexOrThrow(VideoStore.Video.VideoColumns.SCRAPER_E_EPISODE) : -1;
+                int seenColumn = c.getColumnIndexOrThrow(VideoStore.Video.VideoColumns.ARCHOS_TRAKT_SEEN);
+                int libraryColumn = c.getColumnIndexOrThrow(VideoStore.Video.VideoColumns.ARCHOS_TRAKT_LIBRARY);
+                int bookmarkColumn = c.getColumnIndexOrThrow(VideoStore.Video.VideoColumns.BOOKMARK);
+                while (c.moveToNext()) {
+                    String key = isShow ?
+                            getShowKey(c.getLong(onlineIdColumn), c.getInt(seasonColumn), c.getInt(episodeColumn)) :
+                            c.getString(onlineIdColumn);
+                    if (traktKeys.contains(key) && !isMarked(c, library, seenColumn, libraryColumn, bookmarkColumn))
+                        toMark.add(c.getLong(idColumn));
+                }
+                c.close();
+            }
+        } while (keyArgs != null && start < keyArgs.size());
+        return toMark;
+    }
+
+    /**
+     * Pulls trakt state into the db. For the watched library, once a first full pass has
+     * set a high-water mark, only history entries newer than it are fetched.
+     */
+    private Trakt.Status syncMoviesToDb(String library, boolean fullSync) {
         final ContentResolver cr = getContentResolver();
-        Trakt.Result result = mTrakt.getAllShows(library);
-        if (result.status == Trakt.Status.ERROR_NETWORK)
-            return Trakt.Status.ERROR_NETWORK;
-        if (result.status == Trakt.Status.SUCCESS &&
-                result.objType == Trakt.Result.ObjectType.SHOWS_PER_SEASON) {
-            java.util.List<BaseShow> shows = (java.util.List<BaseShow> ) result.obj;
-            
-            if (shows.size() > 0) {
-                for (BaseShow show : shows) {
-                    for (BaseSeason season : show.seasons) {
-                        InBuilder inBuilder = new InBuilder("number_episode");
-                        for (BaseEpisode episode : season.episodes) {
-                            if (DBG) Log.d(TAG, "syncShowsToDb: marking " + show.show.title + " s" + season.number + "e" + episode.number);
-                            inBuilder.addParam(episode.number);
-                        }
-                        final String inSelection = inBuilder.get();
-                        if (inSelection != null) {
-                            final String selection = "_id IN ("+
-                                    "SELECT video_id FROM episode where season_episode = " + season.number +
-                                    " AND " + inSelection +
-                                    " AND show_episode IN (SELECT _id FROM show WHERE s_online_id = " + show.show.ids.tmdb +"))";
-                            cr.update(VideoStore.Video.Media.EXTERNAL_CONTENT_URI, getValuesMarkAs(library, true), selection, null);
-                        }
+        final boolean watched = library.equals(Trakt.LIBRARY_WATCHED);
+        final long since = watched && !fullSync ? Trakt.getHistoryHighWaterMark(mPreferences, HistoryType.MOVIES) : 0;
+        Set<String> traktMovies = new HashSet<String>();
+        long highWaterMark = since;
+
+        if (since > 0) {
+            Trakt.Result result = mTrakt.getHistory(HistoryType.MOVIES, since);
+            if (result.status == Trakt.Status.ERROR_NETWORK)
+                return Trakt.Status.ERROR_NETWORK;
+            if (result.status != Trakt.Status.SUCCESS || result.objType != Trakt.Result.ObjectType.HISTORY)
+                return Trakt.Status.SUCCESS;
+            for (HistoryEntry entry : (List<HistoryEntry>) result.obj) {
+                if (entry.movie == null || entry.movie.ids == null || entry.movie.ids.tmdb == null)
+                    continue;
+                traktMovies.add(String.valueOf(entry.movie.ids.tmdb));
+                if (entry.watched_at != null)
+                    highWaterMark = Math.max(highWaterMark, entry.watched_at.toEpochSecond());
+            }
+        } else {
+            Trakt.Result result = mTrakt.getAllMovies(library, true);
+            if (result.status == Trakt.Status.ERROR_NETWORK)
+                return Trakt.Status.ERROR_NETWORK;
+            if (result.status != Trakt.Status.SUCCESS || result.objType != Trakt.Result.ObjectType.MOVIES)
+                return Trakt.Status.SUCCESS;
+            for (BaseMovie movie : (List<BaseMovie>) result.obj) {
+                if (movie.movie == null || movie.movie.ids == null || movie.movie.ids.tmdb == null)
+                    continue;
+                traktMovies.add(String.valueOf(movie.movie.ids.tmdb));
+                if (movie.last_watched_at != null)
+                    highWaterMark = Math.max(highWaterMark, movie.last_watched_at.toEpochSecond());
+            }
+        }
+        Trakt.Status status = Trakt.Status.SUCCESS;
+        if (!traktMovies.isEmpty()) {
+            // diff locally: only rows trakt has and we don't are updated, delta only reads the rows concerned
+            List<Long> toMark = getIdsToMark(cr, library, false, traktMovies,
+                    VideoStore.Video.VideoColumns.SCRAPER_M_ONLINE_ID, since > 0 ? new ArrayList<String>(traktMovies) : null);
+            if (DBG) Log.d(TAG, "syncMoviesToDb: " + traktMovies.size() + " movies from trakt (delta=" + (since > 0) + "), marking " + toMark.size());
+            status = markIds(cr, library, toMark);
+        }
+        if (watched && status == Trakt.Status.SUCCESS && highWaterMark > since)
+            Trakt.setHistoryHighWaterMark(mPreferences, HistoryType.MOVIES, highWaterMark);
+        return status;
+    }
+
+    private Trakt.Status syncShowsToDb(String library, boolean fullSync) {
+        final ContentResolver cr = getContentResolver();
+        final boolean watched = library.equals(Trakt.LIBRARY_WATCHED);
+        final long since = watched && !fullSync ? Trakt.getHistoryHighWaterMark(mPreferences, HistoryType.EPISODES) : 0;
+        Set<String> traktEpisodes = new HashSet<String>();
+        Set<String> traktShows = new HashSet<String>();
+        long highWaterMark = since;
+
+        if (since > 0) {
+            Trakt.Result result = mTrakt.getHistory(HistoryType.EPISODES, since);
+            if (result.status == Trakt.Status.ERROR_NETWORK)
+                return Trakt.Status.ERROR_NETWORK;
+            if (result.status != Trakt.Status.SUCCESS || result.objType != Trakt.Result.ObjectType.HISTORY)
+                return Trakt.Status.SUCCESS;
+            for (HistoryEntry entry : (List<HistoryEntry>) result.obj) {
+                if (entry.show == null || entry.show.ids == null || entry.show.ids.tmdb == null || entry.episode == null
+                        || entry.episode.season == null || entry.episode.number == null)
+                    continue;
+                traktShows.add(String.valueOf(entry.show.ids.tmdb));
+                traktEpisodes.add(getShowKey(entry.show.ids.tmdb, entry.episode.season, entry.episode.number));
+                if (entry.watched_at != null)
+                    highWaterMark = Math.max(highWaterMark, entry.watched_at.toEpochSecond());
+            }
+        } else {
+            Trakt.Result result = mTrakt.getAllShows(library);
+            if (result.status == Trakt.Status.ERROR_NETWORK)
+                return Trakt.Status.ERROR_NETWORK;
+            if (result.status != Trakt.Status.SUCCESS || result.objType != Trakt.Result.ObjectType.SHOWS_PER_SEASON)
+                return Trakt.Status.SUCCESS;
+            for (BaseShow show : (List<BaseShow>) result.obj) {
+                if (show.show == null || show.show.ids == null || show.show.ids.tmdb == null || show.seasons == null)
+                    continue;
+                for (BaseSeason season : show.seasons) {
+                    for (BaseEpisode episode : season.episodes) {
+                        traktEpisodes.add(getShowKey(show.show.ids.tmdb, season.number, episode.number));
                     }
                 }
+                if (show.last_watched_at != null)
+                    highWaterMark = Math.max(highWaterMark, show.last_watched_at.toEpochSecond());
             }
         }
-        return Trakt.Status.SUCCESS;
+        Trakt.Status status = Trakt.Status.SUCCESS;
+        if (!traktEpisodes.isEmpty()) {
+            List<Long> toMark = getIdsToMark(cr, library, true, traktEpisodes,
+                    VideoStore.Video.VideoColumns.SCRAPER_S_ONLINE_ID, since > 0 ? new ArrayList<String>(traktShows) : null);
+            if (DBG) Log.d(TAG, "syncShowsToDb: " + traktEpisodes.size() + " episodes from trakt (delta=" + (since > 0) + "), marking " + toMark.size());
+            status = markIds(cr, library, toMark);
+        }
+        if (watched && status == Trakt.Status.SUCCESS && highWaterMark > since)
+            Trakt.setHistoryHighWaterMark(mPreferences, HistoryType.EPISODES, highWaterMark);
+        return status;
     }
 
     private Trakt.Status syncMoviesToTrakt(String library, boolean toMark) {
@@ -977,19 +1154,21 @@ public class TraktService extends Service {
                         Trakt.LIBRARY_WATCHED : Trakt.LIBRARY_COLLECTION};
         }
 
+        // explicit full sync refetches everything, otherwise watched state is pulled from history deltas
+        final boolean fullSync = (flag & FLAG_SYNC_FULL) == FLAG_SYNC_FULL;
         if (libraries != null) {
             for (String library : libraries) {
             	
                 if (syncMoviesFromTrakt) {
                     if (DBG) Log.d(TAG, "syncing movies " + library + " from trakt.tv to DB");
-                    Trakt.Status status = syncMoviesToDb(library);
+                    Trakt.Status status = syncMoviesToDb(library, fullSync);
                     if (DBG) Log.d(TAG, "syncing movies " + library + " from trakt.tv to DB finished : "+status);
                     if (status == Trakt.Status.ERROR_NETWORK)
                         return handleSyncStatus(status, flag, "syncMoviesToDb");
                 }
                 if (syncShowsFromTrakt) {
                     if (DBG) Log.d(TAG, "syncing shows " + library + " from trakt.tv to DB");
-                    Trakt.Status status = syncShowsToDb(library);
+                    Trakt.Status status = syncShowsToDb(library, fullSync);
                     if (DBG) Log.d(TAG, "syncing shows " + library + " from trakt.tv to DB finished : "+status);
                     if (status == Trakt.Status.ERROR_NETWORK)
                         return handleSyncStatus(status, flag, "syncShowsToDb");
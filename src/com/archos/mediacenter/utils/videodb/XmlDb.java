@@ -15,12 +15,13 @@
 package com.archos.mediacenter.utils.videodb;
 
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.Handler.Callback;
 import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
+import android.util.LruCache;
+import android.util.Xml;
 
 import com.archos.filecorelibrary.FileEditor;
 import com.archos.filecorelibrary.MetaFile2;
@@ -32,12 +33,8 @@ import com.archos.mediacenter.filecoreextension.upnp2.RawListerFactoryWithUpnp;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.SftpException;
 
-import org.xml.sax.Attributes;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-import org.xml.sax.XMLReader;
-import org.xml.sax.helpers.DefaultHandler;
-import org.xml.sax.helpers.XMLReaderFactory;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -48,9 +45,14 @@ import java.io.StringWriter;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -68,10 +70,19 @@ public class XmlDb  implements Callback {
     private static final int PARSING_TIMEOUT = 7; // Time in seconds
     public static final String FILE_EXTENSION = "xml";
     public static final String FILE_NAME = ".archos.resume."+FILE_EXTENSION;
+    // resume updates of the same video within this window end up in a single remote write
+    private static final long WRITE_COALESCE_DELAY = 2000; // Time in milliseconds
+    private static final int PARSE_THREADS = 2;
+    private static final int REMOTE_CACHE_SIZE = 512;
     private final Handler mUiThreadHandler = new Handler(Looper.getMainLooper(), this);
-    private static final Map<String, WriteTask> sRemoteWriteTasks = new HashMap<String, WriteTask>();
-    private static final Map<String, ParseTask> sRemoteParseTasks = new HashMap<String, ParseTask>();
-    private static final Map<Uri, VideoDbInfo> sRemoteCache = new HashMap<>();
+    // all remote writes go through one thread so that two writes of the same db never race on the share
+    private static final ScheduledExecutorService sWriteExecutor = Executors.newSingleThreadScheduledExecutor();
+    private static final ExecutorService sParseExecutor = Executors.newFixedThreadPool(PARSE_THREADS);
+    // latest not yet written info per video, the key stays until the value it maps to has been written
+    private static final ConcurrentHashMap<String, VideoDbInfo> sPendingWrites = new ConcurrentHashMap<>();
+    // running parse per video, all the videos of a batch parse map to the same task
+    private static final ConcurrentHashMap<String, Future<?>> sRemoteParseTasks = new ConcurrentHashMap<>();
+    private static final LruCache<Uri, VideoDbInfo> sRemoteCache = new LruCache<>(REMOTE_CACHE_SIZE);
     private final ArrayList<ResumeChangeListener> mResumeChangeListener;
     private List<ParseListener> mOnParseListeners;
 
@@ -95,106 +106,6 @@ public class XmlDb  implements Callback {
 
 
 
-    private static class ContentHandler extends DefaultHandler {
-        private final Uri mLocation;
-        public VideoDbInfo mCurrentEntry = null;
-        private final StringBuffer mBuffer = new StringBuffer();
-        private VideoDbInfo mResult = new VideoDbInfo();
-
-        public ContentHandler(Uri location) {
-            mLocation = location;
-        }
-        private int getInt() {
-            try {
-                return Integer.parseInt(mBuffer.toString().trim());
-            } catch (NumberFormatException e) {}
-            return 0;
-        }
-
-        private String getString() {
-            return mBuffer.toString().trim();
-        }
-
-        public void startElement(String nsUri, String localName, String qName,
-                Attributes attrs) {
-            mBuffer.setLength(0);
-            if (localName.equals("network_database"))
-                mCurrentEntry = new VideoDbInfo();
-        }
-
-        public void characters (char ch[], int start, int length) {
-            mBuffer.append(ch, start, length);
-        }
-
-        public void endElement(String nsUri, String localName, String qName) {
-            if (mCurrentEntry == null)
-                return;
-            if (localName.equals("path")) {
-                String path = getString();
-                mCurrentEntry.setFile(getFilePath(mLocation, path));
-            }
-            else if (localName.equals("last_position"))
-                mCurrentEntry.resume = getInt();
-            else if (localName.equals("bookmark_position"))
-                mCurrentEntry.bookmark = getInt();
-            else if (localName.equals("audio_track"))
-                mCurrentEntry.audioTrack = getInt();
-            else if (localName.equals("subtitle_track"))
-                mCurrentEntry.subtitleTrack = getInt();
-            else if (localName.equals("subtitle_delay"))
-                mCurrentEntry.subtitleDelay = getInt();
-            else if (localName.equals("subtitle_ratio"))
-                mCurrentEntry.subtitleRatio = getInt();
-            else if (localName.equals("last_time_played"))
-                mCurrentEntry.lastTimePlayed = Long.decode(getString());
-            else if (localName.equals("network_database")) {
-                mResult = mCurrentEntry;
-                sRemoteCache.put(mCurrentEntry.uri, mCurrentEntry);
-                mCurrentEntry = null;
-            }
-        }
-        public VideoDbInfo getResult() {
-            return mResult;
-        }
-    }
-
-    private static class ParseTask extends AsyncTask<Void, Integer, VideoDbInfo> {
-        private final Uri mLocation;
-        private Listener mListener;
-
-        private interface Listener {
-            void onResult(VideoDbInfo result);
-        }
-        public ParseTask(Uri location) {
-            mLocation = location;
-        }
-
-        public void setListener(Listener listener) {
-            mListener = listener;
-        }
-
-        public void abort() {
-            cancel(true);
-            mListener = null;
-        }
-
-        @Override
-        protected VideoDbInfo doInBackground(Void... params) {
-            return parseXml(mLocation);
-        }
-
-        @Override
-        protected void onPreExecute() {
-
-        }
-
-        @Override
-        protected void onPostExecute(VideoDbInfo result) {
-
-            if (mListener != null)
-                mListener.onResult(result);
-        }
-    }
     public interface ResumeChangeListener{
         /**
          * each time a new resume is written
@@ -211,37 +122,6 @@ public class XmlDb  implements Callback {
         void onParseOk(ParseResult obj);
     }
 
-    private class WriteTask extends AsyncTask<Void, Integer, Void> {
-        private final VideoDbInfo mVideoDbInfo;
-        /**
-         *
-         *
-         * @param videoDbInfo
-         */
-        public WriteTask(VideoDbInfo videoDbInfo) {
-            mVideoDbInfo = videoDbInfo;
-        }
-
-        @Override
-        protected Void doInBackground(Void... params) {
-            if (DBG) Log.d(TAG, "doInBackground: " + mVideoDbInfo.uri);
-            boolean ret = writeXml(mVideoDbInfo);
-            if (DBG) Log.d(TAG, "writeXml: " + ret);
-            return null;
-        }
-
-        @Override
-        protected void onPreExecute() {
-            sRemoteWriteTasks.put(mVideoDbInfo.uri.toString(), this);
-        }
-
-        @Override
-        protected void onPostExecute(Void result) {
-            sRemoteWriteTasks.remove(mVideoDbInfo.uri.toString());
-            sRemoteCache.put(mVideoDbInfo.uri, mVideoDbInfo);
-            notifyResumeChange(mVideoDbInfo.uri, (int) ((float) mVideoDbInfo.resume / (float) mVideoDbInfo.duration * 100.0));
-        }
-    }
     public synchronized void addResumeChangeListener(ResumeChangeListener listener){
         mResumeChangeListener.add(listener);
     }
@@ -254,14 +134,11 @@ public class XmlDb  implements Callback {
     }
 
     /**
-     * look for a DB file associated with video and parse it
-     * @param videoFileUri
+     * parse a specific DB file
+     * @param location
      * @return
      */
-    private static VideoDbInfo parseXml(Uri videoFileUri) {
-        final Uri location = getReadXmlPath(videoFileUri);
-        if(location==null)
-            return null;
+    private static VideoDbInfo parseXmlFile(Uri location) {
         InputStream fis=null;
         try {
 
@@ -283,19 +160,16 @@ public class XmlDb  implements Callback {
                 Log.d(TAG, "parseXml: Invalid InputStream");
                 return null;
             }
-            ContentHandler handler = new ContentHandler(location);
-            XMLReader parser = XMLReaderFactory.createXMLReader();
-            parser.setContentHandler(handler);
-            parser.parse(new InputSource(fis));
-            fis.close();
-            return handler.getResult();
+            XmlPullParser parser = Xml.newPullParser();
+            parser.setInput(fis, null);
+            return readNetworkDatabase(parser, location);
         } catch (InterruptedIOException e) {
             Log.e(TAG, "parseXml: timeout while parsing files.", e);
         } catch (FileNotFoundException e) {
             // when file was never created.
         } catch (SmbException e) {
             // when file was never created.
-        } catch (SAXException e) {
+        } catch (XmlPullParserException e) {
             Log.e(TAG, "parseXml: Error while parsing files.", e);
         } catch (IOException e) {
             Log.e(TAG, "parseXml: Error while reading files.", e);
@@ -313,20 +187,78 @@ public class XmlDb  implements Callback {
         return null;
     }
 
+    private static VideoDbInfo readNetworkDatabase(XmlPullParser parser, Uri location) throws XmlPullParserException, IOException {
+        VideoDbInfo result = new VideoDbInfo();
+        VideoDbInfo entry = null;
+        int eventType = parser.getEventType();
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            if (Thread.currentThread().isInterrupted())
+                throw new InterruptedIOException("parsing aborted");
+            if (eventType == XmlPullParser.START_TAG) {
+                String name = parser.getName();
+                if (name.equals("network_database")) {
+                    entry = new VideoDbInfo();
+                } else if (entry != null) {
+                    readEntryElement(entry, name, parser.nextText().trim(), location);
+                }
+            } else if (eventType == XmlPullParser.END_TAG && entry != null
+                    && parser.getName().equals("network_database")) {
+                result = entry;
+                if (entry.uri != null)
+                    sRemoteCache.put(entry.uri, entry);
+                entry = null;
+            }
+            eventType = parser.next();
+        }
+        return result;
+    }
+
+    private static void readEntryElement(VideoDbInfo entry, String name, String text, Uri location) {
+        if (name.equals("path"))
+            entry.setFile(getFilePath(location, text));
+        else if (name.equals("last_position"))
+            entry.resume = getInt(text);
+        else if (name.equals("bookmark_position"))
+            entry.bookmark = getInt(text);
+        else if (name.equals("audio_track"))
+            entry.audioTrack = getInt(text);
+        else if (name.equals("subtitle_track"))
+            entry.subtitleTrack = getInt(text);
+        else if (name.equals("subtitle_delay"))
+            entry.subtitleDelay = getInt(text);
+        else if (name.equals("subtitle_ratio"))
+            entry.subtitleRatio = getInt(text);
+        else if (name.equals("last_time_played")) {
+            try {
+                entry.lastTimePlayed = Long.decode(text);
+            } catch (NumberFormatException e) {}
+        }
+    }
+
+    private static int getInt(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {}
+        return 0;
+    }
+
     /**
      * return list of DB of shape videofilename.extension.resumepoint.archos.xml
      * @param videoFile
      * @return
      */
     public static List<MetaFile2> getListOfDBForUri(Uri videoFile){
-        Uri toList = FileUtils.getParentUrl(videoFile);
+        List<MetaFile2> list = listFolder(FileUtils.getParentUrl(videoFile));
+        if(list!=null)
+            return extractAssociatedWithUriDbXmlMetafileFromList(list, videoFile);
+        return null;
+    }
+
+    private static List<MetaFile2> listFolder(Uri toList){
         if(toList!=null){
            RawLister rl = RawListerFactoryWithUpnp.getRawListerForUrl(toList);
             try {
-
-                List<MetaFile2> list = rl.getFileList();
-                if(list!=null)
-                return extractAssociatedWithUriDbXmlMetafileFromList(list, videoFile);
+                return rl.getFileList();
             } catch (IOException e) {
                 e.printStackTrace();
             } catch (AuthenticationException e) {
@@ -513,7 +445,6 @@ public class XmlDb  implements Callback {
 
 
     private XmlDb(){
-        System.setProperty("org.xml.sax.driver", "org.xmlpull.v1.sax2.Driver");
         mResumeChangeListener = new ArrayList<>();
         mOnParseListeners = Collections.synchronizedList(new ArrayList<ParseListener>());
     }
@@ -601,16 +532,22 @@ public class XmlDb  implements Callback {
                 return true;
             case MSG_PARSE_TIMEOUT: {
                 if (DBG) Log.d(TAG, "MSG_PARSE_TIMEOUT");
-                Uri location = (Uri) msg.obj;
-                ParseTask task = sRemoteParseTasks.get(location.toString());
-                if (task != null) {
-                    task.abort();
-                    sRemoteParseTasks.remove(location.toString());
+                ParseTask task = (ParseTask) msg.obj;
+                // videos not removed yet did not report: they failed, the others are done
+                List<Uri> failed = new ArrayList<>();
+                for (Uri location : task.mLocations) {
+                    if (sRemoteParseTasks.remove(location.toString(), task))
+                        failed.add(location);
+                }
+                task.cancel(true);
+                if (!failed.isEmpty()) {
                     synchronized (mOnParseListeners) {
                         // some listeners want to remove themselves for list after being called. to avoid concurrent exception, to not iterate on main list
                         List<ParseListener> tmp = new ArrayList<>(mOnParseListeners);
-                        for (ParseListener pl : tmp) {
-                            pl.onParseFail(new ParseResult(location, false));
+                        for (Uri location : failed) {
+                            for (ParseListener pl : tmp) {
+                                pl.onParseFail(new ParseResult(location, false));
+                            }
                         }
                     }
                 }
@@ -630,56 +567,125 @@ public class XmlDb  implements Callback {
 
     public void parseXmlLocation(final Uri videoFileUri) {
         if (DBG) Log.d(TAG, "parseCommon:" + videoFileUri);
-
-
-            ParseTask task;
-                if (sRemoteWriteTasks.get(videoFileUri.toString()) != null) {
-                    if (DBG) Log.d(TAG, "writting task is running: assume we are up to date");
-                    notifyChanged(videoFileUri, true);
-                    return;
-                }
-                if (sRemoteParseTasks.get(videoFileUri.toString()) != null) {
-                    if (DBG) Log.d(TAG, "parsing task is already running:");
-                    return;
-                }
-
-            task = new ParseTask(videoFileUri);
-            final ParseTask.Listener listener = new ParseTask.Listener() {
-                @Override
-                public void onResult(VideoDbInfo result) {
-                    mUiThreadHandler.removeMessages(MSG_PARSE_TIMEOUT);
-                    if (DBG) Log.d(TAG, "onResult ");
-
-                    notifyChanged(videoFileUri, result != null);
-                }
-            };
-            task.setListener(listener);
-            task.execute();
-            mUiThreadHandler.sendMessageDelayed(
-                    mUiThreadHandler.obtainMessage(MSG_PARSE_TIMEOUT, videoFileUri),
-                    PARSING_TIMEOUT * 1000);
-
+        parseXmlLocations(Collections.singletonList(videoFileUri));
     }
 
+    /**
+     * parse the DBs of several videos of a same folder, listing the folder only once.
+     * Listeners are notified for each video, the batch has a single timeout.
+     * @param videoFileUris videos sharing the same parent folder
+     */
+    public void parseXmlLocations(final List<Uri> videoFileUris) {
+        if (videoFileUris == null || videoFileUris.isEmpty())
+            return;
+        final ParseTask task = new ParseTask();
+        for (Uri videoFileUri : videoFileUris) {
+            String key = videoFileUri.toString();
+            if (sPendingWrites.containsKey(key)) {
+                if (DBG) Log.d(TAG, "writting task is pending: assume we are up to date");
+                notifyChanged(videoFileUri, true);
+            } else if (sRemoteParseTasks.putIfAbsent(key, task) == null) {
+                task.mLocations.add(videoFileUri);
+            } else {
+                if (DBG) Log.d(TAG, "parsing task is already running: " + videoFileUri);
+            }
+        }
+        if (task.mLocations.isEmpty())
+            return;
+        mUiThreadHandler.sendMessageDelayed(
+                mUiThreadHandler.obtainMessage(MSG_PARSE_TIMEOUT, task),
+                PARSING_TIMEOUT * 1000);
+        sParseExecutor.execute(task);
+    }
 
+    /** parse of the dbs of a batch of videos, its timeout is disarmed once it is done or cancelled */
+    private class ParseTask extends FutureTask<Void> {
+        // filled before the task is started, not modified afterwards
+        final List<Uri> mLocations;
 
-    public void writeXmlRemote(VideoDbInfo videoDbInfo) {
-        WriteTask task;
-
+        ParseTask() {
+            this(new ArrayList<Uri>(), new ParseJob());
+        }
 
-        task = sRemoteWriteTasks.get(videoDbInfo.uri.toString());
-        if (task != null) {
-            task.cancel(true);
+        private ParseTask(List<Uri> locations, ParseJob job) {
+            super(job, null);
+            mLocations = locations;
+            job.mTask = this;
         }
 
-        task = new WriteTask(videoDbInfo);
-        task.execute();
+        @Override
+        protected void done() {
+            mUiThreadHandler.removeMessages(MSG_PARSE_TIMEOUT, this);
+        }
     }
 
+    private class ParseJob implements Runnable {
+        ParseTask mTask;
 
+        @Override
+        public void run() {
+            List<Uri> locations = mTask.mLocations;
+            List<MetaFile2> list = listFolder(FileUtils.getParentUrl(locations.get(0)));
+            for (Uri videoFileUri : locations) {
+                if (Thread.currentThread().isInterrupted())
+                    return;
+                VideoDbInfo result = null;
+                if (list != null) {
+                    List<MetaFile2> dbs = extractAssociatedWithUriDbXmlMetafileFromList(list, videoFileUri);
+                    if (!dbs.isEmpty())
+                        result = parseXmlFile(dbs.get(0).getUri());
+                }
+                onParsed(videoFileUri, mTask, result != null);
+            }
+        }
+    }
 
+    private void onParsed(Uri videoFileUri, ParseTask task, boolean success) {
+        if (DBG) Log.d(TAG, "onParsed " + videoFileUri + " " + success);
+        // timed out meanwhile: failure already notified
+        if (!sRemoteParseTasks.remove(videoFileUri.toString(), task))
+            return;
+        notifyChanged(videoFileUri, success);
+    }
 
-
+    public void writeXmlRemote(VideoDbInfo videoDbInfo) {
+        final String key = videoDbInfo.uri.toString();
+        sRemoteCache.put(videoDbInfo.uri, videoDbInfo);
+        // only the first update of the window schedules a write, the following ones just replace what will be written
+        if (sPendingWrites.put(key, videoDbInfo) == null)
+            scheduleWrite(key);
+    }
+
+    private void scheduleWrite(final String key) {
+        sWriteExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flushWrite(key);
+            }
+        }, WRITE_COALESCE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private void flushWrite(String key) {
+        final VideoDbInfo videoDbInfo = sPendingWrites.get(key);
+        if (videoDbInfo == null)
+            return;
+        if (DBG) Log.d(TAG, "flushWrite: " + videoDbInfo.uri);
+        boolean ret = writeXml(videoDbInfo);
+        if (DBG) Log.d(TAG, "writeXml: " + ret);
+        if (!sPendingWrites.remove(key, videoDbInfo)) {
+            // updated while writing: write the newer one at the end of the next window
+            scheduleWrite(key);
+        }
+        // listeners read the resume point back from the share, nothing changed there
+        if (!ret)
+            return;
+        mUiThreadHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                notifyResumeChange(videoDbInfo.uri, (int) ((float) videoDbInfo.resume / (float) videoDbInfo.duration * 100.0));
+            }
+        });
+    }
 
     // taken from FastXmlSerializer, slightly modified
     private static final String ESCAPE_TABLE[] = new String[] {
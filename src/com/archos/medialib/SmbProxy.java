@@ -15,23 +15,31 @@
 package com.archos.medialib;
 
 import android.net.Uri;
+import android.util.Log;
 
-import com.archos.filecorelibrary.MetaFile2;
-import com.archos.filecorelibrary.MetaFile2Factory;
 import com.archos.filecorelibrary.MimeUtils;
-import com.archos.filecorelibrary.StreamOverHttp;
 import com.archos.mediacenter.filecoreextension.UriUtils;
 
 import java.io.IOException;
 import java.util.Map;
 
-import jcifs.smb.SmbFile;
-
+/*
+    streams remote files through the shared StreamProxy
+ */
 public class SmbProxy extends Proxy{
-    private StreamOverHttp mStream;
+    private static final String TAG = "SmbProxy";
+
+    private StreamProxy.Stream mStream;
+    private final boolean mProbe;
 
     protected SmbProxy(Uri uri) {
+        this(uri, false);
+    }
+
+    /** @param probe true for metadata retrievers, see {@link StreamProxy#open(Uri, String, boolean)} */
+    protected SmbProxy(Uri uri, boolean probe) {
         super(uri);
+        mProbe = probe;
     }
     public static boolean needToStream(String scheme){
             return "smb".equalsIgnoreCase(scheme) || "ftp".equalsIgnoreCase(scheme)||"ftps".equalsIgnoreCase(scheme) || "sftp".equalsIgnoreCase(scheme) || UriUtils.isContentUri(Uri.parse(scheme+"://test"));
@@ -39,26 +47,18 @@ public class SmbProxy extends Proxy{
     protected Uri start() {
         stop();
         String mimeType = MimeUtils.guessMimeTypeFromExtension(mUri.getLastPathSegment());
-        MetaFile2 file = null;
         try {
-            try {
-                file = MetaFile2Factory.getMetaFileForUrl(mUri);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-            if(file != null)
-                mStream = new StreamOverHttp(file, mimeType);
-            else
-                mStream = new StreamOverHttp(mUri, mimeType);
+            mStream = StreamProxy.get().open(mUri, mimeType, mProbe);
         } catch (IOException e) {
+            Log.e(TAG, "start: cannot start proxy", e);
             return null;
         }
-        return mStream.getUri(file != null ? file.getName():mUri.getLastPathSegment());
+        return mStream.getUri();
     }
     
     public void stop() {
         if (mStream != null) {
-            mStream.close();
+            mStream.release();
             mStream = null;
         } 
     }
@@ -78,7 +78,7 @@ public class SmbProxy extends Proxy{
     }
     
     public static SmbProxy setDataSource(Uri uri, IMediaMetadataRetriever mr, Map<String, String> headers) throws IllegalArgumentException {
-        SmbProxy smbProxy = new SmbProxy(uri);
+        SmbProxy smbProxy = new SmbProxy(uri, true);
         Uri newUri = smbProxy.start();
         if (newUri != null) {
             mr.setDataSource(newUri.toString(), headers);
@@ -90,6 +90,6 @@ public class SmbProxy extends Proxy{
 
     public int doesCurrentFileExists() {
 
-        return mStream.doesCurrentFileExists();
+        return mStream != null ? mStream.doesFileExist() : -1;
     }
 }
@@ -0,0 +1,248 @@
+// Copyright 2017 Archos SA
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.archos.medialib;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * On disk store of the remote file blocks read while probing (container headers,
+ * MKV cues, MP4 moov...), keyed by path, size and modification date, so that
+ * rescans and thumbnail generation find them without going to the network again.
+ *
+ * One file per remote file: the key, then appended (block index, length, data) records.
+ * The whole store is bounded and the least recently used files are deleted first.
+ */
+final class StreamHeaderStore {
+    private static final String TAG = "StreamHeaderStore";
+    private static final boolean DBG = false;
+
+    private static final String DIRECTORY = "stream_headers";
+    private static final int MAGIC = 0x41484452; // AHDR
+    // a probe rarely needs more, anything beyond is not header data
+    private static final long MAX_FILE_SIZE = 2 * 1024 * 1024;
+    private static final long MAX_TOTAL_SIZE = 64 * 1024 * 1024;
+    private static final int OPEN_ENTRIES = 16;
+
+    private static StreamHeaderStore sInstance;
+
+    /** null if there is no place to store */
+    static synchronized StreamHeaderStore get(Context context) {
+        if (sInstance == null && context != null) {
+            File directory = new File(context.getCacheDir(), DIRECTORY);
+            if (directory.isDirectory() || directory.mkdirs())
+                sInstance = new StreamHeaderStore(directory);
+        }
+        return sInstance;
+    }
+
+    private final File mDirectory;
+    private long mTotalSize = -1;
+    // guarded by this
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > OPEN_ENTRIES;
+        }
+    };
+
+    private StreamHeaderStore(File directory) {
+        mDirectory = directory;
+    }
+
+    /** stored block of the file identified by key (path + size + date), null if not stored */
+    synchronized byte[] read(String key, long index) {
+        return entry(key).read(index);
+    }
+
+    synchronized void write(String key, long index, byte[] data) {
+        entry(key).write(index, data);
+    }
+
+    private Entry entry(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry(key, new File(mDirectory, fileName(key)));
+            mEntries.put(key, entry);
+        }
+        return entry;
+    }
+
+    private final class Entry {
+        private final String mKey;
+        private final File mFile;
+        // block index -> { offset of the data, length }
+        private HashMap<Long, long[]> mBlocks;
+        private long mSize;
+
+        private Entry(String key, File file) {
+            mKey = key;
+            mFile = file;
+        }
+
+        byte[] read(long index) {
+            load();
+            long[] block = mBlocks.get(index);
+            if (block == null)
+                return null;
+            try (RandomAccessFile file = new RandomAccessFile(mFile, "r")) {
+                byte[] data = new byte[(int) block[1]];
+                file.seek(block[0]);
+                file.readFully(data);
+                return data;
+            } catch (IOException e) {
+                Log.w(TAG, "read: dropping " + mFile, e);
+                delete();
+                return null;
+            }
+        }
+
+        void write(long index, byte[] data) {
+            load();
+            if (mBlocks.containsKey(index) || mSize + data.length > MAX_FILE_SIZE)
+                return;
+            long added;
+            try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+                long start = file.length();
+                if (start == 0) {
+                    file.writeInt(MAGIC);
+                    file.writeUTF(mKey);
+                    start = file.length();
+                }
+                file.seek(start);
+                file.writeLong(index);
+                file.writeInt(data.length);
+                file.write(data);
+                mBlocks.put(index, new long[] { start + 12, data.length });
+                added = file.length() - mSize;
+                mSize = file.length();
+            } catch (IOException e) {
+                Log.w(TAG, "write: dropping " + mFile, e);
+                delete();
+                return;
+            }
+            trim(added);
+        }
+
+        private void load() {
+            if (mBlocks != null)
+                return;
+            mBlocks = new HashMap<>();
+            mSize = 0;
+            if (!mFile.exists())
+                return;
+            long good = 0;
+            try (DataInputStream in = new DataInputStream(new FileInputStream(mFile))) {
+                if (in.readInt() != MAGIC || !mKey.equals(in.readUTF())) {
+                    // another file hashed to the same name
+                    delete();
+                    return;
+                }
+                long offset = 4 + 2 + utfLength(mKey);
+                good = offset;
+                while (true) {
+                    long index = in.readLong();
+                    int length = in.readInt();
+                    if (length < 0 || length > MAX_FILE_SIZE)
+                        break;
+                    if (in.skipBytes(length) != length)
+                        break;
+                    mBlocks.put(index, new long[] { offset + 12, length });
+                    offset += 12 + length;
+                    good = offset;
+                }
+            } catch (EOFException e) {
+                // torn last record
+            } catch (IOException e) {
+                Log.w(TAG, "load: " + mFile, e);
+            }
+            mSize = good;
+            if (good < mFile.length()) {
+                try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+                    file.setLength(good);
+                } catch (IOException e) {
+                    delete();
+                }
+            }
+            // used: keep it away from eviction
+            mFile.setLastModified(System.currentTimeMillis());
+            if (DBG) Log.d(TAG, "load: " + mBlocks.size() + " blocks for " + mKey);
+        }
+
+        private void delete() {
+            mTotalSize -= Math.max(0, mSize);
+            mFile.delete();
+            mBlocks = new HashMap<>();
+            mSize = 0;
+        }
+    }
+
+    /** deletes the least recently used files once the store is over budget */
+    private void trim(long added) {
+        if (mTotalSize < 0) {
+            mTotalSize = 0;
+            File[] files = mDirectory.listFiles();
+            if (files != null)
+                for (File file : files) mTotalSize += file.length();
+        } else {
+            mTotalSize += added;
+        }
+        if (mTotalSize <= MAX_TOTAL_SIZE)
+            return;
+        File[] files = mDirectory.listFiles();
+        if (files == null)
+            return;
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (mTotalSize <= MAX_TOTAL_SIZE * 3 / 4)
+                break;
+            long length = file.length();
+            if (file.delete())
+                mTotalSize -= length;
+        }
+        // reload whatever survived
+        mEntries.clear();
+    }
+
+    private static String fileName(String key) {
+        // 64 bit FNV-1a, collisions are detected by the key stored in the file
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return Long.toHexString(hash);
+    }
+
+    private static int utfLength(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c > 0x07FF ? 3 : 2;
+        }
+        return length;
+    }
+}
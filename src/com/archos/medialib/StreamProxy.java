@@ -0,0 +1,815 @@
+// Copyright 2017 Archos SA
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.archos.medialib;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.archos.environment.ArchosUtils;
+import com.archos.filecorelibrary.FileEditor;
+import com.archos.filecorelibrary.MetaFile2;
+import com.archos.filecorelibrary.MetaFile2Factory;
+import com.archos.mediacenter.filecoreextension.upnp2.FileEditorFactoryWithUpnp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single long lived local http server streaming remote files (smb, ftp, sftp, content...)
+ * to the players and metadata retrievers, which only know how to read local or http uris.
+ *
+ * Every remote uri is registered with {@link #open} and gets its own local url, released
+ * with {@link Stream#release}. Each connection reads through a read-ahead buffer that is
+ * filled in the background and grows while the client starves, and the first and last
+ * blocks of every file, where containers keep their headers and indexes, are kept in a
+ * small block cache shared by all streams so that probing and then playing a file only
+ * fetches them once.
+ *
+ * Probing streams (metadata retrievers) have the opposite needs: they read container
+ * headers and indexes scattered over the file, so they fetch small blocks on demand with
+ * almost no read-ahead, and every block they read is persisted in {@link StreamHeaderStore}
+ * so that rescans and thumbnails of the same file do not fetch them again.
+ */
+public class StreamProxy {
+    private static final String TAG = "StreamProxy";
+    private static final boolean DBG = false;
+
+    // read-ahead: chunks fetched in the background, up to a window that adapts to the client
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MIN_WINDOW = 512 * 1024;
+    private static final int MAX_WINDOW = 8 * 1024 * 1024;
+    // forward jumps up to that are read and dropped instead of reopening the remote file
+    private static final long SKIP_LIMIT = 1024 * 1024;
+    // probing reads a few scattered blocks, anything fetched ahead is likely wasted
+    private static final int PROBE_MAX_WINDOW = 128 * 1024;
+
+    // block cache for container headers and indexes
+    private static final int BLOCK_SIZE = 32 * 1024;
+    private static final long HEADER_SPAN = 512 * 1024;
+    private static final int CACHE_SIZE = 8 * 1024 * 1024;
+
+    private static final int SOCKET_TIMEOUT = 60 * 1000;
+    private static final int READ_TIMEOUT = 30 * 1000;
+    private static final int MAX_LINE_LENGTH = 8 * 1024;
+
+    private static StreamProxy sInstance;
+
+    /** the proxy, started on first use */
+    public static synchronized StreamProxy get() throws IOException {
+        if (sInstance == null || sInstance.mServer.isClosed())
+            sInstance = new StreamProxy();
+        return sInstance;
+    }
+
+    private final ServerSocket mServer;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, TAG);
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final SecureRandom mRandom = new SecureRandom();
+    // token -> stream, guarded by this
+    private final HashMap<String, Stream> mStreams = new HashMap<>();
+    private final BlockCache mCache = new BlockCache(CACHE_SIZE);
+
+    private StreamProxy() throws IOException {
+        mServer = new ServerSocket(0, 16, InetAddress.getByName("127.0.0.1"));
+        mExecutor.execute(this::acceptLoop);
+    }
+
+    /**
+     * Registers uri and returns a stream whose {@link Stream#getUri} can be handed to a player.
+     * Resolving the remote file is blocking.
+     */
+    public Stream open(Uri uri, String mimeType) {
+        return open(uri, mimeType, false);
+    }
+
+    /**
+     * @param probe for metadata retrievers: on demand block reads, persisted for next time
+     */
+    public Stream open(Uri uri, String mimeType, boolean probe) {
+        MetaFile2 file = null;
+        int exists = -1;
+        try {
+            file = MetaFile2Factory.getMetaFileForUrl(uri);
+            exists = file != null ? 1 : -1;
+        } catch (Exception e) {
+            if (e instanceof FileNotFoundException)
+                exists = 0;
+            Log.w(TAG, "open: cannot resolve " + uri, e);
+        }
+        Stream stream = new Stream(uri, mimeType, file, exists, probe);
+        synchronized (this) {
+            String token;
+            do {
+                token = Long.toHexString(mRandom.nextLong());
+            } while (mStreams.containsKey(token));
+            stream.mToken = token;
+            mStreams.put(token, stream);
+        }
+        if (DBG) Log.d(TAG, "open: " + uri + " as " + stream.getUri());
+        return stream;
+    }
+
+    private synchronized Stream getStream(String token) {
+        return mStreams.get(token);
+    }
+
+    private synchronized void release(Stream stream) {
+        mStreams.remove(stream.mToken);
+    }
+
+    private void acceptLoop() {
+        while (!mServer.isClosed()) {
+            try {
+                Socket socket = mServer.accept();
+                mExecutor.execute(() -> serve(socket));
+            } catch (IOException e) {
+                Log.e(TAG, "acceptLoop: ", e);
+                closeQuietly(mServer);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------- //
+    // -- http                                                             -- //
+    // ---------------------------------------------------------------------- //
+
+    private void serve(Socket socket) {
+        Stream stream = null;
+        ReadAhead reader = null;
+        try {
+            socket.setSoTimeout(SOCKET_TIMEOUT);
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), CHUNK_SIZE);
+            byte[] buffer = new byte[CHUNK_SIZE];
+            boolean keepAlive = true;
+            while (keepAlive) {
+                Request request = Request.read(in);
+                if (request == null)
+                    break;
+                Stream requested = getStream(request.token());
+                if (requested == null) {
+                    writeStatus(out, "404 Not Found", false);
+                    break;
+                }
+                if (requested != stream) {
+                    // a keep alive connection can switch streams, keep one reader per stream
+                    if (reader != null) reader.close();
+                    stream = requested;
+                    reader = new ReadAhead(stream);
+                }
+                keepAlive = respond(request, stream, reader, out, buffer);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // clients drop the connection on every seek
+            if (DBG) Log.d(TAG, "serve: " + e);
+        } finally {
+            if (reader != null) reader.close();
+            closeQuietly(socket);
+        }
+    }
+
+    /** @return true if the connection can be kept alive */
+    private boolean respond(Request request, Stream stream, ReadAhead reader, OutputStream out,
+                            byte[] buffer) throws IOException {
+        boolean head = "HEAD".equals(request.method);
+        if (!head && !"GET".equals(request.method)) {
+            writeStatus(out, "405 Method Not Allowed", false);
+            return false;
+        }
+        long length = stream.mLength;
+        long start = 0;
+        long end = length - 1; // -1 when the length is unknown: until eof
+        boolean partial = false;
+        if (request.range != null) {
+            long[] range = parseRange(request.range, length);
+            if (range == null) {
+                writeHeader(out, "416 Range Not Satisfiable", null, "Content-Length: 0\r\n"
+                        + "Content-Range: bytes */" + (length >= 0 ? length : "*"), request.keepAlive);
+                out.flush();
+                return request.keepAlive;
+            }
+            start = range[0];
+            end = range[1];
+            partial = true;
+        }
+        // without a length the end of the body is the end of the connection
+        boolean keepAlive = request.keepAlive && length >= 0;
+        StringBuilder headers = new StringBuilder("Accept-Ranges: bytes\r\n");
+        if (end >= 0) {
+            headers.append("Content-Length: ").append(end - start + 1).append("\r\n");
+            if (partial)
+                headers.append("Content-Range: bytes ").append(start).append('-').append(end)
+                        .append('/').append(length).append("\r\n");
+        }
+        headers.setLength(headers.length() - 2);
+        writeHeader(out, partial ? "206 Partial Content" : "200 OK", stream.mMimeType,
+                headers.toString(), keepAlive);
+        if (head) {
+            out.flush();
+            return keepAlive;
+        }
+        long position = start;
+        while (end < 0 || position <= end) {
+            int wanted = end < 0 ? buffer.length : (int) Math.min(buffer.length, end - position + 1);
+            int read = stream.read(reader, position, buffer, 0, wanted);
+            if (read < 0)
+                break;
+            out.write(buffer, 0, read);
+            position += read;
+            stream.mBytesServed.addAndGet(read);
+        }
+        out.flush();
+        // a short body cannot be followed by another response
+        return keepAlive && position > end;
+    }
+
+    /** start and end (inclusive) of a "bytes=" range, null if not satisfiable */
+    private static long[] parseRange(String range, long length) {
+        range = range.trim();
+        if (!range.startsWith("bytes="))
+            return null;
+        String spec = range.substring(6).trim();
+        int dash = spec.indexOf('-');
+        // multiple ranges are not supported
+        if (dash < 0 || spec.indexOf(',') >= 0)
+            return null;
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // suffix range: the last n bytes
+                if (length < 0 || last.isEmpty()) return null;
+                start = Math.max(0, length - Long.parseLong(last));
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Long.parseLong(last);
+                if (length >= 0) end = Math.min(end, length - 1);
+            }
+            if (start < 0 || (length >= 0 && start >= length) || (end >= 0 && end < start))
+                return null;
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void writeStatus(OutputStream out, String status, boolean keepAlive) throws IOException {
+        writeHeader(out, status, null, "Content-Length: 0", keepAlive);
+        out.flush();
+    }
+
+    private static void writeHeader(OutputStream out, String status, String mimeType, String headers,
+                                    boolean keepAlive) throws IOException {
+        StringBuilder sb = new StringBuilder("HTTP/1.1 ").append(status).append("\r\n");
+        if (mimeType != null)
+            sb.append("Content-Type: ").append(mimeType).append("\r\n");
+        if (headers != null)
+            sb.append(headers).append("\r\n");
+        sb.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+        out.write(sb.toString().getBytes("US-ASCII"));
+    }
+
+    private static final class Request {
+        String method;
+        String path;
+        String range;
+        boolean keepAlive;
+
+        /** null when the client closed the connection */
+        static Request read(InputStream in) throws IOException {
+            String line = readLine(in);
+            // tolerate empty lines between requests
+            while (line != null && line.isEmpty())
+                line = readLine(in);
+            if (line == null)
+                return null;
+            String[] parts = line.split(" ");
+            if (parts.length < 3)
+                throw new IOException("bad request line: " + line);
+            Request request = new Request();
+            request.method = parts[0];
+            request.path = parts[1];
+            boolean http11 = "HTTP/1.1".equals(parts[2]);
+            String connection = null;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon <= 0) continue;
+                String name = line.substring(0, colon).trim().toLowerCase(Locale.US);
+                String value = line.substring(colon + 1).trim();
+                if ("range".equals(name))
+                    request.range = value;
+                else if ("connection".equals(name))
+                    connection = value.toLowerCase(Locale.US);
+            }
+            request.keepAlive = http11 ? !"close".equals(connection) : "keep-alive".equals(connection);
+            return request;
+        }
+
+        /** first segment of /token/name */
+        String token() {
+            int start = path.startsWith("/") ? 1 : 0;
+            int slash = path.indexOf('/', start);
+            return slash < 0 ? path.substring(start) : path.substring(start, slash);
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = in.read()) >= 0) {
+                if (c == '\n') {
+                    int length = sb.length();
+                    if (length > 0 && sb.charAt(length - 1) == '\r')
+                        sb.setLength(length - 1);
+                    return sb.toString();
+                }
+                if (sb.length() >= MAX_LINE_LENGTH)
+                    throw new IOException("header line too long");
+                sb.append((char) c);
+            }
+            return sb.length() > 0 ? sb.toString() : null;
+        }
+    }
+
+    // ---------------------------------------------------------------------- //
+    // -- streams                                                          -- //
+    // ---------------------------------------------------------------------- //
+
+    /** A registered remote file, with its throughput and stall metrics */
+    public final class Stream {
+        private final Uri mRemoteUri;
+        private final String mMimeType;
+        private final String mName;
+        private final long mLength;
+        private final int mExists;
+        // identifies the content in the block cache, across registrations of the same file
+        private final String mCacheKey;
+        private final boolean mProbe;
+        // persisted blocks, only when size and date can tell whether the file changed
+        private final StreamHeaderStore mStore;
+        private String mToken;
+        private FileEditor mEditor;
+
+        private final long mOpened = System.currentTimeMillis();
+        private final AtomicLong mBytesServed = new AtomicLong();
+        private final AtomicLong mBytesFetched = new AtomicLong();
+        private final AtomicLong mRemoteOpens = new AtomicLong();
+        private final AtomicLong mSeeks = new AtomicLong();
+        private final AtomicLong mStalls = new AtomicLong();
+        private final AtomicLong mStallMillis = new AtomicLong();
+        private final AtomicLong mCacheHits = new AtomicLong();
+        private final AtomicLong mCacheMisses = new AtomicLong();
+
+        private Stream(Uri uri, String mimeType, MetaFile2 file, int exists, boolean probe) {
+            mRemoteUri = uri;
+            mMimeType = mimeType;
+            mName = file != null ? file.getName() : uri.getLastPathSegment();
+            mLength = file != null ? file.length() : -1;
+            mExists = exists;
+            long lastModified = file != null ? file.lastModified() : 0;
+            mCacheKey = uri + "#" + mLength + "#" + lastModified;
+            mProbe = probe;
+            mStore = mLength >= 0 && lastModified > 0
+                    ? StreamHeaderStore.get(ArchosUtils.getGlobalContext()) : null;
+        }
+
+        /** local http uri serving the remote file */
+        public Uri getUri() {
+            return Uri.parse("http://127.0.0.1:" + mServer.getLocalPort() + "/" + mToken + "/"
+                    + Uri.encode(mName != null ? mName : "stream"));
+        }
+
+        /** 1 if the remote file exists, 0 if it does not, -1 if unknown */
+        public int doesFileExist() {
+            return mExists;
+        }
+
+        public void release() {
+            StreamProxy.this.release(this);
+            if (DBG) Log.d(TAG, "release: " + this);
+        }
+
+        public long getBytesServed() { return mBytesServed.get(); }
+        public long getBytesFetched() { return mBytesFetched.get(); }
+        public long getRemoteOpenCount() { return mRemoteOpens.get(); }
+        public long getSeekCount() { return mSeeks.get(); }
+        public long getStallCount() { return mStalls.get(); }
+        public long getStallMillis() { return mStallMillis.get(); }
+        public long getCacheHitCount() { return mCacheHits.get(); }
+        public long getCacheMissCount() { return mCacheMisses.get(); }
+
+        /** bytes per second served since the stream was opened */
+        public long getThroughput() {
+            long elapsed = Math.max(1, System.currentTimeMillis() - mOpened);
+            return getBytesServed() * 1000 / elapsed;
+        }
+
+        @Override
+        public String toString() {
+            return mRemoteUri + " served=" + getBytesServed() + " fetched=" + getBytesFetched()
+                    + " throughput=" + getThroughput() + "B/s opens=" + getRemoteOpenCount()
+                    + " seeks=" + getSeekCount() + " stalls=" + getStallCount() + "/" + getStallMillis() + "ms"
+                    + " cache=" + getCacheHitCount() + "/" + (getCacheHitCount() + getCacheMissCount());
+        }
+
+        private InputStream openRemote(long position) throws IOException {
+            mRemoteOpens.incrementAndGet();
+            try {
+                FileEditor editor;
+                synchronized (this) {
+                    if (mEditor == null)
+                        mEditor = FileEditorFactoryWithUpnp.getFileEditorForUrl(mRemoteUri, ArchosUtils.getGlobalContext());
+                    editor = mEditor;
+                }
+                InputStream in = editor.getInputStream(position);
+                if (in == null)
+                    throw new IOException("no input stream for " + mRemoteUri);
+                return in;
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("cannot open " + mRemoteUri, e);
+            }
+        }
+
+        private boolean isHeaderRegion(long position) {
+            return position < HEADER_SPAN || (mLength >= 0 && position >= mLength - HEADER_SPAN);
+        }
+
+        /**
+         * reads probes and header regions block by block from the block cache, then the
+         * persisted blocks, then the network; everything else from the connection read-ahead
+         */
+        private int read(ReadAhead reader, long position, byte[] buffer, int offset, int length) throws IOException {
+            if (mLength >= 0 && position >= mLength)
+                return -1;
+            if (!mProbe && !isHeaderRegion(position))
+                return reader.read(position, buffer, offset, length);
+            long index = position / BLOCK_SIZE;
+            byte[] block = mCache.get(mCacheKey, index);
+            if (block == null && mStore != null) {
+                block = mStore.read(mCacheKey, index);
+                if (block != null)
+                    mCache.put(mCacheKey, index, block);
+            }
+            if (block != null) {
+                mCacheHits.incrementAndGet();
+            } else {
+                mCacheMisses.incrementAndGet();
+                block = reader.readBlock(index * BLOCK_SIZE, BLOCK_SIZE);
+                mCache.put(mCacheKey, index, block);
+                // only what probing needed is worth keeping, not whatever playback streamed
+                if (mProbe && mStore != null)
+                    mStore.write(mCacheKey, index, block);
+            }
+            int inBlock = (int) (position - index * BLOCK_SIZE);
+            if (inBlock >= block.length)
+                return -1;
+            int count = Math.min(length, block.length - inBlock);
+            System.arraycopy(block, inBlock, buffer, offset, count);
+            return count;
+        }
+    }
+
+    /**
+     * Read-ahead of one connection: a background task keeps fetching the remote file
+     * ahead of the client, up to a window doubled each time the client had to wait for
+     * data and halved on seeks.
+     */
+    private final class ReadAhead implements Runnable {
+        private final Stream mStream;
+        private final int mChunkSize;
+        private final int mMinWindow;
+        private final int mMaxWindow;
+        private final Object mLock = new Object();
+        // everything below guarded by mLock
+        private final ArrayDeque<Chunk> mChunks = new ArrayDeque<>();
+        private final ArrayDeque<byte[]> mFree = new ArrayDeque<>();
+        private long mReadPosition;  // first buffered byte, where the client is
+        private long mFetchPosition; // next byte to fetch
+        private int mBuffered;
+        private int mWindow;
+        private int mGeneration;
+        private boolean mPrimed; // data was delivered since the last seek
+        private boolean mWaiting; // the client waits for data
+        private boolean mEof;
+        private boolean mStarted;
+        private boolean mClosed;
+        private IOException mError;
+        // only touched by the fetching task
+        private InputStream mIn;
+        private long mInPosition;
+
+        ReadAhead(Stream stream) {
+            mStream = stream;
+            mChunkSize = stream.mProbe ? BLOCK_SIZE : CHUNK_SIZE;
+            // probes fetch on demand only, until they prove to read sequentially
+            mMinWindow = stream.mProbe ? 0 : MIN_WINDOW;
+            mMaxWindow = stream.mProbe ? PROBE_MAX_WINDOW : MAX_WINDOW;
+            mWindow = mMinWindow;
+        }
+
+        int read(long position, byte[] buffer, int offset, int length) throws IOException {
+            synchronized (mLock) {
+                if (position != mReadPosition) {
+                    if (position > mReadPosition && position < mFetchPosition)
+                        drop((int) (position - mReadPosition));
+                    else
+                        seek(position, position < mReadPosition || position - mFetchPosition > SKIP_LIMIT);
+                }
+                if (!mStarted) {
+                    mStarted = true;
+                    mExecutor.execute(this);
+                }
+                if (mBuffered == 0 && !mEof && mError == null) {
+                    long start = System.currentTimeMillis();
+                    long deadline = start + READ_TIMEOUT;
+                    mWaiting = true;
+                    mLock.notifyAll();
+                    try {
+                        while (mBuffered == 0 && !mEof && mError == null && !mClosed) {
+                            long wait = deadline - System.currentTimeMillis();
+                            if (wait <= 0)
+                                throw new SocketTimeoutException("read-ahead timeout on " + mStream.mRemoteUri);
+                            waitLock(wait);
+                        }
+                    } finally {
+                        mWaiting = false;
+                    }
+                    if (mPrimed) {
+                        // the client caught up with the fetcher: keep more ahead from now on
+                        mStream.mStalls.incrementAndGet();
+                        mStream.mStallMillis.addAndGet(System.currentTimeMillis() - start);
+                        mWindow = Math.min(mMaxWindow, Math.max(mChunkSize, mWindow * 2));
+                    }
+                }
+                if (mBuffered == 0) {
+                    if (mError != null)
+                        throw mError;
+                    return -1;
+                }
+                Chunk chunk = mChunks.peek();
+                int count = Math.min(length, chunk.length - chunk.offset);
+                System.arraycopy(chunk.data, chunk.offset, buffer, offset, count);
+                consume(count);
+                mPrimed = true;
+                return count;
+            }
+        }
+
+        /** reads up to length bytes at position, shorter only at eof */
+        byte[] readBlock(long position, int length) throws IOException {
+            byte[] block = new byte[length];
+            int filled = 0;
+            while (filled < length) {
+                int read = read(position + filled, block, filled, length - filled);
+                if (read < 0)
+                    break;
+                filled += read;
+            }
+            return filled == length ? block : Arrays.copyOf(block, filled);
+        }
+
+        void close() {
+            synchronized (mLock) {
+                mClosed = true;
+                recycleChunks();
+                mLock.notifyAll();
+            }
+        }
+
+        private void seek(long position, boolean far) {
+            recycleChunks();
+            mReadPosition = mFetchPosition = position;
+            mEof = false;
+            mError = null;
+            mPrimed = false;
+            mGeneration++;
+            if (far) {
+                mStream.mSeeks.incrementAndGet();
+                // a probe jumping elsewhere starts over reading on demand
+                mWindow = mStream.mProbe ? mMinWindow : Math.max(mMinWindow, mWindow / 2);
+            }
+            mLock.notifyAll();
+        }
+
+        private void drop(int count) {
+            while (count > 0) {
+                Chunk chunk = mChunks.peek();
+                int n = Math.min(count, chunk.length - chunk.offset);
+                consume(n);
+                count -= n;
+            }
+        }
+
+        private void consume(int count) {
+            Chunk chunk = mChunks.peek();
+            chunk.offset += count;
+            if (chunk.offset == chunk.length) {
+                mChunks.poll();
+                recycle(chunk.data);
+            }
+            mReadPosition += count;
+            mBuffered -= count;
+            mLock.notifyAll();
+        }
+
+        private void recycleChunks() {
+            for (Chunk chunk : mChunks)
+                recycle(chunk.data);
+            mChunks.clear();
+            mBuffered = 0;
+        }
+
+        private void recycle(byte[] data) {
+            if (mFree.size() < 4)
+                mFree.add(data);
+        }
+
+        private void waitLock(long millis) throws InterruptedIOException {
+            try {
+                mLock.wait(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        // the fetching task
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    long position;
+                    int generation;
+                    byte[] data;
+                    synchronized (mLock) {
+                        while (!mClosed && (mError != null || mEof || (mBuffered >= mWindow && !mWaiting)))
+                            mLock.wait();
+                        if (mClosed)
+                            break;
+                        position = mFetchPosition;
+                        generation = mGeneration;
+                        data = mFree.poll();
+                    }
+                    if (data == null)
+                        data = new byte[mChunkSize];
+                    int count = -1;
+                    IOException error = null;
+                    try {
+                        count = fetch(position, data);
+                    } catch (IOException e) {
+                        error = e;
+                        closeRemote();
+                    }
+                    synchronized (mLock) {
+                        if (generation != mGeneration || mClosed) {
+                            // the client moved meanwhile
+                            recycle(data);
+                            continue;
+                        }
+                        if (error != null) {
+                            mError = error;
+                        } else if (count < 0) {
+                            mEof = true;
+                        } else {
+                            mChunks.add(new Chunk(data, count));
+                            mFetchPosition += count;
+                            mBuffered += count;
+                        }
+                        mLock.notifyAll();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                closeRemote();
+            }
+        }
+
+        /** fills data from position, -1 at eof */
+        private int fetch(long position, byte[] data) throws IOException {
+            long length = mStream.mLength;
+            int wanted = data.length;
+            if (length >= 0) {
+                if (position >= length)
+                    return -1;
+                wanted = (int) Math.min(wanted, length - position);
+            }
+            if (mIn == null || position < mInPosition || position - mInPosition > SKIP_LIMIT) {
+                closeRemote();
+                mIn = mStream.openRemote(position);
+                mInPosition = position;
+            }
+            while (mInPosition < position) {
+                long skipped = mIn.skip(position - mInPosition);
+                if (skipped <= 0) {
+                    if (mIn.read() < 0)
+                        return -1;
+                    skipped = 1;
+                }
+                mInPosition += skipped;
+            }
+            int count = 0;
+            while (count < wanted) {
+                int read = mIn.read(data, count, wanted - count);
+                if (read < 0)
+                    break;
+                count += read;
+            }
+            mInPosition += count;
+            mStream.mBytesFetched.addAndGet(count);
+            return count > 0 ? count : -1;
+        }
+
+        private void closeRemote() {
+            if (mIn != null) {
+                closeQuietly(mIn);
+                mIn = null;
+            }
+        }
+    }
+
+    private static final class Chunk {
+        final byte[] data;
+        final int length;
+        int offset;
+
+        Chunk(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    /** LRU of file blocks, bounded in bytes */
+    private static final class BlockCache {
+        private final int mCapacity;
+        private int mSize;
+        private final LinkedHashMap<String, byte[]> mBlocks = new LinkedHashMap<>(64, 0.75f, true);
+
+        BlockCache(int capacity) {
+            mCapacity = capacity;
+        }
+
+        synchronized byte[] get(String file, long index) {
+            return mBlocks.get(file + "@" + index);
+        }
+
+        synchronized void put(String file, long index, byte[] block) {
+            byte[] previous = mBlocks.put(file + "@" + index, block);
+            mSize += block.length - (previous != null ? previous.length : 0);
+            Iterator<Map.Entry<String, byte[]>> it = mBlocks.entrySet().iterator();
+            while (mSize > mCapacity && it.hasNext()) {
+                mSize -= it.next().getValue().length;
+                it.remove();
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -15,19 +15,39 @@
 package com.archos.medialib;
 
 import android.net.Uri;
-import android.os.Looper;
+import android.os.SystemClock;
 
-import com.archos.filecorelibrary.StreamOverHttp;
 import com.archos.mediacenter.filecoreextension.upnp2.StreamUriFinder;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.Map;
 /*
     retrieve http uri from upnp uri
+    the http uri is played directly, resolutions are cached because import, thumbnailing
+    and playback resolve the same items again and again
  */
 public class UpnpProxy extends Proxy{
-    private StreamOverHttp mStream;
-    private Uri mNewUri;
+    private static final int CACHE_SIZE = 64;
+    // media servers may renumber their items on restart
+    private static final long CACHE_TTL = 10 * 60 * 1000;
+
+    private static final LinkedHashMap<Uri, Resolution> sResolved = new LinkedHashMap<Uri, Resolution>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Uri, Resolution> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private static class Resolution {
+        final Uri uri;
+        final long time;
+
+        Resolution(Uri uri) {
+            this.uri = uri;
+            time = SystemClock.elapsedRealtime();
+        }
+    }
 
     protected UpnpProxy(Uri uri) {
         super(uri);
@@ -36,43 +56,19 @@ public class UpnpProxy extends Proxy{
         return "upnp".equalsIgnoreCase(scheme);
     }
     protected Uri start() {
-        final Object lock = new Object();
-        new Thread() {
-            public void run() {
-                Looper.prepare();
-                StreamUriFinder StreamUriFinder = new StreamUriFinder(mUri,null, Looper.myLooper());
-
-                StreamUriFinder.setListener(new StreamUriFinder.Listener() {
-                    @Override
-                    public void onUriFound(Uri uri) {
-                        mNewUri = uri;
-
-                        synchronized (lock){
-                            lock.notify();
-                        }
-                    }
-
-                    @Override
-                    public void onError() {
-
-                        synchronized (lock){
-                            lock.notify();
-                        }
-                    }
-                });
-                StreamUriFinder.start();
-                Looper.loop();
-            }
-        }.start();
-        synchronized (lock){
-            try {
-                if(mNewUri==null)
-                    lock.wait();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+        synchronized (sResolved) {
+            Resolution resolution = sResolved.get(mUri);
+            if (resolution != null && SystemClock.elapsedRealtime() - resolution.time < CACHE_TTL)
+                return resolution.uri;
+        }
+        // resolve on the calling thread, which was already blocked waiting for the result
+        Uri newUri = new StreamUriFinder(mUri, null).start_blocking();
+        if (newUri != null) {
+            synchronized (sResolved) {
+                sResolved.put(mUri, new Resolution(newUri));
             }
         }
-        return mNewUri;
+        return newUri;
     }
 
     public void stop() {
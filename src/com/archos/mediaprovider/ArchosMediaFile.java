@@ -19,6 +19,8 @@ package com.archos.mediaprovider;
 import com.archos.filecorelibrary.MetaFile2;
 
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * MediaScanner helper class. Archos Specific version of
@@ -152,8 +154,68 @@ public class ArchosMediaFile {
     private static HashMap<String, MediaFileType> sFileTypeMap
             = new HashMap<String, MediaFileType>();
 
+    // open addressed index over sFileTypeMap, looked up straight from the path chars
+    // so that classifying a file name does not allocate (no substring, no toUpperCase)
+    private static char[][] sIndexKeys;
+    private static MediaFileType[] sIndexValues;
+    private static int sIndexMask;
+    private static int sMaxExtensionLength;
+
     static void addFileType(String extension, int fileType, String mimeType) {
         sFileTypeMap.put(extension, new MediaFileType(fileType, mimeType));
+        if (sIndexKeys != null) buildIndex();
+    }
+
+    private static void buildIndex() {
+        int size = Integer.highestOneBit(sFileTypeMap.size() * 4 - 1) << 1;
+        char[][] keys = new char[size][];
+        MediaFileType[] values = new MediaFileType[size];
+        int maxLength = 0;
+        for (Map.Entry<String, MediaFileType> entry : sFileTypeMap.entrySet()) {
+            char[] key = entry.getKey().toCharArray();
+            int slot = hash(key, 0, key.length) & (size - 1);
+            while (keys[slot] != null) slot = (slot + 1) & (size - 1);
+            keys[slot] = key;
+            values[slot] = entry.getValue();
+            maxLength = Math.max(maxLength, key.length);
+        }
+        sIndexValues = values;
+        sIndexMask = size - 1;
+        sMaxExtensionLength = maxLength;
+        sIndexKeys = keys;
+    }
+
+    // extensions are plain ascii, folding ascii only also keeps the lookup locale independent
+    private static char upper(char c) {
+        return c >= 'a' && c <= 'z' ? (char) (c - ('a' - 'A')) : c;
+    }
+
+    private static int hash(CharSequence s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) h = 31 * h + upper(s.charAt(i));
+        return h ^ (h >>> 16);
+    }
+
+    private static int hash(char[] s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) h = 31 * h + upper(s[i]);
+        return h ^ (h >>> 16);
+    }
+
+    private static MediaFileType lookup(CharSequence s, int start, int end) {
+        char[][] keys = sIndexKeys;
+        int slot = hash(s, start, end) & sIndexMask;
+        int length = end - start;
+        char[] key;
+        while ((key = keys[slot]) != null) {
+            if (key.length == length) {
+                int i = 0;
+                while (i < length && key[i] == upper(s.charAt(start + i))) i++;
+                if (i == length) return sIndexValues[slot];
+            }
+            slot = (slot + 1) & sIndexMask;
+        }
+        return null;
     }
 
     static {
@@ -292,6 +354,8 @@ public class ArchosMediaFile {
         addFileType("WVX"  , FILE_TYPE_ANY_VIDEO, "video/x-ms-wvx");
         addFileType("WMX"  , FILE_TYPE_ANY_VIDEO, "video/x-ms-wmx");
         addFileType("ASX"  , FILE_TYPE_ANY_VIDEO, "video/x-ms-asf");
+
+        buildIndex();
     }
 
     public static boolean isAudioFileType(int fileType) {
@@ -335,11 +399,42 @@ public class ArchosMediaFile {
                 fileType <= LAST_DRM_FILE_TYPE);
     }
 
-    public static MediaFileType getFileType(String path) {
+    /**
+     * Returns the type for the extension of path, or for path itself if it has no dot
+     * (i.e. a bare extension). Does not allocate.
+     */
+    public static MediaFileType getFileType(CharSequence path) {
+        return getFileType(path, true);
+    }
+
+    private static MediaFileType getFileType(CharSequence path, boolean bareExtension) {
         if(path==null)
             return null;
-        int lastDot = path.lastIndexOf(".");
-        return sFileTypeMap.get(path.substring(lastDot + 1).toUpperCase());
+        int end = path.length();
+        // only the last sMaxExtensionLength chars can hold a known extension,
+        // anything with a longer or no extension is rejected without looking further
+        int stop = Math.max(0, end - sMaxExtensionLength - 1);
+        for (int i = end - 1; i >= stop; i--) {
+            if (path.charAt(i) == '.')
+                return lookup(path, i + 1, end);
+        }
+        return bareExtension && end <= sMaxExtensionLength ? lookup(path, 0, end) : null;
+    }
+
+    /**
+     * Classifies a whole directory listing at once: fileTypes[i] receives the simple
+     * file type of the file name names.get(i), 0 if unknown or if it has no extension.
+     * fileTypes must be at least names.size() long.
+     * @return the number of entries of a known type
+     */
+    public static int getSimpleFileTypes(List<? extends CharSequence> names, int[] fileTypes) {
+        int known = 0;
+        for (int i = 0, n = names.size(); i < n; i++) {
+            MediaFileType mediaFileType = getFileType(names.get(i), false);
+            fileTypes[i] = mediaFileType == null ? 0 : mediaFileType.fileType;
+            if (fileTypes[i] != 0) known++;
+        }
+        return known;
     }
 
     // generates a title based on file name
@@ -369,12 +464,12 @@ public class ArchosMediaFile {
         return fileName;
     }
 
-    public static int getSimpleFileType(String path) {
+    public static int getSimpleFileType(CharSequence path) {
         MediaFileType mediaFileType = getFileType(path);
         return mediaFileType == null ? 0 : mediaFileType.fileType;
     }
 
-    public static String getMimeTypeForFile(String path) {
+    public static String getMimeTypeForFile(CharSequence path) {
         MediaFileType mediaFileType = getFileType(path);
         return (mediaFileType == null ? null : mediaFileType.mimeType);
     }
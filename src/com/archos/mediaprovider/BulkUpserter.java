@@ -0,0 +1,88 @@
+// Copyright 2017 Archos SA
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.archos.mediaprovider;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+/**
+ * {@link UpsertBatch} bulk executor, buffers rows and sends them to the provider
+ * in a single call once the limit is reached.
+ */
+public class BulkUpserter {
+    private static final String TAG = ArchosMediaCommon.TAG_PREFIX + BulkUpserter.class.getSimpleName();
+    private static final boolean DBG = false;
+
+    private final ContentResolver mCr;
+    private final UpsertBatch mBatch;
+    private final Uri mUri;
+    private final int mLimit;
+    private int mInsertCount;
+    private int mUpdateCount;
+
+    /**
+     * @param uri any Uri of the provider, used to resolve it
+     * @param table table to write into
+     * @param keyColumn column used to find existing rows
+     * @param insertMissing insert keyed rows that did not exist
+     */
+    public BulkUpserter(Uri uri, ContentResolver cr, String table, String keyColumn,
+            boolean insertMissing, int limit) {
+        mUri = uri;
+        mCr = cr;
+        mBatch = new UpsertBatch(table, keyColumn, insertMissing);
+        mLimit = limit;
+    }
+
+    /**
+     * Starts a new row, fill it via the returned batch.
+     * @param key value of the key column, null to always insert
+     */
+    public UpsertBatch newRow(Object key) {
+        if (mBatch.size() >= mLimit) {
+            if (DBG) Log.d(TAG, "execute() at " + mBatch.size() + "/" + mLimit);
+            execute();
+        }
+        return mBatch.newRow(key);
+    }
+
+    /** @return number of rows handled so far */
+    public int execute() {
+        if (mBatch.size() <= 0)
+            return mInsertCount + mUpdateCount;
+
+        Bundle extras = new Bundle();
+        extras.putParcelable(UpsertBatch.EXTRA_BATCH, mBatch);
+        Bundle result = mCr.call(mUri, UpsertBatch.METHOD_UPSERT, null, extras);
+        if (result != null) {
+            mInsertCount += result.getInt(UpsertBatch.RESULT_INSERTED);
+            mUpdateCount += result.getInt(UpsertBatch.RESULT_UPDATED);
+        }
+        // got to clear the batch.
+        mBatch.clear();
+
+        return mInsertCount + mUpdateCount;
+    }
+
+    public int getInsertCount() {
+        return mInsertCount;
+    }
+
+    public int getUpdateCount() {
+        return mUpdateCount;
+    }
+}
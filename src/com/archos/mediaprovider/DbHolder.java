@@ -14,23 +14,70 @@
 
 package com.archos.mediaprovider;
 
+import android.database.CrossProcessCursorWrapper;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDatabase.CursorFactory;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 import android.os.Looper;
 import android.util.Log;
 
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Holds the database of a provider.
+ * <p>
+ * {@link #get()} returns the writable database, its primary connection is the only one
+ * that writes. Long running writers (bulk inserts, batches) wrap their transaction in
+ * {@link #beginHeavyWrite()} / {@link #endHeavyWrite()} so they queue up fairly instead
+ * of competing for that connection, and so the WAL can be checkpointed once they are done.
+ * <p>
+ * {@link #getReadable()} returns a second, read-only database on the same file with its
+ * own WAL connection pool. Queries from the UI use it and are never queued behind
+ * writers waiting for a connection of the writable database.
+ * <p>
+ * Lock order: the heavy write lock is taken before the writable database's connection, i.e.
+ * {@link #beginHeavyWrite()} comes before beginTransaction and never inside a transaction
+ * that was not started under it. The other way around a thread holding the connection would
+ * wait for the lock while the lock holder waits for the connection.
+ */
 public class DbHolder {
+    private static final String TAG = ArchosMediaCommon.TAG_PREFIX + DbHolder.class.getSimpleName();
+    private static final boolean DBG = false;
+
+    /** checkpoint the WAL after heavy writes once it grew beyond that */
+    private static final long WAL_CHECKPOINT_BYTES = 4 * 1024 * 1024;
 
     private final SQLiteOpenHelper mDbHelper;
+    private final CursorFactory mReadCursorFactory;
     private final ReentrantLock mLock = new ReentrantLock();
+    // fair, so a scan does not starve a sync that waits for its turn
+    private final ReentrantLock mWriteLock = new ReentrantLock(true);
 
     // singleton
     private volatile SQLiteDatabase mDb;
+    private volatile SQLiteDatabase mReadDb;
+    private volatile boolean mReadDbFailed;
+
+    // metrics
+    private final AtomicInteger mActiveReads = new AtomicInteger();
+    private final AtomicInteger mPeakReads = new AtomicInteger();
+    private final AtomicLong mReadCount = new AtomicLong();
+    private final AtomicLong mCheckpointCount = new AtomicLong();
 
     public DbHolder(SQLiteOpenHelper openHelper) {
+        this(openHelper, null);
+    }
+
+    /** @param readCursorFactory factory used by the read-only database */
+    public DbHolder(SQLiteOpenHelper openHelper, CursorFactory readCursorFactory) {
         mDbHelper = openHelper;
+        mReadCursorFactory = readCursorFactory;
     }
 
     public SQLiteDatabase get() {
@@ -53,6 +100,185 @@ public class DbHolder {
         return mDb;
     }
 
+    /**
+     * @return the read-only database, or the writable one if the current thread is
+     * inside a transaction (it has to see its own changes) or the read-only one can't be opened.
+     */
+    public SQLiteDatabase getReadable() {
+        SQLiteDatabase db = get();
+        if (mReadDbFailed || db.inTransaction())
+            return db;
+        if (mReadDb == null) {
+            mLock.lock();
+            try {
+                if (mReadDb == null && !mReadDbFailed) {
+                    mReadDb = openReadable(db);
+                    mReadDbFailed = mReadDb == null;
+                }
+            } finally {
+                mLock.unlock();
+            }
+        }
+        return mReadDb != null ? mReadDb : db;
+    }
+
+    private SQLiteDatabase openReadable(SQLiteDatabase db) {
+        if (!db.isWriteAheadLoggingEnabled())
+            return null;
+        try {
+            // WAL flag gives this database a pool of connections as well, it does not
+            // change the journal mode of a read-only database.
+            return SQLiteDatabase.openDatabase(db.getPath(), mReadCursorFactory,
+                    SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING);
+        } catch (SQLiteException e) {
+            Log.w(TAG, "could not open read-only database, using the writable one", e);
+            return null;
+        }
+    }
+
+    /**
+     * call before a query on {@link #getReadable()}, must be paired with {@link #onReadFinished()}
+     * or with {@link #trackRead(Cursor)} on the result of the query.
+     */
+    public void onReadStarted() {
+        mReadCount.incrementAndGet();
+        int active = mActiveReads.incrementAndGet();
+        int peak;
+        while (active > (peak = mPeakReads.get())) {
+            if (mPeakReads.compareAndSet(peak, active))
+                break;
+        }
+    }
+
+    public void onReadFinished() {
+        mActiveReads.decrementAndGet();
+    }
+
+    /**
+     * Ends the read started with {@link #onReadStarted()} when the returned cursor is closed,
+     * the rows of a query are read while the cursor is consumed, not when it is returned.
+     * Call it in a finally block, with null if the query failed.
+     * @return c wrapped, or null (and the read finished right away) if c is null
+     */
+    public Cursor trackRead(Cursor c) {
+        if (c == null) {
+            onReadFinished();
+            return null;
+        }
+        return new TrackedCursor(c);
+    }
+
+    /** keeps the read counted as active until close(), across processes as well */
+    private class TrackedCursor extends CrossProcessCursorWrapper {
+        private boolean mFinished;
+
+        TrackedCursor(Cursor cursor) {
+            super(cursor);
+        }
+
+        @Override
+        public void close() {
+            try {
+                super.close();
+            } finally {
+                synchronized (this) {
+                    if (!mFinished) {
+                        mFinished = true;
+                        onReadFinished();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Serializes long running writers, call before beginning their transaction.
+     * Reentrant, must be paired with {@link #endHeavyWrite()} in a finally block.
+     * @throws IllegalStateException if called inside a transaction that is not a heavy write
+     * already, see the lock order in the class description.
+     */
+    public void beginHeavyWrite() {
+        SQLiteDatabase db = mDb;
+        if (db != null && !mWriteLock.isHeldByCurrentThread() && db.inTransaction())
+            throw new IllegalStateException("beginHeavyWrite() must be called before beginTransaction()");
+        mWriteLock.lock();
+    }
+
+    /** call after the transaction of a heavy writer has ended */
+    public void endHeavyWrite() {
+        try {
+            if (mWriteLock.getHoldCount() == 1) {
+                checkpointIfNeeded();
+            }
+        } finally {
+            mWriteLock.unlock();
+        }
+    }
+
+    private void checkpointIfNeeded() {
+        SQLiteDatabase db = mDb;
+        if (db == null || db.inTransaction())
+            return;
+        long walSize = getWalSize();
+        if (walSize < WAL_CHECKPOINT_BYTES)
+            return;
+        // TRUNCATE (SQLite 3.8.8) resets the WAL file, PASSIVE only copies pages back
+        String mode = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? "TRUNCATE" : "PASSIVE";
+        try {
+            pragma(db, "wal_checkpoint(" + mode + ")");
+            mCheckpointCount.incrementAndGet();
+            if (DBG) Log.d(TAG, "checkpoint " + mode + " at " + walSize + " -> " + getWalSize());
+        } catch (SQLiteException e) {
+            Log.w(TAG, "wal_checkpoint failed", e);
+        }
+    }
+
+    /**
+     * Runs a PRAGMA that may return a row on the primary connection.
+     * execSQL refuses statements that return rows, so query and step once.
+     */
+    public static void pragma(SQLiteDatabase db, String pragma) {
+        Cursor c = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            c.moveToFirst();
+        } finally {
+            c.close();
+        }
+    }
+
+    /** @return size of the write-ahead log in bytes, 0 if there is none */
+    public long getWalSize() {
+        SQLiteDatabase db = mDb;
+        if (db == null)
+            return 0;
+        return new File(db.getPath() + "-wal").length();
+    }
+
+    /** @return number of queries whose cursor is still open */
+    public int getActiveReads() {
+        return mActiveReads.get();
+    }
+
+    /** @return highest number of concurrent queries seen */
+    public int getPeakReads() {
+        return mPeakReads.get();
+    }
+
+    /** @return number of queries run since start */
+    public long getReadCount() {
+        return mReadCount.get();
+    }
+
+    /** @return number of checkpoints done after heavy writes */
+    public long getCheckpointCount() {
+        return mCheckpointCount.get();
+    }
+
+    /** @return number of threads waiting to start a heavy write */
+    public int getQueuedWriters() {
+        return mWriteLock.getQueueLength();
+    }
+
     private static void logUiThread() {
         if (Looper.getMainLooper() == Looper.myLooper()) {
             Exception e = new Exception("CREATING DATABASE ON MAIN THREAD");
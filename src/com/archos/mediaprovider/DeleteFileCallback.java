@@ -61,6 +61,7 @@ public class DeleteFileCallback implements SQLiteDbProxy.CustomFunction {
                 if(!DO_NOT_DELETE.contains(file)) {
                     File f = new File(args[0]);
                     success = f.delete();
+                    ThumbnailPack.onFileChanged(file);
                 }
                 else
                     if (DBG) Log.d(TAG, SQLITE_FUNCTION_NAME + " protected file");
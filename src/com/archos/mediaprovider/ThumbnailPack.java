@@ -0,0 +1,538 @@
+// Copyright 2017 Archos SA
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.archos.mediaprovider;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only pack of small images (video thumbnails) keyed by a 64 bit key, usually
+ * {@link #keyOf(String)} of the image file the entry mirrors.
+ * Entries are read from a read-only memory mapping of the pack, so a grid of thumbnails costs no
+ * file open per thumbnail.
+ * <p>
+ * Layout: file header (magic, version) followed by records
+ * [magic int][key long][length int][crc32 int][length bytes]. A record with length -1 is a
+ * tombstone. The in-memory index is rebuilt by scanning the record headers on open; a torn tail
+ * left by a crash is cut off at the first invalid header and a bad crc drops the entry the first
+ * time it is read. Space of replaced and removed entries is reclaimed by {@link #compact()}
+ * which rewrites the live entries into a new file and renames it over the pack.
+ * <p>
+ * The pack is owned by the process hosting the VideoProvider.
+ */
+public class ThumbnailPack {
+    private static final String TAG = "ThumbnailPack";
+    private static final boolean DBG = false;
+
+    private static final String DIR_NAME = "thumb_pack";
+    private static final String FILE_NAME = "thumbs.pack";
+    private static final String TMP_FILE_NAME = "thumbs.pack.tmp";
+
+    private static final int FILE_MAGIC = 0x41544850; // "ATHP"
+    private static final int FILE_VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int RECORD_MAGIC = 0x54484d42; // "THMB"
+    private static final int RECORD_HEADER_SIZE = 4 + 8 + 4 + 4;
+    private static final int TOMBSTONE = -1;
+    // thumbnails are a few dozen KB, anything bigger is not a thumbnail or a corrupt header
+    private static final int MAX_ENTRY_SIZE = 4 * 1024 * 1024;
+    // compact once half of the pack is dead and that is worth a rewrite
+    private static final long COMPACT_MIN_DEAD_BYTES = 4 * 1024 * 1024;
+    // changes recorded before the pack is opened, beyond that the whole pack is dropped on open
+    private static final int MAX_PENDING_CHANGES = 16384;
+
+    private static final class Entry {
+        final long offset; // of the data, not the record header
+        final int length;
+        boolean verified;
+
+        Entry(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static volatile ThumbnailPack sInstance;
+    // keys of files changed while sInstance was null, guarded by ThumbnailPack.class
+    private static final HashSet<Long> sPendingChanges = new HashSet<Long>();
+    private static boolean sPendingOverflow;
+
+    private final File mFile;
+    private final File mTmpFile;
+    private final LongSparseArray<Entry> mIndex = new LongSparseArray<Entry>();
+    private final ExecutorService mCompactExecutor = Executors.newSingleThreadExecutor();
+    private final CRC32 mCrc = new CRC32();
+    private RandomAccessFile mRaf;
+    private FileChannel mChannel;
+    private MappedByteBuffer mMap;
+    // handed out as dups by openAssetFile, never our writable descriptor
+    private ParcelFileDescriptor mReadPfd;
+    private long mSize;
+    private long mDeadBytes;
+    private boolean mCompactPending;
+
+    public static ThumbnailPack get(Context context) {
+        ThumbnailPack pack = sInstance;
+        if (pack == null) {
+            synchronized (ThumbnailPack.class) {
+                pack = sInstance;
+                if (pack == null) {
+                    pack = new ThumbnailPack(context.getApplicationContext().getDir(DIR_NAME, Context.MODE_PRIVATE));
+                    pack.applyChanges(sPendingChanges, sPendingOverflow);
+                    sPendingChanges.clear();
+                    sPendingOverflow = false;
+                    sInstance = pack;
+                }
+            }
+        }
+        return pack;
+    }
+
+    /**
+     * drops the entry mirroring a file that got rewritten or deleted. Callers have no context
+     * (sqlite delete triggers), so if the pack is not open yet the change is applied when it is.
+     */
+    public static void onFileChanged(String path) {
+        if (path == null)
+            return;
+        long key = keyOf(path);
+        ThumbnailPack pack = sInstance;
+        if (pack == null) {
+            synchronized (ThumbnailPack.class) {
+                pack = sInstance;
+                if (pack == null) {
+                    if (sPendingChanges.size() < MAX_PENDING_CHANGES)
+                        sPendingChanges.add(key);
+                    else
+                        sPendingOverflow = true;
+                    return;
+                }
+            }
+        }
+        pack.remove(key);
+    }
+
+    /** 64 bit FNV-1a of the path */
+    public static long keyOf(String path) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < path.length(); i++) {
+            hash ^= path.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private ThumbnailPack(File dir) {
+        mFile = new File(dir, FILE_NAME);
+        mTmpFile = new File(dir, TMP_FILE_NAME);
+        synchronized (this) {
+            // leftover of a compaction that did not finish, the pack itself is still intact
+            if (mTmpFile.exists() && !mTmpFile.delete())
+                Log.w(TAG, "could not delete " + mTmpFile);
+            try {
+                open();
+            } catch (IOException e) {
+                Log.e(TAG, "could not open " + mFile + ", starting from scratch", e);
+                closeQuietly();
+                if (!mFile.delete())
+                    Log.w(TAG, "could not delete " + mFile);
+                try {
+                    open();
+                } catch (IOException e2) {
+                    Log.e(TAG, "pack disabled", e2);
+                    closeQuietly();
+                }
+            }
+        }
+    }
+
+    private synchronized void applyChanges(HashSet<Long> keys, boolean overflow) {
+        if (overflow) {
+            // too many to track: the pack is a cache, thumbnails get copied in again on read
+            Log.w(TAG, "too many changes before open, dropping the pack");
+            closeQuietly();
+            if (!mFile.delete())
+                Log.w(TAG, "could not delete " + mFile);
+            try {
+                open();
+            } catch (IOException e) {
+                Log.e(TAG, "pack disabled", e);
+                closeQuietly();
+            }
+            return;
+        }
+        for (Long key : keys)
+            remove(key.longValue());
+    }
+
+    private void open() throws IOException {
+        mRaf = new RandomAccessFile(mFile, "rw");
+        mChannel = mRaf.getChannel();
+        mReadPfd = ParcelFileDescriptor.open(mFile, ParcelFileDescriptor.MODE_READ_ONLY);
+        mIndex.clear();
+        mDeadBytes = 0;
+        long fileSize = mChannel.size();
+        if (fileSize < FILE_HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            header.putInt(FILE_MAGIC).putInt(FILE_VERSION).flip();
+            mChannel.truncate(0);
+            mChannel.write(header, 0);
+            mSize = FILE_HEADER_SIZE;
+            remap();
+            return;
+        }
+        mMap = mChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        if (mMap.getInt(0) != FILE_MAGIC || mMap.getInt(4) != FILE_VERSION)
+            throw new IOException("bad pack header");
+        mSize = scan(fileSize);
+        if (mSize < fileSize) {
+            Log.w(TAG, "recovering pack: dropping " + (fileSize - mSize) + " bytes of torn tail");
+            mChannel.truncate(mSize);
+            remap();
+        }
+        if (DBG) Log.d(TAG, "open: " + mIndex.size() + " entries, " + mSize + " bytes, " + mDeadBytes + " dead");
+    }
+
+    /** rebuilds the index from the record headers, returns the end of the last valid record */
+    private long scan(long fileSize) {
+        long pos = FILE_HEADER_SIZE;
+        while (pos + RECORD_HEADER_SIZE <= fileSize) {
+            int p = (int) pos;
+            if (mMap.getInt(p) != RECORD_MAGIC)
+                break;
+            long key = mMap.getLong(p + 4);
+            int length = mMap.getInt(p + 12);
+            if (length == TOMBSTONE) {
+                dropEntry(key);
+                mDeadBytes += RECORD_HEADER_SIZE;
+                pos += RECORD_HEADER_SIZE;
+                continue;
+            }
+            if (length < 0 || length > MAX_ENTRY_SIZE || pos + RECORD_HEADER_SIZE + length > fileSize)
+                break;
+            dropEntry(key);
+            mIndex.put(key, new Entry(pos + RECORD_HEADER_SIZE, length));
+            pos += RECORD_HEADER_SIZE + length;
+        }
+        return pos;
+    }
+
+    private void dropEntry(long key) {
+        Entry old = mIndex.get(key);
+        if (old != null) {
+            mIndex.remove(key);
+            mDeadBytes += RECORD_HEADER_SIZE + old.length;
+        }
+    }
+
+    private void remap() throws IOException {
+        mMap = mChannel.map(FileChannel.MapMode.READ_ONLY, 0, mSize);
+    }
+
+    private void closeQuietly() {
+        mIndex.clear();
+        mMap = null;
+        mChannel = null;
+        if (mReadPfd != null) {
+            try {
+                mReadPfd.close();
+            } catch (IOException e) {
+                // ignored
+            }
+            mReadPfd = null;
+        }
+        if (mRaf != null) {
+            try {
+                mRaf.close();
+            } catch (IOException e) {
+                // ignored
+            }
+            mRaf = null;
+        }
+    }
+
+    public synchronized boolean contains(long key) {
+        return mIndex.get(key) != null;
+    }
+
+    /** adds or replaces an entry */
+    public synchronized boolean put(long key, byte[] data) {
+        if (mChannel == null || data.length > MAX_ENTRY_SIZE)
+            return false;
+        // offsets into the mapping are ints
+        if (mSize + RECORD_HEADER_SIZE + data.length > Integer.MAX_VALUE)
+            return false;
+        mCrc.reset();
+        mCrc.update(data, 0, data.length);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + data.length);
+        record.putInt(RECORD_MAGIC).putLong(key).putInt(data.length).putInt((int) mCrc.getValue()).put(data).flip();
+        if (!append(record))
+            return false;
+        dropEntry(key);
+        Entry entry = new Entry(mSize - data.length, data.length);
+        // we just computed it
+        entry.verified = true;
+        mIndex.put(key, entry);
+        maybeScheduleCompaction();
+        return true;
+    }
+
+    public synchronized void remove(long key) {
+        if (mChannel == null || mIndex.get(key) == null)
+            return;
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        record.putInt(RECORD_MAGIC).putLong(key).putInt(TOMBSTONE).putInt(0).flip();
+        if (!append(record))
+            return;
+        dropEntry(key);
+        mDeadBytes += RECORD_HEADER_SIZE;
+        maybeScheduleCompaction();
+    }
+
+    private boolean append(ByteBuffer record) {
+        int length = record.remaining();
+        try {
+            long pos = mSize;
+            while (record.hasRemaining())
+                pos += mChannel.write(record, pos);
+            mSize += length;
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "append failed", e);
+            // whatever got written is beyond mSize and gets overwritten or cut off on next open
+            return false;
+        }
+    }
+
+    /**
+     * Zero-copy read-only view of an entry, null if absent or corrupt.
+     * The view stays valid after compaction since it keeps the old mapping alive.
+     */
+    public synchronized ByteBuffer get(long key) {
+        Entry entry = mIndex.get(key);
+        if (entry == null)
+            return null;
+        try {
+            if (entry.offset + entry.length > mMap.capacity())
+                remap();
+        } catch (IOException e) {
+            Log.e(TAG, "remap failed", e);
+            return null;
+        }
+        ByteBuffer view = mMap.duplicate();
+        view.limit((int) (entry.offset + entry.length));
+        view.position((int) entry.offset);
+        view = view.slice();
+        if (!entry.verified) {
+            if (!checkCrc(entry, view)) {
+                Log.w(TAG, "dropping corrupt entry " + key);
+                remove(key);
+                return null;
+            }
+            entry.verified = true;
+        }
+        return view;
+    }
+
+    private boolean checkCrc(Entry entry, ByteBuffer data) {
+        int expected = mMap.getInt((int) entry.offset - 4);
+        mCrc.reset();
+        ByteBuffer src = data.duplicate();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            mCrc.update(src);
+        } else {
+            byte[] chunk = new byte[8192];
+            while (src.hasRemaining()) {
+                int n = Math.min(chunk.length, src.remaining());
+                src.get(chunk, 0, n);
+                mCrc.update(chunk, 0, n);
+            }
+        }
+        return (int) mCrc.getValue() == expected;
+    }
+
+    /** stream over the mapped entry, for decoders running in this process */
+    public InputStream openStream(long key) {
+        ByteBuffer data = get(key);
+        return data != null ? new ByteBufferInputStream(data) : null;
+    }
+
+    /**
+     * Section of the pack file holding the entry, for ContentProvider.openAssetFile.
+     * Hands out a dup of a read-only descriptor of the pack that is kept open (and reopened
+     * after {@link #compact()}), a dup of the writable one would give write access to the pack.
+     */
+    public synchronized AssetFileDescriptor openAssetFile(long key) {
+        // validates the entry
+        if (mReadPfd == null || get(key) == null)
+            return null;
+        Entry entry = mIndex.get(key);
+        try {
+            return new AssetFileDescriptor(mReadPfd.dup(), entry.offset, entry.length);
+        } catch (IOException e) {
+            Log.e(TAG, "openAssetFile failed", e);
+            return null;
+        }
+    }
+
+    /** copies a file into the pack, used to migrate thumbnails written before the pack existed */
+    public boolean putFile(long key, File file) {
+        long length = file.length();
+        if (length <= 0 || length > MAX_ENTRY_SIZE)
+            return false;
+        byte[] data = new byte[(int) length];
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0)
+                    return false;
+                read += n;
+            }
+        } catch (IOException e) {
+            if (DBG) Log.d(TAG, "putFile: " + file + " " + e);
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignored
+                }
+            }
+        }
+        return put(key, data);
+    }
+
+    private void maybeScheduleCompaction() {
+        if (mCompactPending || mDeadBytes < COMPACT_MIN_DEAD_BYTES || mDeadBytes * 2 < mSize)
+            return;
+        mCompactPending = true;
+        // never compact inline, remove() runs inside sqlite delete triggers
+        mCompactExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                compact();
+            }
+        });
+    }
+
+    /**
+     * Rewrites the live entries into a new file, syncs it and renames it over the pack.
+     * A crash before the rename leaves the old pack untouched.
+     */
+    public synchronized void compact() {
+        mCompactPending = false;
+        if (mChannel == null)
+            return;
+        long before = mSize;
+        RandomAccessFile tmp = null;
+        try {
+            tmp = new RandomAccessFile(mTmpFile, "rw");
+            FileChannel out = tmp.getChannel();
+            out.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            header.putInt(FILE_MAGIC).putInt(FILE_VERSION).flip();
+            out.write(header);
+            if (mMap.capacity() < mSize)
+                remap();
+            for (int i = 0; i < mIndex.size(); i++) {
+                Entry entry = mIndex.valueAt(i);
+                ByteBuffer record = mMap.duplicate();
+                record.limit((int) (entry.offset + entry.length));
+                record.position((int) (entry.offset - RECORD_HEADER_SIZE));
+                while (record.hasRemaining())
+                    out.write(record);
+            }
+            out.force(true);
+            tmp.close();
+            tmp = null;
+            closeQuietly();
+            if (!mTmpFile.renameTo(mFile))
+                throw new IOException("rename failed");
+        } catch (IOException e) {
+            Log.e(TAG, "compaction failed", e);
+            if (tmp != null) {
+                try {
+                    tmp.close();
+                } catch (IOException e2) {
+                    // ignored
+                }
+            }
+            mTmpFile.delete();
+        }
+        try {
+            if (mChannel == null)
+                open();
+        } catch (IOException e) {
+            Log.e(TAG, "could not reopen pack, disabled", e);
+            closeQuietly();
+        }
+        if (DBG) Log.d(TAG, "compact: " + before + " -> " + mSize + " bytes");
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer mBuffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!mBuffer.hasRemaining())
+                return -1;
+            int n = Math.min(len, mBuffer.remaining());
+            mBuffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.min(n, mBuffer.remaining());
+            mBuffer.position(mBuffer.position() + skipped);
+            return skipped;
+        }
+    }
+}
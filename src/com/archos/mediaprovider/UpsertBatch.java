@@ -0,0 +1,326 @@
+// Copyright 2017 Archos SA
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.archos.mediaprovider;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Columnar batch of rows for a single table that are either updated by key or inserted.
+ * <p>
+ * Column names are stored once per batch, each row only holds column indexes and values
+ * in flat arrays. The provider executes the batch as prepared statements (one pair per
+ * distinct column set) inside a single transaction, see {@link #apply(SQLiteDatabase, Collection)}.
+ * <p>
+ * Rows with a key are updated ({@code UPDATE .. WHERE key=?}), if no row matched and the batch
+ * was created with insertMissing, they are inserted. Rows without a key are inserted.
+ * SQLite on older Android versions has no {@code INSERT .. ON CONFLICT DO UPDATE}, the
+ * update-then-insert pair does the same within the transaction.
+ * <p>
+ * Column names end up in the SQL as they are, a batch that comes from another process must
+ * pass {@link #checkColumns(Collection, Collection)} against the real schema before it is applied.
+ */
+public class UpsertBatch implements Parcelable {
+    /** ContentProvider#call method name */
+    public static final String METHOD_UPSERT = "upsert";
+    /** Bundle key for the batch in the call extras */
+    public static final String EXTRA_BATCH = "upsert_batch";
+    /** Bundle keys for the call result */
+    public static final String RESULT_INSERTED = "inserted";
+    public static final String RESULT_UPDATED = "updated";
+
+    private static final int INITIAL_ROWS = 64;
+    private static final int INITIAL_CELLS = INITIAL_ROWS * 8;
+
+    private final String mTable;
+    private final String mKeyColumn;
+    private final boolean mInsertMissing;
+
+    private final ArrayList<String> mColumns;
+    private final HashMap<String, Integer> mColumnIndexes;
+
+    private int mRowCount;
+    private Object[] mKeys;
+    /** end offset (exclusive) of each row in the cell arrays */
+    private int[] mRowEnds;
+
+    private int mCellCount;
+    private int[] mCellColumns;
+    private Object[] mCellValues;
+
+    public UpsertBatch(String table, String keyColumn, boolean insertMissing) {
+        mTable = table;
+        mKeyColumn = keyColumn;
+        mInsertMissing = insertMissing;
+        mColumns = new ArrayList<String>();
+        mColumnIndexes = new HashMap<String, Integer>();
+        mKeys = new Object[INITIAL_ROWS];
+        mRowEnds = new int[INITIAL_ROWS];
+        mCellColumns = new int[INITIAL_CELLS];
+        mCellValues = new Object[INITIAL_CELLS];
+    }
+
+    /**
+     * Starts a new row, values are added with {@link #put(String, Object)}
+     * @param key value of the key column, null to always insert
+     */
+    public UpsertBatch newRow(Object key) {
+        if (mRowCount == mKeys.length) {
+            mKeys = Arrays.copyOf(mKeys, mRowCount * 2);
+            mRowEnds = Arrays.copyOf(mRowEnds, mRowCount * 2);
+        }
+        mKeys[mRowCount] = key;
+        mRowEnds[mRowCount] = mCellCount;
+        mRowCount++;
+        return this;
+    }
+
+    /** adds a value to the current row */
+    public UpsertBatch put(String column, Object value) {
+        if (mRowCount == 0)
+            throw new IllegalStateException("newRow() must be called first");
+        Integer index = mColumnIndexes.get(column);
+        if (index == null) {
+            index = Integer.valueOf(mColumns.size());
+            mColumns.add(column);
+            mColumnIndexes.put(column, index);
+        }
+        if (mCellCount == mCellColumns.length) {
+            mCellColumns = Arrays.copyOf(mCellColumns, mCellCount * 2);
+            mCellValues = Arrays.copyOf(mCellValues, mCellCount * 2);
+        }
+        mCellColumns[mCellCount] = index.intValue();
+        mCellValues[mCellCount] = value;
+        mCellCount++;
+        mRowEnds[mRowCount - 1] = mCellCount;
+        return this;
+    }
+
+    /** adds all values to the current row */
+    public UpsertBatch putAll(ContentValues values) {
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+        return this;
+    }
+
+    public String getTable() {
+        return mTable;
+    }
+
+    /** @return number of rows */
+    public int size() {
+        return mRowCount;
+    }
+
+    /** removes all rows, column names are kept */
+    public void clear() {
+        Arrays.fill(mKeys, 0, mRowCount, null);
+        Arrays.fill(mCellValues, 0, mCellCount, null);
+        mRowCount = 0;
+        mCellCount = 0;
+    }
+
+    /**
+     * Rejects the batch if the key column or any column that is not ignored is not
+     * a column of the table.
+     * @param tableColumns all columns of the table
+     * @param ignoredColumns columns that {@link #apply(SQLiteDatabase, Collection)} will drop, may be null
+     * @throws IllegalArgumentException on the first unknown column
+     */
+    public void checkColumns(Collection<String> tableColumns, Collection<String> ignoredColumns) {
+        if (mKeyColumn != null && !tableColumns.contains(mKeyColumn))
+            throw new IllegalArgumentException("unknown key column " + mKeyColumn + " in " + mTable);
+        for (String column : mColumns) {
+            if (ignoredColumns != null && ignoredColumns.contains(column))
+                continue;
+            if (!tableColumns.contains(column))
+                throw new IllegalArgumentException("unknown column " + column + " in " + mTable);
+        }
+        for (int row = 0; row < mRowCount; row++) {
+            if (mKeys[row] != null && mKeyColumn == null)
+                throw new IllegalArgumentException("row key without key column in " + mTable);
+        }
+    }
+
+    /**
+     * Executes the batch, the caller is responsible for the transaction.
+     * @param db database to write into
+     * @param ignoredColumns columns that are silently dropped from every row, may be null
+     * @return {inserted rows, updated rows}
+     */
+    public int[] apply(SQLiteDatabase db, Collection<String> ignoredColumns) {
+        int inserted = 0;
+        int updated = 0;
+        // prepared statements per distinct column set
+        HashMap<String, SQLiteStatement[]> statements = new HashMap<String, SQLiteStatement[]>();
+        StringBuilder signature = new StringBuilder();
+        int[] rowColumns = new int[mColumns.size()];
+        Object[] rowValues = new Object[mColumns.size()];
+        try {
+            int rowStart = 0;
+            for (int row = 0; row < mRowCount; row++) {
+                int rowEnd = mRowEnds[row];
+                int count = 0;
+                signature.setLength(0);
+                for (int cell = rowStart; cell < rowEnd; cell++) {
+                    int column = mCellColumns[cell];
+                    if (ignoredColumns != null && ignoredColumns.contains(mColumns.get(column)))
+                        continue;
+                    rowColumns[count] = column;
+                    rowValues[count] = mCellValues[cell];
+                    count++;
+                    signature.append(column).append(',');
+                }
+                rowStart = rowEnd;
+
+                Object key = mKeys[row];
+                if (count == 0 && key != null)
+                    continue;
+
+                String sig = signature.toString();
+                SQLiteStatement[] pair = statements.get(sig);
+                if (pair == null) {
+                    pair = new SQLiteStatement[2];
+                    statements.put(sig, pair);
+                }
+
+                if (key != null) {
+                    if (pair[0] == null)
+                        pair[0] = db.compileStatement(buildUpdate(rowColumns, count));
+                    SQLiteStatement update = pair[0];
+                    update.clearBindings();
+                    for (int i = 0; i < count; i++) {
+                        DatabaseUtils.bindObjectToProgram(update, i + 1, rowValues[i]);
+                    }
+                    DatabaseUtils.bindObjectToProgram(update, count + 1, key);
+                    int changed = update.executeUpdateDelete();
+                    if (changed > 0 || !mInsertMissing) {
+                        updated += changed;
+                        continue;
+                    }
+                }
+
+                if (pair[1] == null)
+                    pair[1] = db.compileStatement(buildInsert(rowColumns, count, key != null));
+                SQLiteStatement insert = pair[1];
+                insert.clearBindings();
+                for (int i = 0; i < count; i++) {
+                    DatabaseUtils.bindObjectToProgram(insert, i + 1, rowValues[i]);
+                }
+                if (key != null)
+                    DatabaseUtils.bindObjectToProgram(insert, count + 1, key);
+                if (insert.executeInsert() != -1)
+                    inserted++;
+            }
+        } finally {
+            for (SQLiteStatement[] pair : statements.values()) {
+                if (pair[0] != null) pair[0].close();
+                if (pair[1] != null) pair[1].close();
+            }
+        }
+        return new int[] { inserted, updated };
+    }
+
+    private String buildUpdate(int[] columns, int count) {
+        StringBuilder sb = new StringBuilder(32 + count * 24);
+        sb.append("UPDATE ").append(mTable).append(" SET ");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(mColumns.get(columns[i])).append("=?");
+        }
+        sb.append(" WHERE ").append(mKeyColumn).append("=?");
+        return sb.toString();
+    }
+
+    private String buildInsert(int[] columns, int count, boolean withKey) {
+        StringBuilder sb = new StringBuilder(32 + count * 24);
+        sb.append("INSERT INTO ").append(mTable).append(" (");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(mColumns.get(columns[i]));
+        }
+        if (withKey) {
+            if (count > 0) sb.append(',');
+            sb.append(mKeyColumn);
+        }
+        sb.append(") VALUES (");
+        int params = withKey ? count + 1 : count;
+        for (int i = 0; i < params; i++) {
+            if (i > 0) sb.append(',');
+            sb.append('?');
+        }
+        sb.append(')');
+        return sb.toString();
+    }
+
+    // ---------------------------------------------------------------------- //
+    // -- Parcelable                                                       -- //
+    // ---------------------------------------------------------------------- //
+    private UpsertBatch(Parcel in) {
+        mTable = in.readString();
+        mKeyColumn = in.readString();
+        mInsertMissing = in.readInt() != 0;
+        mColumns = new ArrayList<String>();
+        in.readStringList(mColumns);
+        mColumnIndexes = new HashMap<String, Integer>();
+        for (int i = 0; i < mColumns.size(); i++) {
+            mColumnIndexes.put(mColumns.get(i), Integer.valueOf(i));
+        }
+        ClassLoader cl = UpsertBatch.class.getClassLoader();
+        mKeys = in.readArray(cl);
+        mRowEnds = in.createIntArray();
+        mCellColumns = in.createIntArray();
+        mCellValues = in.readArray(cl);
+        mRowCount = mKeys.length;
+        mCellCount = mCellColumns.length;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(mTable);
+        dest.writeString(mKeyColumn);
+        dest.writeInt(mInsertMissing ? 1 : 0);
+        dest.writeStringList(mColumns);
+        dest.writeArray(Arrays.copyOf(mKeys, mRowCount));
+        dest.writeIntArray(Arrays.copyOf(mRowEnds, mRowCount));
+        dest.writeIntArray(Arrays.copyOf(mCellColumns, mCellCount));
+        dest.writeArray(Arrays.copyOf(mCellValues, mCellCount));
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Parcelable.Creator<UpsertBatch> CREATOR = new Parcelable.Creator<UpsertBatch>() {
+        public UpsertBatch createFromParcel(Parcel in) {
+            return new UpsertBatch(in);
+        }
+        public UpsertBatch[] newArray(int size) {
+            return new UpsertBatch[size];
+        }
+    };
+}
@@ -14,7 +14,8 @@ public class VideoDb {
             synchronized (VideoDb.class) {
                 result = instance;
                 if (result == null) {
-                    result = instance = new DbHolder(new VideoOpenHelper(context.getApplicationContext()));
+                    result = instance = new DbHolder(new VideoOpenHelper(context.getApplicationContext()),
+                            new CustomCursorFactory());
                 }
             }
         }
@@ -0,0 +1,155 @@
+// Copyright 2017 Archos SA
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.archos.mediaprovider.video;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton finding a fixed set of ascii patterns in a single pass,
+ * ascii case insensitive. Compiled to a dense transition table over the chars used
+ * by the patterns, so that matching does not allocate:
+ * <pre>
+ * int state = NameTokenMatcher.START;
+ * for (each char c) {
+ *     state = matcher.next(state, c);
+ *     for (int pattern : matcher.matches(state)) ...
+ * }
+ * </pre>
+ * Immutable once built, safe to share between threads.
+ */
+final class NameTokenMatcher {
+    static final int START = 0;
+
+    private static final int[] NO_MATCH = new int[0];
+
+    // char -> column in mTransitions, 0 for chars that appear in no pattern
+    private final byte[] mColumns = new byte[128];
+    private final int mColumnCount;
+    // mTransitions[state * mColumnCount + column] = next state
+    private final int[] mTransitions;
+    // indexes of the patterns ending in each state, including those reached through failure links
+    private final int[][] mMatches;
+
+    NameTokenMatcher(String[] patterns) {
+        // columns
+        int columnCount = 1;
+        for (String pattern : patterns) {
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = lower(pattern.charAt(i));
+                if (c >= 128)
+                    throw new IllegalArgumentException("not an ascii pattern: " + pattern);
+                if (mColumns[c] == 0)
+                    mColumns[c] = (byte) columnCount++;
+            }
+        }
+        if (columnCount > Byte.MAX_VALUE)
+            throw new IllegalArgumentException("too many distinct chars");
+        mColumnCount = columnCount;
+
+        // trie, -1 for missing edges
+        List<int[]> edges = new ArrayList<>();
+        List<int[]> outputs = new ArrayList<>();
+        edges.add(newRow(columnCount));
+        outputs.add(NO_MATCH);
+        for (int p = 0; p < patterns.length; p++) {
+            int state = START;
+            String pattern = patterns[p];
+            for (int i = 0; i < pattern.length(); i++) {
+                int column = mColumns[lower(pattern.charAt(i))];
+                int next = edges.get(state)[column];
+                if (next < 0) {
+                    next = edges.size();
+                    edges.add(newRow(columnCount));
+                    outputs.add(NO_MATCH);
+                    edges.get(state)[column] = next;
+                }
+                state = next;
+            }
+            outputs.set(state, append(outputs.get(state), p));
+        }
+
+        // breadth first: failure links folded into a full transition table
+        int stateCount = edges.size();
+        int[] transitions = new int[stateCount * columnCount];
+        int[] fail = new int[stateCount];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        int[] root = edges.get(START);
+        for (int column = 0; column < columnCount; column++) {
+            int next = root[column];
+            if (next < 0) {
+                transitions[column] = START;
+            } else {
+                transitions[column] = next;
+                fail[next] = START;
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            int[] row = edges.get(state);
+            int[] failOutputs = outputs.get(fail[state]);
+            if (failOutputs.length > 0)
+                outputs.set(state, concat(outputs.get(state), failOutputs));
+            for (int column = 0; column < columnCount; column++) {
+                int next = row[column];
+                int fallback = transitions[fail[state] * columnCount + column];
+                if (next < 0) {
+                    transitions[state * columnCount + column] = fallback;
+                } else {
+                    transitions[state * columnCount + column] = next;
+                    fail[next] = fallback;
+                    queue.add(next);
+                }
+            }
+        }
+        mTransitions = transitions;
+        mMatches = outputs.toArray(new int[stateCount][]);
+    }
+
+    int next(int state, char c) {
+        int column = c < 128 ? mColumns[lower(c)] : 0;
+        return mTransitions[state * mColumnCount + column];
+    }
+
+    /** pattern indexes ending at state, do not modify */
+    int[] matches(int state) {
+        return mMatches[state];
+    }
+
+    private static char lower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static int[] newRow(int columnCount) {
+        int[] row = new int[columnCount];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private static int[] append(int[] array, int value) {
+        int[] result = Arrays.copyOf(array, array.length + 1);
+        result[array.length] = value;
+        return result;
+    }
+
+    private static int[] concat(int[] a, int[] b) {
+        int[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
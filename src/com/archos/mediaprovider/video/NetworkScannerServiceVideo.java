@@ -42,11 +42,11 @@ import androidx.core.content.ContextCompat;
 import androidx.preference.PreferenceManager;
 import android.provider.BaseColumns;
 import android.util.Log;
-import android.util.Pair;
 
 import com.archos.environment.ArchosUtils;
 import com.archos.filecorelibrary.FileUtils;
 import com.archos.filecorelibrary.MetaFile2;
+import com.archos.mediacenter.filecoreextension.HttpFile2;
 import com.archos.mediacenter.filecoreextension.UriUtils;
 import com.archos.mediacenter.filecoreextension.upnp2.MetaFileFactoryWithUpnp;
 import com.archos.mediacenter.filecoreextension.upnp2.UpnpFile2;
@@ -57,9 +57,10 @@ import com.archos.mediaprovider.ArchosMediaCommon;
 import com.archos.mediaprovider.ArchosMediaFile;
 import com.archos.mediaprovider.ArchosMediaFile.MediaFileType;
 import com.archos.mediaprovider.ArchosMediaIntent;
-import com.archos.mediaprovider.BulkInserter;
+import com.archos.mediaprovider.BulkUpserter;
 import com.archos.mediaprovider.CPOExecutor;
 import com.archos.mediaprovider.NetworkScanner;
+import com.archos.mediaprovider.UpsertBatch;
 import com.archos.mediaprovider.video.VideoStore.Files.FileColumns;
 import com.archos.mediaprovider.video.VideoStore.MediaColumns;
 import com.archos.mediaprovider.video.VideoStore.Video.VideoColumns;
@@ -69,8 +70,10 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -385,7 +388,6 @@ public class NetworkScannerServiceVideo extends Service implements Handler.Callb
     }
     private static int mFoundFiles = 0;
     private static final String IN_FOLDER_SELECT = MediaColumns.DATA + " LIKE ?||'%'";
-    private static final String SELECT_ID = BaseColumns._ID + "=?";
     /** scans files into our db */
     private void doScan(Uri what) {
         log.debug("doScan " + what);
@@ -479,7 +481,7 @@ public class NetworkScannerServiceVideo extends Service implements Handler.Callb
             int deleteCount = bulkHandler.getDeletesHandled();
             log.debug("added:" + insertCount + " modified:" + updateCount + " deleted:" + deleteCount);
 
-            int newSubs = handleSubtitles(cr);
+            int newSubs = handleSubtitles(cr, bulkHandler.getTouchedBuckets());
             log.debug("added subtitles:" + newSubs);
             // send a "done" notification
             WrapperChannelManager.refreshChannels(this);
@@ -504,15 +506,25 @@ public class NetworkScannerServiceVideo extends Service implements Handler.Callb
     // ---------------------------------------------------------------------- //
     // -- Recursive file scanner magic                                     -- //
     // ---------------------------------------------------------------------- //
-    private static class FileVisitListener implements FileVisitor.Listener {
+    // package visible, along with what it uses, for UpnpScanBenchmark
+    static class FileVisitListener implements FileVisitor.Listener {
         private final BulkOperationHandler mBulkHandler;
+        // identity map of the items of this scan, keyed by unique id for upnp and by path otherwise:
+        // items known from the database, then those inserted while scanning
         private final HashMap<String, PrescanItem> mPrescanItemsMap;
         private final List<MetaFile2> mLastPlayedDbs = new ArrayList<MetaFile2>();
         private final boolean mNfoScanEnabled;
         private final long mServerId;
-        private final ArrayList<String> mAlreadyAddedUpnpFiles; //for files analysed DURING scan process
+        // upnp containers already listed, by server and container id
+        private final HashSet<String> mListedUpnpContainers = new HashSet<>();
         private int mStorageId;
 
+        // types of the last listed directory, classified in one go in onFilesList
+        private List<MetaFile2> mListing;
+        private final ArrayList<CharSequence> mListingNames = new ArrayList<>();
+        private int[] mListingTypes = new int[64];
+        private int mListingNext;
+
         private final Blacklist mBlacklist;
 
         public FileVisitListener(Blacklist blacklist, HashMap<String, PrescanItem> prescanItemsMap,
@@ -523,7 +535,6 @@ public class NetworkScannerServiceVideo extends Service implements Handler.Callb
             mNfoScanEnabled = nfoScanEnabled;
             mBulkHandler = bulkHandler;
             mServerId = serverId;
-            mAlreadyAddedUpnpFiles = new ArrayList<>();
         }
 
         public List<MetaFile2> getLastPlayedDbs() {
@@ -542,9 +553,46 @@ public class NetworkScannerServiceVideo extends Service implements Handler.Callb
                 if(file.getName().equals(".nomedia"))
                     return false;
             }
+            classifyListing(files);
             return true;
         }
 
+        private void classifyListing(List<MetaFile2> files) {
+            int count = files.size();
+            if (mListingTypes.length < count)
+                mListingTypes = new int[Math.max(count, mListingTypes.length * 2)];
+            mListingNames.clear();
+            for (MetaFile2 file : files) {
+                if (file instanceof UpnpFile2 || file instanceof HttpFile2) {
+                    // upnp and http names usually have no extension, theirs comes from the content
+                    // path as a bare extension, which the listing classifier only reads after a dot
+                    String extension = file.getExtension();
+                    mListingNames.add(extension != null ? "." + extension : "");
+                } else {
+                    mListingNames.add(file.getName());
+                }
+            }
+            ArchosMediaFile.getSimpleFileTypes(mListingNames, mListingTypes);
+            mListing = files;
+            mListingNext = 0;
+        }
+
+        /** file type from the classified listing, files are visited in listing order */
+        private int getListedFileType(MetaFile2 file) {
+            List<MetaFile2> listing = mListing;
+            if (listing != null) {
+                for (int i = mListingNext, count = listing.size(); i < count; i++) {
+                    if (listing.get(i) == file) {
+                        mListingNext = i + 1;
+                        return mListingTypes[i];
+                    }
+                }
+                // not visited in listing order, do not search it again for every file
+                mListing = null;
+            }
+            return getFileType(file);
+        }
+
         @Override
         public boolean onDirectory(MetaFile2 directory) {
             // hidden directories are not scanned
@@ -552,6 +600,15 @@ public class NetworkScannerServiceVideo extends Service implements Handler.Callb
                 log.debug("skipping " + directory + ", .hidden!");
                 return false;
             }
+            // upnp container ids are unique per server, the same container reached through
+            // another path has nothing new to offer
+            if (directory instanceof UpnpFile2) {
+                Uri uri = directory.getUri();
+                if (!mListedUpnpContainers.add(uri.getHost() + "/" + uri.getLastPathSegment())) {
+                    log.debug("skipping " + directory + ", already listed");
+                    return false;
+                }
+            }
 
             // everything else is scanned
             return true;
@@ -560,46 +617,42 @@ public class NetworkScannerServiceVideo extends Service implements Handler.Callb
         @Override
         public void onFile(MetaFile2 file) {
             mFoundFiles ++;
-            int fileType = getFileType(file);
+            int fileType = getListedFileType(file);
             if (!isValidType(fileType)) return;
             if (ArchosMediaFile.isHiddenFile(file)) return;
-            // shortcut for blacklist check for trailer/sample, full should be isBlacklisted
-            if (mBlacklist.isFilenameBlacklisted(file.getUri().getLastPathSegment())) return;
-            log.debug("FileVisitListener.onFile: File " + file.getUri().toString());
-            String p = file.getUri().toString();
-            PrescanItem existingItem = null;
-            String uniqueId = "";
-            //special case for upnp : use unique id
-            if(file instanceof UpnpFile2){
-                log.debug("FileVisitListener.onFile: File is upnp " + ((UpnpFile2)file).getUniqueHash());
-                uniqueId = ((UpnpFile2)file).getUniqueHash();
-                existingItem = mPrescanItemsMap.get(((UpnpFile2)file).getUniqueHash());
-            }
-            else{
-                existingItem = mPrescanItemsMap.get(p);
-                uniqueId = p;
+            Uri uri = file.getUri();
+            String p = uri.toString();
+            // upnp servers expose the same item in several containers (by genre, by year...)
+            // under different uris, the unique id is what identifies it
+            String key = file instanceof UpnpFile2 ? ((UpnpFile2) file).getUniqueHash() : p;
+            PrescanItem existingItem = mPrescanItemsMap.get(key);
+            if (existingItem != null && existingItem.scanned) {
+                log.debug("FileVisitListener.onFile: File already scanned " + file.getName());
+                return;
             }
-            log.debug("FileVisitListener.onFile: existingItem " + existingItem);
+            // shortcut for blacklist check for trailer/sample, full should be isBlacklisted
+            if (mBlacklist.isFilenameBlacklisted(uri.getLastPathSegment())) return;
+            log.debug("FileVisitListener.onFile: File " + p + ", key " + key + ", existingItem " + existingItem);
             if ((existingItem) != null) {
                 // file was already scanned, it does not need to be deleted
                 existingItem.needsDelete = false;
+                existingItem.scanned = true;
                 log.debug("FileVisitListener.onFile: File isn't new:" + file.getName());
                 // check if it is untouched or needs an update
                 long knownDate = existingItem.date_modified;
                 long newDate = file.lastModified() / 1000;
-                if (Math.abs(knownDate - newDate) > 3 || !file.getUri().toString().equals(existingItem._data)) {
+                if (Math.abs(knownDate - newDate) > 3 || !p.equals(existingItem._data)) {
                     log.debug("FileVisitListener.onFile: Updating " + file.getName());
                     // file has changed - add the update
                     mBulkHandler.addUpdate(new FileScanInfo(file, mStorageId),
                             existingItem._id);
                 }
-            } else if(!mAlreadyAddedUpnpFiles.contains(uniqueId)){
+            } else {
                 // file is new, add as insert
-                log.debug("FileVisitListener.onFile: File is new, serverId=" + mServerId + ", " + file.getUri().toString());
-                mAlreadyAddedUpnpFiles.add(uniqueId); // needed because main difference with usual indexing : a same file can be found twice in one round
+                log.debug("FileVisitListener.onFile: File is new, serverId=" + mServerId + ", " + p);
+                mPrescanItemsMap.put(key, new PrescanItem(key, p));
                 mBulkHandler.addInsert(new FileScanInfo(file, mStorageId), mServerId);
             }
-            else log.debug("FileVisitListener.onFile: File already scanned " + file.getName());
             // nfo are now handled in autoscrapeservice
         }
 
@@ -663,7 +716,7 @@ public class NetworkScannerServiceVideo extends Service implements Handler.Callb
         }
     }
 
-    private static class BulkOperationHandler {
+    static class BulkOperationHandler {
         // each insert / update thing is ~1kB in size, two separate things
         // roughly 2x 1MB memory consumption
         private static final int BULK_LIMIT_UPSERT = 1024;
@@ -672,22 +725,26 @@ public class NetworkScannerServiceVideo extends Service implements Handler.Callb
 
         // > should amount to roughly 4MB consumed here
 
+        // deletes go through ContentProviderOperations, updates and inserts
+        // through a single upsert batch
         private final CPOExecutor mUpdateExecutor;
-        private final BulkInserter mInsertExecutor;
+        private final BulkUpserter mUpsertExecutor;
 
         private int mDeletes;
+        // buckets that got new or changed videos or subtitles, the only ones where
+        // subtitle associations can change
+        private final HashSet<String> mTouchedBuckets = new HashSet<String>();
 
         public BulkOperationHandler(boolean nfoScanEnabled, Context context) {
             ContentResolver cr = context.getContentResolver();
             mUpdateExecutor = new CPOExecutor(VideoStore.AUTHORITY, cr, BULK_LIMIT_UPSERT);
-            mInsertExecutor = new BulkInserter(VideoStoreInternal.FILES_SCANNED, cr, BULK_LIMIT_UPSERT);
+            mUpsertExecutor = new BulkUpserter(VideoStoreInternal.FILES_SCANNED, cr,
+                    VideoOpenHelper.FILES_SCANNED_TABLE_NAME, BaseColumns._ID, false, BULK_LIMIT_UPSERT);
         }
 
         public void addUpdate(FileScanInfo update, long fileId) {
-            Builder builder = ContentProviderOperation.newUpdate(VideoStoreInternal.FILES_SCANNED);
-            builder.withValues(update.toContentValues());
-            builder.withSelection(SELECT_ID, new String[]{ String.valueOf(fileId) });
-            mUpdateExecutor.add(builder.build());
+            touchBucket(update);
+            update.writeTo(mUpsertExecutor.newRow(Long.valueOf(fileId)));
         }
 
         public void addDelete(DeleteString deletes) {
@@ -705,28 +762,38 @@ public class NetworkScannerServiceVideo extends Service implements Handler.Callb
 
         public void addInsert(FileScanInfo insert, long serverId) {
             log.debug("addInsert: adding in VideoStore and calling executor "+ insert._data + " for serverId=" + serverId);
-            ContentValues item = insert.toContentValues();
-            item.put(VideoStore.Files.FileColumns.ARCHOS_SMB_SERVER, Long.valueOf(serverId));
-            mInsertExecutor.add(item);
+            touchBucket(insert);
+            insert.writeTo(mUpsertExecutor.newRow(null))
+                    .put(VideoStore.Files.FileColumns.ARCHOS_SMB_SERVER, Long.valueOf(serverId));
+        }
+
+        private void touchBucket(FileScanInfo info) {
+            if (info.media_type == FileColumns.MEDIA_TYPE_VIDEO
+                    || info.media_type == FileColumns.MEDIA_TYPE_SUBTITLE) {
+                mTouchedBuckets.add(String.valueOf(info.bucket_id));
+            }
         }
 
         public void executePending() {
-            log.debug("executePending: process updates");
+            log.debug("executePending: process deletes");
             mUpdateExecutor.execute();
-            log.debug("executePending: process inserts");
-            mInsertExecutor.execute();
+            log.debug("executePending: process updates and inserts");
+            mUpsertExecutor.execute();
             log.debug("executePending: done");
         }
 
         public int getInsertHandled() {
-            return mInsertExecutor.getInsertCount();
+            return mUpsertExecutor.getInsertCount();
         }
         public int getUpdatesHandled() {
-            return mUpdateExecutor.getExecutionCount();
+            return mUpsertExecutor.getUpdateCount();
         }
         public int getDeletesHandled() {
             return mDeletes;
         }
+        public Collection<String> getTouchedBuckets() {
+            return mTouchedBuckets;
+        }
 
     }
     // ---------------------------------------------------------------------- //
@@ -778,66 +845,46 @@ public class NetworkScannerServiceVideo extends Service implements Handler.Callb
     }
 
     private static final Uri SUBS_URI = VideoStore.Subtitle.CONTENT_URI;
-    private static final String[] PROJ_ID_DATA_SIZE = {
-        BaseColumns._ID,                        // 0
-        VideoStore.MediaColumns.DATA,           // 1
-        VideoStore.MediaColumns.SIZE,           // 2
-        VideoStore.Files.FileColumns.BUCKET_ID, // 3
-        VideoStore.Files.FileColumns.MEDIA_TYPE,// 4
-    };
-    // all videos and subtitles that are in a bucket that has subtitles ( type 5 )
-    private static final String SEL_VIDS_N_SUBS = "bucket_id IN ( SELECT bucket_id FROM files WHERE media_type = 5 )" +
-            " AND (media_type = 3 OR media_type = 5)";
-    private static final String SEL_NEW_VIDS_N_SUBS = SEL_VIDS_N_SUBS + " AND _id NOT IN (SELECT file_id FROM subtitles)";
-
-    private static int handleSubtitles(ContentResolver cr) {
-        Uri uri = VideoStore.Files.getContentUri("external");
-        String sortOrder = VideoStore.Video.VideoColumns.BUCKET_ID;
-        // videos need name and id
-        List<Pair<String, Long>> videos = new ArrayList<Pair<String, Long>>();
-        // subtitles need id, name, size, language, ...
-        List<SubtitleInfo> subs = new ArrayList<SubtitleInfo>();
+    // sqlite default limit for host parameters is 999
+    private static final int MAX_BUCKETS_PER_QUERY = 500;
+    // v._data up to its last '.' (trailing dots dropped): always a prefix of the video path
+    // without extension, cut shorter when the name has no extension
+    private static final String SQL_VIDEO_STEM =
+            "rtrim(rtrim(v._data, replace(v._data, '.', '')), '.')";
+    // pairs of video & subtitle in the same bucket whose path starts with the video path
+    // without extension and that are not associated yet. Same bucket means same folder so
+    // this is the basename prefix match done in sql, SubtitleInfo.matchesVideo stays the
+    // exact check: title is not always the file name (upnp titles, nfo). bucket_index
+    // (bucket_id, media_type, _id) drives both sides of the join, the unique
+    // (video_id, file_id) index the NOT EXISTS
+    private static final String SQL_NEW_SUBS_PREFIX =
+            "SELECT v._id, v._data, s._id, s._data, s._size" +
+            " FROM files v JOIN files s ON s.bucket_id = v.bucket_id AND s.media_type = 5" +
+            " AND substr(s._data, 1, length(" + SQL_VIDEO_STEM + ")) = " + SQL_VIDEO_STEM +
+            " WHERE v.media_type = 3 AND NOT EXISTS (SELECT 1 FROM subtitles" +
+            " WHERE video_id = v._id AND file_id = s._id) AND v.bucket_id IN (";
+
+    /**
+     * associates subtitles to videos within the buckets touched by the scan,
+     * existing associations are left alone so it can run on any bucket again
+     */
+    private static int handleSubtitles(ContentResolver cr, Collection<String> buckets) {
+        if (buckets.isEmpty())
+            return 0;
         // inserts to do
         List<ContentValues> inserts = new ArrayList<ContentValues>();
-
-        Cursor c = cr.query(uri, PROJ_ID_DATA_SIZE, SEL_NEW_VIDS_N_SUBS, null, sortOrder);
-        if (c != null) {
-            String lastBucket = null;
-            while (c.moveToNext()) {
-                long id = c.getLong(0);
-                String file = c.getString(1);
-                long size = c.getLong(2);
-                String bucketId = c.getString(3);
-                int mediaType = c.getInt(4);
-                // if bucket switches, handle old bucket
-                if (!bucketId.equals(lastBucket)) {
-                    handleSubtitleBucket(videos, subs, inserts);
-                    // update current bucket & empty lists
-                    lastBucket = bucketId;
-                    videos.clear();
-                    subs.clear();
-                }
-                // add videos & subtitles to their lists
-                switch (mediaType) {
-                    case VideoStore.Files.FileColumns.MEDIA_TYPE_VIDEO:
-                        videos.add(Pair.create(ArchosMediaFile.getFileTitle(file), Long.valueOf(id)));
-                        break;
-                    case VideoStore.Files.FileColumns.MEDIA_TYPE_SUBTITLE:
-                        subs.add(new SubtitleInfo(id, file, size));
-                        break;
-                    default:
-                        // should be impossible
-                        log.error("Bad MediaType:" + mediaType + " when scanning videos and subtitles");
-                        break;
-                }
-
+        List<String> args = new ArrayList<String>(Math.min(buckets.size(), MAX_BUCKETS_PER_QUERY));
+        for (String bucket : buckets) {
+            args.add(bucket);
+            if (args.size() == MAX_BUCKETS_PER_QUERY) {
+                querySubtitleBuckets(cr, args, inserts);
+                args.clear();
             }
-            c.close();
         }
-        // handle any remaining videos and subtitles
-        handleSubtitleBucket(videos, subs, inserts);
+        if (args.size() > 0)
+            querySubtitleBuckets(cr, args, inserts);
 
-        // insert new subtitle associations
+        // insert new subtitle associations, duplicates are ignored by the table's unique constraint
         if (inserts.size() > 0) {
             ContentValues[] values = new ContentValues[inserts.size()];
             values = inserts.toArray(values);
@@ -846,18 +893,29 @@ public class NetworkScannerServiceVideo extends Service implements Handler.Callb
         return 0;
     }
 
-    private static void handleSubtitleBucket(List<Pair<String, Long>> videos,
-            List<SubtitleInfo> subs, List<ContentValues> inserts) {
-        // no need to iterate over videos when there are no subs
-        if (subs.size() == 0)
+    private static void querySubtitleBuckets(ContentResolver cr, List<String> buckets,
+            List<ContentValues> inserts) {
+        StringBuilder sql = new StringBuilder(SQL_NEW_SUBS_PREFIX);
+        for (int i = 0; i < buckets.size(); i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(')');
+        String[] selectionArgs = buckets.toArray(new String[buckets.size()]);
+        Cursor c = cr.query(VideoStore.RAW_QUERY, null, sql.toString(), selectionArgs, null);
+        if (c == null)
             return;
-        // for each video check all subs
-        for (Pair<String,Long> video : videos) {
-            for (SubtitleInfo subtitle : subs) {
-                if (subtitle.matchesVideo(video.first)) {
-                    inserts.add(subtitle.getForVideo(video.second, video.first));
+        try {
+            while (c.moveToNext()) {
+                long videoId = c.getLong(0);
+                String videoNameNoExt = ArchosMediaFile.getFileTitle(c.getString(1));
+                SubtitleInfo subtitle = new SubtitleInfo(c.getLong(2), c.getString(3), c.getLong(4));
+                // sql only matched a path prefix, the name from the path decides like before
+                if (subtitle.matchesVideo(videoNameNoExt)) {
+                    inserts.add(subtitle.getForVideo(videoId, videoNameNoExt));
                 }
             }
+        } finally {
+            c.close();
         }
     }
 
@@ -937,7 +995,7 @@ public class NetworkScannerServiceVideo extends Service implements Handler.Callb
      * class that holds info about data in database<p>
      * _id, _data, date_modified
      **/
-    private static class PrescanItem {
+    static class PrescanItem {
         public static String[] PROJECTION = new String[] {
             BaseColumns._ID,
             MediaColumns.DATA,
@@ -951,6 +1009,8 @@ public class NetworkScannerServiceVideo extends Service implements Handler.Callb
         public final String unique_id;
         // if false then file stayed untouched
         public boolean needsDelete = true;
+        // seen during this scan, further sightings are duplicates
+        public boolean scanned;
 
         public PrescanItem(Cursor c) {
             _id = c.getLong(0);
@@ -958,10 +1018,20 @@ public class NetworkScannerServiceVideo extends Service implements Handler.Callb
             date_modified = c.getLong(2);
             unique_id = c.getString(3);
         }
+
+        /** an item inserted by this scan */
+        public PrescanItem(String key, String data) {
+            _id = -1;
+            _data = data;
+            date_modified = 0;
+            unique_id = key;
+            needsDelete = false;
+            scanned = true;
+        }
     }
 
     /** class that contains scanned information for a file */
-    private static class FileScanInfo {
+    static class FileScanInfo {
         public String _data;
         public String _display_name;
         public long _size;
@@ -1039,28 +1109,27 @@ public class NetworkScannerServiceVideo extends Service implements Handler.Callb
             }
         }
 
-        public ContentValues toContentValues() {
-            ContentValues cv = new ContentValues();
-
-            cv.put(MediaColumns.DATA, _data);
-            cv.put(MediaColumns.DISPLAY_NAME, _display_name);
-            cv.put(MediaColumns.SIZE, String.valueOf(_size));
-            cv.put(MediaColumns.DATE_ADDED, String.valueOf(date_added));
-            cv.put(MediaColumns.DATE_MODIFIED, String.valueOf(date_modified));
-            cv.put(FileColumns.MIME_TYPE, mime_type);
-            cv.put(FileColumns.TITLE, title);
-            cv.put(VideoColumns.BUCKET_ID, String.valueOf(bucket_id));
-            cv.put(VideoColumns.BUCKET_DISPLAY_NAME, bucket_display_name);
-            cv.put(FileColumns.FORMAT, String.valueOf(format));
-            cv.put(FileColumns.PARENT, String.valueOf(parent));
-            cv.put(FileColumns.MEDIA_TYPE, String.valueOf(media_type));
-            cv.put(FileColumns.STORAGE_ID, String.valueOf(storage_id));
-            cv.put(VideoColumns.ARCHOS_VIDEO_STEREO, String.valueOf(video_stereo));
-            cv.put(VideoColumns.ARCHOS_VIDEO_DEFINITION, String.valueOf(video_definition));
-            cv.put(VideoColumns.ARCHOS_UNIQUE_ID, String.valueOf(unique_id));
-            cv.put(VideoColumns.ARCHOS_GUESSED_VIDEO_FORMAT, videoFormat);
-            cv.put(VideoColumns.ARCHOS_GUESSED_AUDIO_FORMAT, audioFormat);
-            return cv;
+        /** adds the values to the current row of batch, no ContentValues needed */
+        public UpsertBatch writeTo(UpsertBatch batch) {
+            return batch
+                    .put(MediaColumns.DATA, _data)
+                    .put(MediaColumns.DISPLAY_NAME, _display_name)
+                    .put(MediaColumns.SIZE, Long.valueOf(_size))
+                    .put(MediaColumns.DATE_ADDED, Long.valueOf(date_added))
+                    .put(MediaColumns.DATE_MODIFIED, Long.valueOf(date_modified))
+                    .put(FileColumns.MIME_TYPE, mime_type)
+                    .put(FileColumns.TITLE, title)
+                    .put(VideoColumns.BUCKET_ID, String.valueOf(bucket_id))
+                    .put(VideoColumns.BUCKET_DISPLAY_NAME, bucket_display_name)
+                    .put(FileColumns.FORMAT, Integer.valueOf(format))
+                    .put(FileColumns.PARENT, Long.valueOf(parent))
+                    .put(FileColumns.MEDIA_TYPE, Integer.valueOf(media_type))
+                    .put(FileColumns.STORAGE_ID, Integer.valueOf(storage_id))
+                    .put(VideoColumns.ARCHOS_VIDEO_STEREO, Integer.valueOf(video_stereo))
+                    .put(VideoColumns.ARCHOS_VIDEO_DEFINITION, Integer.valueOf(video_definition))
+                    .put(VideoColumns.ARCHOS_UNIQUE_ID, String.valueOf(unique_id))
+                    .put(VideoColumns.ARCHOS_GUESSED_VIDEO_FORMAT, videoFormat)
+                    .put(VideoColumns.ARCHOS_GUESSED_AUDIO_FORMAT, audioFormat);
         }
     }
 
@@ -32,6 +32,7 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.os.ParcelFileDescriptor;
 import android.provider.BaseColumns;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.archos.medialib.R;
@@ -551,16 +552,21 @@ public class ScraperProvider extends ContentProvider {
     public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
             throws OperationApplicationException {
         SQLiteDatabase db = mDbHolder.get();
-        db.beginTransaction();
-        ContentProviderResult[] result = null;
+        mDbHolder.beginHeavyWrite();
         try {
-            result = super.applyBatch(operations);
-            db.setTransactionSuccessful();
-            ContentResolver res = mCr;
-            res.notifyChange(ScraperStore.ALL_CONTENT_URI, null);
-            return result;
+            db.beginTransaction();
+            ContentProviderResult[] result = null;
+            try {
+                result = super.applyBatch(operations);
+                db.setTransactionSuccessful();
+                ContentResolver res = mCr;
+                res.notifyChange(ScraperStore.ALL_CONTENT_URI, null);
+                return result;
+            } finally {
+                db.endTransaction();
+            }
         } finally {
-            db.endTransaction();
+            mDbHolder.endHeavyWrite();
         }
     }
 
@@ -966,6 +972,14 @@ public class ScraperProvider extends ContentProvider {
         throw new RuntimeException("ScraperProvider can't be created");
     }
 
+    // relation uris without trailing id (e.g. Actor.URI.MOVIE) return the whole view so that
+    // TagsFactory can bulk load a set of videos with a "movie_id IN (...)" selection
+    private static void appendRelationWhere(SQLiteQueryBuilder qb, String column, String data) {
+        if (data == null || !TextUtils.isDigitsOnly(data)) return;
+        qb.appendWhere(column + " = ");
+        qb.appendWhereEscapeString(data);
+    }
+
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
             String sortOrder) {
@@ -1064,20 +1078,17 @@ public class ScraperProvider extends ContentProvider {
 
             case ACTOR_MOVIE:
                 qb.setTables(ScraperTables.PLAYS_MOVIE_VIEW_NAME);
-                qb.appendWhere(ScraperStore.Movie.Actor.MOVIE + " = ");
-                qb.appendWhereEscapeString(data);
+                appendRelationWhere(qb, ScraperStore.Movie.Actor.MOVIE, data);
                 break;
 
             case ACTOR_SHOW:
                 qb.setTables(ScraperTables.PLAYS_SHOW_VIEW_NAME);
-                qb.appendWhere(ScraperStore.Show.Actor.SHOW + " = ");
-                qb.appendWhereEscapeString(data);
+                appendRelationWhere(qb, ScraperStore.Show.Actor.SHOW, data);
                 break;
 
             case ACTOR_EPISODE:
                 qb.setTables(ScraperTables.GUESTS_VIEW_NAME);
-                qb.appendWhere(ScraperStore.Episode.Actor.EPISODE + " = ");
-                qb.appendWhereEscapeString(data);
+                appendRelationWhere(qb, ScraperStore.Episode.Actor.EPISODE, data);
                 break;
 
             case ACTOR_NAME:
@@ -1098,14 +1109,12 @@ public class ScraperProvider extends ContentProvider {
 
             case GENRE_MOVIE:
                 qb.setTables(ScraperTables.BELONGS_MOVIE_VIEW_NAME);
-                qb.appendWhere(ScraperStore.Movie.Genre.MOVIE + " = ");
-                qb.appendWhereEscapeString(data);
+                appendRelationWhere(qb, ScraperStore.Movie.Genre.MOVIE, data);
                 break;
 
             case GENRE_SHOW:
                 qb.setTables(ScraperTables.BELONGS_SHOW_VIEW_NAME);
-                qb.appendWhere(ScraperStore.Show.Genre.SHOW + " = ");
-                qb.appendWhereEscapeString(data);
+                appendRelationWhere(qb, ScraperStore.Show.Genre.SHOW, data);
                 break;
 
             case GENRE_NAME:
@@ -1126,20 +1135,17 @@ public class ScraperProvider extends ContentProvider {
 
             case DIRECTOR_MOVIE:
                 qb.setTables(ScraperTables.FILMS_MOVIE_VIEW_NAME);
-                qb.appendWhere(ScraperStore.Movie.Director.MOVIE + " = ");
-                qb.appendWhereEscapeString(data);
+                appendRelationWhere(qb, ScraperStore.Movie.Director.MOVIE, data);
                 break;
 
             case DIRECTOR_SHOW:
                 qb.setTables(ScraperTables.FILMS_SHOW_VIEW_NAME);
-                qb.appendWhere(ScraperStore.Show.Director.SHOW + " = ");
-                qb.appendWhereEscapeString(data);
+                appendRelationWhere(qb, ScraperStore.Show.Director.SHOW, data);
                 break;
 
             case DIRECTOR_EPISODE:
                 qb.setTables(ScraperTables.FILMS_EPISODE_VIEW_NAME);
-                qb.appendWhere(ScraperStore.Episode.Director.EPISODE + " = ");
-                qb.appendWhereEscapeString(data);
+                appendRelationWhere(qb, ScraperStore.Episode.Director.EPISODE, data);
                 break;
 
             case DIRECTOR_NAME:
@@ -1161,20 +1167,17 @@ public class ScraperProvider extends ContentProvider {
 
             case WRITER_MOVIE:
                 qb.setTables(ScraperTables.WRITERS_MOVIE_VIEW_NAME);
-                qb.appendWhere(ScraperStore.Movie.Writer.MOVIE + " = ");
-                qb.appendWhereEscapeString(data);
+                appendRelationWhere(qb, ScraperStore.Movie.Writer.MOVIE, data);
                 break;
 
             case WRITER_SHOW:
                 qb.setTables(ScraperTables.WRITERS_SHOW_VIEW_NAME);
-                qb.appendWhere(ScraperStore.Show.Writer.SHOW + " = ");
-                qb.appendWhereEscapeString(data);
+                appendRelationWhere(qb, ScraperStore.Show.Writer.SHOW, data);
                 break;
 
             case WRITER_EPISODE:
                 qb.setTables(ScraperTables.WRITERS_EPISODE_VIEW_NAME);
-                qb.appendWhere(ScraperStore.Episode.Writer.EPISODE + " = ");
-                qb.appendWhereEscapeString(data);
+                appendRelationWhere(qb, ScraperStore.Episode.Writer.EPISODE, data);
                 break;
 
             case WRITER_NAME:
@@ -1195,20 +1198,17 @@ public class ScraperProvider extends ContentProvider {
 
             case TAGLINE_MOVIE:
                 qb.setTables(ScraperTables.TAGLINES_MOVIE_VIEW_NAME);
-                qb.appendWhere(ScraperStore.Movie.Tagline.MOVIE + " = ");
-                qb.appendWhereEscapeString(data);
+                appendRelationWhere(qb, ScraperStore.Movie.Tagline.MOVIE, data);
                 break;
 
             case TAGLINE_SHOW:
                 qb.setTables(ScraperTables.TAGLINES_SHOW_VIEW_NAME);
-                qb.appendWhere(ScraperStore.Show.Tagline.SHOW + " = ");
-                qb.appendWhereEscapeString(data);
+                appendRelationWhere(qb, ScraperStore.Show.Tagline.SHOW, data);
                 break;
 
             case TAGLINE_EPISODE:
                 qb.setTables(ScraperTables.TAGLINES_EPISODE_VIEW_NAME);
-                qb.appendWhere(ScraperStore.Episode.Tagline.EPISODE + " = ");
-                qb.appendWhereEscapeString(data);
+                appendRelationWhere(qb, ScraperStore.Episode.Tagline.EPISODE, data);
                 break;
 
             case TAGLINE_NAME:
@@ -1229,8 +1229,7 @@ public class ScraperProvider extends ContentProvider {
 
             case SEASONPLOT_SHOW:
                 qb.setTables(ScraperTables.SEASONPLOTS_SHOW_VIEW_NAME);
-                qb.appendWhere(ScraperStore.Show.SeasonPlot.SHOW + " = ");
-                qb.appendWhereEscapeString(data);
+                appendRelationWhere(qb, ScraperStore.Show.SeasonPlot.SHOW, data);
                 break;
 
             case SEASONPLOT_NAME:
@@ -1251,14 +1250,12 @@ public class ScraperProvider extends ContentProvider {
 
             case STUDIO_MOVIE:
                 qb.setTables(ScraperTables.PRODUCES_MOVIE_VIEW_NAME);
-                qb.appendWhere(ScraperStore.Movie.Studio.MOVIE + " = ");
-                qb.appendWhereEscapeString(data);
+                appendRelationWhere(qb, ScraperStore.Movie.Studio.MOVIE, data);
                 break;
 
             case STUDIO_SHOW:
                 qb.setTables(ScraperTables.PRODUCES_SHOW_VIEW_NAME);
-                qb.appendWhere(ScraperStore.Show.Studio.SHOW + " = ");
-                qb.appendWhereEscapeString(data);
+                appendRelationWhere(qb, ScraperStore.Show.Studio.SHOW, data);
                 break;
 
             case STUDIO_NAME:
@@ -1423,7 +1420,8 @@ public class ScraperProvider extends ContentProvider {
         }
 
         if(DBG) Log.d(TAG, "Query handling ended.");
-        SQLiteDatabase db = mDbHolder.get();
+        SQLiteDatabase db = mDbHolder.getReadable();
+        mDbHolder.onReadStarted();
         // TODO: try/catch used but this needs fixing!
         try {
             c = qb.query(db, projection, selection, selectionArgs, null,
@@ -1431,6 +1429,9 @@ public class ScraperProvider extends ContentProvider {
         } catch (Throwable t) {
             Log.e(TAG, "query: qb.query failed with projection=" + projection + ", selection=" + selection + ", selectionArgs=" + selectionArgs, t);
             c = null;
+        } finally {
+            // the read ends when the cursor is closed
+            c = mDbHolder.trackRead(c);
         }
         if (c != null) {
             // Tell the cursor what uri to watch, so it knows when its source data changes
@@ -1692,12 +1693,17 @@ public class ScraperProvider extends ContentProvider {
         if (DBG) Log.d(TAG, "bulkInsert");
         int result = 0;
         SQLiteDatabase db = mDbHolder.get();
-        db.beginTransaction();
+        mDbHolder.beginHeavyWrite();
         try {
-            result = super.bulkInsert(uri, values);
-            db.setTransactionSuccessful();
+            db.beginTransaction();
+            try {
+                result = super.bulkInsert(uri, values);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
         } finally {
-            db.endTransaction();
+            mDbHolder.endHeavyWrite();
         }
         return result;
     }
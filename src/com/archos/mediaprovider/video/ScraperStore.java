@@ -54,6 +54,11 @@ public final class ScraperStore {
         public static final String CLEARLOGO_URL = "clearlogo_url_movie";
         public static final String CLEARLOGO_ID = "m_clearlogo_id";
 
+        /** ranked tmdb poster paths that are not rows of the poster table, see ImageRefs */
+        public static final String POSTER_REFS = "m_poster_refs";
+        /** ranked tmdb backdrop paths that are not rows of the backdrop table, see ImageRefs */
+        public static final String BACKDROP_REFS = "m_backdrop_refs";
+
         /** id in online db "1858" > http://www.themoviedb.org/movie/1858 */
         public static final String ONLINE_ID = "m_online_id";
         /** IMDb id "tt0285331" > http://www.imdb.com/title/tt0285331 */
@@ -150,6 +155,11 @@ public final class ScraperStore {
         public static final String STUDIOLOGO_URL = "studiologo_url_show";
         public static final String STUDIOLOGO_ID = "s_studiologo_id";
 
+        /** ranked tmdb poster paths that are not rows of the poster table, see ImageRefs */
+        public static final String POSTER_REFS = "s_poster_refs";
+        /** ranked tmdb backdrop paths that are not rows of the backdrop table, see ImageRefs */
+        public static final String BACKDROP_REFS = "s_backdrop_refs";
+
         /** id in online db "73255" > http://thetvdb.com/?tab=series&id=73255 */
         public static final String ONLINE_ID = "s_online_id";
         /** IMDb id "tt0285331" > http://www.imdb.com/title/tt0285331 */
@@ -1655,6 +1655,17 @@ public final class ScraperTables {
         db.execSQL(CREATE_MOVIE_TRAILERS_TABLE);
     }
 
+    // lookups by online id (scraper, trakt sync) and season listings, added in v42
+    public static final String MOVIE_ONLINE_ID_IDX_CREATE =
+            "CREATE INDEX IF NOT EXISTS MOVIE_online_idx ON " + MOVIE_TABLE_NAME + "(" + ScraperStore.Movie.ONLINE_ID + ")";
+    public static final String SHOW_ONLINE_ID_IDX_CREATE =
+            "CREATE INDEX IF NOT EXISTS SHOW_online_idx ON " + SHOW_TABLE_NAME + "(" + ScraperStore.Show.ONLINE_ID + ")";
+    public static final String EPISODE_ONLINE_ID_IDX_CREATE =
+            "CREATE INDEX IF NOT EXISTS EPISODE_online_idx ON " + EPISODE_TABLE_NAME + "(" + ScraperStore.Episode.ONLINE_ID + ")";
+    public static final String EPISODE_SEASON_IDX_CREATE =
+            "CREATE INDEX IF NOT EXISTS EPISODE_season_idx ON " + EPISODE_TABLE_NAME + "(" +
+            ScraperStore.Episode.SHOW + ", " + ScraperStore.Episode.SEASON + ", " + ScraperStore.Episode.NUMBER + ")";
+
     public static void upgradeTo(SQLiteDatabase db, int toVersion) {
         if (toVersion == 37) {
             log.debug("upgradeTo: " + toVersion);
@@ -1787,5 +1798,21 @@ public final class ScraperTables {
 
             db.execSQL("CREATE INDEX SEASONPLOTS_SHOW_idx ON SEASONPLOTS_SHOW(seasonplot_seasonplots)");
         }
+        if (toVersion == 42) {
+            log.debug("upgradeTo: " + toVersion);
+            // indexes proposed by QueryPlanAdvisor, these lookups were full table scans
+            db.execSQL(MOVIE_ONLINE_ID_IDX_CREATE);
+            db.execSQL(SHOW_ONLINE_ID_IDX_CREATE);
+            db.execSQL(EPISODE_ONLINE_ID_IDX_CREATE);
+            db.execSQL(EPISODE_SEASON_IDX_CREATE);
+        }
+        if (toVersion == 44) {
+            log.debug("upgradeTo: " + toVersion);
+            // alternative posters / backdrops as path lists instead of one row per image
+            db.execSQL("ALTER TABLE " + MOVIE_TABLE_NAME + " ADD COLUMN " + ScraperStore.Movie.POSTER_REFS + " TEXT");
+            db.execSQL("ALTER TABLE " + MOVIE_TABLE_NAME + " ADD COLUMN " + ScraperStore.Movie.BACKDROP_REFS + " TEXT");
+            db.execSQL("ALTER TABLE " + SHOW_TABLE_NAME + " ADD COLUMN " + ScraperStore.Show.POSTER_REFS + " TEXT");
+            db.execSQL("ALTER TABLE " + SHOW_TABLE_NAME + " ADD COLUMN " + ScraperStore.Show.BACKDROP_REFS + " TEXT");
+        }
     }
 }
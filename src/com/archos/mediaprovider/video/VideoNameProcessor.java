@@ -19,7 +19,9 @@ import android.content.ContentValues;
 import com.archos.mediaprovider.video.VideoStore.Video.VideoColumns;
 import com.archos.mediascraper.preprocess.ParseUtils;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class VideoNameProcessor {
@@ -66,7 +68,8 @@ public class VideoNameProcessor {
 
 
     //link between string parsing and video format given by AVP metadata retriever
-    static final Map<String[] , String> VIDEO_FORMAT_MAP = new HashMap<String[] , String>() {{
+    //when a name matches several formats the last one in this order wins
+    static final Map<String[] , String> VIDEO_FORMAT_MAP = new LinkedHashMap<String[] , String>() {{
         put(STRING_LIST_MPEG2,	"MPEG-2");
         put(STRING_LIST_MPEG1,	"MPEG-1");
         put(STRING_LIST_H264,	"H.264");
@@ -120,7 +123,7 @@ public class VideoNameProcessor {
     private static final String[] STRING_LIST_ON2_AVC_AUDIO = {"ON2 AVC-Audio"};
     private static final String[] STRING_LIST_TRUEHD= {"TrueHD"};
     private static final String[] STRING_LIST_EAC3=	{" eac "};
-    static final Map<String[] , String> AUDIO_FORMAT_MAP = new HashMap<String[] , String>() {{
+    static final Map<String[] , String> AUDIO_FORMAT_MAP = new LinkedHashMap<String[] , String>() {{
 
         put(STRING_LIST_PCM,"PCM");
         put(STRING_LIST_LAW,"A-law");
@@ -171,71 +174,94 @@ public class VideoNameProcessor {
         return values;
     }
 
-    public static ExtractedInfo extractInfoFromPath(String path) {
-        String name = path.substring(path.lastIndexOf("/"));
-        ExtractedInfo info = new ExtractedInfo();
+    // every list above compiled into a single automaton, each pattern tagged with
+    // the category it belongs to and its rank within the category
+    private static final int STEREO = 0;
+    private static final int DEFINITION = 1;
+    private static final int VIDEO_FORMAT = 2;
+    private static final int AUDIO_FORMAT = 3;
 
-        /* Replace all whitespace & punctuation with a single space */
-        name = ParseUtils.removeInnerAndOutterSeparatorJunk(name);
-        name = name + " ";
-
-        /* Find out if it is a 3D video (TB first, then SBS, then anaglyph, then 3D) */
-        if (stringContainsOneOf(name, STRING_LIST_3D_TB)) {
-            info.stereoType = VideoColumns.ARCHOS_STEREO_3D_TB;
-        } else if (stringContainsOneOf(name, STRING_LIST_3D_SBS)) {
-            info.stereoType = VideoColumns.ARCHOS_STEREO_3D_SBS;
-        } else if (stringContainsOneOf(name, STRING_LIST_3D_ANAGLYPH)) {
-            info.stereoType = VideoColumns.ARCHOS_STEREO_3D_ANAGLYPH;
-        } else if (stringContainsOneOf(name, STRING_LIST_3D)) {
-            info.stereoType = VideoColumns.ARCHOS_STEREO_3D_UNKNOWN;
-        } else {
-            info.stereoType = VideoColumns.ARCHOS_STEREO_2D;
-        }
+    /* 3D: TB first, then SBS, then anaglyph, then 3D */
+    private static final int[] STEREO_TYPES = {
+            VideoColumns.ARCHOS_STEREO_3D_TB,
+            VideoColumns.ARCHOS_STEREO_3D_SBS,
+            VideoColumns.ARCHOS_STEREO_3D_ANAGLYPH,
+            VideoColumns.ARCHOS_STEREO_3D_UNKNOWN
+    };
+    // Checking 4K after 1080p/720p because a lot of videos are like "...Remastered.in.4K.1080p.x264..."
+    // Not checking SD because the SD tag is not frequent in filenames
+    private static final int[] DEFINITIONS = {
+            VideoColumns.ARCHOS_DEFINITION_1080P,
+            VideoColumns.ARCHOS_DEFINITION_720P,
+            VideoColumns.ARCHOS_DEFINITION_4K
+    };
+    private static final String[] VIDEO_FORMATS = VIDEO_FORMAT_MAP.values().toArray(new String[0]);
+    private static final String[] AUDIO_FORMATS = AUDIO_FORMAT_MAP.values().toArray(new String[0]);
 
-        /* Determine the video definition (checking for 1080p first) */
-        if (stringContainsOneOf(name, STRING_LIST_1080P)) {
-            info.definition = VideoColumns.ARCHOS_DEFINITION_1080P;
-        } else if (stringContainsOneOf(name, STRING_LIST_720P)) {
-            info.definition = VideoColumns.ARCHOS_DEFINITION_720P;
-        }
-        // Checking 4K after 1080p/720p because a lot of videos are like "...Remastered.in.4K.1080p.x264..."
-        else if (stringContainsOneOf(name, STRING_LIST_4K)) {
-            info.definition = VideoColumns.ARCHOS_DEFINITION_4K;
-        }
-        // Not checking SD because the SD tag is not frequent in filenames
-        else {
-            info.definition = VideoColumns.ARCHOS_DEFINITION_UNKNOWN;
-        }
+    private static final int[] sPatternCategory;
+    private static final int[] sPatternRank;
+    private static final NameTokenMatcher sMatcher;
 
-        //try to detect video format (hevc, h264, etc)
-        if (stringContainsOneOf(name, STRING_LIST_1080P)) {
-            info.definition = VideoColumns.ARCHOS_DEFINITION_1080P;
-        }
-        for(Map.Entry<String[], String> entry :VIDEO_FORMAT_MAP.entrySet()){
-            if (stringContainsOneOf(name, entry.getKey())) {
-                info.videoFormat = entry.getValue();
-            }
+    static {
+        List<String> patterns = new ArrayList<>();
+        List<int[]> tags = new ArrayList<>();
+        addPatterns(patterns, tags, STEREO, STRING_LIST_3D_TB, STRING_LIST_3D_SBS,
+                STRING_LIST_3D_ANAGLYPH, STRING_LIST_3D);
+        addPatterns(patterns, tags, DEFINITION, STRING_LIST_1080P, STRING_LIST_720P, STRING_LIST_4K);
+        addPatterns(patterns, tags, VIDEO_FORMAT, VIDEO_FORMAT_MAP.keySet().toArray(new String[0][]));
+        addPatterns(patterns, tags, AUDIO_FORMAT, AUDIO_FORMAT_MAP.keySet().toArray(new String[0][]));
+        sPatternCategory = new int[tags.size()];
+        sPatternRank = new int[tags.size()];
+        for (int i = 0; i < tags.size(); i++) {
+            sPatternCategory[i] = tags.get(i)[0];
+            sPatternRank[i] = tags.get(i)[1];
         }
+        sMatcher = new NameTokenMatcher(patterns.toArray(new String[0]));
+    }
 
-        for(Map.Entry<String[], String> entry :AUDIO_FORMAT_MAP.entrySet()){
-            if (stringContainsOneOf(name, entry.getKey())) {
-                info.audioFormat = entry.getValue();
+    private static void addPatterns(List<String> patterns, List<int[]> tags, int category, String[]... lists) {
+        for (int rank = 0; rank < lists.length; rank++) {
+            for (String pattern : lists[rank]) {
+                patterns.add(pattern);
+                tags.add(new int[] { category, rank });
             }
         }
-
-        return info;
     }
 
-    private static boolean stringContainsOneOf(String str, String[] list) {
-        String strLower = str.toLowerCase();
+    public static ExtractedInfo extractInfoFromPath(String path) {
+        String name = path.substring(path.lastIndexOf("/"));
+        ExtractedInfo info = new ExtractedInfo();
 
-        for(String e : list) {
-            if (strLower.contains(e.toLowerCase())) {
-                return true;
+        /* Replace all whitespace & punctuation with a single space */
+        name = ParseUtils.removeInnerAndOutterSeparatorJunk(name);
+
+        /* Single pass over name + " ": stereo and definition keep the first
+         * ranked match, formats keep the last one */
+        int stereo = STEREO_TYPES.length;
+        int definition = DEFINITIONS.length;
+        int videoFormat = -1;
+        int audioFormat = -1;
+        int state = NameTokenMatcher.START;
+        for (int i = 0, length = name.length(); i <= length; i++) {
+            state = sMatcher.next(state, i < length ? name.charAt(i) : ' ');
+            for (int pattern : sMatcher.matches(state)) {
+                int rank = sPatternRank[pattern];
+                switch (sPatternCategory[pattern]) {
+                    case STEREO: stereo = Math.min(stereo, rank); break;
+                    case DEFINITION: definition = Math.min(definition, rank); break;
+                    case VIDEO_FORMAT: videoFormat = Math.max(videoFormat, rank); break;
+                    case AUDIO_FORMAT: audioFormat = Math.max(audioFormat, rank); break;
+                }
             }
         }
 
-        return false;
+        info.stereoType = stereo < STEREO_TYPES.length ? STEREO_TYPES[stereo] : VideoColumns.ARCHOS_STEREO_2D;
+        info.definition = definition < DEFINITIONS.length ? DEFINITIONS[definition] : VideoColumns.ARCHOS_DEFINITION_UNKNOWN;
+        //try to detect video format (hevc, h264, etc)
+        info.videoFormat = videoFormat >= 0 ? VIDEO_FORMATS[videoFormat] : null;
+        info.audioFormat = audioFormat >= 0 ? AUDIO_FORMATS[audioFormat] : null;
+
+        return info;
     }
 
     public static class ExtractedInfo {
@@ -24,6 +24,7 @@ import android.provider.MediaStore.Files.FileColumns;
 import com.archos.mediaprovider.ArchosMediaCommon;
 import com.archos.mediaprovider.CustomCursorFactory;
 import com.archos.mediaprovider.SQLiteUtils;
+import com.archos.mediaprovider.DbHolder;
 import com.archos.mediaprovider.DeleteOnDowngradeSQLiteOpenHelper;
 import com.archos.mediaprovider.video.VideoStore.MediaColumns;
 import com.archos.mediaprovider.video.VideoStore.Video.VideoColumns;
@@ -44,7 +45,7 @@ public class VideoOpenHelper extends DeleteOnDowngradeSQLiteOpenHelper {
     // that is what onCreate creates
     private static final int DATABASE_CREATE_VERSION = 36; // initial version for v1.0 of nova (archos was 10)
     // that is the current version
-    private static final int DATABASE_VERSION = 41;
+    private static final int DATABASE_VERSION = 44;
     private static final String DATABASE_NAME = "media.db";
 
     // (Integer.MAX_VALUE / 2) rounded to human readable form
@@ -320,6 +321,54 @@ public class VideoOpenHelper extends DeleteOnDowngradeSQLiteOpenHelper {
             "BEGIN " +
             "DELETE FROM episode WHERE _id = OLD.ArchosMediaScraper_id; " +
             "END";
+
+    // ------------- ---##[ Trakt outbox         ]## ---------------------------
+    // scraped files whose trakt state still has to be pushed, one row per library.
+    // Kept up to date by triggers so trakt sync only looks at what changed.
+    public static final String TRAKT_OUTBOX_TABLE_NAME = "trakt_outbox";
+    public static final String TRAKT_OUTBOX_VIDEO_ID = "video_id";
+    public static final String TRAKT_OUTBOX_LIBRARY = "library";
+    // values of the library column, the trakt client's LIBRARY_* constants are defined by them
+    public static final String TRAKT_OUTBOX_WATCHED = "watched";
+    public static final String TRAKT_OUTBOX_COLLECTION = "collection";
+    // Archos_traktSeen / Archos_traktLibrary value of a file that has to be unmarked on trakt
+    public static final int TRAKT_UNMARK = 2;
+    // video_id first: the triggers delete by video_id, the table is too small for the library lookup to matter
+    private static final String CREATE_TRAKT_OUTBOX_TABLE =
+            "CREATE TABLE " + TRAKT_OUTBOX_TABLE_NAME + " (" +
+            TRAKT_OUTBOX_VIDEO_ID + " INTEGER NOT NULL, " +
+            TRAKT_OUTBOX_LIBRARY + " TEXT NOT NULL, " +
+            "PRIMARY KEY (" + TRAKT_OUTBOX_VIDEO_ID + ", " + TRAKT_OUTBOX_LIBRARY + ") ON CONFLICT IGNORE)";
+    // same conditions as TraktService uses to pick what to mark / unmark on trakt,
+    // row is "" for a plain select or "NEW." inside a trigger
+    private static String getTraktWatchedPending(String row) {
+        return row + "_id IS NOT NULL AND " + row + "ArchosMediaScraper_id > 0 AND ((" + row + "bookmark = -2 AND " + row + "Archos_traktSeen = 0) OR " +
+                row + "Archos_traktSeen = " + TRAKT_UNMARK + ")";
+    }
+    private static String getTraktCollectionPending(String row) {
+        return row + "_id IS NOT NULL AND " + row + "ArchosMediaScraper_id > 0 AND " + row + "Archos_traktLibrary IN (0, " + TRAKT_UNMARK + ")";
+    }
+    private static final String CREATE_FILES_TRIGGER_TRAKT_OUTBOX_UPDATE =
+            "CREATE TRIGGER trakt_outbox_update AFTER UPDATE OF " +
+            "bookmark, Archos_traktSeen, Archos_traktLibrary, ArchosMediaScraper_id ON " + FILES_TABLE_NAME + " " +
+            "BEGIN " +
+            "DELETE FROM " + TRAKT_OUTBOX_TABLE_NAME + " WHERE " + TRAKT_OUTBOX_VIDEO_ID + " = OLD._id; " +
+            "INSERT INTO " + TRAKT_OUTBOX_TABLE_NAME + " SELECT NEW._id, '" + TRAKT_OUTBOX_WATCHED + "' " +
+            "WHERE " + getTraktWatchedPending("NEW.") + "; " +
+            "INSERT INTO " + TRAKT_OUTBOX_TABLE_NAME + " SELECT NEW._id, '" + TRAKT_OUTBOX_COLLECTION + "' " +
+            "WHERE " + getTraktCollectionPending("NEW.") + "; " +
+            "END";
+    private static final String CREATE_FILES_TRIGGER_TRAKT_OUTBOX_DELETE =
+            "CREATE TRIGGER trakt_outbox_delete AFTER DELETE ON " + FILES_TABLE_NAME + " " +
+            "BEGIN " +
+            "DELETE FROM " + TRAKT_OUTBOX_TABLE_NAME + " WHERE " + TRAKT_OUTBOX_VIDEO_ID + " = OLD._id; " +
+            "END";
+    // fills the outbox with what is pending at upgrade time
+    private static final String FILL_TRAKT_OUTBOX =
+            "INSERT INTO " + TRAKT_OUTBOX_TABLE_NAME +
+            " SELECT _id, '" + TRAKT_OUTBOX_WATCHED + "' FROM " + FILES_TABLE_NAME + " WHERE " + getTraktWatchedPending("") +
+            " UNION ALL" +
+            " SELECT _id, '" + TRAKT_OUTBOX_COLLECTION + "' FROM " + FILES_TABLE_NAME + " WHERE " + getTraktCollectionPending("");
     /* VOB file detection to trigger code that hides unwanted vobs */
     // trigger to callback java VobHandler when a new vob is inserted
     private static final String CREATE_FILES_TRIGGER_VOB_INSERT =
@@ -1330,6 +1379,11 @@ public class VideoOpenHelper extends DeleteOnDowngradeSQLiteOpenHelper {
         }
     }
 
+    private static final int PAGE_CACHE_KIB = 8 * 1024;
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+    private static final long JOURNAL_SIZE_LIMIT = 4 * 1024 * 1024;
+    private static final long MMAP_SIZE = 32 * 1024 * 1024;
+
     private final Context mContext;
 
     public VideoOpenHelper(Context context) {
@@ -1337,13 +1391,28 @@ public class VideoOpenHelper extends DeleteOnDowngradeSQLiteOpenHelper {
         mContext = context;
     }
 
+    /** opens a separate database with the same schema, used by QueryPlanAdvisor */
+    /* package */ VideoOpenHelper(Context context, String name) {
+        super(context, name, new CustomCursorFactory(), DATABASE_VERSION);
+        mContext = context;
+    }
+
     @Override
     public void onOpen(SQLiteDatabase db) {
-        // Turn on WAL optimization
-        // TODO: test if that is good for us or not.
+        // Turn on WAL optimization: readers (UI) don't block on the writer (scans, scraping)
         db.enableWriteAheadLogging();
         // turn on foreign key support used in scraper tables
         db.execSQL("PRAGMA foreign_keys = ON");
+        // settings below apply to the primary connection, the only one that writes.
+        // NORMAL is safe with WAL: a power loss can lose the last commits but not corrupt the db
+        db.execSQL("PRAGMA synchronous = NORMAL");
+        // page cache in KiB (negative value), default is ~2MB
+        db.execSQL("PRAGMA cache_size = " + (-PAGE_CACHE_KIB));
+        // checkpoint automatically every that many pages, DbHolder checkpoints after heavy writes
+        DbHolder.pragma(db, "wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES);
+        // truncate the WAL back to that size after a checkpoint instead of keeping its peak size
+        DbHolder.pragma(db, "journal_size_limit = " + JOURNAL_SIZE_LIMIT);
+        DbHolder.pragma(db, "mmap_size = " + MMAP_SIZE);
     }
 
     @Override
@@ -1453,6 +1522,18 @@ public class VideoOpenHelper extends DeleteOnDowngradeSQLiteOpenHelper {
             SQLiteUtils.dropView(db, VIDEO_VIEW_NAME);
             db.execSQL(CREATE_VIDEO_VIEW_V41);
         }
+        if (oldVersion < 42) {
+            ScraperTables.upgradeTo(db, 42);
+        }
+        if (oldVersion < 43) {
+            db.execSQL(CREATE_TRAKT_OUTBOX_TABLE);
+            db.execSQL(CREATE_FILES_TRIGGER_TRAKT_OUTBOX_UPDATE);
+            db.execSQL(CREATE_FILES_TRIGGER_TRAKT_OUTBOX_DELETE);
+            db.execSQL(FILL_TRAKT_OUTBOX);
+        }
+        if (oldVersion < 44) {
+            ScraperTables.upgradeTo(db, 44);
+        }
     }
 
     private static final String[] PROJECTION = {
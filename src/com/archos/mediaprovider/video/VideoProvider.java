@@ -24,6 +24,7 @@ import android.content.Context;
 import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
@@ -54,6 +55,8 @@ import com.archos.mediaprovider.ArchosMediaCommon;
 import com.archos.mediaprovider.DbHolder;
 import com.archos.mediaprovider.IMediaThumbnailService;
 import com.archos.mediaprovider.MediaThumbnailService;
+import com.archos.mediaprovider.ThumbnailPack;
+import com.archos.mediaprovider.UpsertBatch;
 import com.archos.environment.NetworkState;
 import com.archos.mediaprovider.VideoDb;
 import com.archos.mediaprovider.video.VideoStore.MediaColumns;
@@ -66,6 +69,7 @@ import org.slf4j.LoggerFactory;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -74,9 +78,12 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.PriorityQueue;
 import java.util.Random;
+import java.util.Set;
 
 public class VideoProvider extends ContentProvider {
     private static final Logger log = LoggerFactory.getLogger(VideoProvider.class);
@@ -237,11 +244,10 @@ public class VideoProvider extends ContentProvider {
         if (ScraperProvider.handles(table))
             return mScraperProvider.query(uri, projectionIn, selection, selectionArgs, sort, cancellationSignal);
 
-        SQLiteDatabase db = mDbHolder.get();
-
         // forward raw query requests to .rawQuery using selection as sql string
+        // that can be anything, keep it on the writable database
         if (table == RAWQUERY) {
-            Cursor c = db.rawQuery(selection, selectionArgs, cancellationSignal);
+            Cursor c = mDbHolder.get().rawQuery(selection, selectionArgs, cancellationSignal);
             if (c != null) {
                 // notify for any change in the db
                 c.setNotificationUri(mCr, VideoStore.ALL_CONTENT_URI);
@@ -249,6 +255,21 @@ public class VideoProvider extends ContentProvider {
             return c;
         }
 
+        mDbHolder.onReadStarted();
+        Cursor c = null;
+        try {
+            c = queryReadable(uri, table, projectionIn, selection, selectionArgs, sort, cancellationSignal);
+        } finally {
+            // the read ends when the cursor is closed
+            c = mDbHolder.trackRead(c);
+        }
+        return c;
+    }
+
+    private Cursor queryReadable(Uri uri, int table, String[] projectionIn, String selection,
+            String[] selectionArgs, String sort, CancellationSignal cancellationSignal) {
+        SQLiteDatabase db = mDbHolder.getReadable();
+
         boolean distinct = uri.getQueryParameter("distinct") != null;
         String limit = uri.getQueryParameter("limit");
         String groupby = uri.getQueryParameter("group");
@@ -474,6 +495,13 @@ public class VideoProvider extends ContentProvider {
         if (ScraperProvider.handles(match))
             return mScraperProvider.openFile(uri, mode);
 
+        if (match == VIDEO_THUMBNAILS_ID && mode.contains("w")) {
+            // the packed copy is about to get stale
+            String path = getThumbnailPath(ContentUris.parseId(uri));
+            if (path != null)
+                ThumbnailPack.onFileChanged(path);
+        }
+
         try {
             pfd = openFileHelper(uri, mode);
         } catch (FileNotFoundException ex) {
@@ -489,6 +517,40 @@ public class VideoProvider extends ContentProvider {
         return pfd;
     }
 
+    /**
+     * Readers passing {@link VideoStore.Video.Thumbnails#PARAM_PACK} can handle a section of a file:
+     * serve them the thumbnail straight from the ThumbnailPack instead of opening its jpeg file.
+     * Thumbnails written before the pack existed are copied into it on first read.
+     */
+    @Override
+    public AssetFileDescriptor openAssetFile(Uri uri, String mode) throws FileNotFoundException {
+        if ("r".equals(mode) && URI_MATCHER.match(uri) == VIDEO_THUMBNAILS_ID
+                && uri.getQueryParameter(VideoStore.Video.Thumbnails.PARAM_PACK) != null) {
+            String path = getThumbnailPath(ContentUris.parseId(uri));
+            if (path != null) {
+                ThumbnailPack pack = ThumbnailPack.get(getContext());
+                long key = ThumbnailPack.keyOf(path);
+                AssetFileDescriptor afd = pack.openAssetFile(key);
+                if (afd == null && pack.putFile(key, new File(path)))
+                    afd = pack.openAssetFile(key);
+                if (afd != null)
+                    return afd;
+            }
+        }
+        return super.openAssetFile(uri, mode);
+    }
+
+    private String getThumbnailPath(long thumbId) {
+        Cursor c = mDbHolder.get().query(VideoOpenHelper.VIDEOTHUMBNAIL_TABLE_NAME,
+                new String[] { MediaColumns.DATA }, BaseColumns._ID + "=" + thumbId,
+                null, null, null, null);
+        try {
+            return c.moveToFirst() ? c.getString(0) : null;
+        } finally {
+            c.close();
+        }
+    }
+
     private static ContentValues ensureFile(ContentValues initialValues,
             String preferredExtension, String directoryName) {
         ContentValues values;
@@ -1052,6 +1114,7 @@ public class VideoProvider extends ContentProvider {
 
         if (match != -1) {
             int result = 0;
+            mDbHolder.beginHeavyWrite();
             mVobHandler.onBeginTransaction();
             SQLiteDatabase db = mDbHolder.get();
             db.beginTransactionNonExclusive();
@@ -1070,6 +1133,7 @@ public class VideoProvider extends ContentProvider {
             } finally {
                 db.endTransaction();
                 mVobHandler.onEndTransaction();
+                mDbHolder.endHeavyWrite();
             }
             if (result > 0)
                 mCr.notifyChange(VideoStore.ALL_CONTENT_URI, null);
@@ -1084,6 +1148,7 @@ public class VideoProvider extends ContentProvider {
         log.debug("applyBatch");
         ContentProviderResult[] result = null;
         SQLiteDatabase db = mDbHolder.get();
+        mDbHolder.beginHeavyWrite();
         mVobHandler.onBeginTransaction();
         db.beginTransactionNonExclusive();
         try {
@@ -1102,6 +1167,7 @@ public class VideoProvider extends ContentProvider {
         } finally {
             db.endTransaction();
             mVobHandler.onEndTransaction();
+            mDbHolder.endHeavyWrite();
         }
         if (result != null) {
             mCr.notifyChange(VideoStore.ALL_CONTENT_URI, null);
@@ -1110,6 +1176,105 @@ public class VideoProvider extends ContentProvider {
         return result;
     }
 
+    /** tables that accept {@link UpsertBatch}es */
+    private static final List<String> UPSERT_TABLES = Arrays.asList(
+            VideoOpenHelper.FILES_TABLE_NAME,
+            VideoOpenHelper.FILES_IMPORT_TABLE_NAME,
+            VideoOpenHelper.FILES_SCANNED_TABLE_NAME);
+    /** same columns update() of the RAW files table drops */
+    private static final List<String> UPSERT_FILES_IGNORED = Arrays.asList(
+            VideoStoreInternal.KEY_SCANNER,
+            BaseColumns._ID,
+            MediaColumns.DATA);
+
+    /** column names of the UPSERT_TABLES, read from the schema on first use */
+    private final HashMap<String, Set<String>> mUpsertColumns = new HashMap<String, Set<String>>();
+
+    private Set<String> getTableColumns(SQLiteDatabase db, String table) {
+        synchronized (mUpsertColumns) {
+            Set<String> columns = mUpsertColumns.get(table);
+            if (columns == null) {
+                columns = new HashSet<String>();
+                Cursor c = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+                try {
+                    int nameColumn = c.getColumnIndexOrThrow("name");
+                    while (c.moveToNext()) {
+                        columns.add(c.getString(nameColumn));
+                    }
+                } finally {
+                    c.close();
+                }
+                mUpsertColumns.put(table, columns);
+            }
+            return columns;
+        }
+    }
+
+    /**
+     * call() is not covered by the provider's read / write permissions, methods that
+     * write must check themselves. Our own processes always pass.
+     */
+    private void enforceCallingWritePermission(String method) {
+        if (Binder.getCallingUid() == Process.myUid())
+            return;
+        String permission = getWritePermission();
+        if (permission == null)
+            throw new SecurityException(method + " is not available to other applications");
+        getContext().enforceCallingPermission(permission, method);
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (UpsertBatch.METHOD_UPSERT.equals(method)) {
+            enforceCallingWritePermission(method);
+            extras.setClassLoader(UpsertBatch.class.getClassLoader());
+            UpsertBatch batch = extras.getParcelable(UpsertBatch.EXTRA_BATCH);
+            return upsert(batch);
+        }
+        if (VideoStore.METHOD_DB_STATS.equals(method)) {
+            Bundle stats = new Bundle();
+            stats.putLong(VideoStore.DB_STATS_WAL_SIZE, mDbHolder.getWalSize());
+            stats.putInt(VideoStore.DB_STATS_ACTIVE_READS, mDbHolder.getActiveReads());
+            stats.putInt(VideoStore.DB_STATS_PEAK_READS, mDbHolder.getPeakReads());
+            stats.putLong(VideoStore.DB_STATS_READ_COUNT, mDbHolder.getReadCount());
+            stats.putInt(VideoStore.DB_STATS_QUEUED_WRITERS, mDbHolder.getQueuedWriters());
+            stats.putLong(VideoStore.DB_STATS_CHECKPOINTS, mDbHolder.getCheckpointCount());
+            return stats;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /** executes the whole batch in one transaction */
+    private Bundle upsert(UpsertBatch batch) {
+        String table = batch.getTable();
+        log.debug("upsert " + table + " rows:" + batch.size());
+        if (!UPSERT_TABLES.contains(table))
+            throw new IllegalArgumentException("can't upsert into " + table);
+        List<String> ignored = VideoOpenHelper.FILES_TABLE_NAME.equals(table) ? UPSERT_FILES_IGNORED : null;
+        SQLiteDatabase db = mDbHolder.get();
+        batch.checkColumns(getTableColumns(db, table), ignored);
+
+        int[] result;
+        mDbHolder.beginHeavyWrite();
+        mVobHandler.onBeginTransaction();
+        db.beginTransactionNonExclusive();
+        try {
+            result = batch.apply(db, ignored);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mVobHandler.onEndTransaction();
+            mDbHolder.endHeavyWrite();
+        }
+        if (result[0] > 0 || result[1] > 0)
+            mCr.notifyChange(VideoStore.ALL_CONTENT_URI, null);
+
+        Bundle bundle = new Bundle();
+        bundle.putInt(UpsertBatch.RESULT_INSERTED, result[0]);
+        bundle.putInt(UpsertBatch.RESULT_UPDATED, result[1]);
+        return bundle;
+    }
+
     /**
      * Instances of this class are created and put in a queue to be executed sequentially to see if
      * it needs to (re)generate the thumbnails.
@@ -1199,6 +1364,16 @@ public class VideoProvider extends ContentProvider {
             }
         }
 
+        private String getPath(Uri thumbUri) {
+            Cursor c = mCr.query(thumbUri, new String[] { MediaColumns.DATA }, null, null, null);
+            if (c == null) return null;
+            try {
+                return c.moveToFirst() ? c.getString(0) : null;
+            } finally {
+                c.close();
+            }
+        }
+
         /**
          * Check if the corresponding thumbnail and mini-thumb have been created
          * for the given uri. This method creates both of them if they do not
@@ -1256,10 +1431,17 @@ public class VideoProvider extends ContentProvider {
 
                 Uri uri = updateDatabase(bitmap);
                 if (uri != null) {
+                    ByteArrayOutputStream jpeg = new ByteArrayOutputStream(32 * 1024);
+                    bitmap.compress(Bitmap.CompressFormat.JPEG, 85, jpeg);
+                    byte[] data = jpeg.toByteArray();
                     OutputStream thumbOut = mCr.openOutputStream(uri);
-                    bitmap.compress(Bitmap.CompressFormat.JPEG, 85, thumbOut);
+                    thumbOut.write(data);
                     thumbOut.close();
                     log.debug("ThumbRequest written bitmap");
+                    // keep the file for readers that want a path, grids read the packed copy
+                    String path = getPath(uri);
+                    if (path != null)
+                        ThumbnailPack.get(mContext).put(ThumbnailPack.keyOf(path), data);
                     // also put some random mini_thumb_magic
                     do {
                         magic = sRandom.nextLong();
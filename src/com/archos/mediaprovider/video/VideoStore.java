@@ -21,6 +21,7 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
@@ -30,7 +31,6 @@ import android.graphics.BitmapFactory;
 import android.media.MediaScannerConnection;
 import android.net.Uri;
 import android.os.Environment;
-import android.os.ParcelFileDescriptor;
 import android.provider.BaseColumns;
 import android.provider.MediaStore;
 import android.util.Log;
@@ -42,6 +42,7 @@ import com.archos.mediaprovider.ArchosMediaIntent;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * Modified copy of Android's MediaProvider. It may give you Uris for stock mediaprovider.<br>
@@ -237,6 +238,29 @@ public final class VideoStore {
      */
     public static final Uri RAW_QUERY = VideoStoreInternal.RAWQUERY;
 
+    /**
+     * {@link android.content.ContentResolver#call(Uri, String, String, android.os.Bundle)} method
+     * returning database metrics in a Bundle, keys are the DB_STATS_* constants.
+     * <p><b>Example</b>
+     * <pre>
+     * Bundle stats = cr.call(VideoStore.ALL_CONTENT_URI, VideoStore.METHOD_DB_STATS, null, null);
+     * long walBytes = stats.getLong(VideoStore.DB_STATS_WAL_SIZE);
+     * </pre>
+     */
+    public static final String METHOD_DB_STATS = "db_stats";
+    /** long, current size of the write-ahead log in bytes */
+    public static final String DB_STATS_WAL_SIZE = "wal_size";
+    /** int, queries whose cursor has not been closed yet */
+    public static final String DB_STATS_ACTIVE_READS = "active_reads";
+    /** int, highest number of concurrent queries seen */
+    public static final String DB_STATS_PEAK_READS = "peak_reads";
+    /** long, queries since the provider was started */
+    public static final String DB_STATS_READ_COUNT = "read_count";
+    /** int, bulk writers waiting for their turn */
+    public static final String DB_STATS_QUEUED_WRITERS = "queued_writers";
+    /** long, WAL checkpoints done after bulk writes */
+    public static final String DB_STATS_CHECKPOINTS = "checkpoints";
+
     // ---------------------------------------------------------------------- //
     // Most parts below are just a copy of MediaStore.java from the framework //
     // The biggest difference is that this version hands out our provider     //
@@ -499,10 +523,17 @@ public final class VideoStore {
             try {
                 long thumbId = c.getLong(0);
                 thumbUri = ContentUris.withAppendedId(baseUri, thumbId);
-                ParcelFileDescriptor pfdInput = cr.openFileDescriptor(thumbUri, "r");
-                bitmap = BitmapFactory.decodeFileDescriptor(
-                        pfdInput.getFileDescriptor(), null, options);
-                pfdInput.close();
+                // served from the thumbnail pack: no file open per thumbnail
+                AssetFileDescriptor afd = cr.openAssetFileDescriptor(thumbUri.buildUpon()
+                        .appendQueryParameter(Video.Thumbnails.PARAM_PACK, "1").build(), "r");
+                if (afd == null)
+                    return null;
+                InputStream in = afd.createInputStream();
+                try {
+                    bitmap = BitmapFactory.decodeStream(in, null, options);
+                } finally {
+                    in.close();
+                }
             } catch (FileNotFoundException ex) {
                 Log.e(TAG, "couldn't open thumbnail " + thumbUri + "; " + ex);
             } catch (IOException ex) {
@@ -1722,6 +1753,13 @@ public final class VideoStore {
          *
          */
         public static class Thumbnails implements BaseColumns {
+            /**
+             * Query parameter for openAssetFileDescriptor on a thumbnail uri: the caller can
+             * handle a section of a file and gets the thumbnail from the thumbnail pack.
+             * openFileDescriptor callers must not set it.
+             */
+            public static final String PARAM_PACK = "pack";
+
             /**
              * This method cancels the thumbnail request so clients waiting for getThumbnail will be
              * interrupted and return immediately. Only the original process which made the getThumbnail
@@ -14,7 +14,6 @@
 
 package com.archos.mediaprovider.video;
 
-import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
@@ -38,8 +37,7 @@ import com.archos.medialib.IMediaMetadataRetriever;
 import com.archos.medialib.MediaMetadata;
 import com.archos.mediaprovider.ArchosMediaFile;
 import com.archos.mediaprovider.ArchosMediaFile.MediaFileType;
-import com.archos.mediaprovider.BulkInserter;
-import com.archos.mediaprovider.CPOExecutor;
+import com.archos.mediaprovider.BulkUpserter;
 import com.archos.mediaprovider.CustomCursorFactory.CustomCursor;
 import com.archos.mediaprovider.ImportState;
 import com.archos.mediaprovider.ImportState.State;
@@ -139,7 +137,7 @@ public class VideoStoreImportImpl {
             MediaColumnsDATA,
             VideoColumns.ARCHOS_MEDIA_SCRAPER_ID
     };
-    private static final String UPDATE_WHERE = "remote_id=?";
+    private static final String UPDATE_KEY = "remote_id";
     /** scans every file in cursor and update database, also closes cursor */
     private void handleScanCursor(Cursor c, ContentResolver cr, Context context, Blacklist blacklist) {
         if (c == null || c.getCount() == 0) {
@@ -152,7 +150,9 @@ public class VideoStoreImportImpl {
         int scraped = 0;
         int remaining = c.getCount();
 
-        CPOExecutor operations = new CPOExecutor(VideoStore.AUTHORITY, cr, 500);
+        // one update per file, all rows of a batch in a single provider transaction
+        BulkUpserter operations = new BulkUpserter(VideoStoreInternal.FILES, cr,
+                VideoOpenHelper.FILES_TABLE_NAME, UPDATE_KEY, false, 500);
         long time = System.currentTimeMillis() / 1000L;
         String timeString = String.valueOf(time);
 
@@ -187,13 +187,12 @@ public class VideoStoreImportImpl {
                 break;
             }
 
-            // using ContentProviderOperation so updates are done as single transaction
-            operations.add(
-                ContentProviderOperation.newUpdate(VideoStoreInternal.FILES)
-                        .withSelection(UPDATE_WHERE, new String[] { job.mId })
-                        .withValues(cv)
-                        .build()
-                    );
+            // file name derived values go into the same row update below
+            if (job.mMediaType == FileColumns.MEDIA_TYPE_VIDEO) {
+                /* Process the FileName for more information */
+                cv.putAll(VideoNameProcessor.extractValuesFromPath(path));
+            }
+            operations.newRow(job.mId).putAll(cv);
             scanned++;
 
             // .nfo auto-parsing
@@ -217,17 +216,6 @@ public class VideoStoreImportImpl {
                     }
                 }
             }
-
-            if (job.mMediaType == FileColumns.MEDIA_TYPE_VIDEO) {
-                /* Process the FileName for more information */
-                ContentValues cvExtra = VideoNameProcessor.extractValuesFromPath(path);
-                operations.add(
-                        ContentProviderOperation.newUpdate(VideoStoreInternal.FILES)
-                                .withSelection(UPDATE_WHERE, new String[] { job.mId })
-                                .withValues(cvExtra)
-                                .build()
-                            );
-            }
         }
 
         c.close();
@@ -534,7 +522,8 @@ public class VideoStoreImportImpl {
                     c.close();
                 }
                 // transaction size limited, acts like buffered output stream and auto-flushes queue
-                BulkInserter inserter = new BulkInserter(VideoStoreInternal.FILES_IMPORT, cr, 2000);
+                BulkUpserter inserter = new BulkUpserter(VideoStoreInternal.FILES_IMPORT, cr,
+                        VideoOpenHelper.FILES_IMPORT_TABLE_NAME, BaseColumns._ID, false, 2000);
                 log.debug("copyData: found items to import:" + count);
                 final int numberOfRows = allFiles.getCount();
                 int window = WINDOW_SIZE;
@@ -594,7 +583,7 @@ public class VideoStoreImportImpl {
                                     DatabaseUtils.cursorRowToContentValues(allFiles, cv);
                                 }
                                 if (!ids.contains(cv.getAsLong("_id")))
-                                    inserter.add(cv);
+                                    inserter.newRow(null).putAll(cv);
                             } catch (IllegalStateException ignored) { } //we silently ignore empty lines - it means content has been deleted while scanning
                         }
                         imported += inserter.execute();
@@ -0,0 +1,440 @@
+// Copyright 2017 Archos SA
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.archos.mediascraper;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+import android.os.Process;
+
+import com.archos.mediaprovider.video.VideoStore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads artwork in the background so that scraping only waits for the metadata: scrapers
+ * queue the images of what they found and the files fill in behind them.
+ *
+ * The default posters / backdrops go first, then everything else (alternatives, logos, actor
+ * photos). What is on screen does not wait for the queue: ScraperImageProcessor and
+ * ScraperProvider fetch it inline. At most {@link #MAX_PER_HOST} downloads run per host, and
+ * together they stay under {@link #MAX_BYTES_PER_SECOND} (see
+ * {@link HttpCache#setBackgroundBandwidth(long)}), an interrupted one continues where it stopped.
+ *
+ * Jobs are kept in a small database until their file is there, so that what was queued when the
+ * process died is picked up by the next {@link #get(Context)}. That database is written outside of
+ * the queue lock, a list of images in one transaction.
+ */
+public final class ArtworkDownloader {
+    private static final Logger log = LoggerFactory.getLogger(ArtworkDownloader.class);
+
+    /** order in which the queue is worked on */
+    public enum Priority {
+        /** default poster / backdrop of what was just scraped */
+        DEFAULT,
+        /** other posters and backdrops, logos, actor photos */
+        ALTERNATE
+    }
+
+    public static final int MAX_PER_HOST = 2;
+    // leaves room for playback streaming from the same connection
+    public static final long MAX_BYTES_PER_SECOND = 1024 * 1024;
+    private static final int WORKERS = 3;
+    private static final int MAX_ATTEMPTS = 4;
+    // times the number of attempts
+    private static final long RETRY_DELAY = TimeUnit.SECONDS.toMillis(30);
+    private static final long NOTIFY_INTERVAL = TimeUnit.SECONDS.toMillis(2);
+
+    private static final String DATABASE_NAME = "artwork_downloads_db";
+    // 2: priorities are stored as ordinals, VISIBLE was dropped
+    private static final int DATABASE_VERSION = 2;
+    private static final String TABLE = "jobs";
+    private static final String FILE = "file";
+    private static final String TYPE = "type";
+    private static final String LARGE_URL = "large_url";
+    private static final String THUMB_URL = "thumb_url";
+    private static final String THUMB_FILE = "thumb_file";
+    private static final String PRIORITY = "priority";
+    private static final String ATTEMPTS = "attempts";
+    private static final String TIME = "time";
+    private static final String CREATE_TABLE =
+            "CREATE TABLE " + TABLE + " (" +
+            FILE + " TEXT PRIMARY KEY, " +
+            TYPE + " TEXT NOT NULL, " +
+            LARGE_URL + " TEXT NOT NULL, " +
+            THUMB_URL + " TEXT, " +
+            THUMB_FILE + " TEXT, " +
+            PRIORITY + " INTEGER NOT NULL, " +
+            ATTEMPTS + " INTEGER NOT NULL, " +
+            TIME + " INTEGER NOT NULL)";
+    private static final String[] PROJECTION = {
+            FILE, TYPE, LARGE_URL, THUMB_URL, THUMB_FILE, PRIORITY, ATTEMPTS
+    };
+    // oldest first within a priority, like they were queued
+    private static final String ORDER = PRIORITY + "," + TIME;
+    private static final String WHERE_FILE = FILE + "=?";
+
+    // priority first, then queue order
+    private static final Comparator<Job> QUEUE_ORDER = new Comparator<Job>() {
+        @Override
+        public int compare(Job a, Job b) {
+            int c = a.priority.compareTo(b.priority);
+            return c != 0 ? c : Long.compare(a.sequence, b.sequence);
+        }
+    };
+
+    private static ArtworkDownloader sInstance;
+
+    public static synchronized ArtworkDownloader get(Context context) {
+        if (sInstance == null) {
+            sInstance = new ArtworkDownloader(context.getApplicationContext());
+            sInstance.start();
+        }
+        return sInstance;
+    }
+
+    private static final class Job {
+        final String file;
+        final ScraperImage.Type type;
+        final String largeUrl;
+        final String thumbUrl;
+        final String thumbFile;
+        final String host;
+        Priority priority;
+        int attempts;
+        long sequence;
+        long notBefore;
+
+        Job(ScraperImage image, Priority priority) {
+            this(image.getLargeFile(), image.getType(), image.getLargeUrl(), image.getThumbUrl(),
+                    image.getThumbFile(), priority, 0);
+        }
+
+        Job(String file, ScraperImage.Type type, String largeUrl, String thumbUrl, String thumbFile,
+                Priority priority, int attempts) {
+            this.file = file;
+            this.type = type;
+            this.largeUrl = largeUrl;
+            this.thumbUrl = thumbUrl;
+            this.thumbFile = thumbFile;
+            this.priority = priority;
+            this.attempts = attempts;
+            String host = Uri.parse(largeUrl).getHost();
+            this.host = host != null ? host : "";
+        }
+
+        ScraperImage toImage() {
+            // file names are already there, no need for the name seed
+            ScraperImage image = new ScraperImage(type, null);
+            image.setLargeFile(file);
+            image.setLargeUrl(largeUrl);
+            image.setThumbFile(thumbFile);
+            image.setThumbUrl(thumbUrl);
+            return image;
+        }
+
+        ContentValues toContentValues() {
+            ContentValues values = new ContentValues(8);
+            values.put(FILE, file);
+            values.put(TYPE, type.name());
+            values.put(LARGE_URL, largeUrl);
+            values.put(THUMB_URL, thumbUrl);
+            values.put(THUMB_FILE, thumbFile);
+            values.put(PRIORITY, priority.ordinal());
+            values.put(ATTEMPTS, attempts);
+            values.put(TIME, System.currentTimeMillis());
+            return values;
+        }
+    }
+
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+        DatabaseHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL(CREATE_TABLE);
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // missing images are also downloaded when they are displayed: start over
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+            onCreate(db);
+        }
+    }
+
+    private final Context mContext;
+    private final DatabaseHelper mDbHelper;
+    // database writes are serialized by mWriteLock (taken before this when both are needed)
+    private final Object mWriteLock = new Object();
+    // all guarded by this
+    private final TreeSet<Job> mQueue = new TreeSet<Job>(QUEUE_ORDER);
+    // queued or running, by file
+    private final HashMap<String, Job> mJobs = new HashMap<String, Job>();
+    private final HashMap<String, Integer> mRunning = new HashMap<String, Integer>();
+    private long mSequence;
+    private boolean mChanged;
+    private long mLastNotify;
+
+    private ArtworkDownloader(Context context) {
+        mContext = context;
+        mDbHelper = new DatabaseHelper(context);
+        HttpCache.setBackgroundBandwidth(MAX_BYTES_PER_SECOND);
+    }
+
+    private void start() {
+        for (int i = 0; i < WORKERS; i++)
+            new Worker(i).start();
+    }
+
+    /** queues the download of the large file of image unless it is there already, null is ignored */
+    public void enqueue(ScraperImage image, Priority priority) {
+        Job job = queue(image, priority);
+        if (job != null)
+            write(Collections.singletonList(job));
+    }
+
+    /** queues all the images with the same priority, in list order, null is ignored */
+    public void enqueue(List<ScraperImage> images, Priority priority) {
+        if (images == null)
+            return;
+        List<Job> jobs = new ArrayList<Job>(images.size());
+        for (ScraperImage image : images) {
+            Job job = queue(image, priority);
+            if (job != null)
+                jobs.add(job);
+        }
+        write(jobs);
+    }
+
+    /** the job to write if image was queued or moved up */
+    private Job queue(ScraperImage image, Priority priority) {
+        if (image == null || !image.isHttpImage() || image.getLargeFile() == null)
+            return null;
+        if (new File(image.getLargeFile()).exists())
+            return null;
+        synchronized (this) {
+            Job job = mJobs.get(image.getLargeFile());
+            if (job == null) {
+                job = new Job(image, priority);
+                mJobs.put(job.file, job);
+            } else if (priority.compareTo(job.priority) < 0) {
+                // not in the queue while it runs, then it's too late to move it anyway
+                if (!mQueue.remove(job)) {
+                    job.priority = priority;
+                    return null;
+                }
+                job.priority = priority;
+            } else {
+                return null;
+            }
+            job.sequence = mSequence++;
+            mQueue.add(job);
+            notifyAll();
+            return job;
+        }
+    }
+
+    private final class Worker extends Thread {
+        private final int mIndex;
+
+        Worker(int index) {
+            super("ArtworkDownloader-" + index);
+            mIndex = index;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            HttpCache.setBackgroundThread(true);
+            if (mIndex == 0)
+                load();
+            while (true) {
+                Job job;
+                try {
+                    job = take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                boolean success = false;
+                try {
+                    success = job.toImage().download(mContext);
+                } catch (RuntimeException e) {
+                    log.warn("run: " + job.largeUrl, e);
+                }
+                finish(job, success);
+            }
+        }
+    }
+
+    /** highest priority job that is due and whose host has a free slot, waits for one */
+    private synchronized Job take() throws InterruptedException {
+        while (true) {
+            long now = System.currentTimeMillis();
+            long wakeUp = Long.MAX_VALUE;
+            for (Iterator<Job> it = mQueue.iterator(); it.hasNext(); ) {
+                Job job = it.next();
+                if (job.notBefore > now) {
+                    wakeUp = Math.min(wakeUp, job.notBefore);
+                } else if (running(job.host) < MAX_PER_HOST) {
+                    it.remove();
+                    mRunning.put(job.host, running(job.host) + 1);
+                    return job;
+                }
+            }
+            if (wakeUp == Long.MAX_VALUE)
+                wait();
+            else
+                wait(wakeUp - now);
+        }
+    }
+
+    private void finish(Job job, boolean success) {
+        boolean notify = false;
+        synchronized (this) {
+            int running = running(job.host) - 1;
+            if (running > 0)
+                mRunning.put(job.host, running);
+            else
+                mRunning.remove(job.host);
+            if (success || job.attempts + 1 >= MAX_ATTEMPTS) {
+                if (!success)
+                    log.warn("finish: giving up on " + job.largeUrl + " after " + MAX_ATTEMPTS + " attempts");
+                mJobs.remove(job.file);
+            } else {
+                job.attempts++;
+                job.notBefore = System.currentTimeMillis() + RETRY_DELAY * job.attempts;
+                job.sequence = mSequence++;
+                mQueue.add(job);
+            }
+            // a host slot is free
+            notifyAll();
+            if (success && job.priority != Priority.ALTERNATE)
+                mChanged = true;
+            long now = System.currentTimeMillis();
+            if (mChanged && (now - mLastNotify >= NOTIFY_INTERVAL || !hasUrgentJobs())) {
+                mChanged = false;
+                mLastNotify = now;
+                notify = true;
+            }
+        }
+        write(Collections.singletonList(job));
+        // lists showing covers reload them
+        if (notify)
+            mContext.getContentResolver().notifyChange(VideoStore.Video.Media.EXTERNAL_CONTENT_URI, null);
+    }
+
+    private boolean hasUrgentJobs() {
+        return !mQueue.isEmpty() && mQueue.first().priority != Priority.ALTERNATE;
+    }
+
+    private int running(String host) {
+        Integer running = mRunning.get(host);
+        return running != null ? running.intValue() : 0;
+    }
+
+    /** queues what the database still has from before */
+    private void load() {
+        int loaded = 0;
+        try {
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            try (Cursor c = db.query(TABLE, PROJECTION, null, null, null, null, ORDER)) {
+                Priority[] priorities = Priority.values();
+                while (c.moveToNext()) {
+                    ScraperImage.Type type;
+                    try {
+                        type = ScraperImage.Type.valueOf(c.getString(1));
+                    } catch (IllegalArgumentException e) {
+                        db.delete(TABLE, WHERE_FILE, new String[] { c.getString(0) });
+                        continue;
+                    }
+                    int priority = Math.min(Math.max(c.getInt(5), 0), priorities.length - 1);
+                    Job job = new Job(c.getString(0), type, c.getString(2), c.getString(3), c.getString(4),
+                            priorities[priority], c.getInt(6));
+                    synchronized (this) {
+                        // queued again since
+                        if (mJobs.containsKey(job.file))
+                            continue;
+                        job.sequence = mSequence++;
+                        mJobs.put(job.file, job);
+                        mQueue.add(job);
+                        notifyAll();
+                    }
+                    loaded++;
+                }
+            }
+        } catch (SQLException e) {
+            log.warn("load: ", e);
+        }
+        log.debug("load: " + loaded + " downloads left from before");
+    }
+
+    /**
+     * stores the files of jobs as they are now, in one transaction: the row is replaced while a job
+     * is known for the file and deleted once it is done. The state is read when writing so a late
+     * write never undoes a newer one.
+     */
+    private void write(List<Job> jobs) {
+        if (jobs.isEmpty())
+            return;
+        synchronized (mWriteLock) {
+            // null when done
+            List<ContentValues> rows = new ArrayList<ContentValues>(jobs.size());
+            synchronized (this) {
+                for (Job job : jobs) {
+                    // may be a job queued again for the same file since
+                    Job current = mJobs.get(job.file);
+                    rows.add(current != null ? current.toContentValues() : null);
+                }
+            }
+            try {
+                SQLiteDatabase db = mDbHelper.getWritableDatabase();
+                db.beginTransaction();
+                try {
+                    for (int i = 0; i < rows.size(); i++) {
+                        ContentValues values = rows.get(i);
+                        if (values != null)
+                            db.insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                        else
+                            db.delete(TABLE, WHERE_FILE, new String[] { jobs.get(i).file });
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            } catch (SQLException e) {
+                log.warn("write: " + jobs.size() + " jobs", e);
+            }
+        }
+    }
+}
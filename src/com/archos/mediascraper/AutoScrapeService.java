@@ -48,6 +48,7 @@ import com.archos.mediaprovider.video.VideoStoreInternal;
 import com.archos.mediaprovider.video.WrapperChannelManager;
 import com.archos.mediascraper.preprocess.SearchInfo;
 import com.archos.mediascraper.preprocess.SearchPreprocessor;
+import com.archos.mediascraper.themoviedb3.TmdbRateLimiter;
 import com.archos.mediascraper.xml.MovieScraper3;
 import com.archos.mediascraper.xml.ShowScraper4;
 
@@ -165,6 +166,8 @@ public class AutoScrapeService extends Service {
 
         mBinder = new AutoScraperBinder();
         mHandler = new Handler();
+        // picks up the image downloads a previous process left
+        ArtworkDownloader.get(this);
     }
 
     @Override
@@ -242,6 +245,9 @@ public class AutoScrapeService extends Service {
                             log.debug("startExporting: Base tag created, exporting " + fileUri);
                             if (exportContext != null && fileUri != null)
                                 try {
+                                    // the artwork downloader may not have fetched them yet
+                                    baseTags.downloadPoster(AutoScrapeService.this);
+                                    baseTags.downloadBackdrop(AutoScrapeService.this);
                                     NfoWriter.export(fileUri, baseTags, exportContext);
                                 } catch (IOException e) {
                                     log.error("caugth IOException: ", e);
@@ -333,6 +339,13 @@ public class AutoScrapeService extends Service {
                 public void run() {
                     sIsScraping = true;
                     boolean shouldRescrapAll = rescrapAlreadySearched;
+                    if (shouldRescrapAll) {
+                        // explicit rescrape: search again instead of reusing what earlier rounds resolved
+                        TitleMatchCache matchCache = TitleMatchCache.get(AutoScrapeService.this);
+                        if (onlyNotFound) matchCache.invalidateNotFound();
+                        else if (scrapeOnlyMovies) matchCache.invalidate(false);
+                        else matchCache.invalidateAll();
+                    }
                     log.debug("startScraping: startThread " + String.valueOf(mThread==null || !mThread.isAlive()) );
                     if (log.isDebugEnabled()) {
                         if (shouldRescrapAll && scrapeOnlyMovies)
@@ -522,6 +535,10 @@ public class AutoScrapeService extends Service {
                                             if (fileUri != null) {
                                                 try {
                                                     log.debug("startScraping: exporting NFO");
+                                                    // artwork is downloaded in the background, the nfo
+                                                    // export needs the default poster / backdrop now
+                                                    result.tag.downloadPoster(AutoScrapeService.this);
+                                                    result.tag.downloadBackdrop(AutoScrapeService.this);
                                                     NfoWriter.export(fileUri, result.tag, exportContext);
                                                 } catch (IOException e) {
                                                     log.error("Caught IOException: ", e);
@@ -586,6 +603,7 @@ public class AutoScrapeService extends Service {
                     } while(restartOnNextRound
                             &&PreferenceManager.getDefaultSharedPreferences(AutoScrapeService.this).getBoolean(AutoScrapeService.KEY_ENABLE_AUTO_SCRAP, true)); //if we had something to do, we look for new videos
                     sIsScraping = false;
+                    log.debug("startScraping: " + TmdbRateLimiter.getInstance());
                     mHandler.post(new Runnable() {
                         @Override
                         public void run() {
@@ -90,6 +90,9 @@ public abstract class BaseTags implements Parcelable {
     protected List<ScraperImage> mActorPhotos;
     protected List<ScraperImage> mClearLogos;
     protected List<ScraperImage> mStudioLogos;
+    // alternatives to the default poster / backdrop, materialized on demand
+    protected ImageRefs mPosterRefs;
+    protected ImageRefs mBackdropRefs;
     protected long mRuntimeMs;
     protected long mLastPlayedMs;
     protected long mBookmark;
@@ -153,6 +156,8 @@ public abstract class BaseTags implements Parcelable {
     public ScraperImage getDefaultClearLogo() { return getFirst(mClearLogos); }
     public List<ScraperImage> getStudioLogos() { return mStudioLogos; }
     public ScraperImage getDefaultStudioLogo() { return getFirst(mStudioLogos); }
+    public ImageRefs getPosterRefs() { return mPosterRefs; }
+    public ImageRefs getBackdropRefs() { return mBackdropRefs; }
     public String getContentRating() { return mContentRating; }
     public String getImdbId() { return mImdbId; }
     public long getOnlineId() { return mOnlineId; }
@@ -644,6 +649,8 @@ public abstract class BaseTags implements Parcelable {
     public void setActorPhotos(List<ScraperImage> list) { mActorPhotos = list; }
     public void setClearLogos(List<ScraperImage> list) { mClearLogos = list; }
     public void setStudioLogos(List<ScraperImage> list) { mStudioLogos = list; }
+    public void setPosterRefs(ImageRefs refs) { mPosterRefs = refs; }
+    public void setBackdropRefs(ImageRefs refs) { mBackdropRefs = refs; }
     public void setActorsFormatted(String actors) { mActorsFormatted = actors; }
     public void setDirectorsFormatted(String directors) { mDirectorsFormatted = directors; }
     public void setWritersFormatted(String writers) { mWritersFormatted = writers; }
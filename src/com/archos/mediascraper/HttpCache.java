@@ -26,8 +26,10 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.text.DateFormat;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A Http File Cache, that downloads your file to the specified directory
@@ -107,6 +109,13 @@ public class HttpCache {
     private static final int BUFFER_SIZE = 16 * 1024;
     private static final int BUFFER_POOL = 2;
 
+    // shared by all background threads, see setBackgroundBandwidth
+    private static final ThreadLocal<Boolean> sBackgroundThread = new ThreadLocal<Boolean>();
+    private static final long MAX_BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static long sBackgroundBytesPerSecond;
+    // guarded by HttpCache.class, when the capped link is free again
+    private static long sBackgroundFreeAt;
+
     private static class SingletonHolder {
         public static final BufferPool INSTANCE = new BufferPool(BUFFER_SIZE, BUFFER_POOL);
     }
@@ -171,6 +180,39 @@ public class HttpCache {
         }
     }
 
+    /**
+     * Caps the download rate of all the threads marked with {@link #setBackgroundThread(boolean)}
+     * together, 0 for no cap. Other threads (someone waiting for an image) are never slowed down.
+     */
+    public static void setBackgroundBandwidth(long maxBytesPerSecond) {
+        sBackgroundBytesPerSecond = maxBytesPerSecond;
+    }
+
+    /** downloads of the calling thread count against the background bandwidth from now on */
+    public static void setBackgroundThread(boolean background) {
+        sBackgroundThread.set(background ? Boolean.TRUE : null);
+    }
+
+    private static void throttle(int bytes) {
+        long rate = sBackgroundBytesPerSecond;
+        if (rate <= 0 || sBackgroundThread.get() == null)
+            return;
+        long waitNanos;
+        synchronized (HttpCache.class) {
+            long now = System.nanoTime();
+            long start = Math.max(now, sBackgroundFreeAt);
+            sBackgroundFreeAt = start + bytes * TimeUnit.SECONDS.toNanos(1) / rate;
+            waitNanos = sBackgroundFreeAt - now - MAX_BURST_NANOS;
+        }
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     private static String ThreadInfo() {
         return Thread.currentThread().getName();
     }
@@ -241,11 +283,23 @@ public class HttpCache {
                 boolean downloadSuccess = false;
                 OutputStream output = null;
                 InputStream input = null;
+                // an interrupted download left its .temp file, ask for the rest only
+                long resumeFrom = inProgressFile.length();
                 try {
                     long start = 0;
                     if (log.isTraceEnabled()) start = System.currentTimeMillis();
-                    output = new FileOutputStream(inProgressFile);
-                    input = downloader.getInputStream(extraHeaders);
+                    Map<String, String> headers = extraHeaders;
+                    if (resumeFrom > 0) {
+                        headers = new HashMap<String, String>();
+                        if (extraHeaders != null)
+                            headers.putAll(extraHeaders);
+                        headers.put("Range", "bytes=" + resumeFrom + "-");
+                    }
+                    input = downloader.getInputStream(headers);
+                    boolean resumed = resumeFrom > 0 && isResumed(downloader, resumeFrom);
+                    if (resumeFrom > 0)
+                        log.debug("getFile: " + (resumed ? "resuming at " + resumeFrom : "server restarts") + " for " + url);
+                    output = new FileOutputStream(inProgressFile, resumed);
                     BufferPool pool = getBufferPool();
                     byte[] buffer = pool.obtain();
                     streamCopy2(input, output, buffer);
@@ -253,6 +307,11 @@ public class HttpCache {
 
                     output.close();
                     output = null;
+                    // a dropped connection can look like the end of the stream, keep it for resuming
+                    long expected = expectedLength(downloader);
+                    long received = inProgressFile.length() - (resumed ? resumeFrom : 0);
+                    if (expected >= 0 && received != expected)
+                        throw new IOException("incomplete download, " + received + " of " + expected + " bytes");
                     if (log.isTraceEnabled()) {
                         long end = System.currentTimeMillis();
                         long time = end - start;
@@ -272,6 +331,9 @@ public class HttpCache {
                     }
                 } catch (IOException e) {
                     log.warn("getFile: Exception: " + e);
+                    // keep the partial file for the next try unless the server can't continue it
+                    if (resumeFrom > 0 && isRangeNotSatisfiable(downloader))
+                        inProgressFile.delete();
                 } finally {
                     closeSilently(downloader);
                     // if stream are != null close them
@@ -340,6 +402,38 @@ public class HttpCache {
         int i;
         while ((i = input.read(buf)) != -1) {
             output.write(buf, 0, i);
+            throttle(i);
+        }
+    }
+
+    /** true if the server sends the rest of the file: "206" with "Content-Range: bytes resumeFrom-..." */
+    private static boolean isResumed(HttpDownloadWrapper downloader, long resumeFrom) throws IOException {
+        if (downloader.getResponseCode() != 206)
+            return false;
+        String range = downloader.getHeaderField("Content-Range");
+        return range != null && range.startsWith("bytes " + resumeFrom + "-");
+    }
+
+    /** Content-Length of the response, -1 if unknown or if it is not the length of what is read */
+    private static long expectedLength(HttpDownloadWrapper downloader) {
+        String encoding = downloader.getHeaderField("Content-Encoding");
+        if (encoding != null && !"identity".equalsIgnoreCase(encoding))
+            return -1;
+        String length = downloader.getHeaderField("Content-Length");
+        if (length == null)
+            return -1;
+        try {
+            return Long.parseLong(length.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static boolean isRangeNotSatisfiable(HttpDownloadWrapper downloader) {
+        try {
+            return downloader.getResponseCode() == 416;
+        } catch (IOException e) {
+            return false;
         }
     }
 
@@ -87,6 +87,16 @@ public class HttpDownloadWrapper implements Closeable {
         return mUrlConnection.getInputStream();
     }
 
+    /** status of the response, call it after {@link #getInputStream(Map)}, -1 if there is none */
+    public int getResponseCode() throws IOException {
+        return mUrlConnection != null ? mUrlConnection.getResponseCode() : -1;
+    }
+
+    /** a response header, call it after {@link #getInputStream(Map)} */
+    public String getHeaderField(String name) {
+        return mUrlConnection != null ? mUrlConnection.getHeaderField(name) : null;
+    }
+
     /**
      * Call this after {@link #getInputStream()}, when you don't need the Stream
      * anymore.
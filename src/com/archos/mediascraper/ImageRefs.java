@@ -0,0 +1,145 @@
+// Copyright 2017 Archos SA
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.archos.mediascraper;
+
+import android.content.Context;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Ranked TMDb image paths of a movie or show ("/kqjL17yufvn9OVLyXYpvtyrFfak.jpg", best voted
+ * first) with their language. Only the paths are kept while scraping and they are stored as a
+ * single text column of the movie / show row: {@link ScraperImage}s with their urls and cache
+ * file names are built when the alternatives are shown, and get a row of their own once one is
+ * picked as default.
+ * <pre>
+ * "/kqjL17yufvn9OVLyXYpvtyrFfak.jpg|en\n/tUae3mefrDVTgm5mRzqWnZK6fOP.jpg|"
+ * </pre>
+ */
+public final class ImageRefs {
+    private static final Logger log = LoggerFactory.getLogger(ImageRefs.class);
+
+    private static final char ENTRY_SEPARATOR = '\n';
+    private static final char LANGUAGE_SEPARATOR = '|';
+
+    private final ArrayList<String> mPaths = new ArrayList<>();
+    private final ArrayList<String> mLanguages = new ArrayList<>();
+
+    /** appends path with the next rank, ignores null and already present paths */
+    public void add(String path, String language) {
+        if (path == null || path.isEmpty() || mPaths.contains(path))
+            return;
+        mPaths.add(path);
+        mLanguages.add(language);
+    }
+
+    public int size() {
+        return mPaths.size();
+    }
+
+    public boolean isEmpty() {
+        return mPaths.isEmpty();
+    }
+
+    public String getPath(int rank) {
+        return mPaths.get(rank);
+    }
+
+    public String getLanguage(int rank) {
+        return mLanguages.get(rank);
+    }
+
+    /** what {@link #decode(String)} reads back, null if there is nothing to store */
+    public String encode() {
+        if (mPaths.isEmpty())
+            return null;
+        StringBuilder sb = new StringBuilder(mPaths.size() * 40);
+        for (int i = 0; i < mPaths.size(); i++) {
+            if (i > 0)
+                sb.append(ENTRY_SEPARATOR);
+            sb.append(mPaths.get(i)).append(LANGUAGE_SEPARATOR);
+            String language = mLanguages.get(i);
+            if (language != null)
+                sb.append(language);
+        }
+        return sb.toString();
+    }
+
+    /** empty refs for null or malformed input */
+    public static ImageRefs decode(String encoded) {
+        ImageRefs refs = new ImageRefs();
+        if (encoded == null || encoded.isEmpty())
+            return refs;
+        int start = 0;
+        while (start < encoded.length()) {
+            int end = encoded.indexOf(ENTRY_SEPARATOR, start);
+            if (end < 0)
+                end = encoded.length();
+            int split = encoded.lastIndexOf(LANGUAGE_SEPARATOR, end - 1);
+            if (split >= start) {
+                String language = split + 1 < end ? encoded.substring(split + 1, end) : null;
+                refs.add(encoded.substring(start, split), language);
+            } else {
+                log.warn("decode: skipping malformed entry " + encoded.substring(start, end));
+            }
+            start = end + 1;
+        }
+        return refs;
+    }
+
+    /**
+     * Builds the image of that rank, url prefixes depend on type (posters or backdrops).
+     * remoteId is the movie / show row so that {@link ScraperImage#setAsDefault(Context)} works.
+     */
+    public ScraperImage materialize(int rank, ScraperImage.Type type, String nameSeed, long remoteId, Context context) {
+        String path = mPaths.get(rank);
+        ScraperImage image = new ScraperImage(type, nameSeed);
+        image.setLanguage(mLanguages.get(rank));
+        if (isBackdrop(type)) {
+            image.setLargeUrl(ScraperImage.TMBL + path);
+            image.setThumbUrl(ScraperImage.TMBT + path);
+        } else {
+            image.setLargeUrl(ScraperImage.TMPL + path);
+            image.setThumbUrl(ScraperImage.TMPT + path);
+        }
+        image.generateFileNames(context);
+        image.setRemoteId(remoteId);
+        return image;
+    }
+
+    /** appends all images in rank order to result, except those whose large url is already in there */
+    public void materializeAll(List<ScraperImage> result, ScraperImage.Type type, String nameSeed, long remoteId, Context context) {
+        if (mPaths.isEmpty())
+            return;
+        Collection<String> present = new HashSet<>();
+        for (ScraperImage image : result)
+            present.add(image.getLargeUrl());
+        String prefix = isBackdrop(type) ? ScraperImage.TMBL : ScraperImage.TMPL;
+        for (int rank = 0; rank < mPaths.size(); rank++) {
+            if (!present.contains(prefix + mPaths.get(rank)))
+                result.add(materialize(rank, type, nameSeed, remoteId, context));
+        }
+    }
+
+    private static boolean isBackdrop(ScraperImage.Type type) {
+        return type == ScraperImage.Type.MOVIE_BACKDROP || type == ScraperImage.Type.SHOW_BACKDROP;
+    }
+}
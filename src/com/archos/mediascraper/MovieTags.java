@@ -172,6 +172,12 @@ public class MovieTags extends VideoTags {
             values.put(ScraperStore.Movie.CLEARLOGO, clearlogo.getLargeUrl());
         }
 
+        // alternatives are only stored as paths, rows are created when one is picked
+        if (mPosterRefs != null)
+            values.put(ScraperStore.Movie.POSTER_REFS, mPosterRefs.encode());
+        if (mBackdropRefs != null)
+            values.put(ScraperStore.Movie.BACKDROP_REFS, mBackdropRefs.encode());
+
         values.put(ScraperStore.Movie.ACTORS_FORMATTED, getActorsFormatted());
         values.put(ScraperStore.Movie.DIRECTORS_FORMATTED, getDirectorsFormatted());
         values.put(ScraperStore.Movie.WRITERS_FORMATTED, getWritersFormatted());
@@ -360,10 +366,24 @@ public class MovieTags extends VideoTags {
                 result.add(ScraperImage.fromCursor(cursor, Type.MOVIE_POSTER));
             }
             cursor.close();
+            storedRefs(cr, ScraperStore.Movie.POSTER_REFS).materializeAll(result, Type.MOVIE_POSTER, mTitle, mId, context);
         }
         return result;
     }
 
+    /** alternatives kept as paths in the movie row, see {@link ImageRefs} */
+    private ImageRefs storedRefs(ContentResolver cr, String column) {
+        String encoded = null;
+        Uri uri = ContentUris.withAppendedId(ScraperStore.Movie.URI.ID, mId);
+        Cursor cursor = cr.query(uri, new String[] { column }, null, null, null);
+        if (cursor != null) {
+            if (cursor.moveToFirst())
+                encoded = cursor.getString(0);
+            cursor.close();
+        }
+        return ImageRefs.decode(encoded);
+    }
+
     public List<ScraperTrailer> getAllTrailersInDb(Context context) {
         ContentResolver cr = context.getContentResolver();
         Uri uri = ContentUris.withAppendedId(ScraperStore.MovieTrailers.URI.BY_MOVIE_ID, mId);
@@ -391,6 +411,7 @@ public class MovieTags extends VideoTags {
                 result.add(ScraperImage.fromCursor(cursor, Type.MOVIE_BACKDROP));
             }
             cursor.close();
+            storedRefs(cr, ScraperStore.Movie.BACKDROP_REFS).materializeAll(result, Type.MOVIE_BACKDROP, mTitle, mId, context);
         }
         return result;
     }
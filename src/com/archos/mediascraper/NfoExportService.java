@@ -219,6 +219,9 @@ public class NfoExportService extends IntentService {
                 }
                 if (tags != null) {
                     try {
+                        // the artwork downloader may not have fetched them yet
+                        tags.downloadPoster(this);
+                        tags.downloadBackdrop(this);
                         NfoWriter.export(tags.getFile(), tags, exportContext);
                     } catch (IOException e) {
                         // can't export, folder not writable?
@@ -227,16 +227,41 @@ public class ScraperImage {
     }
 
     public static ScraperImage fromCursor(Cursor cur, Type type, Type typeNoSeason) {
-        long imageId = cur.getLong(cur.getColumnIndexOrThrow(BaseColumns._ID));
-        long remoteId = cur.getLong(cur.getColumnIndexOrThrow(type.remoteIdColumn));
-        String lFile = cur.getString(cur.getColumnIndexOrThrow(type.largeFileColumn));
-        String lUrl = cur.getString(cur.getColumnIndexOrThrow(type.largeUrlColumn));
-        String tFile = cur.getString(cur.getColumnIndexOrThrow(type.thumbFileColumn));
-        String tUrl = cur.getString(cur.getColumnIndexOrThrow(type.thumbUrlColumn));
-        log.trace("fromCursor lFile=" + lFile + ", lUrl=" + lUrl + ", tFile=" + tFile + ", tUrl=" + tUrl);
+        return fromCursor(cur, type, typeNoSeason, new Columns(cur, type));
+    }
+
+    /** column indexes of an image cursor, resolved once per cursor instead of once per row */
+    public static final class Columns {
+        final int id;
+        final int remoteId;
+        final int largeFile;
+        final int largeUrl;
+        final int thumbFile;
+        final int thumbUrl;
+        final int season;
+
+        public Columns(Cursor cur, Type type) {
+            id = cur.getColumnIndexOrThrow(BaseColumns._ID);
+            remoteId = cur.getColumnIndexOrThrow(type.remoteIdColumn);
+            largeFile = cur.getColumnIndexOrThrow(type.largeFileColumn);
+            largeUrl = cur.getColumnIndexOrThrow(type.largeUrlColumn);
+            thumbFile = cur.getColumnIndexOrThrow(type.thumbFileColumn);
+            thumbUrl = cur.getColumnIndexOrThrow(type.thumbUrlColumn);
+            season = type.seasonColumn != null ? cur.getColumnIndexOrThrow(type.seasonColumn) : -1;
+        }
+    }
+
+    public static ScraperImage fromCursor(Cursor cur, Type type, Type typeNoSeason, Columns cols) {
+        long imageId = cur.getLong(cols.id);
+        long remoteId = cur.getLong(cols.remoteId);
+        String lFile = cur.getString(cols.largeFile);
+        String lUrl = cur.getString(cols.largeUrl);
+        String tFile = cur.getString(cols.thumbFile);
+        String tUrl = cur.getString(cols.thumbUrl);
+        if (log.isTraceEnabled()) log.trace("fromCursor lFile=" + lFile + ", lUrl=" + lUrl + ", tFile=" + tFile + ", tUrl=" + tUrl);
         int season = -1;
-        if (type.seasonColumn != null)
-            season = cur.getInt(cur.getColumnIndexOrThrow(type.seasonColumn));
+        if (cols.season >= 0)
+            season = cur.getInt(cols.season);
         if (season == -1 && typeNoSeason != null)
             type = typeNoSeason;
         ScraperImage image = new ScraperImage(type, null);
@@ -375,6 +400,10 @@ public class ScraperImage {
         mRemoteId = itemId;
     }
 
+    public Type getType() {
+        return mType;
+    }
+
     public void setOnlineId(long itemId) {
         mOnlineID = itemId;
     }
@@ -784,6 +813,10 @@ public class ScraperImage {
             log.error("saveSizedImage: setAsDefault - don't have remoteId, aborting.");
             return false;
         }
+        if (mId <= 0 && mLargeUrl != null) {
+            // materialized from ImageRefs, gets its row now that it is picked
+            save(context, mRemoteId);
+        }
         if (mId <= 0) {
             log.error("saveSizedImage: setAsDefault - don't have id, aborting.");
             return false;
@@ -94,7 +94,9 @@ public class ShowTags extends VideoTags {
             ScraperStore.Show.NETWORKLOGO_ID,
             ScraperStore.Show.ACTORPHOTO_ID,
             ScraperStore.Show.CLEARLOGO_ID,
-            ScraperStore.Show.STUDIOLOGO_ID
+            ScraperStore.Show.STUDIOLOGO_ID,
+        ScraperStore.Show.POSTER_REFS,     // 16
+        ScraperStore.Show.BACKDROP_REFS    // 17
     };
     public long save(Context context, long videoId) {
         boolean showFound = false;
@@ -111,6 +113,7 @@ public class ShowTags extends VideoTags {
         boolean actorphotosChanged = false;
         boolean clearlogosChanged = false;
         boolean studiologosChanged = false;
+        boolean updateRefs = false;
 
         long showId = -1;
         log.debug("save: called for show " + mTitle + " id " + mId + " onlineId " + mOnlineId);
@@ -133,6 +136,8 @@ public class ShowTags extends VideoTags {
         ScraperImage studiologo = getDefaultStudioLogo();
         String newStudioLogo = studiologo == null ? null : studiologo.getLargeFile();
         String newStudioLogoUrl = studiologo == null ? null : studiologo.getLargeUrl();
+        String newPosterRefs = mPosterRefs == null ? null : mPosterRefs.encode();
+        String newBackdropRefs = mBackdropRefs == null ? null : mBackdropRefs.encode();
 
         ContentResolver cr = context.getContentResolver();
 
@@ -161,6 +166,8 @@ public class ShowTags extends VideoTags {
                 updateActorPhoto = newStringIsNotEmpty(storedBD, newActorPhoto);
                 updateClearLogo = newStringIsNotEmpty(storedBD, newClearLogo);
                 updateStudioLogo = newStringIsNotEmpty(storedBD, newStudioLogo);
+                updateRefs = newStringDiffers(cursor.getString(16), newPosterRefs) ||
+                        newStringDiffers(cursor.getString(17), newBackdropRefs);
                 log.debug("save: show found in db: storedCover " + storedCover + ", newCover " + newCover);
                 log.debug("save: show found in db: storedBD " + storedBD + ", newBackdrop " + newBackdrop);
                 log.debug("save: show found in db: storedNL " + storedBD + ", newNetworkLogo " + newNetworkLogo);
@@ -170,7 +177,7 @@ public class ShowTags extends VideoTags {
 
                 // compare old vs new
                 baseInfoChanged =
-                        updateCover || updateBackdrop || updateNetworkLogo || updateActorPhoto || updateClearLogo || updateStudioLogo ||
+                        updateCover || updateBackdrop || updateNetworkLogo || updateActorPhoto || updateClearLogo || updateStudioLogo || updateRefs ||
                                 newFloatIsBetter(storedRating, mRating) ||
                                 newStringIsBetter(storedCRating, mContentRating) ||
                                 newStringIsBetter(storedImdb, mImdbId) ||
@@ -261,6 +268,13 @@ public class ShowTags extends VideoTags {
                 values.put(ScraperStore.Show.STUDIOLOGO, newStudioLogo);
                 values.put(ScraperStore.Show.STUDIOLOGO_URL, newStudioLogoUrl);
             }
+            // alternatives are only stored as paths, rows are created when one is picked
+            if (!showFound || updateRefs) {
+                if (newPosterRefs != null)
+                    values.put(ScraperStore.Show.POSTER_REFS, newPosterRefs);
+                if (newBackdropRefs != null)
+                    values.put(ScraperStore.Show.BACKDROP_REFS, newBackdropRefs);
+            }
             if (showFound) {
                 // update if it is already there
                 log.debug("Updating show base info");
@@ -486,6 +500,11 @@ public class ShowTags extends VideoTags {
         // different strings -> new is always better
         return true;
     }
+    private static final boolean newStringDiffers(String oldString, String newString) {
+        // newString == null means nothing was scraped, keep what is there
+        return newString != null && !newString.equals(oldString);
+    }
+
     private static final boolean newStringIsNotEmpty(String oldString, String newString) {
         // newString == null or empty can't be better
         if (newString == null || newString.isEmpty())
@@ -566,6 +585,15 @@ public class ShowTags extends VideoTags {
      * if allSeasons is true, the result contains every poster, season posters first
      */
     public List<ScraperImage> getAllPostersInDb(Context context, int season, boolean allSeasons) {
+        return getAllPostersInDb(context, season, allSeasons, true);
+    }
+
+    /**
+     * Same as {@link #getAllPostersInDb(Context, int, boolean)}, withRefs false leaves out the
+     * alternatives that only exist as {@link ImageRefs} and have no row yet.
+     * Those are show posters, they are only added when season-less posters are asked for.
+     */
+    public List<ScraperImage> getAllPostersInDb(Context context, int season, boolean allSeasons, boolean withRefs) {
         ContentResolver cr = context.getContentResolver();
         Uri uri = ScraperStore.ShowPosters.URI.BASE;
         String selection;
@@ -606,10 +634,26 @@ public class ShowTags extends VideoTags {
                 result.add(ScraperImage.fromCursor(cursor, type, typeNoSeason));
             }
             cursor.close();
+            if (withRefs && (season < 0 || allSeasons))
+                storedRefs(cr, ScraperStore.Show.POSTER_REFS).materializeAll(result,
+                        ScraperImage.Type.SHOW_POSTER, mTitle, mId, context);
         }
         return result;
     }
 
+    /** alternatives kept as paths in the show row, see {@link ImageRefs} */
+    private ImageRefs storedRefs(ContentResolver cr, String column) {
+        String encoded = null;
+        Uri uri = ContentUris.withAppendedId(ScraperStore.Show.URI.ID, mId);
+        Cursor cursor = cr.query(uri, new String[] { column }, null, null, null);
+        if (cursor != null) {
+            if (cursor.moveToFirst())
+                encoded = cursor.getString(0);
+            cursor.close();
+        }
+        return ImageRefs.decode(encoded);
+    }
+
     @Override
     public List<ScraperImage> getAllBackdropsInDb(Context context) {
         ContentResolver cr = context.getContentResolver();
@@ -622,6 +666,7 @@ public class ShowTags extends VideoTags {
                 result.add(ScraperImage.fromCursor(cursor, Type.SHOW_BACKDROP));
             }
             cursor.close();
+            storedRefs(cr, ScraperStore.Show.BACKDROP_REFS).materializeAll(result, Type.SHOW_BACKDROP, mTitle, mId, context);
         }
         return result;
     }
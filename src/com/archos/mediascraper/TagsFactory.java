@@ -33,7 +33,7 @@ import com.archos.mediascraper.ScraperImage.Type;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Hashtable;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -42,6 +42,9 @@ public class TagsFactory {
     final private static String TAG = "TagsFactory";
     final private static boolean DBG = false;
 
+    // ids per "IN (?,...)" query of the bulk builders, well below SQLITE_MAX_VARIABLE_NUMBER (999)
+    private static final int BULK_CHUNK_SIZE = 500;
+
     private TagsFactory() {    }
 
     private static String getStringCol(Cursor cur, String col) {
@@ -804,44 +807,67 @@ public class TagsFactory {
     }
 
     public static List<MovieTags> buildMovieFromCursor(Cursor cur) {
-        Hashtable<Long, MovieTags> tags = new Hashtable<Long, MovieTags>();
+        LongSparseArray<MovieTags> tags = new LongSparseArray<MovieTags>();
         if(!cur.moveToFirst())
             return null;
+        // resolve column indexes once, not once per row and column
+        final int idCol = cur.getColumnIndex(ScraperStore.Movie.ID);
+        final int nameCol = cur.getColumnIndex(ScraperStore.Movie.NAME);
+        final int ratingCol = cur.getColumnIndex(ScraperStore.Movie.RATING);
+        final int yearCol = cur.getColumnIndex(ScraperStore.Movie.YEAR);
+        final int plotCol = cur.getColumnIndex(ScraperStore.Movie.PLOT);
+        final int coverCol = cur.getColumnIndex(ScraperStore.Movie.COVER);
+        final int actorNameCol = cur.getColumnIndex(ScraperStore.Movie.Actor.NAME);
+        final int roleCol = cur.getColumnIndex(ScraperStore.Movie.Actor.ROLE);
+        final int directorCol = cur.getColumnIndex(ScraperStore.Movie.Director.NAME);
+        final int writerCol = cur.getColumnIndex(ScraperStore.Movie.Writer.NAME);
+        final int taglineCol = cur.getColumnIndex(ScraperStore.Movie.Tagline.NAME);
+        final int genreCol = cur.getColumnIndex(ScraperStore.Movie.Genre.NAME);
+        final int studioCol = cur.getColumnIndex(ScraperStore.Movie.Studio.NAME);
+        final int backdropUrlCol = cur.getColumnIndex(ScraperStore.Movie.BACKDROP_URL);
+        final int backdropPathCol = cur.getColumnIndex(ScraperStore.Movie.BACKDROP);
+        final int actorphotoMUrlCol = cur.getColumnIndex(ScraperStore.Movie.ACTORPHOTO_URL);
+        final int actorphotoMPathCol = cur.getColumnIndex(ScraperStore.Movie.ACTORPHOTO);
+        final int studiologoMUrlCol = cur.getColumnIndex(ScraperStore.Movie.STUDIOLOGO_URL);
+        final int studiologoMPathCol = cur.getColumnIndex(ScraperStore.Movie.STUDIOLOGO);
+        final int clearlogoMUrlCol = cur.getColumnIndex(ScraperStore.Movie.CLEARLOGO_URL);
+        final int clearlogoMPathCol = cur.getColumnIndex(ScraperStore.Movie.CLEARLOGO);
+        final int collectionIdCol = cur.getColumnIndex(ScraperStore.Movie.COLLECTION_ID);
         do {
-            Long id = Long.valueOf(getLongCol(cur, ScraperStore.Movie.ID));
-            String name = getStringCol(cur, ScraperStore.Movie.NAME);
-            float rating = getFloatCol(cur, ScraperStore.Movie.RATING);
-            int year = getIntCol(cur, ScraperStore.Movie.YEAR);
-            String plot = getStringCol(cur, ScraperStore.Movie.PLOT);
-            String cover = getStringCol(cur, ScraperStore.Movie.COVER);
-            String actorName = getStringCol(cur, ScraperStore.Movie.Actor.NAME);
-            String role = getStringCol(cur, ScraperStore.Movie.Actor.ROLE);
-            String director = getStringCol(cur, ScraperStore.Movie.Director.NAME);
-            String writer = getStringCol(cur, ScraperStore.Movie.Writer.NAME);
-            String tagline = getStringCol(cur, ScraperStore.Movie.Tagline.NAME);
-            String genre = getStringCol(cur, ScraperStore.Movie.Genre.NAME);
-            String studio = getStringCol(cur, ScraperStore.Movie.Studio.NAME);
-
-            String backdropUrl = getStringCol(cur, ScraperStore.Movie.BACKDROP_URL);
-            String backdropPath = getStringCol(cur, ScraperStore.Movie.BACKDROP);
-
-            String actorphotoMUrl = getStringCol(cur, ScraperStore.Movie.ACTORPHOTO_URL);
-            String actorphotoMPath = getStringCol(cur, ScraperStore.Movie.ACTORPHOTO);
-
-            String studiologoMUrl = getStringCol(cur, ScraperStore.Movie.STUDIOLOGO_URL);
-            String studiologoMPath = getStringCol(cur, ScraperStore.Movie.STUDIOLOGO);
-
-            String clearlogoMUrl = getStringCol(cur, ScraperStore.Movie.CLEARLOGO_URL);
-            String clearlogoMPath = getStringCol(cur, ScraperStore.Movie.CLEARLOGO);
-
-            Integer collectionId = getIntCol(cur, ScraperStore.Movie.COLLECTION_ID);
+            long id = getLongCol(cur, idCol);
+            String name = getStringCol(cur, nameCol);
+            float rating = getFloatCol(cur, ratingCol);
+            int year = getIntCol(cur, yearCol);
+            String plot = getStringCol(cur, plotCol);
+            String cover = getStringCol(cur, coverCol);
+            String actorName = getStringCol(cur, actorNameCol);
+            String role = getStringCol(cur, roleCol);
+            String director = getStringCol(cur, directorCol);
+            String writer = getStringCol(cur, writerCol);
+            String tagline = getStringCol(cur, taglineCol);
+            String genre = getStringCol(cur, genreCol);
+            String studio = getStringCol(cur, studioCol);
+
+            String backdropUrl = getStringCol(cur, backdropUrlCol);
+            String backdropPath = getStringCol(cur, backdropPathCol);
+
+            String actorphotoMUrl = getStringCol(cur, actorphotoMUrlCol);
+            String actorphotoMPath = getStringCol(cur, actorphotoMPathCol);
+
+            String studiologoMUrl = getStringCol(cur, studiologoMUrlCol);
+            String studiologoMPath = getStringCol(cur, studiologoMPathCol);
+
+            String clearlogoMUrl = getStringCol(cur, clearlogoMUrlCol);
+            String clearlogoMPath = getStringCol(cur, clearlogoMPathCol);
+
+            Integer collectionId = getIntCol(cur, collectionIdCol);
 
             MovieTags tag = tags.get(id);
             if(tag == null) {
                 tag = new MovieTags();
                 tags.put(id, tag);
             }
-            tag.setId(id.longValue());
+            tag.setId(id);
             tag.setTitle(name);
             if(rating >= 0)
                 tag.setRating(rating);
@@ -891,44 +917,72 @@ public class TagsFactory {
                 tag.setCollectionId(collectionId);
 
         } while(cur.moveToNext());
-        return new ArrayList<MovieTags>(tags.values());
+        List<MovieTags> result = new ArrayList<MovieTags>(tags.size());
+        for (int i = 0; i < tags.size(); i++)
+            result.add(tags.valueAt(i));
+        return result;
     }
 
     public static List<ShowTags> buildShowFromCursor(Cursor cur) {
-        Hashtable<Long, ShowTags> tags = new Hashtable<Long, ShowTags>();
+        LongSparseArray<ShowTags> tags = new LongSparseArray<ShowTags>();
         if(DBG) Log.d(TAG, "Building ShowTags from Cursor");
         if(!cur.moveToFirst())
             return null;
+        // resolve column indexes once, not once per row and column
+        final int idCol = cur.getColumnIndex(ScraperStore.Show.ID);
+        final int nameCol = cur.getColumnIndex(ScraperStore.Show.NAME);
+        final int ratingCol = cur.getColumnIndex(ScraperStore.Show.RATING);
+        final int premieredCol = cur.getColumnIndex(ScraperStore.Show.PREMIERED);
+        final int plotCol = cur.getColumnIndex(ScraperStore.Show.PLOT);
+        final int coverCol = cur.getColumnIndex(ScraperStore.Show.COVER);
+        final int actorNameCol = cur.getColumnIndex(ScraperStore.Show.Actor.NAME);
+        final int roleCol = cur.getColumnIndex(ScraperStore.Show.Actor.ROLE);
+        final int directorCol = cur.getColumnIndex(ScraperStore.Show.Director.NAME);
+        final int writerCol = cur.getColumnIndex(ScraperStore.Show.Writer.NAME);
+        final int taglineCol = cur.getColumnIndex(ScraperStore.Show.Tagline.NAME);
+        final int seasonplotCol = cur.getColumnIndex(ScraperStore.Show.SeasonPlot.NAME);
+        final int genreCol = cur.getColumnIndex(ScraperStore.Show.Genre.NAME);
+        final int studioCol = cur.getColumnIndex(ScraperStore.Show.Studio.NAME);
+        final int backdropUrlCol = cur.getColumnIndex(ScraperStore.Show.BACKDROP_URL);
+        final int backdropPathCol = cur.getColumnIndex(ScraperStore.Show.BACKDROP);
+        final int networklogoUrlCol = cur.getColumnIndex(ScraperStore.Show.NETWORKLOGO_URL);
+        final int networklogoPathCol = cur.getColumnIndex(ScraperStore.Show.NETWORKLOGO);
+        final int actorphotoSUrlCol = cur.getColumnIndex(ScraperStore.Show.ACTORPHOTO_URL);
+        final int actorphotoSPathCol = cur.getColumnIndex(ScraperStore.Show.ACTORPHOTO);
+        final int clearlogoSUrlCol = cur.getColumnIndex(ScraperStore.Show.CLEARLOGO_URL);
+        final int clearlogoSPathCol = cur.getColumnIndex(ScraperStore.Show.CLEARLOGO);
+        final int studiologoSUrlCol = cur.getColumnIndex(ScraperStore.Show.STUDIOLOGO_URL);
+        final int studiologoSPathCol = cur.getColumnIndex(ScraperStore.Show.STUDIOLOGO);
         do {
-            Long id = Long.valueOf(getLongCol(cur, ScraperStore.Show.ID));
-            String name = getStringCol(cur, ScraperStore.Show.NAME);
-            float rating = getFloatCol(cur, ScraperStore.Show.RATING);
-            long premiered = getLongCol(cur, ScraperStore.Show.PREMIERED);
-            String plot = getStringCol(cur, ScraperStore.Show.PLOT);
-            String cover = getStringCol(cur, ScraperStore.Show.COVER);
-            String actorName = getStringCol(cur, ScraperStore.Show.Actor.NAME);
-            String role = getStringCol(cur, ScraperStore.Show.Actor.ROLE);
-            String director = getStringCol(cur, ScraperStore.Show.Director.NAME);
-            String writer = getStringCol(cur, ScraperStore.Show.Writer.NAME);
-            String tagline = getStringCol(cur, ScraperStore.Show.Tagline.NAME);
-            String seasonplot = getStringCol(cur, ScraperStore.Show.SeasonPlot.NAME);
-            String genre = getStringCol(cur, ScraperStore.Show.Genre.NAME);
-            String studio = getStringCol(cur, ScraperStore.Show.Studio.NAME);
-
-            String backdropUrl = getStringCol(cur, ScraperStore.Show.BACKDROP_URL);
-            String backdropPath = getStringCol(cur, ScraperStore.Show.BACKDROP);
-
-            String networklogoUrl = getStringCol(cur, ScraperStore.Show.NETWORKLOGO_URL);
-            String networklogoPath = getStringCol(cur, ScraperStore.Show.NETWORKLOGO);
-
-            String actorphotoSUrl = getStringCol(cur, ScraperStore.Show.ACTORPHOTO_URL);
-            String actorphotoSPath = getStringCol(cur, ScraperStore.Show.ACTORPHOTO);
-
-            String clearlogoSUrl = getStringCol(cur, ScraperStore.Show.CLEARLOGO_URL);
-            String clearlogoSPath = getStringCol(cur, ScraperStore.Show.CLEARLOGO);
-
-            String studiologoSUrl = getStringCol(cur, ScraperStore.Show.STUDIOLOGO_URL);
-            String studiologoSPath = getStringCol(cur, ScraperStore.Show.STUDIOLOGO);
+            long id = getLongCol(cur, idCol);
+            String name = getStringCol(cur, nameCol);
+            float rating = getFloatCol(cur, ratingCol);
+            long premiered = getLongCol(cur, premieredCol);
+            String plot = getStringCol(cur, plotCol);
+            String cover = getStringCol(cur, coverCol);
+            String actorName = getStringCol(cur, actorNameCol);
+            String role = getStringCol(cur, roleCol);
+            String director = getStringCol(cur, directorCol);
+            String writer = getStringCol(cur, writerCol);
+            String tagline = getStringCol(cur, taglineCol);
+            String seasonplot = getStringCol(cur, seasonplotCol);
+            String genre = getStringCol(cur, genreCol);
+            String studio = getStringCol(cur, studioCol);
+
+            String backdropUrl = getStringCol(cur, backdropUrlCol);
+            String backdropPath = getStringCol(cur, backdropPathCol);
+
+            String networklogoUrl = getStringCol(cur, networklogoUrlCol);
+            String networklogoPath = getStringCol(cur, networklogoPathCol);
+
+            String actorphotoSUrl = getStringCol(cur, actorphotoSUrlCol);
+            String actorphotoSPath = getStringCol(cur, actorphotoSPathCol);
+
+            String clearlogoSUrl = getStringCol(cur, clearlogoSUrlCol);
+            String clearlogoSPath = getStringCol(cur, clearlogoSPathCol);
+
+            String studiologoSUrl = getStringCol(cur, studiologoSUrlCol);
+            String studiologoSPath = getStringCol(cur, studiologoSPathCol);
 
             ShowTags tag = tags.get(id);
             if(tag == null) {
@@ -936,7 +990,7 @@ public class TagsFactory {
                 tags.put(id, tag);
             }
             tag.setTitle(name);
-            tag.setId(id.longValue());
+            tag.setId(id);
             if(rating >= 0)
                 tag.setRating(rating);
             if(premiered >= 0)
@@ -987,36 +1041,54 @@ public class TagsFactory {
             }
 
         } while(cur.moveToNext());
-        return new ArrayList<ShowTags>(tags.values());
+        List<ShowTags> result = new ArrayList<ShowTags>(tags.size());
+        for (int i = 0; i < tags.size(); i++)
+            result.add(tags.valueAt(i));
+        return result;
     }
 
     public static List<EpisodeTags> buildEpisodeFromCursor(Cursor cur) {
-        Hashtable<Long, EpisodeTags> tags = new Hashtable<Long, EpisodeTags>();
+        LongSparseArray<EpisodeTags> tags = new LongSparseArray<EpisodeTags>();
         if(DBG) Log.d(TAG, "Building MovieTags from Cursor");
         if(!cur.moveToFirst())
             return null;
+        // resolve column indexes once, not once per row and column
+        final int idCol = cur.getColumnIndex(ScraperStore.Episode.ID);
+        final int nameCol = cur.getColumnIndex(ScraperStore.Episode.NAME);
+        final int ratingCol = cur.getColumnIndex(ScraperStore.Episode.RATING);
+        final int airedCol = cur.getColumnIndex(ScraperStore.Episode.AIRED);
+        final int plotCol = cur.getColumnIndex(ScraperStore.Episode.PLOT);
+        final int seasonCol = cur.getColumnIndex(ScraperStore.Episode.SEASON);
+        final int numberCol = cur.getColumnIndex(ScraperStore.Episode.NUMBER);
+        final int showCol = cur.getColumnIndex(ScraperStore.Episode.SHOW);
+        final int actorNameCol = cur.getColumnIndex(ScraperStore.Episode.Actor.NAME);
+        final int roleCol = cur.getColumnIndex(ScraperStore.Episode.Actor.ROLE);
+        final int directorCol = cur.getColumnIndex(ScraperStore.Episode.Director.NAME);
+        final int writerCol = cur.getColumnIndex(ScraperStore.Episode.Writer.NAME);
+        final int taglineCol = cur.getColumnIndex(ScraperStore.Episode.Tagline.NAME);
+        final int coverCol = cur.getColumnIndex(ScraperStore.Episode.COVER);
         do {
-            Long id = Long.valueOf(getLongCol(cur, ScraperStore.Episode.ID));
-            String name = getStringCol(cur, ScraperStore.Episode.NAME);
-            float rating = getFloatCol(cur, ScraperStore.Episode.RATING);
-            long aired = getLongCol(cur, ScraperStore.Episode.AIRED);
-            String plot = getStringCol(cur, ScraperStore.Episode.PLOT);
-            int season = getIntCol(cur, ScraperStore.Episode.SEASON);
-            int number = getIntCol(cur, ScraperStore.Episode.NUMBER);
-            long show = getLongCol(cur, ScraperStore.Episode.SHOW);
-            String actorName = getStringCol(cur, ScraperStore.Episode.Actor.NAME);
-            String role = getStringCol(cur, ScraperStore.Episode.Actor.ROLE);
-            String director = getStringCol(cur, ScraperStore.Episode.Director.NAME);
-            String writer = getStringCol(cur, ScraperStore.Episode.Writer.NAME);
-            String tagline = getStringCol(cur, ScraperStore.Episode.Tagline.NAME);
-            String cover = getStringCol(cur, ScraperStore.Episode.COVER);
+            long id = getLongCol(cur, idCol);
+            String name = getStringCol(cur, nameCol);
+            float rating = getFloatCol(cur, ratingCol);
+            long aired = getLongCol(cur, airedCol);
+            String plot = getStringCol(cur, plotCol);
+            int season = getIntCol(cur, seasonCol);
+            int number = getIntCol(cur, numberCol);
+            long show = getLongCol(cur, showCol);
+            String actorName = getStringCol(cur, actorNameCol);
+            String role = getStringCol(cur, roleCol);
+            String director = getStringCol(cur, directorCol);
+            String writer = getStringCol(cur, writerCol);
+            String tagline = getStringCol(cur, taglineCol);
+            String cover = getStringCol(cur, coverCol);
 
             EpisodeTags tag = tags.get(id);
             if(tag == null) {
                 tag = new EpisodeTags();
                 tags.put(id, tag);
             }
-            tag.setId(id.longValue());
+            tag.setId(id);
             tag.setTitle(name);
             if(rating >= 0)
                 tag.setRating(rating);
@@ -1035,7 +1107,73 @@ public class TagsFactory {
                 tag.setCover(new File(cover));
 
         } while(cur.moveToNext());
-        return new ArrayList<EpisodeTags>(tags.values());
+        List<EpisodeTags> result = new ArrayList<EpisodeTags>(tags.size());
+        for (int i = 0; i < tags.size(); i++)
+            result.add(tags.valueAt(i));
+        return result;
+    }
+
+    private static final String[] MOVIE_TAGS_PROJECTION = new String[] {
+            VideoColumns.SCRAPER_M_NAME,            // 0
+            VideoColumns.SCRAPER_M_YEAR,            // 1
+            VideoColumns.SCRAPER_M_RATING,          // 2
+            VideoColumns.SCRAPER_M_CONTENT_RATING,  // 3
+            VideoColumns.SCRAPER_M_PLOT,            // 4
+            VideoColumns.SCRAPER_M_ONLINE_ID,       // 5
+            VideoColumns.SCRAPER_M_IMDB_ID,         // 6
+            VideoColumns.SCRAPER_POSTER_ID,         // 7
+            VideoColumns.SCRAPER_BACKDROP_ID,       // 8
+            VideoColumns.BOOKMARK,                  // 9
+            VideoColumns.ARCHOS_BOOKMARK,           // 10
+            VideoColumns.DURATION,                  // 11
+            VideoColumns.ARCHOS_LAST_TIME_PLAYED,   // 12
+            MediaColumns.DATA,                      // 13
+            BaseColumns._ID,                        // 14
+            VideoColumns.SCRAPER_C_ID,                  // 15
+            VideoColumns.SCRAPER_C_NAME,                // 16
+            VideoColumns.SCRAPER_C_DESCRIPTION,         // 17
+            VideoColumns.SCRAPER_C_POSTER_LARGE_FILE,   // 18
+            VideoColumns.SCRAPER_C_POSTER_LARGE_URL,    // 19
+            VideoColumns.SCRAPER_C_POSTER_THUMB_FILE,   // 20
+            VideoColumns.SCRAPER_C_POSTER_THUMB_URL,    // 21
+            VideoColumns.SCRAPER_C_BACKDROP_LARGE_FILE, // 22
+            VideoColumns.SCRAPER_C_BACKDROP_LARGE_URL,  // 23
+            VideoColumns.SCRAPER_C_BACKDROP_THUMB_FILE, // 24
+            VideoColumns.SCRAPER_C_BACKDROP_THUMB_URL,   // 25
+            VideoColumns.SCRAPER_M_ACTORPHOTO_ID,       // 26
+            VideoColumns.SCRAPER_M_STUDIOLOGO_ID,       // 27
+            VideoColumns.SCRAPER_M_CLEARLOGO_ID,        // 28
+            VideoColumns.SCRAPER_MOVIE_ID,              // 29
+    };
+
+    private static MovieTags readMovieTags(Cursor c, long movieId) {
+        MovieTags result = new MovieTags();
+        result.setId(movieId);
+        result.setTitle(c.getString(0));
+        result.setYear(c.getInt(1));
+        result.setRating(c.getFloat(2));
+        result.setContentRating(c.getString(3));
+        result.setPlot(c.getString(4));
+        result.setOnlineId(c.getLong(5));
+        result.setImdbId(c.getString(6));
+        result.setResume(c.getLong(9));
+        result.setBookmark(c.getLong(10));
+        result.setRuntime(c.getLong(11), TimeUnit.MILLISECONDS);
+        result.setLastPlayed(c.getLong(12), TimeUnit.SECONDS);
+        result.setFile(Uri.parse(c.getString(13)));
+        result.setVideoId(c.getLong(14));
+        result.setCollectionId(c.getInt(15));
+        result.setCollectionName(c.getString(16));
+        result.setCollectionDescription(c.getString(17));
+        result.setCollectionPosterLargeFile(c.getString(18));
+        result.setCollectionPosterLargeUrl(c.getString(19));
+        result.setCollectionPosterThumbFile(c.getString(20));
+        result.setCollectionPosterThumbUrl(c.getString(21));
+        result.setCollectionBackdropLargeFile(c.getString(22));
+        result.setCollectionBackdropLargeUrl(c.getString(23));
+        result.setCollectionBackdropThumbFile(c.getString(24));
+        result.setCollectionBackdropThumbUrl(c.getString(25));
+        return result;
     }
 
     public static MovieTags buildMovieTags(Context context, long movieId) {
@@ -1044,37 +1182,7 @@ public class TagsFactory {
         ContentResolver cr = context.getContentResolver();
         Cursor c = cr.query(
                 VideoStore.Video.Media.EXTERNAL_CONTENT_URI,
-                new String[] {
-                        VideoColumns.SCRAPER_M_NAME,            // 0
-                        VideoColumns.SCRAPER_M_YEAR,            // 1
-                        VideoColumns.SCRAPER_M_RATING,          // 2
-                        VideoColumns.SCRAPER_M_CONTENT_RATING,  // 3
-                        VideoColumns.SCRAPER_M_PLOT,            // 4
-                        VideoColumns.SCRAPER_M_ONLINE_ID,       // 5
-                        VideoColumns.SCRAPER_M_IMDB_ID,         // 6
-                        VideoColumns.SCRAPER_POSTER_ID,         // 7
-                        VideoColumns.SCRAPER_BACKDROP_ID,       // 8
-                        VideoColumns.BOOKMARK,                  // 9
-                        VideoColumns.ARCHOS_BOOKMARK,           // 10
-                        VideoColumns.DURATION,                  // 11
-                        VideoColumns.ARCHOS_LAST_TIME_PLAYED,   // 12
-                        MediaColumns.DATA,                      // 13
-                        BaseColumns._ID,                        // 14
-                        VideoColumns.SCRAPER_C_ID,                  // 15
-                        VideoColumns.SCRAPER_C_NAME,                // 16
-                        VideoColumns.SCRAPER_C_DESCRIPTION,         // 17
-                        VideoColumns.SCRAPER_C_POSTER_LARGE_FILE,   // 18
-                        VideoColumns.SCRAPER_C_POSTER_LARGE_URL,    // 19
-                        VideoColumns.SCRAPER_C_POSTER_THUMB_FILE,   // 20
-                        VideoColumns.SCRAPER_C_POSTER_THUMB_URL,    // 21
-                        VideoColumns.SCRAPER_C_BACKDROP_LARGE_FILE, // 22
-                        VideoColumns.SCRAPER_C_BACKDROP_LARGE_URL,  // 23
-                        VideoColumns.SCRAPER_C_BACKDROP_THUMB_FILE, // 24
-                        VideoColumns.SCRAPER_C_BACKDROP_THUMB_URL,   // 25
-                        VideoColumns.SCRAPER_M_ACTORPHOTO_ID,       // 26
-                        VideoColumns.SCRAPER_M_STUDIOLOGO_ID,       // 27
-                        VideoColumns.SCRAPER_M_CLEARLOGO_ID       // 28
-                },
+                MOVIE_TAGS_PROJECTION,
                 VideoStore.Video.VideoColumns.SCRAPER_MOVIE_ID + "=?",
                 new String[] { String.valueOf(movieId) },
                 null);
@@ -1085,34 +1193,9 @@ public class TagsFactory {
         long clearlogoId = -1;
         if (c != null) {
             if (c.moveToFirst()) {
-                result = new MovieTags();
-                result.setId(movieId);
-                result.setTitle(c.getString(0));
-                result.setYear(c.getInt(1));
-                result.setRating(c.getFloat(2));
-                result.setContentRating(c.getString(3));
-                result.setPlot(c.getString(4));
-                result.setOnlineId(c.getLong(5));
-                result.setImdbId(c.getString(6));
+                result = readMovieTags(c, movieId);
                 posterId = c.getLong(7);
                 backdropId = c.getLong(8);
-                result.setResume(c.getLong(9));
-                result.setBookmark(c.getLong(10));
-                result.setRuntime(c.getLong(11), TimeUnit.MILLISECONDS);
-                result.setLastPlayed(c.getLong(12), TimeUnit.SECONDS);
-                result.setFile(Uri.parse(c.getString(13)));
-                result.setVideoId(c.getLong(14));
-                result.setCollectionId(c.getInt(15));
-                result.setCollectionName(c.getString(16));
-                result.setCollectionDescription(c.getString(17));
-                result.setCollectionPosterLargeFile(c.getString(18));
-                result.setCollectionPosterLargeUrl(c.getString(19));
-                result.setCollectionPosterThumbFile(c.getString(20));
-                result.setCollectionPosterThumbUrl(c.getString(21));
-                result.setCollectionBackdropLargeFile(c.getString(22));
-                result.setCollectionBackdropLargeUrl(c.getString(23));
-                result.setCollectionBackdropThumbFile(c.getString(24));
-                result.setCollectionBackdropThumbUrl(c.getString(25));
                 actorphotoId = c.getLong(26);
                 studiologoId = c.getLong(27);
                 clearlogoId = c.getLong(28);
@@ -1270,31 +1353,56 @@ public class TagsFactory {
         return result;
     }
 
+    private static final String[] EPISODE_TAGS_PROJECTION = new String[] {
+            VideoColumns.SCRAPER_E_NAME,            // 0
+            VideoColumns.SCRAPER_E_AIRED,           // 1
+            VideoColumns.SCRAPER_E_RATING,          // 2
+            VideoColumns.SCRAPER_S_CONTENT_RATING,  // 3
+            VideoColumns.SCRAPER_E_PLOT,            // 4
+            VideoColumns.SCRAPER_E_ONLINE_ID,       // 5
+            VideoColumns.SCRAPER_E_IMDB_ID,         // 6
+            VideoColumns.SCRAPER_POSTER_ID,         // 7
+            VideoColumns.SCRAPER_BACKDROP_ID,       // 8
+            VideoColumns.BOOKMARK,                  // 9
+            VideoColumns.ARCHOS_BOOKMARK,           // 10
+            VideoColumns.DURATION,                  // 11
+            VideoColumns.ARCHOS_LAST_TIME_PLAYED,   // 12
+            MediaColumns.DATA,                      // 13
+            BaseColumns._ID,                        // 14
+            VideoColumns.SCRAPER_E_EPISODE,         // 15
+            VideoColumns.SCRAPER_E_SEASON,          // 16
+            VideoColumns.SCRAPER_SHOW_ID,           // 17
+            VideoColumns.SCRAPER_EPISODE_ID,        // 18
+    };
+
+    private static EpisodeTags readEpisodeTags(Cursor c, long episodeId) {
+        EpisodeTags result = new EpisodeTags();
+        result.setId(episodeId);
+        result.setTitle(c.getString(0));
+        result.setAired(c.getLong(1));
+        result.setRating(c.getFloat(2));
+        result.setContentRating(c.getString(3));
+        result.setPlot(c.getString(4));
+        result.setOnlineId(c.getLong(5));
+        result.setImdbId(c.getString(6));
+        result.setResume(c.getLong(9));
+        result.setBookmark(c.getLong(10));
+        result.setRuntime(c.getLong(11), TimeUnit.MILLISECONDS);
+        result.setLastPlayed(c.getLong(12), TimeUnit.SECONDS);
+        result.setFile(Uri.parse(c.getString(13)));
+        result.setVideoId(c.getLong(14));
+        result.setEpisode(c.getInt(15));
+        result.setSeason(c.getInt(16));
+        result.setShowId(c.getLong(17));
+        return result;
+    }
+
     public static EpisodeTags buildEpisodeTags(Context context, long episodeId) {
         EpisodeTags result = null;
         ContentResolver cr = context.getContentResolver();
         Cursor c = cr.query(
                 VideoStore.Video.Media.EXTERNAL_CONTENT_URI,
-                new String[] {
-                        VideoColumns.SCRAPER_E_NAME,            // 0
-                        VideoColumns.SCRAPER_E_AIRED,           // 1
-                        VideoColumns.SCRAPER_E_RATING,          // 2
-                        VideoColumns.SCRAPER_S_CONTENT_RATING,  // 3
-                        VideoColumns.SCRAPER_E_PLOT,            // 4
-                        VideoColumns.SCRAPER_E_ONLINE_ID,       // 5
-                        VideoColumns.SCRAPER_E_IMDB_ID,         // 6
-                        VideoColumns.SCRAPER_POSTER_ID,         // 7
-                        VideoColumns.SCRAPER_BACKDROP_ID,       // 8
-                        VideoColumns.BOOKMARK,                  // 9
-                        VideoColumns.ARCHOS_BOOKMARK,           // 10
-                        VideoColumns.DURATION,                  // 11
-                        VideoColumns.ARCHOS_LAST_TIME_PLAYED,   // 12
-                        MediaColumns.DATA,                      // 13
-                        BaseColumns._ID,                        // 14
-                        VideoColumns.SCRAPER_E_EPISODE,         // 15
-                        VideoColumns.SCRAPER_E_SEASON,          // 16
-                        VideoColumns.SCRAPER_SHOW_ID,           // 17
-                },
+                EPISODE_TAGS_PROJECTION,
                 VideoStore.Video.VideoColumns.SCRAPER_EPISODE_ID + "=?",
                 new String[] { String.valueOf(episodeId) },
                 null);
@@ -1302,26 +1410,9 @@ public class TagsFactory {
         long backdropId = -1;
         if (c != null) {
             if (c.moveToFirst()) {
-                result = new EpisodeTags();
-                result.setId(episodeId);
-                result.setTitle(c.getString(0));
-                result.setAired(c.getLong(1));
-                result.setRating(c.getFloat(2));
-                result.setContentRating(c.getString(3));
-                result.setPlot(c.getString(4));
-                result.setOnlineId(c.getLong(5));
-                result.setImdbId(c.getString(6));
+                result = readEpisodeTags(c, episodeId);
                 posterId = c.getLong(7);
                 backdropId = c.getLong(8);
-                result.setResume(c.getLong(9));
-                result.setBookmark(c.getLong(10));
-                result.setRuntime(c.getLong(11), TimeUnit.MILLISECONDS);
-                result.setLastPlayed(c.getLong(12), TimeUnit.SECONDS);
-                result.setFile(Uri.parse(c.getString(13)));
-                result.setVideoId(c.getLong(14));
-                result.setEpisode(c.getInt(15));
-                result.setSeason(c.getInt(16));
-                result.setShowId(c.getLong(17));
             }
             c.close();
         }
@@ -1396,6 +1487,230 @@ public class TagsFactory {
         return result;
     }
 
+    /**
+     * Bulk version of {@link #buildMovieTags(Context, long)} for list screens: the tags of all
+     * movieIds are loaded with a fixed set of grouped queries (per chunk of ids) instead of a
+     * dozen queries per movie. Movies that are not in the db are absent from the result.
+     */
+    public static LongSparseArray<MovieTags> buildMovieTags(Context context, long[] movieIds) {
+        if (DBG) Log.d(TAG, "buildMovieTags: " + movieIds.length + " movies");
+        ContentResolver cr = context.getContentResolver();
+        LongSparseArray<MovieTags> result = new LongSparseArray<MovieTags>(movieIds.length);
+        // posterId, backdropId, actorphotoId, studiologoId, clearlogoId per movie
+        LongSparseArray<long[]> selectedImages = new LongSparseArray<long[]>(movieIds.length);
+        for (int start = 0; start < movieIds.length; start += BULK_CHUNK_SIZE) {
+            String[] args = chunkArgs(movieIds, start);
+            Cursor c = cr.query(VideoStore.Video.Media.EXTERNAL_CONTENT_URI, MOVIE_TAGS_PROJECTION,
+                    inSelection(VideoColumns.SCRAPER_MOVIE_ID, args.length), args, null);
+            if (c == null)
+                continue;
+            while (c.moveToNext()) {
+                long movieId = c.getLong(29);
+                // several files can be the same movie, keep the first one
+                if (result.get(movieId) != null)
+                    continue;
+                result.put(movieId, readMovieTags(c, movieId));
+                selectedImages.put(movieId, new long[] {
+                        c.getLong(7), c.getLong(8), c.getLong(26), c.getLong(27), c.getLong(28)
+                });
+            }
+            c.close();
+        }
+        if (result.size() == 0)
+            return result;
+        long[] ids = keysOf(result);
+        loadRelation(cr, ScraperStore.Actor.URI.MOVIE, ScraperStore.Movie.Actor.MOVIE,
+                new String[] { ScraperStore.Movie.Actor.NAME, ScraperStore.Movie.Actor.ROLE },
+                ids, result, (tags, c) -> tags.addActorIfAbsent(c.getString(1), c.getString(2)));
+        loadRelation(cr, ScraperStore.Director.URI.MOVIE, ScraperStore.Movie.Director.MOVIE,
+                new String[] { ScraperStore.Movie.Director.NAME },
+                ids, result, (tags, c) -> tags.addDirectorIfAbsent(c.getString(1)));
+        loadRelation(cr, ScraperStore.Writer.URI.MOVIE, ScraperStore.Movie.Writer.MOVIE,
+                new String[] { ScraperStore.Movie.Writer.NAME },
+                ids, result, (tags, c) -> tags.addWriterIfAbsent(c.getString(1)));
+        loadRelation(cr, ScraperStore.Tagline.URI.MOVIE, ScraperStore.Movie.Tagline.MOVIE,
+                new String[] { ScraperStore.Movie.Tagline.NAME },
+                ids, result, (tags, c) -> tags.addTaglineIfAbsent(c.getString(1)));
+        loadRelation(cr, ScraperStore.Genre.URI.MOVIE, ScraperStore.Movie.Genre.MOVIE,
+                new String[] { ScraperStore.Movie.Genre.NAME },
+                ids, result, (tags, c) -> tags.addGenreIfAbsent(c.getString(1)));
+        loadRelation(cr, ScraperStore.Studio.URI.MOVIE, ScraperStore.Movie.Studio.MOVIE,
+                new String[] { ScraperStore.Movie.Studio.NAME },
+                ids, result, (tags, c) -> tags.addStudioIfAbsent(c.getString(1)));
+
+        LongSparseArray<List<ScraperImage>> posters = loadImages(cr, Type.MOVIE_POSTER, ids);
+        LongSparseArray<List<ScraperImage>> backdrops = loadImages(cr, Type.MOVIE_BACKDROP, ids);
+        LongSparseArray<List<ScraperImage>> actorPhotos = loadImages(cr, Type.MOVIE_ACTORPHOTO, ids);
+        LongSparseArray<List<ScraperImage>> studioLogos = loadImages(cr, Type.MOVIE_STUDIOLOGO, ids);
+        LongSparseArray<List<ScraperImage>> clearLogos = loadImages(cr, Type.MOVIE_CLEARLOGO, ids);
+        // result and selectedImages share the same keys, hence the same indexes
+        for (int i = 0; i < result.size(); i++) {
+            long movieId = result.keyAt(i);
+            MovieTags tags = result.valueAt(i);
+            long[] selected = selectedImages.valueAt(i);
+            tags.setPosters(selectedFirst(posters.get(movieId), selected[0]));
+            tags.setBackdrops(selectedFirst(backdrops.get(movieId), selected[1]));
+            tags.setActorPhotos(selectedFirst(actorPhotos.get(movieId), selected[2]));
+            tags.setStudioLogos(selectedFirst(studioLogos.get(movieId), selected[3]));
+            tags.setClearLogos(selectedFirst(clearLogos.get(movieId), selected[4]));
+        }
+        return result;
+    }
+
+    /**
+     * Bulk version of {@link #buildEpisodeTags(Context, long)}, see {@link #buildMovieTags(Context, long[])}.
+     * ShowTags are built once per show and season posters queried once per show and season.
+     */
+    public static LongSparseArray<EpisodeTags> buildEpisodeTags(Context context, long[] episodeIds) {
+        if (DBG) Log.d(TAG, "buildEpisodeTags: " + episodeIds.length + " episodes");
+        ContentResolver cr = context.getContentResolver();
+        LongSparseArray<EpisodeTags> result = new LongSparseArray<EpisodeTags>(episodeIds.length);
+        LongSparseArray<Long> selectedPosters = new LongSparseArray<Long>(episodeIds.length);
+        for (int start = 0; start < episodeIds.length; start += BULK_CHUNK_SIZE) {
+            String[] args = chunkArgs(episodeIds, start);
+            Cursor c = cr.query(VideoStore.Video.Media.EXTERNAL_CONTENT_URI, EPISODE_TAGS_PROJECTION,
+                    inSelection(VideoColumns.SCRAPER_EPISODE_ID, args.length), args, null);
+            if (c == null)
+                continue;
+            while (c.moveToNext()) {
+                long episodeId = c.getLong(18);
+                if (result.get(episodeId) != null)
+                    continue;
+                result.put(episodeId, readEpisodeTags(c, episodeId));
+                selectedPosters.put(episodeId, c.getLong(7));
+            }
+            c.close();
+        }
+        if (result.size() == 0)
+            return result;
+        long[] ids = keysOf(result);
+        loadRelation(cr, ScraperStore.Actor.URI.EPISODE, ScraperStore.Episode.Actor.EPISODE,
+                new String[] { ScraperStore.Episode.Actor.NAME, ScraperStore.Episode.Actor.ROLE },
+                ids, result, (tags, c) -> tags.addActorIfAbsent(c.getString(1), c.getString(2)));
+        loadRelation(cr, ScraperStore.Director.URI.EPISODE, ScraperStore.Episode.Director.EPISODE,
+                new String[] { ScraperStore.Episode.Director.NAME },
+                ids, result, (tags, c) -> tags.addDirectorIfAbsent(c.getString(1)));
+        loadRelation(cr, ScraperStore.Writer.URI.EPISODE, ScraperStore.Episode.Writer.EPISODE,
+                new String[] { ScraperStore.Episode.Writer.NAME },
+                ids, result, (tags, c) -> tags.addWriterIfAbsent(c.getString(1)));
+        loadRelation(cr, ScraperStore.Tagline.URI.EPISODE, ScraperStore.Episode.Tagline.EPISODE,
+                new String[] { ScraperStore.Episode.Tagline.NAME },
+                ids, result, (tags, c) -> tags.addTaglineIfAbsent(c.getString(1)));
+
+        LongSparseArray<ShowTags> shows = new LongSparseArray<ShowTags>();
+        HashMap<String, List<ScraperImage>> seasonPosters = new HashMap<String, List<ScraperImage>>();
+        for (int i = 0; i < result.size(); i++) {
+            EpisodeTags tags = result.valueAt(i);
+            long showId = tags.getShowId();
+            ShowTags showTags = shows.get(showId);
+            if (showTags == null && shows.indexOfKey(showId) < 0) {
+                showTags = buildShowTags(context, showId);
+                shows.put(showId, showTags);
+            }
+            tags.setShowTags(showTags);
+            // posters -- need ShowTags
+            String key = showId + ":" + tags.getSeason();
+            List<ScraperImage> posters = seasonPosters.get(key);
+            if (posters == null && !seasonPosters.containsKey(key)) {
+                posters = tags.getAllPostersInDb(context);
+                seasonPosters.put(key, posters);
+            }
+            tags.setPosters(selectedFirst(posters, selectedPosters.valueAt(i)));
+        }
+        return result;
+    }
+
+    private interface RelationReader<T> {
+        /** c is positioned on a relation row, column 0 is the video id */
+        void read(T tags, Cursor c);
+    }
+
+    /**
+     * Loads a relation view (e.g. Actor.URI.MOVIE without id) for all ids with one query per chunk
+     * and hands every row to the tags it belongs to.
+     */
+    private static <T> void loadRelation(ContentResolver cr, Uri uri, String idColumn, String[] columns,
+            long[] ids, LongSparseArray<T> tags, RelationReader<T> reader) {
+        String[] projection = new String[columns.length + 1];
+        projection[0] = idColumn;
+        System.arraycopy(columns, 0, projection, 1, columns.length);
+        for (int start = 0; start < ids.length; start += BULK_CHUNK_SIZE) {
+            String[] args = chunkArgs(ids, start);
+            Cursor c = cr.query(uri, projection, inSelection(idColumn, args.length), args, null);
+            if (c == null)
+                continue;
+            while (c.moveToNext()) {
+                T tag = tags.get(c.getLong(0));
+                if (tag != null)
+                    reader.read(tag, c);
+            }
+            c.close();
+        }
+    }
+
+    /** all images of the given type for the ids, grouped by id and in db order */
+    private static LongSparseArray<List<ScraperImage>> loadImages(ContentResolver cr, Type type, long[] ids) {
+        LongSparseArray<List<ScraperImage>> result = new LongSparseArray<List<ScraperImage>>(ids.length);
+        for (int start = 0; start < ids.length; start += BULK_CHUNK_SIZE) {
+            String[] args = chunkArgs(ids, start);
+            Cursor c = cr.query(type.baseUri, null, inSelection(type.remoteIdColumn, args.length), args,
+                    BaseColumns._ID);
+            if (c == null)
+                continue;
+            ScraperImage.Columns cols = new ScraperImage.Columns(c, type);
+            while (c.moveToNext()) {
+                ScraperImage image = ScraperImage.fromCursor(c, type, null, cols);
+                List<ScraperImage> images = result.get(image.getRemoteId());
+                if (images == null) {
+                    images = new ArrayList<ScraperImage>();
+                    result.put(image.getRemoteId(), images);
+                }
+                images.add(image);
+            }
+            c.close();
+        }
+        return result;
+    }
+
+    /** copy of images with the selected one first */
+    private static LinkedList<ScraperImage> selectedFirst(List<ScraperImage> images, long selectedId) {
+        LinkedList<ScraperImage> sorted = new LinkedList<ScraperImage>();
+        if (images == null)
+            return sorted;
+        for (ScraperImage image : images) {
+            if (image.getId() == selectedId)
+                sorted.addFirst(image);
+            else
+                sorted.addLast(image);
+        }
+        return sorted;
+    }
+
+    private static String inSelection(String column, int count) {
+        StringBuilder sb = new StringBuilder(column.length() + 6 + 2 * count);
+        sb.append(column).append(" IN (");
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append('?');
+        }
+        return sb.append(')').toString();
+    }
+
+    private static String[] chunkArgs(long[] ids, int start) {
+        String[] args = new String[Math.min(BULK_CHUNK_SIZE, ids.length - start)];
+        for (int i = 0; i < args.length; i++)
+            args[i] = String.valueOf(ids[start + i]);
+        return args;
+    }
+
+    private static long[] keysOf(LongSparseArray<?> array) {
+        long[] keys = new long[array.size()];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = array.keyAt(i);
+        return keys;
+    }
+
     public static ShowTags buildShowTags(Context context, long showId) {
         ContentResolver cr = context.getContentResolver();
         Cursor c = cr.query(
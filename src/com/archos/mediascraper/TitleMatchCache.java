@@ -0,0 +1,364 @@
+// Copyright 2017 Archos SA
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.archos.mediascraper;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Bundle;
+
+import com.archos.mediascraper.preprocess.SearchInfo;
+import com.archos.mediascraper.preprocess.TvShowSearchInfo;
+import com.archos.mediascraper.xml.BaseScraper2;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers what the automatic scrape resolved a search to (type, normalized title, year,
+ * language...): the online result it picked, or that nothing was found. The other episodes
+ * of a show, the other copies of a film and the next scrape rounds then get it without
+ * searching and ranking again.
+ *
+ * Stored in a small database so that it survives the service, with a memory cache in front.
+ * Found results are kept for {@link #FOUND_TTL}, not found ones for the shorter
+ * {@link #NOT_FOUND_TTL} since TMDb gets new entries every day.
+ */
+public final class TitleMatchCache {
+    private static final Logger log = LoggerFactory.getLogger(TitleMatchCache.class);
+
+    public static final long FOUND_TTL = TimeUnit.DAYS.toMillis(30);
+    public static final long NOT_FOUND_TTL = TimeUnit.DAYS.toMillis(3);
+
+    private static final String DATABASE_NAME = "title_matches_db";
+    private static final int DATABASE_VERSION = 1;
+    private static final String TABLE = "matches";
+    private static final String KEY = "search_key";
+    private static final String TV_SHOW = "tv_show";
+    private static final String ONLINE_ID = "online_id";
+    private static final String TITLE = "title";
+    private static final String ORIGINAL_TITLE = "original_title";
+    private static final String YEAR = "year";
+    private static final String LANGUAGE = "language";
+    private static final String POSTER_PATH = "poster_path";
+    private static final String BACKDROP_PATH = "backdrop_path";
+    private static final String TIME = "time";
+    private static final String CREATE_TABLE =
+            "CREATE TABLE " + TABLE + " (" +
+            KEY + " TEXT PRIMARY KEY, " +
+            TV_SHOW + " INTEGER NOT NULL, " +
+            ONLINE_ID + " INTEGER NOT NULL, " +
+            TITLE + " TEXT, " +
+            ORIGINAL_TITLE + " TEXT, " +
+            YEAR + " TEXT, " +
+            LANGUAGE + " TEXT, " +
+            POSTER_PATH + " TEXT, " +
+            BACKDROP_PATH + " TEXT, " +
+            TIME + " INTEGER NOT NULL)";
+    private static final String[] PROJECTION = {
+            TV_SHOW, ONLINE_ID, TITLE, ORIGINAL_TITLE, YEAR, LANGUAGE, POSTER_PATH, BACKDROP_PATH, TIME
+    };
+    private static final int NOT_FOUND_ID = -1;
+    private static final String WHERE_KEY = KEY + "=?";
+    private static final String WHERE_NOT_FOUND = ONLINE_ID + "=" + NOT_FOUND_ID;
+    private static final String WHERE_EXPIRED =
+            "(" + ONLINE_ID + "=" + NOT_FOUND_ID + " AND " + TIME + "<?) OR " +
+            "(" + ONLINE_ID + "<>" + NOT_FOUND_ID + " AND " + TIME + "<?)";
+
+    private static final int MEMORY_ENTRIES = 512;
+
+    private static TitleMatchCache sInstance;
+
+    public static synchronized TitleMatchCache get(Context context) {
+        if (sInstance == null)
+            sInstance = new TitleMatchCache(context.getApplicationContext());
+        return sInstance;
+    }
+
+    /** what a search resolved to, what getDetails needs of the result picked */
+    private static final class Match {
+        final boolean tvShow;
+        final int id;
+        final String title;
+        final String originalTitle;
+        final String year;
+        final String language;
+        final String posterPath;
+        final String backdropPath;
+        final long time;
+
+        Match(boolean tvShow, SearchResult result, long time) {
+            this.tvShow = tvShow;
+            this.time = time;
+            if (result == null) {
+                id = NOT_FOUND_ID;
+                title = originalTitle = year = language = posterPath = backdropPath = null;
+            } else {
+                id = result.getId();
+                title = result.getTitle();
+                originalTitle = result.getOriginalTitle();
+                year = result.getYear();
+                language = result.getLanguage();
+                posterPath = result.getPosterPath();
+                backdropPath = result.getBackdropPath();
+            }
+        }
+
+        Match(Cursor c) {
+            tvShow = c.getInt(0) != 0;
+            id = c.getInt(1);
+            title = c.getString(2);
+            originalTitle = c.getString(3);
+            year = c.getString(4);
+            language = c.getString(5);
+            posterPath = c.getString(6);
+            backdropPath = c.getString(7);
+            time = c.getLong(8);
+        }
+
+        boolean isNotFound() {
+            return id == NOT_FOUND_ID;
+        }
+
+        boolean isExpired(long now) {
+            long age = now - time;
+            return age < 0 || age > (isNotFound() ? NOT_FOUND_TTL : FOUND_TTL);
+        }
+
+        ContentValues toContentValues(String key) {
+            ContentValues values = new ContentValues(10);
+            values.put(KEY, key);
+            values.put(TV_SHOW, tvShow ? 1 : 0);
+            values.put(ONLINE_ID, id);
+            values.put(TITLE, title);
+            values.put(ORIGINAL_TITLE, originalTitle);
+            values.put(YEAR, year);
+            values.put(LANGUAGE, language);
+            values.put(POSTER_PATH, posterPath);
+            values.put(BACKDROP_PATH, backdropPath);
+            values.put(TIME, time);
+            return values;
+        }
+    }
+
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+        DatabaseHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL(CREATE_TABLE);
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // only a cache: start over
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+            onCreate(db);
+        }
+    }
+
+    private final DatabaseHelper mDbHelper;
+    // the memory cache is guarded by this and the database is never used while holding it,
+    // database writes are serialized by mWriteLock (taken before this when both are needed)
+    private final Object mWriteLock = new Object();
+    // null values are known misses
+    private final LinkedHashMap<String, Match> mMatches = new LinkedHashMap<String, Match>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Match> eldest) {
+            return size() > MEMORY_ENTRIES;
+        }
+    };
+    // bumped by every invalidate, database reads started before one are not cached
+    private int mGeneration;
+    private boolean mTrimmed;
+    private int mHits;
+    private int mMisses;
+
+    private TitleMatchCache(Context context) {
+        mDbHelper = new DatabaseHelper(context);
+    }
+
+    /**
+     * key of an automatic search, the name is normalized so that "The.Office" and "the office" share it
+     * @param name the name searched, the show name for tv shows
+     * @param extra anything else that changes the result of the search (tv show country of origin...), may be null
+     */
+    public static String key(boolean tvShow, String name, String year, String language, String extra) {
+        return (tvShow ? "tv|" : "movie|") + TitleMatcher.normalize(name) + '|'
+                + (year != null ? year : "") + '|' + (language != null ? language : "")
+                + '|' + (extra != null ? extra : "");
+    }
+
+    /** result for the search key ready for {@link BaseScraper2#getDetails}, null if none is known */
+    public SearchResult get(String key, SearchInfo info, BaseScraper2 scraper) {
+        Match match = lookup(key);
+        if (match == null || match.isNotFound())
+            return null;
+        SearchResult result = new SearchResult(match.tvShow ? SearchResult.tvshow : SearchResult.movie,
+                match.title, match.id);
+        result.setOriginalTitle(match.originalTitle);
+        result.setYear(match.year);
+        result.setLanguage(match.language);
+        result.setPosterPath(match.posterPath);
+        result.setBackdropPath(match.backdropPath);
+        result.setScraper(scraper);
+        result.setFile(info.getFile());
+        if (info instanceof TvShowSearchInfo) {
+            // what the search sets from the episode being scraped
+            TvShowSearchInfo tvInfo = (TvShowSearchInfo) info;
+            Bundle extra = new Bundle();
+            extra.putString(ShowUtils.EPNUM, String.valueOf(tvInfo.getEpisode()));
+            extra.putString(ShowUtils.SEASON, String.valueOf(tvInfo.getSeason()));
+            result.setExtra(extra);
+            result.setOriginSearchEpisode(tvInfo.getEpisode());
+            result.setOriginSearchSeason(tvInfo.getSeason());
+        }
+        return result;
+    }
+
+    /** true if the search for key found nothing less than {@link #NOT_FOUND_TTL} ago */
+    public boolean isNotFound(String key) {
+        Match match = lookup(key);
+        return match != null && match.isNotFound();
+    }
+
+    public void put(String key, SearchResult result) {
+        store(key, new Match(result.isTvShow(), result, System.currentTimeMillis()));
+    }
+
+    public void putNotFound(String key, boolean tvShow) {
+        store(key, new Match(tvShow, null, System.currentTimeMillis()));
+    }
+
+    /** forgets everything */
+    public void invalidateAll() {
+        invalidate(null, null);
+    }
+
+    /** forgets the searches that found nothing, so that they are tried again */
+    public void invalidateNotFound() {
+        invalidate(WHERE_NOT_FOUND, null);
+    }
+
+    /** forgets all the tv show or all the movie searches */
+    public void invalidate(boolean tvShow) {
+        invalidate(TV_SHOW + "=?", new String[] { tvShow ? "1" : "0" });
+    }
+
+    private void invalidate(String where, String[] whereArgs) {
+        synchronized (mWriteLock) {
+            synchronized (this) {
+                mMatches.clear();
+                mGeneration++;
+            }
+            try {
+                int deleted = mDbHelper.getWritableDatabase().delete(TABLE, where, whereArgs);
+                log.debug("invalidate: " + where + " deleted " + deleted);
+            } catch (SQLException e) {
+                log.warn("invalidate: " + where, e);
+            }
+        }
+    }
+
+    private Match lookup(String key) {
+        if (key == null)
+            return null;
+        Match match;
+        boolean cached;
+        int generation;
+        synchronized (this) {
+            cached = mMatches.containsKey(key);
+            match = mMatches.get(key);
+            generation = mGeneration;
+        }
+        if (!cached) {
+            Match stored = query(key);
+            synchronized (this) {
+                // a put or an invalidate done meanwhile wins over what was read
+                if (mMatches.containsKey(key)) {
+                    match = mMatches.get(key);
+                } else {
+                    match = stored;
+                    if (generation == mGeneration)
+                        mMatches.put(key, match);
+                }
+            }
+        }
+        synchronized (this) {
+            if (match != null && match.isExpired(System.currentTimeMillis())) {
+                if (mMatches.get(key) == match)
+                    mMatches.put(key, null);
+                match = null;
+            }
+            if (match != null) mHits++;
+            else mMisses++;
+            if (log.isDebugEnabled())
+                log.debug("lookup: " + key + " -> " + (match == null ? "unknown" : match.isNotFound() ? "not found" : match.id)
+                        + " (hits=" + mHits + ", misses=" + mMisses + ")");
+        }
+        return match;
+    }
+
+    private Match query(String key) {
+        try {
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            synchronized (mWriteLock) {
+                if (!mTrimmed) {
+                    mTrimmed = true;
+                    trim(db);
+                }
+            }
+            try (Cursor c = db.query(TABLE, PROJECTION, WHERE_KEY, new String[] { key }, null, null, null)) {
+                return c.moveToFirst() ? new Match(c) : null;
+            }
+        } catch (SQLException e) {
+            log.warn("query: " + key, e);
+            return null;
+        }
+    }
+
+    private void store(String key, Match match) {
+        if (key == null)
+            return;
+        synchronized (mWriteLock) {
+            try {
+                mDbHelper.getWritableDatabase().insertWithOnConflict(TABLE, null,
+                        match.toContentValues(key), SQLiteDatabase.CONFLICT_REPLACE);
+            } catch (SQLException e) {
+                log.warn("store: " + key, e);
+            }
+            synchronized (this) {
+                mMatches.put(key, match);
+            }
+        }
+    }
+
+    /** deletes what expired, once per process */
+    private static void trim(SQLiteDatabase db) {
+        long now = System.currentTimeMillis();
+        int deleted = db.delete(TABLE, WHERE_EXPIRED, new String[] {
+                String.valueOf(now - NOT_FOUND_TTL), String.valueOf(now - FOUND_TTL) });
+        log.debug("trim: deleted " + deleted + " expired matches");
+    }
+}
@@ -0,0 +1,161 @@
+// Copyright 2017 Archos SA
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.archos.mediascraper;
+
+import android.util.LruCache;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+
+/**
+ * Title similarity based on trigrams of the normalized title (lower case, no accents,
+ * no punctuation), the way pg_trgm does it: each word is padded with two spaces in front
+ * and one behind. Signatures are computed once per title and kept in a small cache since
+ * the same show and movie titles come back for every file.
+ * <pre>
+ * TitleMatcher.Signature query = TitleMatcher.signature("The.Office");
+ * TitleMatcher.similarity(query, TitleMatcher.signature("The Office (US)")); // 0.88
+ * </pre>
+ */
+public final class TitleMatcher {
+    // distance() scale, keeps int ordering meaningful
+    public static final int MAX_DISTANCE = 1000;
+
+    private static final LruCache<String, Signature> sSignatures = new LruCache<>(512);
+
+    private TitleMatcher() {}
+
+    public static final class Signature {
+        public final String normalized;
+        // sorted, unique, 3 chars packed in a long
+        private final long[] mTrigrams;
+
+        private Signature(String normalized, long[] trigrams) {
+            this.normalized = normalized;
+            mTrigrams = trigrams;
+        }
+    }
+
+    /**
+     * lower case letters and digits, accents dropped, anything else collapsed into single spaces
+     * <pre>
+     * normalize(" Amélie: le Fabuleux-Destin ") = "amelie le fabuleux destin"
+     * </pre>
+     */
+    public static String normalize(String title) {
+        if (title == null)
+            return "";
+        String decomposed = Normalizer.normalize(title, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        boolean space = true;
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK)
+                continue;
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+                space = false;
+            } else if (!space) {
+                sb.append(' ');
+                space = true;
+            }
+        }
+        int length = sb.length();
+        if (length > 0 && sb.charAt(length - 1) == ' ')
+            sb.setLength(length - 1);
+        return sb.toString();
+    }
+
+    public static Signature signature(String title) {
+        String key = title != null ? title : "";
+        Signature signature = sSignatures.get(key);
+        if (signature == null) {
+            signature = computeSignature(normalize(key));
+            sSignatures.put(key, signature);
+        }
+        return signature;
+    }
+
+    /** Dice coefficient of the trigram sets: 1 for the same normalized title, 0 for nothing in common */
+    public static float similarity(Signature a, Signature b) {
+        if (a.normalized.equals(b.normalized))
+            return 1f;
+        long[] x = a.mTrigrams;
+        long[] y = b.mTrigrams;
+        if (x.length == 0 || y.length == 0)
+            return 0f;
+        int common = 0;
+        for (int i = 0, j = 0; i < x.length && j < y.length; ) {
+            if (x[i] == y[j]) {
+                common++;
+                i++;
+                j++;
+            } else if (x[i] < y[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return 2f * common / (x.length + y.length);
+    }
+
+    public static float similarity(String a, String b) {
+        return similarity(signature(a), signature(b));
+    }
+
+    /** 0 for the same normalized title up to {@link #MAX_DISTANCE}, for sorting like an edit distance */
+    public static int distance(Signature a, Signature b) {
+        return Math.round((1f - similarity(a, b)) * MAX_DISTANCE);
+    }
+
+    private static Signature computeSignature(String normalized) {
+        long[] trigrams = new long[normalized.length() + 2 * countWords(normalized)];
+        int count = 0;
+        int start = 0;
+        while (start < normalized.length()) {
+            int end = normalized.indexOf(' ', start);
+            if (end < 0)
+                end = normalized.length();
+            // "  w" " wo" "wor" "ord" "rd "
+            char c0 = ' ';
+            char c1 = ' ';
+            for (int i = start; i <= end; i++) {
+                char c2 = i < end ? normalized.charAt(i) : ' ';
+                trigrams[count++] = ((long) c0 << 32) | ((long) c1 << 16) | c2;
+                c0 = c1;
+                c1 = c2;
+            }
+            start = end + 1;
+        }
+        Arrays.sort(trigrams, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || trigrams[unique - 1] != trigrams[i])
+                trigrams[unique++] = trigrams[i];
+        }
+        return new Signature(normalized, Arrays.copyOf(trigrams, unique));
+    }
+
+    private static int countWords(String normalized) {
+        if (normalized.isEmpty())
+            return 0;
+        int words = 1;
+        for (int i = 0; i < normalized.length(); i++) {
+            if (normalized.charAt(i) == ' ')
+                words++;
+        }
+        return words;
+    }
+}
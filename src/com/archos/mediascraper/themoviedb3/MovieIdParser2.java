@@ -19,6 +19,7 @@ import android.util.Log;
 import android.util.Pair;
 
 import com.archos.medialib.R;
+import com.archos.mediascraper.ImageRefs;
 import com.archos.mediascraper.MovieTags;
 import com.archos.mediascraper.ScrapeStatus;
 import com.archos.mediascraper.ScraperImage;
@@ -249,17 +250,18 @@ public class MovieIdParser2 {
                     return - Double.compare(b1.first.vote_average, b2.first.vote_average);
                 }
             });
-            for(Pair<Image, String> poster : tempPosters) {
-                log.debug("getResult: generating ScraperImage for poster for " + movie.title + ", large=" + ScraperImage.TMPL + poster.first.file_path);
-                posters.add(genPoster(movie.title, poster.first.file_path, poster.second, mContext));
-            }
-            for(Pair<Image, String> backdrop : tempBackdrops) {
-                log.debug("getResult: generating ScraperImage for backdrop for " + movie.title + ", large=" + ScraperImage.TMPL + backdrop.first.file_path);
-                posters.add(genBackdrop(movie.title, backdrop.first.file_path, backdrop.second, mContext));
-            }
-            log.debug("getResult: setting posters and backdrops");
+            // alternatives only as ranked paths, ScraperImages are built when they are shown
+            ImageRefs posterRefs = new ImageRefs();
+            for(Pair<Image, String> poster : tempPosters)
+                posterRefs.add(poster.first.file_path, poster.second);
+            ImageRefs backdropRefs = new ImageRefs();
+            for(Pair<Image, String> backdrop : tempBackdrops)
+                backdropRefs.add(backdrop.first.file_path, backdrop.second);
+            log.debug("getResult: " + movie.title + " has " + posterRefs.size() + " posters and " + backdropRefs.size() + " backdrops");
             result.setPosters(posters);
             result.setBackdrops(backdrops);
+            result.setPosterRefs(posterRefs);
+            result.setBackdropRefs(backdropRefs);
             result.setClearLogos(clearlogos);
             log.debug("getResult: global " + movie.title + " poster " + movie.poster_path + ", backdrop " + movie.backdrop_path);
             // this must be done after setPosters/setBackdrops otherwise default is removed
@@ -16,6 +16,7 @@ package com.archos.mediascraper.themoviedb3;
 
 import com.archos.mediascraper.ScraperCache;
 import com.uwetrottmann.tmdb2.Tmdb;
+import com.uwetrottmann.tmdb2.TmdbHelper;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,21 +26,44 @@ import java.util.concurrent.TimeUnit;
 import okhttp3.Cache;
 import okhttp3.OkHttpClient;
 import okhttp3.logging.HttpLoggingInterceptor;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
 
 public class MyTmdb extends Tmdb {
 
     private static final Logger log = LoggerFactory.getLogger(MyTmdb.class);
     private final static boolean CACHE = true;
+    // decode only the fields persisted in the tags (see TmdbStreamingAdapterFactory), false for full tmdb-java entities
+    private final static boolean STREAMING = true;
     private static Cache mCache;
+    private TvSeasonsBatchService mTvSeasonsBatchService;
 
     public MyTmdb(String apiKey, Cache cache) {
         super(apiKey);
         mCache = cache;
     }
 
+    public synchronized TvSeasonsBatchService tvSeasonsBatchService() {
+        if (mTvSeasonsBatchService == null)
+            mTvSeasonsBatchService = getRetrofit().create(TvSeasonsBatchService.class);
+        return mTvSeasonsBatchService;
+    }
+
+    @Override
+    protected Retrofit.Builder retrofitBuilder() {
+        return new Retrofit.Builder()
+                .baseUrl(API_URL)
+                .addConverterFactory(GsonConverterFactory.create(TmdbHelper.getGsonBuilder()
+                        .registerTypeAdapterFactory(new TmdbStreamingAdapterFactory(STREAMING)).create()))
+                .client(okHttpClient());
+    }
+
     @Override
     protected void setOkHttpClientDefaults(OkHttpClient.Builder builder) {
         super.setOkHttpClientDefaults(builder);
+        // shared by all clients: requests/s budget, 429 and 5xx retries, circuit breaker
+        builder.addInterceptor(TmdbRateLimiter.getInstance().interceptor());
+        builder.addNetworkInterceptor(TmdbRateLimiter.getInstance().networkInterceptor());
         if (CACHE) {
             builder.cache(mCache).addNetworkInterceptor(new ScraperCache.CacheInterceptor());
             if (log.isTraceEnabled()) {
@@ -20,13 +20,13 @@ import android.util.Pair;
 import com.archos.mediascraper.ScraperImage;
 import com.archos.mediascraper.SearchResult;
 import com.archos.mediascraper.ShowUtils;
+import com.archos.mediascraper.TitleMatcher;
 import com.archos.mediascraper.preprocess.TvShowSearchInfo;
 import com.archos.mediascraper.xml.ShowScraper4;
 import com.uwetrottmann.tmdb2.entities.BaseTvShow;
 import com.uwetrottmann.tmdb2.entities.TvShow;
 import com.uwetrottmann.tmdb2.entities.TvShowResultsPage;
 
-import org.apache.commons.text.similarity.LevenshteinDistance;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,8 +43,6 @@ public class SearchShowParser {
     private final static boolean SORT_POPULARITY = false;
     private final static boolean SORT_YEAR = true;
 
-    private final static LevenshteinDistance levenshteinDistance = new LevenshteinDistance();
-
     private static List<SearchResult> normalAdd(SearchShowParserResult searchShowParserResult, int maxItems) {
         List<SearchResult> results = new LinkedList<>();
         log.debug("normalAdd: searchShowParserResult.resultsProbable.size()=" + searchShowParserResult.resultsProbable.size());
@@ -68,6 +66,12 @@ public class SearchShowParser {
         return results;
     }
 
+    // closest of title and original title, 0 is the same normalized name
+    private static int getTitleDistance(TitleMatcher.Signature showName, SearchResult result) {
+        return Math.min(TitleMatcher.distance(showName, TitleMatcher.signature(result.getTitle())),
+                TitleMatcher.distance(showName, TitleMatcher.signature(result.getOriginalTitle())));
+    }
+
     public static List<SearchResult> getResult(Response<TvShowResultsPage> response,
                                                TvShowSearchInfo searchInfo, Integer year,
                                                String language, Integer maxItems, ShowScraper4 showScraper) {
@@ -85,13 +89,14 @@ public class SearchShowParser {
         int episode, season;
         String countryOfOrigin = searchInfo.getCountryOfOrigin();
         Boolean isDecisionTaken = false;
-        int levenshteinDistanceTitle, levenshteinDistanceOriginalTitle;
+        // the searched name is compared to every candidate, its signature is computed once
+        TitleMatcher.Signature showNameSignature = TitleMatcher.signature(searchInfo.getShowName());
         log.debug("getSearchShowParserResult: examining response of " + response.body().total_results + " entries in " + language + ", for " + searchInfo.getShowName() + " and specific year " + year);
 
         // sort first tvshows by popularity so that distinction between levenstein distance is operated on popularity
         List<BaseTvShow> resultsTvShow = response.body().results;
         // OBSERVATION: number_of_seasons only available on id search not name search --> cannot discriminate
-        // popularity sort is disabled for now to enable sort by year to pick lower year if not specified with lowest levenshtein metric
+        // popularity sort is disabled for now to enable sort by year to pick lower year if not specified with lowest title distance
         if (SORT_POPULARITY)
             Collections.sort(resultsTvShow, new Comparator<BaseTvShow>() {
                 @Override
@@ -168,12 +173,8 @@ public class SearchShowParser {
                         result.setPosterPath(series.poster_path);
                         if (series.backdrop_path == null || series.backdrop_path.endsWith("missing/series.jpg") || series.backdrop_path.endsWith("missing/movie.jpg") || series.backdrop_path == "") {
                             log.debug("getSearchShowParserResult: set aside " + series.name + " because banner missing i.e. banner=" + series.backdrop_path);
-                            levenshteinDistanceTitle = levenshteinDistance.apply(searchInfo.getShowName().toLowerCase(),
-                                    result.getTitle().toLowerCase());
-                            levenshteinDistanceOriginalTitle = levenshteinDistance.apply(searchInfo.getShowName().toLowerCase(),
-                                    result.getOriginalTitle().toLowerCase());
                             searchShowParserResult.resultsNoBanner.add(new Pair<>(result,
-                                    Math.min(levenshteinDistanceTitle, levenshteinDistanceOriginalTitle)));
+                                    getTitleDistance(showNameSignature, result)));
                             isDecisionTaken = true;
                         } else {
                             log.debug("getSearchShowParserResult: " + series.name + " has backdrop_path " + ScraperImage.TMBL + series.backdrop_path);
@@ -185,13 +186,9 @@ public class SearchShowParser {
                 if (! isDecisionTaken) {
                     log.debug("getSearchShowParserResult: taking into account " + series.name + " because banner/image exists and known airdate");
                     isDecisionTaken = true;
-                    // get the min of the levenshtein distance between cleaned file based show name and title and original title identified
-                    levenshteinDistanceTitle = levenshteinDistance.apply(searchInfo.getShowName().toLowerCase(),
-                            result.getTitle().toLowerCase());
-                    levenshteinDistanceOriginalTitle = levenshteinDistance.apply(searchInfo.getShowName().toLowerCase(),
-                            result.getOriginalTitle().toLowerCase());
+                    // get the min of the title distance between cleaned file based show name and title and original title identified
                     searchShowParserResult.resultsProbable.add(new Pair<>(result,
-                            Math.min(levenshteinDistanceTitle, levenshteinDistanceOriginalTitle)));
+                            getTitleDistance(showNameSignature, result)));
                 }
                 if (! isDecisionTaken)
                     log.warn("getSearchShowParserResult: ignore serie since banner/image is null for " + series.name);
@@ -222,7 +219,7 @@ public class SearchShowParser {
                 }
             }
         });
-        log.debug("getSearchShowParserResult: applying Levenshtein distance resultsProbableSorted=" + searchShowParserResult.resultsProbable.toString());
+        log.debug("getSearchShowParserResult: applying title distance resultsProbableSorted=" + searchShowParserResult.resultsProbable.toString());
         return searchShowParserResult;
     }
 }
\ No newline at end of file
@@ -129,15 +129,13 @@ public class ShowIdImagesParser {
             }
         });
 
-        for(Pair<Image, String> poster : tempPosters) {
-            log.debug("getResult: generating ScraperImage for poster for " + showTitle + ", large=" + ScraperImage.TMPL + poster.first.file_path);
-            posters.add(genPoster(showTitle, poster.first.file_path, poster.second, true, context));
-        }
+        // alternatives only as ranked paths, ScraperImages are built when they are shown
+        for(Pair<Image, String> poster : tempPosters)
+            result.posterRefs.add(poster.first.file_path, poster.second);
 
-        for(Pair<Image, String> backdrop : tempBackdrops) {
-            log.debug("getResult: generating ScraperImage for backdrop for " + showTitle + ", large=" + ScraperImage.TMPL + backdrop.first.file_path);
-            posters.add(genBackdrop(showTitle, backdrop.first.file_path, backdrop.second, context));
-        }
+        for(Pair<Image, String> backdrop : tempBackdrops)
+            result.backdropRefs.add(backdrop.first.file_path, backdrop.second);
+        log.debug("getResult: " + showTitle + " has " + result.posterRefs.size() + " posters and " + result.backdropRefs.size() + " backdrops");
 
         result.posters = posters;
         result.backdrops = backdrops;
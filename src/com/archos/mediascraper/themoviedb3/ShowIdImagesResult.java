@@ -14,6 +14,7 @@
 
 package com.archos.mediascraper.themoviedb3;
 
+import com.archos.mediascraper.ImageRefs;
 import com.archos.mediascraper.ScrapeStatus;
 import com.archos.mediascraper.ScraperImage;
 
@@ -30,6 +31,8 @@ public class ShowIdImagesResult {
     public List<ScraperImage> actorphotos;
     public List<ScraperImage> clearlogos;
     public List<ScraperImage> studiologos;
+    public ImageRefs posterRefs;
+    public ImageRefs backdropRefs;
     public ScrapeStatus status;
     public Throwable reason;
     public ShowIdImagesResult() {
@@ -40,5 +43,7 @@ public class ShowIdImagesResult {
         this.actorphotos = new LinkedList<>();
         this.clearlogos = new LinkedList<>();
         this.studiologos = new LinkedList<>();
+        this.posterRefs = new ImageRefs();
+        this.backdropRefs = new ImageRefs();
     }
 }
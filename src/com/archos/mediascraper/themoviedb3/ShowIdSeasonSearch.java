@@ -18,6 +18,7 @@ import android.util.LruCache;
 
 import com.archos.mediascraper.ScrapeStatus;
 import com.archos.mediascraper.xml.ShowScraper4;
+import com.google.gson.JsonParseException;
 import com.uwetrottmann.tmdb2.entities.AppendToResponse;
 import com.uwetrottmann.tmdb2.entities.TvSeason;
 import com.uwetrottmann.tmdb2.entities.TvShow;
@@ -27,8 +28,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import retrofit2.Response;
 
@@ -44,6 +52,113 @@ public class ShowIdSeasonSearch {
         put("include_image_language", "en,null");
     }};
 
+    // tmdb accepts at most 20 items in append_to_response
+    private final static int SEASONS_PER_REQUEST = 20;
+    // request budget: chunks of all scrapers share these threads
+    private final static int MAX_PARALLEL_REQUESTS = 3;
+    private final static ExecutorService sSeasonExecutor = Executors.newFixedThreadPool(MAX_PARALLEL_REQUESTS);
+
+    // Get seasons 1 to numberOfSeasons for showId: seasons not in cache are fetched SEASONS_PER_REQUEST at a time
+    // through tv/showId?append_to_response=season/1,season/2,... with up to MAX_PARALLEL_REQUESTS chunks in flight.
+    // Seasons missing from a chunk reply fall back to getSeasonShowResponse (language fallback included).
+    public static Map<Integer, ShowIdSeasonSearchResult> getSeasonShowResponses(final int showId, int numberOfSeasons, final String language, final MyTmdb tmdb) {
+        Map<Integer, ShowIdSeasonSearchResult> results = new HashMap<>();
+        List<Integer> missing = new ArrayList<>();
+        for (int season = 1; season <= numberOfSeasons; season++) {
+            ShowIdSeasonSearchResult cached = sShowCache.get(showId + "|" + "s" + season + "|" + language);
+            if (cached != null) results.put(season, cached);
+            else missing.add(season);
+        }
+        log.debug("getSeasonShowResponses: showId " + showId + " " + results.size() + " seasons cached, fetching " + missing.size());
+        if (missing.isEmpty()) return results;
+        if (missing.size() == 1) {
+            results.put(missing.get(0), getSeasonShowResponse(showId, missing.get(0), language, tmdb));
+            return results;
+        }
+
+        List<Future<Map<Integer, ShowIdSeasonSearchResult>>> futures = new ArrayList<>();
+        for (int start = 0; start < missing.size(); start += SEASONS_PER_REQUEST) {
+            final List<Integer> chunk = missing.subList(start, Math.min(start + SEASONS_PER_REQUEST, missing.size()));
+            futures.add(sSeasonExecutor.submit(new Callable<Map<Integer, ShowIdSeasonSearchResult>>() {
+                @Override
+                public Map<Integer, ShowIdSeasonSearchResult> call() {
+                    return getSeasonChunk(showId, chunk, language, tmdb);
+                }
+            }));
+        }
+        try {
+            for (Future<Map<Integer, ShowIdSeasonSearchResult>> future : futures)
+                results.putAll(future.get());
+        } catch (InterruptedException e) {
+            log.warn("getSeasonShowResponses: interrupted for showId " + showId);
+            for (Future<Map<Integer, ShowIdSeasonSearchResult>> future : futures) future.cancel(true);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("getSeasonShowResponses: caught exception for showId " + showId, e.getCause());
+        }
+        // anything not resolved is reported as error for that season
+        for (int season : missing) {
+            if (!results.containsKey(season)) {
+                ShowIdSeasonSearchResult error = new ShowIdSeasonSearchResult();
+                error.status = ScrapeStatus.ERROR_PARSER;
+                results.put(season, error);
+            }
+        }
+        return results;
+    }
+
+    private static Map<Integer, ShowIdSeasonSearchResult> getSeasonChunk(int showId, List<Integer> seasons, String language, MyTmdb tmdb) {
+        Map<Integer, ShowIdSeasonSearchResult> results = new HashMap<>();
+        StringBuilder append = new StringBuilder();
+        for (int season : seasons) {
+            if (append.length() > 0) append.append(',');
+            append.append(TvSeasonsBatch.PREFIX).append(season);
+        }
+        log.debug("getSeasonChunk: quering tmdb for showId " + showId + " " + append + " in " + language);
+        TvSeasonsBatch body = null;
+        try {
+            Response<TvSeasonsBatch> response = tmdb.tvSeasonsBatchService().tvWithSeasons(showId, language, append.toString()).execute();
+            if (response.code() == 401) { // auth issue
+                log.debug("getSeasonChunk: auth error");
+                ShowScraper4.reauth();
+                for (int season : seasons) {
+                    ShowIdSeasonSearchResult myResult = new ShowIdSeasonSearchResult();
+                    myResult.status = ScrapeStatus.AUTH_ERROR;
+                    results.put(season, myResult);
+                }
+                return results;
+            }
+            if (response.isSuccessful()) body = response.body();
+            else log.debug("getSeasonChunk: error " + response.code() + ", falling back to single season requests");
+        } catch (IOException e) {
+            log.error("getSeasonChunk: caught IOException getting result for showId=" + showId);
+            for (int season : seasons) {
+                ShowIdSeasonSearchResult myResult = new ShowIdSeasonSearchResult();
+                myResult.status = ScrapeStatus.ERROR_PARSER;
+                myResult.reason = e;
+                results.put(season, myResult);
+            }
+            return results;
+        } catch (JsonParseException e) {
+            log.warn("getSeasonChunk: cannot parse reply for showId " + showId + ", falling back to single season requests");
+        }
+        for (int season : seasons) {
+            TvSeason tvSeason = body != null && body.seasons != null ? body.seasons.get(season) : null;
+            if (tvSeason != null && tvSeason.episodes != null) {
+                ShowIdSeasonSearchResult myResult = new ShowIdSeasonSearchResult();
+                myResult.tvSeason = tvSeason;
+                myResult.status = ScrapeStatus.OKAY;
+                // record valid answer, shared with getSeasonShowResponse
+                sShowCache.put(showId + "|" + "s" + season + "|" + language, myResult);
+                results.put(season, myResult);
+            } else {
+                // not in the reply (or no translation): single request handles not found and en fallback
+                results.put(season, getSeasonShowResponse(showId, season, language, tmdb));
+            }
+        }
+        return results;
+    }
+
     public static ShowIdSeasonSearchResult getSeasonShowResponse(int showId, int season, String language, MyTmdb tmdb) {
         log.debug("getSeasonShowResponse: quering tmdb for showId " + showId + " season " + season + " in " + language);
 
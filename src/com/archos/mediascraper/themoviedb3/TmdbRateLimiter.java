@@ -0,0 +1,272 @@
+// Copyright 2021 Courville Software
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.archos.mediascraper.themoviedb3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+// Request governor shared by all MyTmdb clients:
+// - networkInterceptor(): token bucket limiting requests per second that reach the network (cache hits are free)
+// - interceptor(): retries 429 and 5xx honoring Retry-After, else jittered exponential backoff,
+//   and a circuit breaker failing fast while tmdb is unreachable
+public class TmdbRateLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(TmdbRateLimiter.class);
+
+    // tmdb allows ~50 requests/s per IP, stay well below to leave room for other apps behind the same NAT
+    private static final double REQUESTS_PER_SECOND = 20;
+    private static final int BURST = 20;
+
+    private static final int MAX_RETRIES = 3;
+    private static final long BACKOFF_BASE_MILLIS = 500;
+    private static final long BACKOFF_MAX_MILLIS = 30 * 1000;
+
+    // consecutive failed calls (after retries) opening the circuit and how long it stays open
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final long CIRCUIT_OPEN_MILLIS = 30 * 1000;
+
+    private static final TmdbRateLimiter sInstance = new TmdbRateLimiter();
+
+    public static TmdbRateLimiter getInstance() {
+        return sInstance;
+    }
+
+    private final Random mRandom = new Random();
+
+    // token bucket state, guarded by this
+    private final long mIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / REQUESTS_PER_SECOND);
+    private long mNextFreeNanos = System.nanoTime();
+
+    // circuit breaker state, guarded by this
+    private int mConsecutiveFailures;
+    private long mCircuitOpenUntil;
+    private boolean mHalfOpenProbe;
+
+    // counters
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mThrottledMillis = new AtomicLong();
+    private final AtomicLong mRetries = new AtomicLong();
+    private final AtomicLong mTooManyRequests = new AtomicLong();
+    private final AtomicLong mCircuitOpenings = new AtomicLong();
+    private final AtomicLong mRejected = new AtomicLong();
+
+    private final Interceptor mNetworkInterceptor = new Interceptor() {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            acquire();
+            mRequests.incrementAndGet();
+            return chain.proceed(chain.request());
+        }
+    };
+
+    private final Interceptor mInterceptor = new Interceptor() {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+            boolean probe = checkCircuit(request);
+            try {
+                return proceedWithRetries(chain, request);
+            } finally {
+                // whatever ended the probe (cancel, interrupt, runtime exception) without
+                // onSuccess / onFailure must not leave the circuit waiting for it forever
+                if (probe) releaseProbe();
+            }
+        }
+    };
+
+    private TmdbRateLimiter() {}
+
+    // to be added with OkHttpClient.Builder.addNetworkInterceptor
+    public Interceptor networkInterceptor() {
+        return mNetworkInterceptor;
+    }
+
+    // to be added with OkHttpClient.Builder.addInterceptor
+    public Interceptor interceptor() {
+        return mInterceptor;
+    }
+
+    // monitoring: requests that reached the network, time spent waiting for a token,
+    // retries, 429 replies, circuit openings and calls rejected while it was open
+    public long getRequestCount() { return mRequests.get(); }
+    public long getThrottledMillis() { return mThrottledMillis.get(); }
+    public long getRetryCount() { return mRetries.get(); }
+    public long getTooManyRequestsCount() { return mTooManyRequests.get(); }
+    public long getCircuitOpenCount() { return mCircuitOpenings.get(); }
+    public long getRejectedCount() { return mRejected.get(); }
+
+    public synchronized boolean isCircuitOpen() {
+        return mCircuitOpenUntil > System.currentTimeMillis();
+    }
+
+    @Override
+    public String toString() {
+        return "TmdbRateLimiter requests=" + getRequestCount() + " throttled=" + getThrottledMillis() + "ms" +
+                " retries=" + getRetryCount() + " 429=" + getTooManyRequestsCount() +
+                " circuitOpenings=" + getCircuitOpenCount() + " rejected=" + getRejectedCount();
+    }
+
+    // blocks until a token is available: reserves the next free slot and sleeps outside the lock
+    private void acquire() throws InterruptedIOException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            // bucket refills up to BURST tokens while idle
+            long earliest = now - (BURST - 1) * mIntervalNanos;
+            if (mNextFreeNanos < earliest) mNextFreeNanos = earliest;
+            waitNanos = mNextFreeNanos - now;
+            mNextFreeNanos += mIntervalNanos;
+        }
+        if (waitNanos > 0) {
+            long waitMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+            mThrottledMillis.addAndGet(waitMillis);
+            sleep(waitMillis);
+        }
+    }
+
+    // pushes every client back after a 429: nobody gets a token before delayMillis
+    private synchronized void pause(long delayMillis) {
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        if (mNextFreeNanos < until) mNextFreeNanos = until;
+    }
+
+    private Response proceedWithRetries(Interceptor.Chain chain, Request request) throws IOException {
+        // only GET is safe to replay, tmdb scraping never uses anything else
+        boolean retryable = "GET".equals(request.method());
+        int attempt = 0;
+        while (true) {
+            Response response;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                if (Thread.currentThread().isInterrupted() || chain.call().isCanceled()) {
+                    // cancelled by the caller, says nothing about tmdb
+                    throw e;
+                }
+                if (!retryable || attempt >= MAX_RETRIES) {
+                    onFailure();
+                    throw e;
+                }
+                long delay = backoff(attempt);
+                log.debug("proceedWithRetries: " + e.getMessage() + " for " + request.url().encodedPath() + ", retrying in " + delay + "ms");
+                retry(delay);
+                attempt++;
+                continue;
+            }
+            int code = response.code();
+            boolean tooMany = code == 429;
+            boolean unavailable = code == 502 || code == 503 || code == 504;
+            if (!tooMany && !unavailable) {
+                onSuccess();
+                return response;
+            }
+            if (tooMany) mTooManyRequests.incrementAndGet();
+            if (!retryable || attempt >= MAX_RETRIES) {
+                // 429 is tmdb being alive but busy, do not count it against the circuit
+                if (unavailable) onFailure();
+                else onSuccess();
+                return response;
+            }
+            long delay = retryAfter(response);
+            if (delay < 0) delay = backoff(attempt);
+            log.debug("proceedWithRetries: " + code + " for " + request.url().encodedPath() + ", retrying in " + delay + "ms");
+            response.close();
+            if (tooMany) pause(delay);
+            retry(delay);
+            attempt++;
+        }
+    }
+
+    private void retry(long delayMillis) throws InterruptedIOException {
+        mRetries.incrementAndGet();
+        sleep(delayMillis);
+    }
+
+    // jittered delay in [base / 2, min(max, base * 2^attempt)]
+    private long backoff(int attempt) {
+        long ceiling = Math.min(BACKOFF_MAX_MILLIS, BACKOFF_BASE_MILLIS << attempt);
+        synchronized (mRandom) {
+            return BACKOFF_BASE_MILLIS / 2 + (long) (mRandom.nextDouble() * (ceiling - BACKOFF_BASE_MILLIS / 2));
+        }
+    }
+
+    // Retry-After in seconds (tmdb never sends the http-date form), -1 if absent
+    private static long retryAfter(Response response) {
+        String header = response.header("Retry-After");
+        if (header == null) return -1;
+        try {
+            long seconds = Long.parseLong(header.trim());
+            return Math.min(BACKOFF_MAX_MILLIS, Math.max(0, seconds) * 1000);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // returns true if the call is the half open probe, it then has to end with releaseProbe()
+    private boolean checkCircuit(Request request) throws IOException {
+        synchronized (this) {
+            if (mCircuitOpenUntil == 0) return false;
+            if (System.currentTimeMillis() >= mCircuitOpenUntil && !mHalfOpenProbe) {
+                // half open: let one call through to probe tmdb
+                mHalfOpenProbe = true;
+                return true;
+            }
+        }
+        mRejected.incrementAndGet();
+        throw new IOException("tmdb circuit open, rejecting " + request.url().encodedPath());
+    }
+
+    private synchronized void onSuccess() {
+        if (mCircuitOpenUntil != 0) log.debug("onSuccess: tmdb reachable again, closing circuit");
+        mConsecutiveFailures = 0;
+        mCircuitOpenUntil = 0;
+        mHalfOpenProbe = false;
+    }
+
+    // a probe that ends without verdict lets the next call probe instead, no-op after onSuccess / onFailure
+    private synchronized void releaseProbe() {
+        mHalfOpenProbe = false;
+    }
+
+    private synchronized void onFailure() {
+        mConsecutiveFailures++;
+        if (mHalfOpenProbe || mConsecutiveFailures >= CIRCUIT_FAILURE_THRESHOLD) {
+            log.warn("onFailure: " + mConsecutiveFailures + " consecutive failures, opening circuit for " + CIRCUIT_OPEN_MILLIS + "ms");
+            mCircuitOpenUntil = System.currentTimeMillis() + CIRCUIT_OPEN_MILLIS;
+            mHalfOpenProbe = false;
+            mCircuitOpenings.incrementAndGet();
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        if (millis <= 0) return;
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for tmdb");
+        }
+    }
+}
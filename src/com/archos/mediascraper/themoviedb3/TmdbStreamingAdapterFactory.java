@@ -0,0 +1,479 @@
+// Copyright 2021 Courville Software
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.archos.mediascraper.themoviedb3;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.uwetrottmann.tmdb2.entities.CastMember;
+import com.uwetrottmann.tmdb2.entities.Collection;
+import com.uwetrottmann.tmdb2.entities.Credits;
+import com.uwetrottmann.tmdb2.entities.CrewMember;
+import com.uwetrottmann.tmdb2.entities.Image;
+import com.uwetrottmann.tmdb2.entities.Images;
+import com.uwetrottmann.tmdb2.entities.Movie;
+import com.uwetrottmann.tmdb2.entities.TvEpisode;
+import com.uwetrottmann.tmdb2.entities.TvSeason;
+import com.uwetrottmann.tmdb2.entities.TvShow;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Streaming decoding of the tmdb replies the scrapers persist (movie, tv show, season, collection, season batch).
+// Only the fields read by MovieIdParser2, ShowIdParser, ShowIdImagesParser, ShowIdEpisodes and MovieCollectionParser
+// are decoded, everything else is skipped in the stream without being materialized:
+// - the bulky parts (credits, images, episodes) are read field by field straight into trimmed entities
+//   (crew limited to directors and writers, images to path/language/vote)
+// - the few small fields left are handed to the regular reflective adapter so that dates and enums keep tmdb-java parsing
+// With trimming disabled only TvSeasonsBatch is handled here, its seasons going through the regular TvSeason adapter.
+public class TmdbStreamingAdapterFactory implements TypeAdapterFactory {
+
+    private static final String DIRECTOR = "Director";
+    private static final String WRITER = "Writer";
+
+    private static final Set<String> MOVIE_FIELDS = fields("id", "imdb_id", "title", "original_title", "overview",
+            "tagline", "genres", "production_companies", "release_date", "belongs_to_collection", "runtime", "budget",
+            "revenue", "vote_average", "vote_count", "popularity", "poster_path", "backdrop_path", "release_dates", "videos");
+    private static final Set<String> TV_SHOW_FIELDS = fields("id", "name", "original_name", "overview", "type", "status",
+            "genres", "networks", "production_companies", "created_by", "first_air_date", "episode_run_time",
+            "number_of_seasons", "vote_average", "vote_count", "popularity", "poster_path", "backdrop_path",
+            "external_ids", "content_ratings");
+    private static final Set<String> TV_SEASON_FIELDS = fields("id", "name", "overview", "air_date", "season_number",
+            "poster_path");
+    private static final Set<String> TV_EPISODE_FIELDS = fields("id", "name", "overview", "air_date", "season_number",
+            "episode_number", "still_path", "vote_average", "vote_count");
+    private static final Set<String> COLLECTION_FIELDS = fields("id", "name", "overview", "poster_path", "backdrop_path");
+
+    private final boolean mTrim;
+
+    public TmdbStreamingAdapterFactory(boolean trim) {
+        mTrim = trim;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> raw = type.getRawType();
+        if (raw == TvSeasonsBatch.class)
+            return (TypeAdapter<T>) new TvSeasonsBatchAdapter(gson.getAdapter(TvSeason.class));
+        if (!mTrim)
+            return null;
+        TypeAdapter<JsonElement> elementAdapter = gson.getAdapter(JsonElement.class);
+        if (raw == Movie.class)
+            return (TypeAdapter<T>) new MovieAdapter(gson.getDelegateAdapter(this, TypeToken.get(Movie.class)), elementAdapter);
+        if (raw == TvShow.class)
+            return (TypeAdapter<T>) new TvShowAdapter(gson.getDelegateAdapter(this, TypeToken.get(TvShow.class)),
+                    gson.getAdapter(TvSeason.class), elementAdapter);
+        if (raw == TvSeason.class)
+            return (TypeAdapter<T>) new TvSeasonAdapter(gson.getDelegateAdapter(this, TypeToken.get(TvSeason.class)),
+                    gson.getDelegateAdapter(this, TypeToken.get(TvEpisode.class)), elementAdapter);
+        if (raw == Collection.class)
+            return (TypeAdapter<T>) new CollectionAdapter(gson.getDelegateAdapter(this, TypeToken.get(Collection.class)), elementAdapter);
+        return null;
+    }
+
+    // reads the object: kept fields are copied for the reflective delegate, streamed fields are handed to readStreamed
+    private static abstract class TrimmedAdapter<T> extends TypeAdapter<T> {
+        private final TypeAdapter<T> mDelegate;
+        private final TypeAdapter<JsonElement> mElementAdapter;
+        private final Set<String> mKept;
+
+        TrimmedAdapter(TypeAdapter<T> delegate, TypeAdapter<JsonElement> elementAdapter, Set<String> kept) {
+            mDelegate = delegate;
+            mElementAdapter = elementAdapter;
+            mKept = kept;
+        }
+
+        // returns false if name is not streamed
+        abstract boolean readStreamed(String name, JsonReader in, Object[] streamed) throws IOException;
+
+        abstract void setStreamed(T value, Object[] streamed);
+
+        abstract int streamedCount();
+
+        @Override
+        public T read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            JsonObject kept = new JsonObject();
+            Object[] streamed = new Object[streamedCount()];
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (readStreamed(name, in, streamed)) continue;
+                if (mKept.contains(name)) kept.add(name, mElementAdapter.read(in));
+                else in.skipValue();
+            }
+            in.endObject();
+            T value = mDelegate.fromJsonTree(kept);
+            setStreamed(value, streamed);
+            return value;
+        }
+
+        @Override
+        public void write(JsonWriter out, T value) throws IOException {
+            mDelegate.write(out, value);
+        }
+    }
+
+    private static class MovieAdapter extends TrimmedAdapter<Movie> {
+        MovieAdapter(TypeAdapter<Movie> delegate, TypeAdapter<JsonElement> elementAdapter) {
+            super(delegate, elementAdapter, MOVIE_FIELDS);
+        }
+
+        @Override
+        boolean readStreamed(String name, JsonReader in, Object[] streamed) throws IOException {
+            switch (name) {
+                case "credits": streamed[0] = readCredits(in); return true;
+                case "images": streamed[1] = readImages(in); return true;
+                default: return false;
+            }
+        }
+
+        @Override
+        void setStreamed(Movie movie, Object[] streamed) {
+            movie.credits = (Credits) streamed[0];
+            movie.images = (Images) streamed[1];
+        }
+
+        @Override
+        int streamedCount() {
+            return 2;
+        }
+    }
+
+    private static class TvShowAdapter extends TrimmedAdapter<TvShow> {
+        private final TypeAdapter<TvSeason> mSeasonAdapter;
+
+        TvShowAdapter(TypeAdapter<TvShow> delegate, TypeAdapter<TvSeason> seasonAdapter, TypeAdapter<JsonElement> elementAdapter) {
+            super(delegate, elementAdapter, TV_SHOW_FIELDS);
+            mSeasonAdapter = seasonAdapter;
+        }
+
+        @Override
+        boolean readStreamed(String name, JsonReader in, Object[] streamed) throws IOException {
+            switch (name) {
+                case "credits": streamed[0] = readCredits(in); return true;
+                case "images": streamed[1] = readImages(in); return true;
+                case "seasons": streamed[2] = readList(in, mSeasonAdapter); return true;
+                default: return false;
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void setStreamed(TvShow tvShow, Object[] streamed) {
+            tvShow.credits = (Credits) streamed[0];
+            tvShow.images = (Images) streamed[1];
+            tvShow.seasons = (List<TvSeason>) streamed[2];
+        }
+
+        @Override
+        int streamedCount() {
+            return 3;
+        }
+    }
+
+    private static class TvSeasonAdapter extends TrimmedAdapter<TvSeason> {
+        private final TvEpisodeAdapter mEpisodeAdapter;
+
+        TvSeasonAdapter(TypeAdapter<TvSeason> delegate, TypeAdapter<TvEpisode> episodeDelegate, TypeAdapter<JsonElement> elementAdapter) {
+            super(delegate, elementAdapter, TV_SEASON_FIELDS);
+            mEpisodeAdapter = new TvEpisodeAdapter(episodeDelegate, elementAdapter);
+        }
+
+        @Override
+        boolean readStreamed(String name, JsonReader in, Object[] streamed) throws IOException {
+            if (!"episodes".equals(name)) return false;
+            streamed[0] = readList(in, mEpisodeAdapter);
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void setStreamed(TvSeason tvSeason, Object[] streamed) {
+            tvSeason.episodes = (List<TvEpisode>) streamed[0];
+        }
+
+        @Override
+        int streamedCount() {
+            return 1;
+        }
+    }
+
+    // episodes only exist inside seasons here, the episode endpoint keeps the regular adapter
+    private static class TvEpisodeAdapter extends TrimmedAdapter<TvEpisode> {
+        TvEpisodeAdapter(TypeAdapter<TvEpisode> delegate, TypeAdapter<JsonElement> elementAdapter) {
+            super(delegate, elementAdapter, TV_EPISODE_FIELDS);
+        }
+
+        @Override
+        boolean readStreamed(String name, JsonReader in, Object[] streamed) throws IOException {
+            switch (name) {
+                case "guest_stars": streamed[0] = readCast(in); return true;
+                case "crew": streamed[1] = readCrew(in); return true;
+                default: return false;
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void setStreamed(TvEpisode tvEpisode, Object[] streamed) {
+            tvEpisode.guest_stars = (List<CastMember>) streamed[0];
+            tvEpisode.crew = (List<CrewMember>) streamed[1];
+        }
+
+        @Override
+        int streamedCount() {
+            return 2;
+        }
+    }
+
+    // drops the parts (the movies of the collection)
+    private static class CollectionAdapter extends TrimmedAdapter<Collection> {
+        CollectionAdapter(TypeAdapter<Collection> delegate, TypeAdapter<JsonElement> elementAdapter) {
+            super(delegate, elementAdapter, COLLECTION_FIELDS);
+        }
+
+        @Override
+        boolean readStreamed(String name, JsonReader in, Object[] streamed) {
+            return false;
+        }
+
+        @Override
+        void setStreamed(Collection collection, Object[] streamed) {
+        }
+
+        @Override
+        int streamedCount() {
+            return 0;
+        }
+    }
+
+    // tv/{id}?append_to_response=season/1,season/2: only the season/N members are read, the show itself is skipped
+    private static class TvSeasonsBatchAdapter extends TypeAdapter<TvSeasonsBatch> {
+        private final TypeAdapter<TvSeason> mSeasonAdapter;
+
+        TvSeasonsBatchAdapter(TypeAdapter<TvSeason> seasonAdapter) {
+            mSeasonAdapter = seasonAdapter;
+        }
+
+        @Override
+        public TvSeasonsBatch read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            TvSeasonsBatch batch = new TvSeasonsBatch();
+            batch.seasons = new HashMap<>();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                int season = name.startsWith(TvSeasonsBatch.PREFIX) ? parseSeason(name) : -1;
+                if (season >= 0 && in.peek() == JsonToken.BEGIN_OBJECT) {
+                    TvSeason tvSeason = mSeasonAdapter.read(in);
+                    if (tvSeason != null) batch.seasons.put(season, tvSeason);
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return batch;
+        }
+
+        @Override
+        public void write(JsonWriter out, TvSeasonsBatch batch) throws IOException {
+            out.beginObject();
+            if (batch.seasons != null)
+                for (Map.Entry<Integer, TvSeason> entry : batch.seasons.entrySet()) {
+                    out.name(TvSeasonsBatch.PREFIX + entry.getKey());
+                    mSeasonAdapter.write(out, entry.getValue());
+                }
+            out.endObject();
+        }
+
+        private static int parseSeason(String name) {
+            try {
+                return Integer.parseInt(name.substring(TvSeasonsBatch.PREFIX.length()));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+
+    private static <T> List<T> readList(JsonReader in, TypeAdapter<T> adapter) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<T> list = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            T value = adapter.read(in);
+            if (value != null) list.add(value);
+        }
+        in.endArray();
+        return list;
+    }
+
+    private static Credits readCredits(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Credits credits = new Credits();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "cast": credits.cast = readCast(in); break;
+                case "guest_stars": credits.guest_stars = readCast(in); break;
+                case "crew": credits.crew = readCrew(in); break;
+                default: in.skipValue();
+            }
+        }
+        in.endObject();
+        return credits;
+    }
+
+    private static List<CastMember> readCast(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<CastMember> cast = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            CastMember member = new CastMember();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "name": member.name = nextString(in); break;
+                    case "character": member.character = nextString(in); break;
+                    case "profile_path": member.profile_path = nextString(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            cast.add(member);
+        }
+        in.endArray();
+        return cast;
+    }
+
+    // only directors and writers are persisted
+    private static List<CrewMember> readCrew(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<CrewMember> crew = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            String name = null;
+            String job = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "name": name = nextString(in); break;
+                    case "job": job = nextString(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            if (DIRECTOR.equals(job) || WRITER.equals(job)) {
+                CrewMember member = new CrewMember();
+                member.name = name;
+                member.job = job;
+                crew.add(member);
+            }
+        }
+        in.endArray();
+        return crew;
+    }
+
+    private static Images readImages(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Images images = new Images();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "posters": images.posters = readImageList(in); break;
+                case "backdrops": images.backdrops = readImageList(in); break;
+                default: in.skipValue();
+            }
+        }
+        in.endObject();
+        return images;
+    }
+
+    private static List<Image> readImageList(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<Image> list = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            Image image = new Image();
+            // parsers sort on it unboxed
+            image.vote_average = 0.0;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "file_path": image.file_path = nextString(in); break;
+                    case "iso_639_1": image.iso_639_1 = nextString(in); break;
+                    case "vote_average":
+                        if (in.peek() == JsonToken.NUMBER) image.vote_average = in.nextDouble();
+                        else in.skipValue();
+                        break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            list.add(image);
+        }
+        in.endArray();
+        return list;
+    }
+
+    private static String nextString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    private static Set<String> fields(String... names) {
+        return new HashSet<>(Arrays.asList(names));
+    }
+}
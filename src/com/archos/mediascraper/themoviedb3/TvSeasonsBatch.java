@@ -0,0 +1,26 @@
+// Copyright 2021 Courville Software
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.archos.mediascraper.themoviedb3;
+
+import com.uwetrottmann.tmdb2.entities.TvSeason;
+
+import java.util.Map;
+
+// seasons appended to a tv reply as "season/N" members, decoded by TmdbStreamingAdapterFactory
+public class TvSeasonsBatch {
+    public static final String PREFIX = "season/";
+    // season number -> season
+    public Map<Integer, TvSeason> seasons;
+}
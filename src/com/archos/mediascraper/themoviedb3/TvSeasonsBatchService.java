@@ -0,0 +1,28 @@
+// Copyright 2021 Courville Software
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.archos.mediascraper.themoviedb3;
+
+import retrofit2.Call;
+import retrofit2.http.GET;
+import retrofit2.http.Path;
+import retrofit2.http.Query;
+
+// tmdb-java AppendToResponseItem has no season/N entry: raw tv call returning each appended season as "season/N" member
+public interface TvSeasonsBatchService {
+    // e.g. https://api.themoviedb.org/3/tv/66732?language=en&append_to_response=season/1,season/2
+    @GET("tv/{tv_id}")
+    Call<TvSeasonsBatch> tvWithSeasons(@Path("tv_id") int tvShowId, @Query("language") String language,
+                                       @Query(value = "append_to_response", encoded = true) String appendToResponse);
+}
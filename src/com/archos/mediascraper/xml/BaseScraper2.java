@@ -24,6 +24,7 @@ import com.archos.mediascraper.ScrapeSearchResult;
 import com.archos.mediascraper.ScrapeStatus;
 import com.archos.mediascraper.Scraper;
 import com.archos.mediascraper.SearchResult;
+import com.archos.mediascraper.TitleMatchCache;
 import com.archos.mediascraper.preprocess.SearchInfo;
 import com.archos.mediascraper.preprocess.SearchPreprocessor;
 import com.archos.mediascraper.preprocess.TvShowSearchInfo;
@@ -103,8 +104,26 @@ public abstract class BaseScraper2 {
             return new ScrapeDetailResult(null, true, null, ScrapeStatus.ERROR, null);
         }
         ScrapeDetailResult result = null;
-        ScrapeSearchResult searchResult = getMatches2(info, 1);
-        if (searchResult.isOkay()) {
+        // same show or film as an earlier file: no need to search and rank again
+        TitleMatchCache matchCache = TitleMatchCache.get(mContext);
+        String matchKey = getAutoSearchKey(info);
+        if (matchCache.isNotFound(matchKey)) {
+            log.debug("search: recently not found " + matchKey);
+            return new ScrapeDetailResult(null, !info.isTvShow(), null, ScrapeStatus.NOT_FOUND, null);
+        }
+        SearchResult best = matchCache.get(matchKey, info, this);
+        ScrapeSearchResult searchResult = null;
+        if (best == null) {
+            searchResult = getMatches2(info, 1);
+            if (searchResult.isOkay()) {
+                best = searchResult.results.get(0);
+                matchCache.put(matchKey, best);
+            } else if (searchResult.status == ScrapeStatus.NOT_FOUND) {
+                // errors are not remembered, they are worth retrying
+                matchCache.putNotFound(matchKey, info.isTvShow());
+            }
+        }
+        if (best != null) {
             if (info.isTvShow()) {
                 log.debug("search: tv show");
                 // here info is a TvSearchInfo
@@ -113,10 +132,10 @@ public abstract class BaseScraper2 {
                 bundle.putInt(Scraper.ITEM_REQUEST_SEASON, tvSearchInfo.getSeason());
                 // keeping whole season boosts the perf since there is only one request for tmdb
                 //bundle.putInt(Scraper.ITEM_REQUEST_EPISODE, tvSearchInfo.getEpisode());
-                result = getDetails(searchResult.results.get(0), bundle);
+                result = getDetails(best, bundle);
             } else {
                 log.debug("search: not tv show");
-                result = getDetails(searchResult.results.get(0), null);
+                result = getDetails(best, null);
             }
         } else {
             result = new ScrapeDetailResult(null, searchResult.isMovie, null, searchResult.status, searchResult.reason);
@@ -144,6 +163,13 @@ public abstract class BaseScraper2 {
      */
     public abstract ScrapeSearchResult getMatches2(SearchInfo info, int maxItems);
 
+    /**
+     * Key identifying what {@link #search(SearchInfo)} looks for, files with the same key
+     * get the same result. null if the info is not for this scraper
+     * @see TitleMatchCache#key(boolean, String, String, String, String)
+     */
+    protected abstract String getAutoSearchKey(SearchInfo info);
+
     /**
      * Request details for a SearchResult
      *
@@ -21,12 +21,14 @@ import android.os.Bundle;
 import android.text.TextUtils;
 
 import com.archos.medialib.R;
+import com.archos.mediascraper.ArtworkDownloader;
 import com.archos.mediascraper.MovieTags;
 import com.archos.mediascraper.ScrapeDetailResult;
 import com.archos.mediascraper.ScrapeSearchResult;
 import com.archos.mediascraper.ScrapeStatus;
 import com.archos.mediascraper.ScraperCache;
 import com.archos.mediascraper.SearchResult;
+import com.archos.mediascraper.TitleMatchCache;
 import com.archos.mediascraper.preprocess.MovieSearchInfo;
 import com.archos.mediascraper.preprocess.SearchInfo;
 import com.archos.mediascraper.settings.ScraperSetting;
@@ -112,6 +114,14 @@ public class MovieScraper3 extends BaseScraper2 {
         return new ScrapeSearchResult(searchResult.result, true, searchResult.status, searchResult.reason);
     }
 
+    @Override
+    protected String getAutoSearchKey(SearchInfo info) {
+        if (!(info instanceof MovieSearchInfo))
+            return null;
+        MovieSearchInfo searchInfo = (MovieSearchInfo) info;
+        return TitleMatchCache.key(false, searchInfo.getName(), searchInfo.getYear(), getLanguage(mContext), null);
+    }
+
     @Override
     protected ScrapeDetailResult getDetailsInternal(SearchResult result, Bundle options) {
         // TODO: why it searches every first level result?
@@ -164,14 +174,13 @@ public class MovieScraper3 extends BaseScraper2 {
             log.debug("ScrapeDetailResult: getting description in en because plot non existent in " + language);
             MovieIdDescription2.addDescription(movieId, tag, moviesService);
         }
-        tag.downloadPoster(mContext);
-        // TODO MARC ?
-        tag.downloadBackdrop(mContext);
-        tag.downloadActorPhoto(mContext);
-        tag.downloadActorPhotos(mContext);
-        tag.downloadStudioLogo(mContext);
-        tag.downloadStudioLogos(mContext);
-        tag.downloadClearLogo(mContext);
+        // images are downloaded in the background, metadata does not wait for them
+        ArtworkDownloader downloader = ArtworkDownloader.get(mContext);
+        downloader.enqueue(tag.getDefaultPoster(), ArtworkDownloader.Priority.DEFAULT);
+        downloader.enqueue(tag.getDefaultBackdrop(), ArtworkDownloader.Priority.DEFAULT);
+        downloader.enqueue(tag.getActorPhotos(), ArtworkDownloader.Priority.ALTERNATE);
+        downloader.enqueue(tag.getStudioLogos(), ArtworkDownloader.Priority.ALTERNATE);
+        downloader.enqueue(tag.getDefaultClearLogo(), ArtworkDownloader.Priority.ALTERNATE);
         return new ScrapeDetailResult(tag, true, null, ScrapeStatus.OKAY, null);
     }
 
@@ -26,6 +26,7 @@ import android.util.SparseArray;
 
 import com.archos.medialib.R;
 import com.archos.mediaprovider.video.ScraperStore;
+import com.archos.mediascraper.ArtworkDownloader;
 import com.archos.mediascraper.EpisodeTags;
 import com.archos.mediascraper.ScrapeDetailResult;
 import com.archos.mediascraper.ScrapeSearchResult;
@@ -36,6 +37,7 @@ import com.archos.mediascraper.ScraperImage;
 import com.archos.mediascraper.SearchResult;
 import com.archos.mediascraper.ShowTags;
 import com.archos.mediascraper.ShowUtils;
+import com.archos.mediascraper.TitleMatchCache;
 import com.archos.mediascraper.preprocess.SearchInfo;
 import com.archos.mediascraper.preprocess.TvShowSearchInfo;
 import com.archos.mediascraper.settings.ScraperSetting;
@@ -129,6 +131,15 @@ public class ShowScraper4 extends BaseScraper2 {
         return new ScrapeSearchResult(searchResult.result, false, searchResult.status, searchResult.reason);
     }
 
+    @Override
+    protected String getAutoSearchKey(SearchInfo info) {
+        if (!(info instanceof TvShowSearchInfo))
+            return null;
+        TvShowSearchInfo searchInfo = (TvShowSearchInfo) info;
+        return TitleMatchCache.key(true, searchInfo.getShowName(), searchInfo.getFirstAiredYear(),
+                getLanguage(mContext), searchInfo.getCountryOfOrigin());
+    }
+
     @Override
     protected ScrapeDetailResult getDetailsInternal(SearchResult result, Bundle options) {
         // result is the global tvShow
@@ -252,20 +263,17 @@ public class ShowScraper4 extends BaseScraper2 {
                     else log.debug("getDetailsInternal: posters empty!");
                     // needs to be done after setPosters not to be erased
                     if (result.getPosterPath() != null) showTags.addDefaultPosterTMDB(mContext, result.getPosterPath());
+                    showTags.setPosterRefs(searchImages.posterRefs);
+                    showTags.setBackdropRefs(searchImages.backdropRefs);
 
-                    // only downloads main backdrop/poster and not the entire collection (x8 in size)
-                    showTags.downloadPoster(mContext);
-                    showTags.downloadBackdrop(mContext);
-                    showTags.downloadNetworkLogo(mContext);
-                    showTags.downloadActorPhoto(mContext);
-                    showTags.downloadClearLogo(mContext);
-                    showTags.downloadStudioLogo(mContext);
-                    //showTags.downloadPosters(mContext);
-                    //showTags.downloadBackdrops(mContext);
-                    showTags.downloadNetworkLogos(mContext);
-                    showTags.downloadStudioLogos(mContext);
-                    showTags.downloadActorPhotos(mContext);
-                    //showTags.downloadClearLogos(mContext);
+                    // images are downloaded in the background: main backdrop/poster first and not the entire collection (x8 in size)
+                    ArtworkDownloader downloader = ArtworkDownloader.get(mContext);
+                    downloader.enqueue(showTags.getDefaultPoster(), ArtworkDownloader.Priority.DEFAULT);
+                    downloader.enqueue(showTags.getDefaultBackdrop(), ArtworkDownloader.Priority.DEFAULT);
+                    downloader.enqueue(showTags.getNetworkLogos(), ArtworkDownloader.Priority.ALTERNATE);
+                    downloader.enqueue(showTags.getActorPhotos(), ArtworkDownloader.Priority.ALTERNATE);
+                    downloader.enqueue(showTags.getDefaultClearLogo(), ArtworkDownloader.Priority.ALTERNATE);
+                    downloader.enqueue(showTags.getStudioLogos(), ArtworkDownloader.Priority.ALTERNATE);
 
 
                 } else {
@@ -290,10 +298,11 @@ public class ShowScraper4 extends BaseScraper2 {
             Map<Integer, TvSeason> tvSeasons = new HashMap<Integer, TvSeason>();
 
             if (getAllEpisodes) {
-                // get all episodes: loop over seasons and concatenate
+                // get all episodes: seasons are fetched in batches, then concatenated in order
+                log.debug("getDetailsInternal: get episodes for show " + showId + " s1-s" + number_of_seasons);
+                Map<Integer, ShowIdSeasonSearchResult> showIdSeasons = ShowIdSeasonSearch.getSeasonShowResponses(showId, number_of_seasons, resultLanguage, tmdb);
                 for (int s = 1; s <= number_of_seasons; s++) {
-                    log.debug("getDetailsInternal: get episodes for show " + showId + " s" + s);
-                    ShowIdSeasonSearchResult showIdSeason = ShowIdSeasonSearch.getSeasonShowResponse(showId, s, resultLanguage, tmdb);
+                    ShowIdSeasonSearchResult showIdSeason = showIdSeasons.get(s);
                     if (showIdSeason.status == ScrapeStatus.OKAY) {
                         tvEpisodes.addAll(showIdSeason.tvSeason.episodes);
                         if (! tvSeasons.containsKey(showIdSeason.tvSeason.season_number))
@@ -357,9 +366,12 @@ public class ShowScraper4 extends BaseScraper2 {
                 sEpisodeCache.put(showKey, allEpisodes);
             }
 
-            // if we have episodes and posters map them to each other
-            if (!allEpisodes.isEmpty() && !showTags.getAllPostersInDb(mContext).isEmpty())
-                mapPostersEpisodes(allEpisodes, showTags.getAllPostersInDb(mContext), resultLanguage);
+            // if we have episodes and posters map them to each other, alternatives not picked yet play no part
+            if (!allEpisodes.isEmpty()) {
+                List<ScraperImage> posters = showTags.getAllPostersInDb(mContext, -1, false, false);
+                if (posters != null && !posters.isEmpty())
+                    mapPostersEpisodes(allEpisodes, posters, resultLanguage);
+            }
         } else {
             log.debug("getDetailsInternal: cache boost for showId (all episodes)");
             // no need to parse, we have a cached result
@@ -429,7 +441,7 @@ public class ShowScraper4 extends BaseScraper2 {
                     if (image.getSeason() == season) {
                         log.debug("buildTag: " + showTags.getTitle() + " season poster s" + season + " " + image.getLargeUrl());
                         episodeTag.setPosters(image.asList());
-                        episodeTag.downloadPoster(mContext);
+                        ArtworkDownloader.get(mContext).enqueue(image, ArtworkDownloader.Priority.DEFAULT);
                         break;
                     }
                 }
@@ -448,8 +460,11 @@ public class ShowScraper4 extends BaseScraper2 {
                 log.warn("buildTag: " + episodeTag.getTitle() + " has empty showTags!");
             }
             // download still & poster because episode has been selected here
-            episodeTag.downloadPicture(mContext);
-            episodeTag.downloadPoster(mContext);
+            ArtworkDownloader downloader = ArtworkDownloader.get(mContext);
+            downloader.enqueue(episodeTag.getEpisodePicture(), ArtworkDownloader.Priority.DEFAULT);
+            downloader.enqueue(episodeTag.getDefaultPoster(), ArtworkDownloader.Priority.DEFAULT);
+            if (episodeTag.getShowTags() != null)
+                downloader.enqueue(episodeTag.getShowTags().getDefaultPoster(), ArtworkDownloader.Priority.DEFAULT);
         }
         log.debug("buildTag: " + episodeTag.getShowTitle() + " " + episodeTag.getShowId() + " " + episodeTag.getTitle());
         return episodeTag;
@@ -22,8 +22,6 @@ package httpimage;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -83,22 +81,31 @@ public class BitmapUtil {
     }
     
     
+    /**
+     * Decodes the file in two passes: bounds first, then the downsampled pixels.
+     * The encoded data is streamed by BitmapFactory and never held in a byte[].
+     */
     public static Bitmap decodeFile(String filePath, int maxNumOfPixels) {
         if (DEBUG) Log.d(TAG, "decodeFile " + filePath + "maxNumOfPixels " + maxNumOfPixels);
-        FileInputStream fis = null;
         try {
-            fis = new FileInputStream(new File(filePath));
-            return decodeByteArray(readStream(fis), maxNumOfPixels);
+            BitmapFactory.Options option = new BitmapFactory.Options();
+            // Decode only image size
+            option.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(filePath, option);
+            if (option.outWidth <= 0 || option.outHeight <= 0)
+                return null;
 
-        } catch (IOException e) {
-            Log.w(TAG, e);
+            option.inJustDecodeBounds = false;
+            option.inSampleSize = computeSampleSize(option, UNCONSTRAINED,
+                    maxNumOfPixels);
+
+            return BitmapFactory.decodeFile(filePath, option);
+
+        } catch (OutOfMemoryError oom) {
+
+            Log.w(TAG, oom);
             return null;
         }
-        finally {
-            if(fis != null) {
-                try { fis.close(); } catch (IOException e) {}
-            }
-        }
     }
     
     
@@ -23,6 +23,7 @@ package httpimage;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import android.graphics.Bitmap;
 import android.util.Log;
 
@@ -32,7 +33,7 @@ import android.util.Log;
  * 
  * @author zonghai@gmail.com
  */
-public class FileSystemPersistence implements BitmapCache{
+public class FileSystemPersistence implements BitmapCache, StreamingPersistence {
 
     private static String TAG = "FileSystemPersistence";
     private static boolean DEBUG = true;
@@ -107,6 +108,45 @@ public class FileSystemPersistence implements BitmapCache{
     }
     
     
+    @Override
+    public File storeStream(String key, InputStream in) throws IOException {
+        File file = new File( new File(mBaseDir), key) ;
+        // write next to the target and rename, a partial download must never look like a stored image
+        File tmpFile = new File(file.getParentFile(), key + ".tmp");
+        FileOutputStream outputStream = null;
+        boolean done = false;
+
+        try {
+            if (!file.getParentFile().exists()) {
+                file.getParentFile().mkdirs();
+            }
+            outputStream = new FileOutputStream(tmpFile);
+            byte[] buf = new byte[8192];
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                outputStream.write(buf, 0, read);
+            }
+            outputStream.flush();
+            outputStream.close();
+            outputStream = null;
+            if (!tmpFile.renameTo(file))
+                throw new IOException("could not rename " + tmpFile + " to " + file);
+            done = true;
+            return file;
+        }
+        finally {
+            if(outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {}
+            }
+            if (!done) {
+                tmpFile.delete();
+            }
+        }
+    }
+
+
     /**
      * Delete a directory
      *
@@ -22,15 +22,23 @@ package httpimage;
 
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
@@ -99,6 +107,8 @@ public class HttpImageManager{
     public static final int DEFAULT_CACHE_SIZE = 64;
     public static final int UNCONSTRAINED = -1;
     public static final int DECODING_MAX_PIXELS_DEFAULT = 600 * 800;
+    /** concurrent downloads from a single host, the others are queued again once a slot is free */
+    public static final int MAX_REQUESTS_PER_HOST = 2;
 
 
     public static class LoadRequest {
@@ -241,6 +251,9 @@ public class HttpImageManager{
 
     /**
      * Nonblocking call, return null if the bitmap is not in cache.
+     * <p>
+     * Requests for an URI that is already being loaded don't start a second download,
+     * they are answered together with the pending one.
      * @param r
      * @return
      */
@@ -262,167 +275,377 @@ public class HttpImageManager{
         }
         else { 
             // not ready yet, try to retrieve it asynchronously.
-            mExecutor.execute( newRequestCall(r));
+            enqueue(r, PRIORITY_VISIBLE);
             return null;
         }
     }
 
 
+    /**
+     * Nonblocking call that loads an image into the caches without displaying it,
+     * e.g. for list rows that are about to become visible.
+     * Prefetches run only when no visible image is waiting to be loaded, they share
+     * the per-host limit and are merged with visible requests for the same URI.
+     * @param uri
+     */
+    public void prefetch(Uri uri) {
+        if(uri == null || TextUtils.isEmpty(uri.toString()))
+            return;
+
+        LoadRequest r = new LoadRequest(uri);
+        if(mCache != null && mCache.exists(r.getHashedUri()))
+            return;
+
+        enqueue(r, PRIORITY_PREFETCH);
+    }
+
+
+    /**
+     * @see #prefetch(Uri)
+     */
+    public void prefetch(List<Uri> uris) {
+        for (Uri uri : uris) {
+            prefetch(uri);
+        }
+    }
+
+
     ////PRIVATE
-    private Runnable newRequestCall(final LoadRequest request) {
-        return new Runnable() {
+    private static final int PRIORITY_PREFETCH = 0;
+    private static final int PRIORITY_VISIBLE = 1;
+
+    /** all LoadRequests for the same URI, served by a single task */
+    private static class PendingLoad {
+        final List<LoadRequest> requests = new ArrayList<LoadRequest>(2);
+        RequestTask task;
+    }
+
+
+    /**
+     * Work item of the executor. Higher priority first, then the newest request first
+     * since in a scrolling list that is the one currently on screen.
+     */
+    private class RequestTask implements Runnable, Comparable<RequestTask> {
+        final String mKey;
+        final Uri mUri;
+        final int mPriority;
+        final long mSequence;
+
+        RequestTask(String key, Uri uri, int priority) {
+            mKey = key;
+            mUri = uri;
+            mPriority = priority;
+            mSequence = mSequenceGenerator.incrementAndGet();
+        }
+
+        @Override
+        public int compareTo(RequestTask another) {
+            if (mPriority != another.mPriority)
+                return mPriority > another.mPriority ? -1 : 1;
+            if (mSequence != another.mSequence)
+                return mSequence > another.mSequence ? -1 : 1;
+            return 0;
+        }
+
+        @Override
+        public void run() {
+            handleRequest(this);
+        }
+    }
 
-            public void run() {
 
-                // if the request dosen't represent the intended ImageView, do nothing.
-                if(request.getImageView() != null) {
-                    final ImageView iv = request.getImageView();
+    private void enqueue(LoadRequest request, int priority) {
+        String key = request.getHashedUri();
+        synchronized (mActiveRequests) {
+            PendingLoad pending = mActiveRequests.get(key);
+            if (pending != null) {
+                // same URI is already on its way, just wait for it
+                pending.requests.add(request);
+                if (priority > pending.task.mPriority
+                        && (mExecutor.remove(pending.task) || unparkHostSlot(pending.task))) {
+                    // a prefetch that did not start yet is now needed on screen
+                    pending.task = new RequestTask(key, request.getUri(), priority);
+                    mExecutor.execute(pending.task);
+                }
+                return;
+            }
+            pending = new PendingLoad();
+            pending.requests.add(request);
+            pending.task = new RequestTask(key, request.getUri(), priority);
+            mActiveRequests.put(key, pending);
+            mExecutor.execute(pending.task);
+        }
+    }
+
+
+    /** drops requests whose ImageView now shows another URI, @return false if none is left */
+    private boolean hasValidRequests(String key) {
+        synchronized (mActiveRequests) {
+            PendingLoad pending = mActiveRequests.get(key);
+            if (pending == null)
+                return false;
+            Iterator<LoadRequest> it = pending.requests.iterator();
+            while (it.hasNext()) {
+                LoadRequest request = it.next();
+                final ImageView iv = request.getImageView();
+                if (iv != null) {
                     synchronized ( iv ) {
                         if ( iv.getTag() != request.getUri() ) {
                             if(DEBUG)  Log.d(TAG, "give up loading: " + request.getUri().toString());
-                            return;
+                            it.remove();
                         }
                     }
                 }
+            }
+            if (pending.requests.isEmpty()) {
+                mActiveRequests.remove(key);
+                return false;
+            }
+            return true;
+        }
+    }
 
-                synchronized (mActiveRequests) {
-                    // If there's been already request pending for the same URL, we just wait until it is handled.
-                    while (mActiveRequests.contains(request)) {
-                        try {
-                            mActiveRequests.wait();
-                        } catch(InterruptedException e) {}
-                    }
 
-                    mActiveRequests.add(request);
-                }
+    /** removes the pending load, @return all requests that were waiting for it */
+    private List<LoadRequest> finishRequests(String key) {
+        synchronized (mActiveRequests) {
+            PendingLoad pending = mActiveRequests.remove(key);
+            if (pending == null)
+                return Collections.emptyList();
+            return pending.requests;
+        }
+    }
 
-                Bitmap data = null;
-                String key = request.getHashedUri();
 
-                try {
-                    //first we lookup memory cache
-                    if (mCache != null)
-                        data = mCache.loadData(key);
-
-                    if(data == null) {
-                        if(DEBUG)  Log.d(TAG, "cache missing " + request.getUri().toString());
-                        //then check the persistent storage
-                        data = mPersistence.loadData(key);
-                        if(data != null) {
-                            if(DEBUG)  Log.d(TAG, "found in persistent: " + request.getUri().toString());
-                            
-                            // load it into memory
-                            if (mCache != null)
-                                mCache.storeData(key, data);
-
-                            fireLoadProgress(request, 1, 1); // fire progress done
-                        }
-                        else {
-                            // we go to network
-                            if(DEBUG)  Log.d(TAG, "go to network " + request.getUri().toString());
-                            long millis = System.currentTimeMillis();
-                            
-                            byte[] binary = null;
-                            //HttpResponse httpResp = mNetworkResourceLoader.load(request.getUri());
-                            CloseableHttpResponse httpResp = mNetworkResourceLoader.load(request.getUri());
-
-                            Header[] headers = httpResp.getHeaders();
-                            for (Header header : headers) {
-                                if(DEBUG) Log.i(TAG, header.toString());
-                                if (header.getName().equalsIgnoreCase("Content-Type") && !header.getValue().startsWith("image"))
-                                    throw new RuntimeException("data from remote can't be decoded to bitmap");
-                            }
-
-                            HttpEntity entity = httpResp.getEntity();
-                            if (entity != null) {
-                                InputStream responseStream = entity.getContent();
-                                try {
-                                    /*
-                                    Header header = entity.getContentEncoding();
-                                    String contentEncoding = entity.getContentEncoding();
-                                    if (header != null && header.getValue() != null && header.getValue().contains("gzip")) {
-                                        responseStream =  new GZIPInputStream(responseStream);
-                                    }
-                                     */
-                                    String contentEncoding = entity.getContentEncoding();
-                                    if (DEBUG) Log.d(TAG, "contentEncoding=" + contentEncoding);
-                                    if (contentEncoding != null && contentEncoding.length() >0 && contentEncoding.contains("gzip")) {
-                                        responseStream =  new GZIPInputStream(responseStream);
-                                    }
-
-                                    responseStream = new FlushedInputStream(responseStream); //patch the inputstream
-                                    long contentSize = entity.getContentLength();
-                                    binary = readInputStreamProgressively(responseStream, (int)contentSize, request);
-                                    data = BitmapUtil.decodeByteArray(binary, mMaxNumOfPixelsConstraint);
-                                } 
-                                finally {
-                                    if(responseStream != null) {
-                                        try { responseStream.close(); } catch (IOException e) {}
-                                    }
-                                }
-                            }
-
-                            if(data == null) 
-                                throw new RuntimeException("data from remote can't be decoded to bitmap");
-
-                            if(DEBUG) Log.d(TAG, "decoded image: " + data.getWidth() + "x" + data.getHeight() );
-                            if(DEBUG) Log.d(TAG, "time consumed: " + (System.currentTimeMillis() - millis));
-
-                            //apply filter(s)
-                            if (mFilter != null) {
-                                try {
-                                    Bitmap newData = mFilter.filter(data);
-                                    if (newData != null) data = newData;
-                                }
-                                catch (Throwable e) {}
-                            }
-                            
-                            // load it into memory
-                            if (mCache != null)
-                                mCache.storeData(key, data);
-
-                            // persist it. Save the file as-is, preserving the format.
-                            mPersistence.storeData(key, binary);
-                        }
-                    }
+    private List<LoadRequest> snapshotRequests(String key) {
+        synchronized (mActiveRequests) {
+            PendingLoad pending = mActiveRequests.get(key);
+            if (pending == null)
+                return Collections.emptyList();
+            return new ArrayList<LoadRequest>(pending.requests);
+        }
+    }
 
-                    if(data != null && request.getImageView() != null) {
-                        final Bitmap finalData = data;
-                        final ImageView iv = request.getImageView();
-
-                        synchronized ( iv ) {
-                            if ( iv.getTag() == request.getUri() ) {
-                                mHandler.post(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        if ( iv.getTag() == request.getUri()) {
-                                            iv.setImageBitmap(finalData);
-                                            iv.clearColorFilter();
-                                            iv.setScaleType(ImageView.ScaleType.FIT_CENTER);
-                                        }
-                                    }
-                                });
-                            }
-                        }
-                    }
 
-                    // callback listener if any
-                    fireLoadResponse(request, data);
+    private void handleRequest(RequestTask task) {
+        String key = task.mKey;
+
+        // if no request represents its intended ImageView anymore, do nothing.
+        if (!hasValidRequests(key))
+            return;
+
+        Bitmap data = null;
+        Throwable error = null;
+
+        try {
+            //first we lookup memory cache
+            if (mCache != null)
+                data = mCache.loadData(key);
+
+            if(data == null) {
+                if(DEBUG)  Log.d(TAG, "cache missing " + task.mUri.toString());
+                //then check the persistent storage
+                data = mPersistence.loadData(key);
+                if(data != null) {
+                    if(DEBUG)  Log.d(TAG, "found in persistent: " + task.mUri.toString());
+
+                    // load it into memory
+                    if (mCache != null)
+                        mCache.storeData(key, data);
+
+                    fireLoadProgress(key, 1, 1); // fire progress done
                 }
-                catch (Throwable e) {
-                    fireLoadFailure(request, e);
-                    if(DEBUG) Log.e(TAG, "error handling request " + request.getUri(), e);
+                else {
+                    // we go to network, unless the host is busy: then the task is parked
+                    // and queued again when a slot is free instead of blocking a worker
+                    String host = task.mUri.getHost();
+                    if (!acquireHostSlot(host, task)) {
+                        if(DEBUG)  Log.d(TAG, "host busy, parked " + task.mUri.toString());
+                        return;
+                    }
+                    try {
+                        if(DEBUG)  Log.d(TAG, "go to network " + task.mUri.toString());
+                        data = loadFromNetwork(key, task.mUri);
+                    }
+                    finally {
+                        releaseHostSlot(host);
+                    }
                 }
-                finally{
-                    synchronized (mActiveRequests) {
-                        mActiveRequests.remove(request);
-                        mActiveRequests.notifyAll();  // wake up pending requests who's querying the same URL. 
+            }
+        }
+        catch (Throwable e) {
+            error = e;
+            if(DEBUG) Log.e(TAG, "error handling request " + task.mUri, e);
+        }
+
+        // answer everyone that waited for this URI, including late joiners
+        List<LoadRequest> requests = finishRequests(key);
+        for (LoadRequest request : requests) {
+            if (error != null) {
+                fireLoadFailure(request, error);
+                continue;
+            }
+            if(data != null && request.getImageView() != null) {
+                postToImageView(request, data);
+            }
+
+            // callback listener if any
+            fireLoadResponse(request, data);
+        }
+
+        if (DEBUG) Log.d(TAG, "finished request for: " + task.mUri);
+    }
+
+
+    private Bitmap loadFromNetwork(String key, Uri uri) throws IOException {
+        long millis = System.currentTimeMillis();
+        Bitmap data = null;
+        byte[] binary = null;
+
+        CloseableHttpResponse httpResp = mNetworkResourceLoader.load(uri);
+        try {
+            Header[] headers = httpResp.getHeaders();
+            for (Header header : headers) {
+                if(DEBUG) Log.i(TAG, header.toString());
+                if (header.getName().equalsIgnoreCase("Content-Type") && !header.getValue().startsWith("image"))
+                    throw new RuntimeException("data from remote can't be decoded to bitmap");
+            }
+
+            HttpEntity entity = httpResp.getEntity();
+            if (entity != null) {
+                InputStream responseStream = entity.getContent();
+                try {
+                    String contentEncoding = entity.getContentEncoding();
+                    if (DEBUG) Log.d(TAG, "contentEncoding=" + contentEncoding);
+                    if (contentEncoding != null && contentEncoding.length() >0 && contentEncoding.contains("gzip")) {
+                        responseStream =  new GZIPInputStream(responseStream);
                     }
 
-                    if (DEBUG) Log.d(TAG, "finished request for: " + request.getUri());
+                    responseStream = new FlushedInputStream(responseStream); //patch the inputstream
+                    long contentSize = entity.getContentLength();
+                    if (mPersistence instanceof StreamingPersistence) {
+                        // write the body straight to storage and decode from there, bounds first
+                        InputStream progressStream = new ProgressInputStream(responseStream, contentSize, key);
+                        File file = ((StreamingPersistence) mPersistence).storeStream(key, progressStream);
+                        data = BitmapUtil.decodeFile(file.getAbsolutePath(), mMaxNumOfPixelsConstraint);
+                        if (data == null)
+                            file.delete();
+                    } else {
+                        binary = readInputStreamProgressively(responseStream, (int)contentSize, key);
+                        data = BitmapUtil.decodeByteArray(binary, mMaxNumOfPixelsConstraint);
+                    }
+                } 
+                finally {
+                    if(responseStream != null) {
+                        try { responseStream.close(); } catch (IOException e) {}
+                    }
                 }
             }
-        };
+        }
+        finally {
+            try { httpResp.close(); } catch (IOException e) {}
+        }
+
+        if(data == null) 
+            throw new RuntimeException("data from remote can't be decoded to bitmap");
+
+        if(DEBUG) Log.d(TAG, "decoded image: " + data.getWidth() + "x" + data.getHeight() );
+        if(DEBUG) Log.d(TAG, "time consumed: " + (System.currentTimeMillis() - millis));
+
+        //apply filter(s)
+        if (mFilter != null) {
+            try {
+                Bitmap newData = mFilter.filter(data);
+                if (newData != null) data = newData;
+            }
+            catch (Throwable e) {}
+        }
+
+        // load it into memory
+        if (mCache != null)
+            mCache.storeData(key, data);
+
+        // persist it. Save the file as-is, preserving the format.
+        if (binary != null)
+            mPersistence.storeData(key, binary);
+
+        return data;
+    }
+
+
+    /** downloads running for a host and the tasks waiting for one of them to finish */
+    private static class HostSlots {
+        int running;
+        // same order as the executor queue
+        final PriorityQueue<RequestTask> parked = new PriorityQueue<RequestTask>();
+    }
+
+
+    /** @return true if task may download now, else it is parked until {@link #releaseHostSlot(String)} */
+    private boolean acquireHostSlot(String host, RequestTask task) {
+        if (host == null)
+            host = "";
+        synchronized (mHostSlots) {
+            HostSlots slots = mHostSlots.get(host);
+            if (slots == null) {
+                slots = new HostSlots();
+                mHostSlots.put(host, slots);
+            }
+            if (slots.running < MAX_REQUESTS_PER_HOST) {
+                slots.running++;
+                return true;
+            }
+            slots.parked.add(task);
+            return false;
+        }
+    }
+
+
+    private void releaseHostSlot(String host) {
+        if (host == null)
+            host = "";
+        RequestTask next;
+        synchronized (mHostSlots) {
+            HostSlots slots = mHostSlots.get(host);
+            slots.running--;
+            next = slots.parked.poll();
+            if (next == null && slots.running == 0)
+                mHostSlots.remove(host);
+        }
+        if (next != null)
+            mExecutor.execute(next);
+    }
+
+
+    /** @return true if task was parked and is not anymore */
+    private boolean unparkHostSlot(RequestTask task) {
+        String host = task.mUri.getHost();
+        if (host == null)
+            host = "";
+        synchronized (mHostSlots) {
+            HostSlots slots = mHostSlots.get(host);
+            return slots != null && slots.parked.remove(task);
+        }
+    }
+
+
+    private void postToImageView(final LoadRequest request, final Bitmap data) {
+        final ImageView iv = request.getImageView();
+
+        synchronized ( iv ) {
+            if ( iv.getTag() == request.getUri() ) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if ( iv.getTag() == request.getUri()) {
+                            iv.setImageBitmap(data);
+                            iv.clearColorFilter();
+                            iv.setScaleType(ImageView.ScaleType.FIT_CENTER);
+                        }
+                    }
+                });
+            }
+        }
     }
 
 
@@ -445,10 +668,10 @@ public class HttpImageManager{
 
 
     ////////PRIVATE
-    private byte[] readInputStreamProgressively (InputStream is, int totalSize, LoadRequest r) 
+    private byte[] readInputStreamProgressively (InputStream is, int totalSize, String key) 
             throws IOException {
 
-        fireLoadProgress(r, 3, 1); // compensate 33% of total time, which was consumed by establishing HTTP connection
+        fireLoadProgress(key, 3, 1); // compensate 33% of total time, which was consumed by establishing HTTP connection
 
         if (totalSize > 0) { // content length is known
             byte[] data = new byte[totalSize];
@@ -457,7 +680,7 @@ public class HttpImageManager{
 
             while (offset < totalSize && (readed = is.read(data, offset, totalSize - offset)) != -1) {
                 offset += readed;
-                fireLoadProgress(r, totalSize, (totalSize + offset) >> 1 );
+                fireLoadProgress(key, totalSize, (totalSize + offset) >> 1 );
             }
 
             if (offset != totalSize)
@@ -480,7 +703,7 @@ public class HttpImageManager{
                 count += readed;
             }
 
-            fireLoadProgress(r, count, count);
+            fireLoadProgress(key, count, count);
 
             if (count > Integer.MAX_VALUE) 
                 throw new IOException("content too large: " + (count / (1024 * 1024 )) + " M");
@@ -500,12 +723,14 @@ public class HttpImageManager{
     }
 
 
-    private void fireLoadProgress(final LoadRequest r, final long totalContentSize, final long loadedContentSize) {
-        if ( r.mListener != null) {
-            try {
-                r.mListener.onLoadProgress(r, totalContentSize, loadedContentSize);
+    private void fireLoadProgress(final String key, final long totalContentSize, final long loadedContentSize) {
+        for (LoadRequest r : snapshotRequests(key)) {
+            if ( r.mListener != null) {
+                try {
+                    r.mListener.onLoadProgress(r, totalContentSize, loadedContentSize);
+                }
+                catch (Throwable t) {}
             }
-            catch (Throwable t) {}
         }
     }
     
@@ -520,16 +745,74 @@ public class HttpImageManager{
     }
 
 
+    private static ThreadPoolExecutor createExecutor() {
+        // downloads wait on the network, not the CPU, but decoding does not: stay within 2..4
+        int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        // core == max, otherwise the pool never grows since the queue is unbounded
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+
     private int mMaxNumOfPixelsConstraint = DECODING_MAX_PIXELS_DEFAULT;
     private BitmapCache mCache;
     private BitmapCache mPersistence;
     private NetworkResourceLoader mNetworkResourceLoader = new NetworkResourceLoader(); 
 
     private Handler mHandler = new Handler();
-    private ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(1, 4, 10, TimeUnit.SECONDS, new LinkedBlockingStack<Runnable>());
-    private Set<LoadRequest> mActiveRequests = new HashSet<LoadRequest>();
+    private ThreadPoolExecutor mExecutor = createExecutor();
+    private Map<String, PendingLoad> mActiveRequests = new HashMap<String, PendingLoad>();
+    private Map<String, HostSlots> mHostSlots = new HashMap<String, HostSlots>();
+    private AtomicLong mSequenceGenerator = new AtomicLong();
     private BitmapFilter mFilter;
 
+
+    /**
+     * Reports the download progress the same way as readInputStreamProgressively
+     * when the body is streamed to storage.
+     */
+    private class ProgressInputStream extends FilterInputStream {
+        private final long mTotalSize;
+        private final String mKey;
+        private long mRead;
+
+        public ProgressInputStream(InputStream inputStream, long totalSize, String key) {
+            super(inputStream);
+            mTotalSize = totalSize;
+            mKey = key;
+            fireLoadProgress(key, 3, 1); // compensate 33% of total time, which was consumed by establishing HTTP connection
+        }
+
+
+        @Override
+        public int read() throws IOException {
+            int result = in.read();
+            if (result != -1)
+                progress(1);
+            return result;
+        }
+
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int result = in.read(buffer, offset, count);
+            if (result > 0)
+                progress(result);
+            else if (result == -1 && mTotalSize <= 0)
+                fireLoadProgress(mKey, mRead, mRead);
+            return result;
+        }
+
+
+        private void progress(int read) {
+            mRead += read;
+            if (mTotalSize > 0)
+                fireLoadProgress(mKey, mTotalSize, (mTotalSize + mRead) >> 1);
+        }
+    }
+
     
     /*
      * The BitmapFactory.decodeStream() method fails to read a JPEG image (i.e.
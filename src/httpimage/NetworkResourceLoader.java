@@ -85,6 +85,8 @@ public class NetworkResourceLoader {
                 .register("http", new PlainConnectionSocketFactory())
                 .build();
         PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+        // HttpImageManager limits concurrency per host, keep one connection per allowed request
+        connectionManager.setDefaultMaxPerRoute(HttpImageManager.MAX_REQUESTS_PER_HOST);
         HttpClients.custom().setConnectionManager(connectionManager);
         CloseableHttpClient httpClient = HttpClients.custom().setConnectionManager(connectionManager)
                 .setRoutePlanner(new SystemDefaultRoutePlanner(ProxySelector.getDefault()))
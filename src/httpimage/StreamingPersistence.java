@@ -0,0 +1,42 @@
+//  Copyright 2012 Zonghai Li. All rights reserved.
+//
+//  Redistribution and use in binary and source forms, with or without modification,
+//  are permitted for any project, commercial or otherwise, provided that the
+//  following conditions are met:
+//  
+//  Redistributions in binary form must display the copyright notice in the About
+//  view, website, and/or documentation.
+//  
+//  Redistributions of source code must retain the copyright notice, this list of
+//  conditions, and the following disclaimer.
+//
+//  THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+//  INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+//  PARTICULAR PURPOSE AND NONINFRINGEMENT OF THIRD PARTY RIGHTS. IN NO EVENT SHALL THE
+//  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+//  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+//  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THIS SOFTWARE.
+
+
+package httpimage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * Persistent storage that can take the downloaded data as a stream, so it does not
+ * have to be buffered in memory before it is stored and decoded.
+ */
+public interface StreamingPersistence {
+
+    /**
+     * Store the content of a stream, the stream is read to its end but not closed.
+     * Nothing is stored under key if reading fails.
+     * @param key
+     * @param in
+     * @return the file holding the stored data
+     */
+    public File storeStream(String key, InputStream in) throws IOException;
+}
@@ -0,0 +1,104 @@
+// Copyright 2017 Archos SA
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.archos.mediaprovider;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Listing classification: {@link ArchosMediaFile#getSimpleFileTypes(List, int[])} against the
+ * substring + map lookup done per file before, on a synthetic listing of mixed entries.
+ */
+public class ArchosMediaFileBenchmark {
+    private static final String[] NAMES = {
+            "Some.Movie.2019.1080p.BluRay.x264.mkv", "Some.Movie.2019.1080p.BluRay.x264.srt",
+            "Some.Movie.2019.1080p.BluRay.x264.nfo", "folder.jpg", "Show.S01E02.720p.HDTV.AVI",
+            "sample", "archive.tar.gz", ".hidden.mp4", "trailer.MP4", "notes.", "music.flac",
+            "a.very.long.extension.matroskavideo",
+    };
+    private static final int LISTING_SIZE = 5000;
+    private static final int ROUNDS = 200;
+
+    @Test
+    public void listingMatchesPerFileLookup() {
+        List<String> listing = listing();
+        int[] types = new int[listing.size()];
+        ArchosMediaFile.getSimpleFileTypes(listing, types);
+        assertArrayEquals(perFile(listing), types);
+    }
+
+    @Test
+    public void dottedBareExtensions() {
+        // upnp and http entries are classified from their extension with a leading dot
+        List<String> listing = new ArrayList<>();
+        listing.add(".mkv");
+        listing.add(".SRT");
+        listing.add("");
+        listing.add("mkv");
+        int[] types = new int[listing.size()];
+        assertEquals(2, ArchosMediaFile.getSimpleFileTypes(listing, types));
+        assertEquals(ArchosMediaFile.FILE_TYPE_MKV, types[0]);
+        assertEquals(ArchosMediaFile.FILE_TYPE_SRT, types[1]);
+        assertEquals(0, types[2]);
+        // a file named like an extension is not one
+        assertEquals(0, types[3]);
+    }
+
+    @Test
+    public void classifyListing() {
+        List<String> listing = listing();
+        int[] types = new int[listing.size()];
+        long sink = 0;
+        // warm up both paths before measuring
+        for (int i = 0; i < ROUNDS; i++) {
+            sink += ArchosMediaFile.getSimpleFileTypes(listing, types);
+            sink += perFile(listing).length;
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++)
+            sink += ArchosMediaFile.getSimpleFileTypes(listing, types);
+        long listed = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++)
+            sink += perFile(listing).length;
+        long perFile = System.nanoTime() - start;
+        System.out.println("classifyListing: " + LISTING_SIZE + " entries, listing "
+                + listed / ROUNDS / 1000 + "us, per file " + perFile / ROUNDS / 1000 + "us (" + sink + ")");
+    }
+
+    private static List<String> listing() {
+        List<String> listing = new ArrayList<>(LISTING_SIZE);
+        for (int i = 0; i < LISTING_SIZE; i++)
+            listing.add(i + "_" + NAMES[i % NAMES.length]);
+        return listing;
+    }
+
+    // what the scanner did for each file before the listing was classified at once
+    private static int[] perFile(List<String> listing) {
+        int[] types = new int[listing.size()];
+        for (int i = 0; i < types.length; i++) {
+            String name = listing.get(i);
+            int dot = name.lastIndexOf('.');
+            types[i] = dot < 0 ? 0 : ArchosMediaFile.getSimpleFileType(name.substring(dot + 1).toUpperCase(Locale.ROOT));
+        }
+        return types;
+    }
+}
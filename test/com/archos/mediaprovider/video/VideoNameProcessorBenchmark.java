@@ -0,0 +1,172 @@
+// Copyright 2017 Archos SA
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.archos.mediaprovider.video;
+
+import com.archos.mediaprovider.video.VideoStore.Video.VideoColumns;
+import com.archos.mediascraper.preprocess.ParseUtils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link VideoNameProcessor#extractInfoFromPath(String)} against the list by list
+ * contains() scan it replaced, on a generated corpus of names.
+ */
+public class VideoNameProcessorBenchmark {
+    private static final String[] WORDS = {
+            "The", "Movie", "Show", "S01E02", "2019", "Remastered", "in", "PROPER", "REPACK",
+            "BluRay", "WEB-DL", "GROUP", "Director's.Cut", "Top", "Gun", "tab", "bot",
+    };
+    private static final String[] SEPARATORS = { ".", " ", "_", "-", "[", "]", "(", ")", " - " };
+    private static final String[] EXTENSIONS = { ".mkv", ".avi", ".mp4" };
+    private static final int CORPUS_SIZE = 50000;
+
+    // the lists extractInfoFromPath used to scan, formats come from the maps
+    private static final String[][] STEREO_LISTS = {
+            { " tb ", " htb ", " top bot", " topbot", " tab ", " htab " },
+            { " sbs ", " hsbs ", " side by side ", " sidebyside " },
+            { " anaglyph" },
+            { " 3d " },
+    };
+    private static final int[] STEREO_TYPES = {
+            VideoColumns.ARCHOS_STEREO_3D_TB, VideoColumns.ARCHOS_STEREO_3D_SBS,
+            VideoColumns.ARCHOS_STEREO_3D_ANAGLYPH, VideoColumns.ARCHOS_STEREO_3D_UNKNOWN,
+    };
+    private static final String[][] DEFINITION_LISTS = {
+            { " 1080p " }, { " 720p " }, { " 2160p ", " 4K " },
+    };
+    private static final int[] DEFINITIONS = {
+            VideoColumns.ARCHOS_DEFINITION_1080P, VideoColumns.ARCHOS_DEFINITION_720P,
+            VideoColumns.ARCHOS_DEFINITION_4K,
+    };
+
+    @Test
+    public void corpusMatchesListScan() {
+        List<String> corpus = corpus(new Random(42));
+        for (String path : corpus) {
+            VideoNameProcessor.ExtractedInfo expected = listScan(path);
+            VideoNameProcessor.ExtractedInfo actual = VideoNameProcessor.extractInfoFromPath(path);
+            assertEquals(path, expected.stereoType, actual.stereoType);
+            assertEquals(path, expected.definition, actual.definition);
+            assertEquals(path, expected.videoFormat, actual.videoFormat);
+            assertEquals(path, expected.audioFormat, actual.audioFormat);
+        }
+    }
+
+    @Test
+    public void extractInfoFromPath() {
+        List<String> corpus = corpus(new Random(7));
+        long sink = 0;
+        // warm up both paths before measuring
+        for (String path : corpus) {
+            sink += VideoNameProcessor.extractInfoFromPath(path).definition;
+            sink += listScan(path).definition;
+        }
+        long start = System.nanoTime();
+        for (String path : corpus)
+            sink += VideoNameProcessor.extractInfoFromPath(path).definition;
+        long automaton = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (String path : corpus)
+            sink += listScan(path).definition;
+        long lists = System.nanoTime() - start;
+        System.out.println("extractInfoFromPath: " + corpus.size() + " names, automaton "
+                + automaton / corpus.size() + "ns/name, list scan " + lists / corpus.size()
+                + "ns/name (" + sink + ")");
+    }
+
+    private static List<String> corpus(Random random) {
+        List<String> tokens = new ArrayList<>();
+        for (String[] list : STEREO_LISTS) addTokens(tokens, list);
+        for (String[] list : DEFINITION_LISTS) addTokens(tokens, list);
+        for (String[] list : VideoNameProcessor.VIDEO_FORMAT_MAP.keySet()) addTokens(tokens, list);
+        for (String[] list : VideoNameProcessor.AUDIO_FORMAT_MAP.keySet()) addTokens(tokens, list);
+        List<String> corpus = new ArrayList<>(CORPUS_SIZE);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            sb.setLength(0);
+            sb.append("/storage/videos/");
+            for (int part = 0, parts = 2 + random.nextInt(8); part < parts; part++) {
+                if (part > 0)
+                    sb.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+                String token = random.nextInt(3) == 0
+                        ? tokens.get(random.nextInt(tokens.size()))
+                        : WORDS[random.nextInt(WORDS.length)];
+                sb.append(randomCase(token, random));
+            }
+            sb.append(EXTENSIONS[random.nextInt(EXTENSIONS.length)]);
+            corpus.add(sb.toString());
+        }
+        return corpus;
+    }
+
+    private static void addTokens(List<String> tokens, String[] list) {
+        for (String token : list)
+            tokens.add(token.trim());
+    }
+
+    private static String randomCase(String token, Random random) {
+        switch (random.nextInt(3)) {
+            case 0: return token.toLowerCase();
+            case 1: return token.toUpperCase();
+            default: return token;
+        }
+    }
+
+    // what extractInfoFromPath did before the automaton
+    private static VideoNameProcessor.ExtractedInfo listScan(String path) {
+        String name = path.substring(path.lastIndexOf("/"));
+        VideoNameProcessor.ExtractedInfo info = new VideoNameProcessor.ExtractedInfo();
+        name = ParseUtils.removeInnerAndOutterSeparatorJunk(name) + " ";
+        info.stereoType = VideoColumns.ARCHOS_STEREO_2D;
+        for (int i = 0; i < STEREO_LISTS.length; i++) {
+            if (stringContainsOneOf(name, STEREO_LISTS[i])) {
+                info.stereoType = STEREO_TYPES[i];
+                break;
+            }
+        }
+        info.definition = VideoColumns.ARCHOS_DEFINITION_UNKNOWN;
+        for (int i = 0; i < DEFINITION_LISTS.length; i++) {
+            if (stringContainsOneOf(name, DEFINITION_LISTS[i])) {
+                info.definition = DEFINITIONS[i];
+                break;
+            }
+        }
+        for (Map.Entry<String[], String> entry : VideoNameProcessor.VIDEO_FORMAT_MAP.entrySet()) {
+            if (stringContainsOneOf(name, entry.getKey()))
+                info.videoFormat = entry.getValue();
+        }
+        for (Map.Entry<String[], String> entry : VideoNameProcessor.AUDIO_FORMAT_MAP.entrySet()) {
+            if (stringContainsOneOf(name, entry.getKey()))
+                info.audioFormat = entry.getValue();
+        }
+        return info;
+    }
+
+    private static boolean stringContainsOneOf(String str, String[] list) {
+        String strLower = str.toLowerCase();
+        for (String e : list) {
+            if (strLower.contains(e.toLowerCase()))
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,283 @@
+// Copyright 2021 Courville Software
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.archos.mediascraper.themoviedb3;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.uwetrottmann.tmdb2.TmdbHelper;
+import com.uwetrottmann.tmdb2.entities.CastMember;
+import com.uwetrottmann.tmdb2.entities.Collection;
+import com.uwetrottmann.tmdb2.entities.Credits;
+import com.uwetrottmann.tmdb2.entities.CrewMember;
+import com.uwetrottmann.tmdb2.entities.Image;
+import com.uwetrottmann.tmdb2.entities.Images;
+import com.uwetrottmann.tmdb2.entities.Movie;
+import com.uwetrottmann.tmdb2.entities.TvEpisode;
+import com.uwetrottmann.tmdb2.entities.TvSeason;
+import com.uwetrottmann.tmdb2.entities.TvShow;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Decoding of TMDb replies (fixtures in test-resources, shaped like the movie, tv, season batch and
+ * collection replies the scrapers request) with {@link TmdbStreamingAdapterFactory} trimming or not:
+ * what the themoviedb3 parsers persist must be the same both ways, and the time and allocation of
+ * each way is printed.
+ */
+public class TmdbStreamingAdapterFactoryBenchmark {
+
+    // what MovieIdParser2, ShowIdParser, ShowIdEpisodes and MovieCollectionParser read besides credits and images
+    private static final String[] MOVIE_FIELDS = { "id", "imdb_id", "title", "original_title", "overview",
+            "tagline", "genres", "production_companies", "release_date", "belongs_to_collection", "runtime", "budget",
+            "revenue", "vote_average", "vote_count", "popularity", "poster_path", "backdrop_path", "release_dates", "videos" };
+    private static final String[] TV_SHOW_FIELDS = { "id", "name", "original_name", "overview", "type", "status",
+            "genres", "networks", "production_companies", "created_by", "first_air_date", "episode_run_time",
+            "number_of_seasons", "vote_average", "vote_count", "popularity", "poster_path", "backdrop_path",
+            "external_ids", "content_ratings" };
+    private static final String[] TV_SEASON_FIELDS = { "id", "name", "overview", "air_date", "season_number", "poster_path" };
+    private static final String[] TV_EPISODE_FIELDS = { "id", "name", "overview", "air_date", "season_number",
+            "episode_number", "still_path", "vote_average", "vote_count" };
+    private static final String[] COLLECTION_FIELDS = { "id", "name", "overview", "poster_path", "backdrop_path" };
+
+    private static final int WARMUP = 1000;
+    private static final int ROUNDS = 2000;
+
+    private static Gson sStreaming;
+    private static Gson sFull;
+    // field values compared as json, through the regular adapters
+    private static Gson sPlain;
+    private static byte[] sMovie;
+    private static byte[] sTvShow;
+    private static byte[] sSeasons;
+    private static byte[] sCollection;
+
+    private interface Parse {
+        Object parse(byte[] reply) throws Exception;
+    }
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        sStreaming = TmdbHelper.getGsonBuilder().registerTypeAdapterFactory(new TmdbStreamingAdapterFactory(true)).create();
+        sFull = TmdbHelper.getGsonBuilder().registerTypeAdapterFactory(new TmdbStreamingAdapterFactory(false)).create();
+        sPlain = TmdbHelper.getGsonBuilder().serializeNulls().create();
+        sMovie = fixture("movie.json");
+        sTvShow = fixture("tv.json");
+        sSeasons = fixture("seasons.json");
+        sCollection = fixture("collection.json");
+    }
+
+    @Test
+    public void moviePersistedFieldsMatch() {
+        Movie full = sFull.fromJson(reader(sMovie), Movie.class);
+        Movie streamed = sStreaming.fromJson(reader(sMovie), Movie.class);
+        assertFields("movie", MOVIE_FIELDS, full, streamed);
+        assertCredits("movie", full.credits, streamed.credits);
+        assertImages("movie", full.images, streamed.images);
+        // and the rest is really dropped
+        assertNull(streamed.spoken_languages);
+    }
+
+    @Test
+    public void tvShowPersistedFieldsMatch() {
+        TvShow full = sFull.fromJson(reader(sTvShow), TvShow.class);
+        TvShow streamed = sStreaming.fromJson(reader(sTvShow), TvShow.class);
+        assertFields("tv", TV_SHOW_FIELDS, full, streamed);
+        assertCredits("tv", full.credits, streamed.credits);
+        assertImages("tv", full.images, streamed.images);
+        assertEquals(full.seasons.size(), streamed.seasons.size());
+        for (int i = 0; i < full.seasons.size(); i++)
+            assertFields("tv season " + i, TV_SEASON_FIELDS, full.seasons.get(i), streamed.seasons.get(i));
+    }
+
+    @Test
+    public void seasonsBatchPersistedFieldsMatch() {
+        Map<Integer, TvSeason> full = sFull.fromJson(reader(sSeasons), TvSeasonsBatch.class).seasons;
+        Map<Integer, TvSeason> streamed = sStreaming.fromJson(reader(sSeasons), TvSeasonsBatch.class).seasons;
+        // both against what the JsonObject tree used to give
+        Map<Integer, TvSeason> tree = seasonsFromTree(sSeasons);
+        assertEquals(tree.keySet(), full.keySet());
+        assertEquals(tree.keySet(), streamed.keySet());
+        for (Integer number : tree.keySet()) {
+            assertSeason("season " + number, tree.get(number), full.get(number));
+            assertSeason("season " + number, tree.get(number), streamed.get(number));
+        }
+    }
+
+    @Test
+    public void collectionPersistedFieldsMatch() {
+        Collection full = sFull.fromJson(reader(sCollection), Collection.class);
+        Collection streamed = sStreaming.fromJson(reader(sCollection), Collection.class);
+        assertFields("collection", COLLECTION_FIELDS, full, streamed);
+        assertNull(streamed.parts);
+    }
+
+    @Test
+    public void nullReply() {
+        assertNull(sStreaming.fromJson("null", Movie.class));
+        assertNull(sStreaming.fromJson("null", TvSeasonsBatch.class));
+    }
+
+    @Test
+    public void parse() throws Exception {
+        benchmark("movie", sMovie, reply -> sFull.fromJson(reader(reply), Movie.class),
+                reply -> sStreaming.fromJson(reader(reply), Movie.class));
+        benchmark("tv show", sTvShow, reply -> sFull.fromJson(reader(reply), TvShow.class),
+                reply -> sStreaming.fromJson(reader(reply), TvShow.class));
+        benchmark("season batch (tree)", sSeasons, TmdbStreamingAdapterFactoryBenchmark::seasonsFromTree,
+                reply -> sStreaming.fromJson(reader(reply), TvSeasonsBatch.class));
+        benchmark("season batch", sSeasons, reply -> sFull.fromJson(reader(reply), TvSeasonsBatch.class),
+                reply -> sStreaming.fromJson(reader(reply), TvSeasonsBatch.class));
+    }
+
+    private static void benchmark(String name, byte[] reply, Parse full, Parse streaming) throws Exception {
+        String fullResult = measure(reply, full);
+        String streamingResult = measure(reply, streaming);
+        System.out.println(name + " (" + reply.length / 1024 + " KB): full " + fullResult
+                + ", streaming " + streamingResult);
+    }
+
+    private static String measure(byte[] reply, Parse parse) throws Exception {
+        int rounds = reply.length > 256 * 1024 ? ROUNDS / 10 : ROUNDS;
+        for (int i = 0; i < WARMUP; i++)
+            assertNotNull(parse.parse(reply));
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++)
+            parse.parse(reply);
+        long elapsed = System.nanoTime() - start;
+        allocated = allocatedBytes() - allocated;
+        return String.format("%.2f ms", elapsed / 1e6 / rounds)
+                + (allocated >= 0 ? " " + allocated / 1024 / rounds + " KB" : "");
+    }
+
+    // -1 where the jvm does not tell
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return -1;
+    }
+
+    // how ShowIdSeasonSearch decoded the batch before TvSeasonsBatch
+    private static Map<Integer, TvSeason> seasonsFromTree(byte[] reply) {
+        JsonObject body = sFull.fromJson(reader(reply), JsonObject.class);
+        Map<Integer, TvSeason> seasons = new HashMap<>();
+        for (String name : body.keySet()) {
+            if (name.startsWith(TvSeasonsBatch.PREFIX))
+                seasons.put(Integer.parseInt(name.substring(TvSeasonsBatch.PREFIX.length())),
+                        sFull.fromJson(body.get(name), TvSeason.class));
+        }
+        return seasons;
+    }
+
+    private static void assertSeason(String what, TvSeason expected, TvSeason actual) {
+        assertFields(what, TV_SEASON_FIELDS, expected, actual);
+        assertEquals(what, expected.episodes.size(), actual.episodes.size());
+        for (int i = 0; i < expected.episodes.size(); i++) {
+            TvEpisode expectedEpisode = expected.episodes.get(i);
+            TvEpisode actualEpisode = actual.episodes.get(i);
+            String episode = what + " episode " + i;
+            assertFields(episode, TV_EPISODE_FIELDS, expectedEpisode, actualEpisode);
+            assertEquals(episode, cast(expectedEpisode.guest_stars), cast(actualEpisode.guest_stars));
+            assertEquals(episode, crew(expectedEpisode.crew), crew(actualEpisode.crew));
+        }
+    }
+
+    private static void assertFields(String what, String[] fields, Object expected, Object actual) {
+        for (String field : fields) {
+            try {
+                assertEquals(what + "." + field, sPlain.toJson(expected.getClass().getField(field).get(expected)),
+                        sPlain.toJson(actual.getClass().getField(field).get(actual)));
+            } catch (ReflectiveOperationException e) {
+                throw new AssertionError(what + "." + field, e);
+            }
+        }
+    }
+
+    private static void assertCredits(String what, Credits expected, Credits actual) {
+        assertEquals(what + " cast", cast(expected.cast), cast(actual.cast));
+        assertEquals(what + " guest stars", cast(expected.guest_stars), cast(actual.guest_stars));
+        assertEquals(what + " crew", crew(expected.crew), crew(actual.crew));
+    }
+
+    private static void assertImages(String what, Images expected, Images actual) {
+        assertEquals(what + " posters", images(expected.posters), images(actual.posters));
+        assertEquals(what + " backdrops", images(expected.backdrops), images(actual.backdrops));
+    }
+
+    private static String cast(List<CastMember> cast) {
+        if (cast == null) return null;
+        StringBuilder sb = new StringBuilder();
+        for (CastMember member : cast)
+            sb.append(member.name).append('|').append(member.character).append('|').append(member.profile_path).append('\n');
+        return sb.toString();
+    }
+
+    // only directors and writers are persisted
+    private static String crew(List<CrewMember> crew) {
+        if (crew == null) return null;
+        StringBuilder sb = new StringBuilder();
+        for (CrewMember member : crew) {
+            if ("Director".equals(member.job) || "Writer".equals(member.job))
+                sb.append(member.job).append('|').append(member.name).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // parsers read the vote unboxed, a missing one counts as 0
+    private static String images(List<Image> images) {
+        if (images == null) return null;
+        StringBuilder sb = new StringBuilder();
+        for (Image image : images)
+            sb.append(image.file_path).append('|').append(image.iso_639_1).append('|')
+                    .append(image.vote_average != null ? image.vote_average : 0.0).append('\n');
+        return sb.toString();
+    }
+
+    private static Reader reader(byte[] reply) {
+        return new InputStreamReader(new ByteArrayInputStream(reply), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] fixture(String name) throws IOException {
+        try (InputStream in = TmdbStreamingAdapterFactoryBenchmark.class.getResourceAsStream(name)) {
+            if (in == null)
+                throw new IOException("missing fixture " + name);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0)
+                out.write(buffer, 0, read);
+            return out.toByteArray();
+        }
+    }
+}